@@ -21,17 +21,46 @@ import com.fasterxml.jackson.databind.jsontype.NamedType;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.google.common.collect.ImmutableList;
 import com.google.inject.Binder;
+import com.google.inject.Inject;
+import io.imply.druid.example.aggregator.ExampleBucketedSumAggregatorFactory;
+import io.imply.druid.example.aggregator.ExampleBucketedSumRollupPostAggregator;
+import io.imply.druid.example.aggregator.ExampleBucketedSumSerde;
+import io.imply.druid.example.aggregator.ExampleDistinctSumAggregatorFactory;
+import io.imply.druid.example.aggregator.ExampleHeavyHittersAggregatorFactory;
+import io.imply.druid.example.aggregator.ExampleHeavyHittersSerde;
+import io.imply.druid.example.aggregator.ExampleMultiSumAggregatorFactory;
+import io.imply.druid.example.aggregator.ExampleSampledSumAggregatorFactory;
 import io.imply.druid.example.aggregator.ExampleSumAggregatorFactory;
+import io.imply.druid.example.aggregator.ExampleSumMonitor;
+import io.imply.druid.example.calcite.aggregation.ExampleHeavyHittersSqlAggregator;
+import io.imply.druid.example.calcite.aggregation.ExampleSampledSumSqlAggregator;
 import io.imply.druid.example.calcite.aggregation.ExampleSumSqlAggregator;
 import io.imply.druid.example.extraction.ExampleExtractionFn;
+import io.imply.druid.example.extraction.ExamplePrefixDimFilter;
+import io.imply.druid.example.extraction.ExamplePrefixDimensionSpec;
+import io.imply.druid.example.extraction.ExamplePrefixVirtualColumn;
 import io.imply.druid.example.indexer.ExampleByteBufferInputRowParser;
 import org.apache.druid.initialization.DruidModule;
+import org.apache.druid.segment.serde.ComplexMetrics;
+import org.apache.druid.server.metrics.MetricsModule;
 import org.apache.druid.sql.guice.SqlBindings;
 
 import java.util.List;
+import java.util.Properties;
 
 public class ExampleExtensionModule implements DruidModule
 {
+  // Runtime property that turns on ExampleSumMonitor, which emits "example/sum/*" metrics.
+  public static final String SUM_METRICS_PROPERTY = "druid.example.sum.metrics.enabled";
+
+  private Properties properties = new Properties();
+
+  @Inject
+  public void setProperties(Properties properties)
+  {
+    this.properties = properties;
+  }
+
   @Override
   public List<? extends Module> getJacksonModules()
   {
@@ -39,7 +68,19 @@ public class ExampleExtensionModule implements DruidModule
     return ImmutableList.of(
         new SimpleModule(getClass().getSimpleName()).registerSubtypes(
             new NamedType(ExampleSumAggregatorFactory.class, ExampleSumAggregatorFactory.TYPE_NAME),
+            new NamedType(ExampleMultiSumAggregatorFactory.class, ExampleMultiSumAggregatorFactory.TYPE_NAME),
+            new NamedType(ExampleDistinctSumAggregatorFactory.class, ExampleDistinctSumAggregatorFactory.TYPE_NAME),
+            new NamedType(ExampleHeavyHittersAggregatorFactory.class, ExampleHeavyHittersAggregatorFactory.TYPE_NAME),
+            new NamedType(ExampleSampledSumAggregatorFactory.class, ExampleSampledSumAggregatorFactory.TYPE_NAME),
+            new NamedType(ExampleBucketedSumAggregatorFactory.class, ExampleBucketedSumAggregatorFactory.TYPE_NAME),
+            new NamedType(
+                ExampleBucketedSumRollupPostAggregator.class,
+                ExampleBucketedSumRollupPostAggregator.TYPE_NAME
+            ),
             new NamedType(ExampleExtractionFn.class, ExampleExtractionFn.TYPE_NAME),
+            new NamedType(ExamplePrefixDimensionSpec.class, ExamplePrefixDimensionSpec.TYPE_NAME),
+            new NamedType(ExamplePrefixDimFilter.class, ExamplePrefixDimFilter.TYPE_NAME),
+            new NamedType(ExamplePrefixVirtualColumn.class, ExamplePrefixVirtualColumn.TYPE_NAME),
             new NamedType(ExampleByteBufferInputRowParser.class, ExampleByteBufferInputRowParser.TYPE_NAME)
         )
     );
@@ -48,6 +89,16 @@ public class ExampleExtensionModule implements DruidModule
   @Override
   public void configure(Binder binder)
   {
+    // Complex types need a serde, so their values can be read back from segments and query results.
+    ComplexMetrics.registerSerde(ExampleHeavyHittersAggregatorFactory.TYPE_NAME, new ExampleHeavyHittersSerde());
+    ComplexMetrics.registerSerde(ExampleBucketedSumAggregatorFactory.TYPE_NAME, new ExampleBucketedSumSerde());
+
+    if (Boolean.parseBoolean(properties.getProperty(SUM_METRICS_PROPERTY))) {
+      MetricsModule.register(binder, ExampleSumMonitor.class);
+    }
+
     SqlBindings.addAggregator(binder, ExampleSumSqlAggregator.class);
+    SqlBindings.addAggregator(binder, ExampleHeavyHittersSqlAggregator.class);
+    SqlBindings.addAggregator(binder, ExampleSampledSumSqlAggregator.class);
   }
 }
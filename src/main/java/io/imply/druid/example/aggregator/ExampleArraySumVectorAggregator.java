@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.VectorAggregator;
+import org.apache.druid.segment.vector.VectorObjectSelector;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * Vectorized version of {@link ExampleSumBufferAggregator} for array inputs, with the same buffer layout: a single
+ * double per slot. Each row adds the sum of its array elements.
+ */
+public class ExampleArraySumVectorAggregator implements VectorAggregator
+{
+  private final VectorObjectSelector selector;
+
+  ExampleArraySumVectorAggregator(VectorObjectSelector selector)
+  {
+    this.selector = selector;
+  }
+
+  @Override
+  public void init(final ByteBuffer buf, final int position)
+  {
+    buf.putDouble(position, 0.0d);
+  }
+
+  @Override
+  public void aggregate(final ByteBuffer buf, final int position, final int startRow, final int endRow)
+  {
+    final Object[] vector = selector.getObjectVector();
+
+    double sum = 0;
+    for (int i = startRow; i < endRow; i++) {
+      sum += ExampleSumAggregator.sumArray(vector[i]);
+    }
+
+    buf.putDouble(position, buf.getDouble(position) + sum);
+  }
+
+  @Override
+  public void aggregate(
+      final ByteBuffer buf,
+      final int numRows,
+      final int[] positions,
+      @Nullable final int[] rows,
+      final int positionOffset
+  )
+  {
+    final Object[] vector = selector.getObjectVector();
+
+    for (int i = 0; i < numRows; i++) {
+      final int position = positions[i] + positionOffset;
+      final double arraySum = ExampleSumAggregator.sumArray(vector[rows != null ? rows[i] : i]);
+      buf.putDouble(position, buf.getDouble(position) + arraySum);
+    }
+  }
+
+  @Override
+  public Object get(final ByteBuffer buf, final int position)
+  {
+    return buf.getDouble(position);
+  }
+
+  @Override
+  public void close()
+  {
+    // no resources to cleanup
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.ObjectAggregateCombiner;
+import org.apache.druid.segment.ColumnValueSelector;
+
+import javax.annotation.Nullable;
+
+/**
+ * Merges exampleBucketedSum values while merging segments (rollup and compaction). Sums read from the selector are
+ * never changed: merging makes new ones.
+ */
+public class ExampleBucketedSumAggregateCombiner extends ObjectAggregateCombiner<ExampleBucketedSums>
+{
+  @Nullable
+  private ExampleBucketedSums sums;
+
+  @Override
+  public void reset(ColumnValueSelector selector)
+  {
+    final ExampleBucketedSums other = ExampleBucketedSumAggregatorFactory.toSums(selector.getObject());
+    sums = other == null ? null : other.copy();
+  }
+
+  @Override
+  public void fold(ColumnValueSelector selector)
+  {
+    final ExampleBucketedSums other = ExampleBucketedSumAggregatorFactory.toSums(selector.getObject());
+    if (other == null) {
+      return;
+    }
+    sums = sums == null ? other.copy() : ExampleBucketedSums.merge(sums, other);
+  }
+
+  @Nullable
+  @Override
+  public ExampleBucketedSums getObject()
+  {
+    return sums;
+  }
+
+  @Override
+  public Class<ExampleBucketedSums> classOfObject()
+  {
+    return ExampleBucketedSums.class;
+  }
+}
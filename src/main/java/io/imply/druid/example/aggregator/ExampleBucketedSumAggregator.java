@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.Aggregator;
+import org.apache.druid.segment.BaseDoubleColumnValueSelector;
+import org.apache.druid.segment.BaseLongColumnValueSelector;
+import org.apache.druid.segment.BaseObjectColumnValueSelector;
+
+/**
+ * Builds {@link ExampleBucketedSums} on heap.
+ */
+public abstract class ExampleBucketedSumAggregator implements Aggregator
+{
+  protected ExampleBucketedSums sums = new ExampleBucketedSums();
+
+  /**
+   * Returns a copy, since the sums keep changing as rows are aggregated, like the buffer aggregators do.
+   */
+  @Override
+  public Object get()
+  {
+    return sums.copy();
+  }
+
+  @Override
+  public float getFloat()
+  {
+    throw new UnsupportedOperationException("ExampleBucketedSumAggregator does not support getFloat()");
+  }
+
+  @Override
+  public long getLong()
+  {
+    throw new UnsupportedOperationException("ExampleBucketedSumAggregator does not support getLong()");
+  }
+
+  @Override
+  public void close()
+  {
+    // no resources to cleanup
+  }
+
+  static final class FieldInput extends ExampleBucketedSumAggregator
+  {
+    private final BaseLongColumnValueSelector timeSelector;
+    private final BaseDoubleColumnValueSelector selector;
+    private final ExampleBucketedSumBucketer bucketer;
+
+    FieldInput(
+        BaseLongColumnValueSelector timeSelector,
+        BaseDoubleColumnValueSelector selector,
+        ExampleBucketedSumBucketer bucketer
+    )
+    {
+      this.timeSelector = timeSelector;
+      this.selector = selector;
+      this.bucketer = bucketer;
+    }
+
+    @Override
+    public void aggregate()
+    {
+      if (!selector.isNull()) {
+        sums.add(bucketer.bucketStart(timeSelector.getLong()), selector.getDouble());
+      }
+    }
+  }
+
+  static final class SumsInput extends ExampleBucketedSumAggregator
+  {
+    private final BaseObjectColumnValueSelector<?> selector;
+
+    SumsInput(BaseObjectColumnValueSelector<?> selector)
+    {
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate()
+    {
+      final ExampleBucketedSums other = ExampleBucketedSumAggregatorFactory.toSums(selector.getObject());
+      if (other != null) {
+        sums = ExampleBucketedSums.merge(sums, other);
+      }
+    }
+  }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Doubles;
+import org.apache.druid.java.util.common.IAE;
+import org.apache.druid.java.util.common.granularity.Granularity;
+import org.apache.druid.query.aggregation.AggregateCombiner;
+import org.apache.druid.query.aggregation.Aggregator;
+import org.apache.druid.query.aggregation.AggregatorFactory;
+import org.apache.druid.query.aggregation.AggregatorFactoryNotMergeableException;
+import org.apache.druid.query.aggregation.BufferAggregator;
+import org.apache.druid.query.aggregation.VectorAggregator;
+import org.apache.druid.query.cache.CacheKeyBuilder;
+import org.apache.druid.segment.ColumnInspector;
+import org.apache.druid.segment.ColumnSelectorFactory;
+import org.apache.druid.segment.column.ColumnCapabilities;
+import org.apache.druid.segment.column.ColumnHolder;
+import org.apache.druid.segment.column.ColumnType;
+import org.apache.druid.segment.vector.VectorColumnSelectorFactory;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Sums a column per time bucket of "granularity", such as per minute. The intermediate value is
+ * {@link ExampleBucketedSums}, which keeps a partial sum for each bucket with rows, so that one scan can be rolled up
+ * to any coarser granularity later: in an "exampleBucketedSumRollup" post-aggregator, or by the caller. The result
+ * lists the buckets in time order.
+ *
+ * Buffer aggregators keep the sums in a fixed-size slot of the aggregation buffer, see
+ * {@link ExampleBucketedSumBufferHelper}.
+ */
+public class ExampleBucketedSumAggregatorFactory extends AggregatorFactory
+{
+  // Type name for JSON, and for the complex type of the intermediate value.
+  public static final String TYPE_NAME = "exampleBucketedSum";
+  public static final ColumnType TYPE = ColumnType.ofComplex(TYPE_NAME);
+
+  public static final int DEFAULT_MAX_BUFFER_ENTRIES = 256;
+
+  // Upper bound for "maxBufferEntries", to keep the buffer slot size reasonable.
+  private static final int MAX_MAX_BUFFER_ENTRIES = 1 << 16;
+
+  // Second byte of our cache keys; see ExampleDistinctSumAggregatorFactory for the others.
+  private static final byte CACHE_KEY_SITE_ID = (byte) 0x05;
+
+  private static final Comparator<Object> COMPARATOR = new Ordering<Object>()
+  {
+    @Override
+    public int compare(Object o, Object o1)
+    {
+      return Doubles.compare(toSums(o).getTotal(), toSums(o1).getTotal());
+    }
+  }.nullsFirst();
+
+  private final String name;
+  private final String fieldName;
+  private final Granularity granularity;
+  private final int maxBufferEntries;
+  private final boolean combine;
+
+  /**
+   * @param granularity      size of the buckets. Pick the finest granularity that will be looked at, since buckets
+   *                         can only be rolled up to coarser ones.
+   * @param maxBufferEntries number of buckets a buffer aggregator keeps in the aggregation buffer before moving them
+   *                         on heap. Does not change results, so it is not part of the cache key.
+   * @param combine          if true, this is a combining factory: it reads bucketed sums from the column named "name",
+   *                         rather than reading "fieldName".
+   */
+  @JsonCreator
+  public ExampleBucketedSumAggregatorFactory(
+      @JsonProperty("name") final String name,
+      @JsonProperty("fieldName") final String fieldName,
+      @JsonProperty("granularity") final Granularity granularity,
+      @JsonProperty("maxBufferEntries") @Nullable final Integer maxBufferEntries,
+      @JsonProperty("combine") @Nullable final Boolean combine
+  )
+  {
+    this.name = Preconditions.checkNotNull(name, "name");
+    this.fieldName = Preconditions.checkNotNull(fieldName, "fieldName");
+    this.granularity = Preconditions.checkNotNull(granularity, "granularity");
+    this.maxBufferEntries = maxBufferEntries == null ? DEFAULT_MAX_BUFFER_ENTRIES : maxBufferEntries;
+    Preconditions.checkArgument(
+        this.maxBufferEntries > 0 && this.maxBufferEntries <= MAX_MAX_BUFFER_ENTRIES,
+        "maxBufferEntries must be between 1 and %s",
+        MAX_MAX_BUFFER_ENTRIES
+    );
+    this.combine = combine != null && combine;
+  }
+
+  public ExampleBucketedSumAggregatorFactory(final String name, final String fieldName, final Granularity granularity)
+  {
+    this(name, fieldName, granularity, null, null);
+  }
+
+  @Override
+  public Aggregator factorize(ColumnSelectorFactory metricFactory)
+  {
+    if (combine) {
+      return new ExampleBucketedSumAggregator.SumsInput(metricFactory.makeColumnValueSelector(name));
+    }
+    return new ExampleBucketedSumAggregator.FieldInput(
+        metricFactory.makeColumnValueSelector(ColumnHolder.TIME_COLUMN_NAME),
+        metricFactory.makeColumnValueSelector(fieldName),
+        new ExampleBucketedSumBucketer(granularity)
+    );
+  }
+
+  @Override
+  public BufferAggregator factorizeBuffered(ColumnSelectorFactory metricFactory)
+  {
+    final ExampleBucketedSumBufferHelper helper = new ExampleBucketedSumBufferHelper(maxBufferEntries);
+    if (combine) {
+      return new ExampleBucketedSumBufferAggregator.SumsInput(metricFactory.makeColumnValueSelector(name), helper);
+    }
+    return new ExampleBucketedSumBufferAggregator.FieldInput(
+        metricFactory.makeColumnValueSelector(ColumnHolder.TIME_COLUMN_NAME),
+        metricFactory.makeColumnValueSelector(fieldName),
+        new ExampleBucketedSumBucketer(granularity),
+        helper
+    );
+  }
+
+  @Override
+  public boolean canVectorize(ColumnInspector columnInspector)
+  {
+    if (combine) {
+      return false;
+    }
+    final ColumnCapabilities capabilities = columnInspector.getColumnCapabilities(fieldName);
+    return capabilities == null || capabilities.isNumeric();
+  }
+
+  @Override
+  public VectorAggregator factorizeVector(VectorColumnSelectorFactory selectorFactory)
+  {
+    return new ExampleBucketedSumVectorAggregator(
+        selectorFactory.makeValueSelector(ColumnHolder.TIME_COLUMN_NAME),
+        selectorFactory.makeValueSelector(fieldName),
+        new ExampleBucketedSumBucketer(granularity),
+        new ExampleBucketedSumBufferHelper(maxBufferEntries)
+    );
+  }
+
+  @Override
+  public Comparator getComparator()
+  {
+    return COMPARATOR;
+  }
+
+  @Override
+  public Object combine(Object lhs, Object rhs)
+  {
+    if (rhs == null) {
+      return lhs;
+    }
+    if (lhs == null) {
+      return rhs;
+    }
+    return ExampleBucketedSums.merge(toSums(lhs), toSums(rhs));
+  }
+
+  @Override
+  public AggregateCombiner makeAggregateCombiner()
+  {
+    return new ExampleBucketedSumAggregateCombiner();
+  }
+
+  @Override
+  public AggregatorFactory getCombiningFactory()
+  {
+    return new ExampleBucketedSumAggregatorFactory(name, fieldName, granularity, maxBufferEntries, true);
+  }
+
+  @Override
+  public AggregatorFactory getMergingFactory(AggregatorFactory other) throws AggregatorFactoryNotMergeableException
+  {
+    if (other.getName().equals(this.getName()) && this.getClass() == other.getClass()) {
+      // Sums of different granularities can't be told apart once merged, so they don't merge.
+      final ExampleBucketedSumAggregatorFactory that = (ExampleBucketedSumAggregatorFactory) other;
+      if (granularity.equals(that.granularity)) {
+        return new ExampleBucketedSumAggregatorFactory(
+            name,
+            fieldName,
+            granularity,
+            Math.max(maxBufferEntries, that.maxBufferEntries),
+            true
+        );
+      }
+    }
+    throw new AggregatorFactoryNotMergeableException(this, other);
+  }
+
+  @Override
+  public AggregatorFactory withName(String newName)
+  {
+    return new ExampleBucketedSumAggregatorFactory(newName, fieldName, granularity, maxBufferEntries, combine);
+  }
+
+  @Override
+  public List<AggregatorFactory> getRequiredColumns()
+  {
+    return ImmutableList.of(
+        new ExampleBucketedSumAggregatorFactory(fieldName, fieldName, granularity, maxBufferEntries, false)
+    );
+  }
+
+  @Override
+  public Object deserialize(Object object)
+  {
+    return toSums(object);
+  }
+
+  @Nullable
+  @Override
+  public Object finalizeComputation(@Nullable Object object)
+  {
+    return object == null ? null : toSums(object).toResult();
+  }
+
+  @JsonProperty
+  public String getFieldName()
+  {
+    return fieldName;
+  }
+
+  @JsonProperty
+  public Granularity getGranularity()
+  {
+    return granularity;
+  }
+
+  @JsonProperty
+  public int getMaxBufferEntries()
+  {
+    return maxBufferEntries;
+  }
+
+  @JsonProperty
+  @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+  public boolean isCombine()
+  {
+    return combine;
+  }
+
+  @Override
+  @JsonProperty
+  public String getName()
+  {
+    return name;
+  }
+
+  @Override
+  public List<String> requiredFields()
+  {
+    return combine ? ImmutableList.of(name) : ImmutableList.of(ColumnHolder.TIME_COLUMN_NAME, fieldName);
+  }
+
+  @Override
+  public byte[] getCacheKey()
+  {
+    return new CacheKeyBuilder((byte) 0xFF)
+        .appendByte(CACHE_KEY_SITE_ID)
+        .appendBoolean(combine)
+        .appendCacheable(granularity)
+        .appendString(combine ? name : fieldName)
+        .build();
+  }
+
+  @Override
+  public ColumnType getIntermediateType()
+  {
+    return TYPE;
+  }
+
+  @Override
+  public ColumnType getResultType()
+  {
+    return ColumnType.NESTED_DATA;
+  }
+
+  @Override
+  public int getMaxIntermediateSize()
+  {
+    return ExampleBucketedSumBufferHelper.getBufferSize(maxBufferEntries);
+  }
+
+  /**
+   * Reads bucketed sums in any of the forms they can take: the object itself from aggregators, base64 strings from
+   * JSON, or bytes.
+   */
+  @Nullable
+  static ExampleBucketedSums toSums(@Nullable Object object)
+  {
+    if (object == null || object instanceof ExampleBucketedSums) {
+      return (ExampleBucketedSums) object;
+    } else if (object instanceof String) {
+      return ExampleBucketedSums.fromBase64((String) object);
+    } else if (object instanceof byte[]) {
+      return ExampleBucketedSums.fromBytes(ByteBuffer.wrap((byte[]) object));
+    } else if (object instanceof ByteBuffer) {
+      return ExampleBucketedSums.fromBytes(((ByteBuffer) object).duplicate());
+    }
+    throw new IAE("Cannot read %s from [%s]", TYPE_NAME, object.getClass().getName());
+  }
+
+  @Override
+  public boolean equals(final Object o)
+  {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    final ExampleBucketedSumAggregatorFactory that = (ExampleBucketedSumAggregatorFactory) o;
+    return maxBufferEntries == that.maxBufferEntries &&
+           combine == that.combine &&
+           Objects.equals(name, that.name) &&
+           Objects.equals(fieldName, that.fieldName) &&
+           Objects.equals(granularity, that.granularity);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return Objects.hash(name, fieldName, granularity, maxBufferEntries, combine);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "ExampleBucketedSumAggregatorFactory{" +
+           "name='" + name + '\'' +
+           ", fieldName='" + fieldName + '\'' +
+           ", granularity=" + granularity +
+           ", maxBufferEntries=" + maxBufferEntries +
+           ", combine=" + combine +
+           '}';
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.java.util.common.granularity.Granularity;
+
+/**
+ * Finds the bucket of each row for the "exampleBucketedSum" aggregators. Rows usually arrive in time order, so the
+ * bounds of the last bucket are kept, and the granularity is only asked again when a row falls outside them.
+ */
+final class ExampleBucketedSumBucketer
+{
+  private final Granularity granularity;
+
+  // Bucket of the last row, as [start, end). Starts out empty, so the first row always computes its bucket.
+  private long start = 0;
+  private long end = 0;
+
+  ExampleBucketedSumBucketer(Granularity granularity)
+  {
+    this.granularity = granularity;
+  }
+
+  long bucketStart(long time)
+  {
+    if (time < start || time >= end) {
+      start = granularity.bucketStart(time);
+      end = granularity.increment(start);
+    }
+    return start;
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.BufferAggregator;
+import org.apache.druid.segment.BaseDoubleColumnValueSelector;
+import org.apache.druid.segment.BaseLongColumnValueSelector;
+import org.apache.druid.segment.BaseObjectColumnValueSelector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Buffer-based version of {@link ExampleBucketedSumAggregator}. The slot layout is described in
+ * {@link ExampleBucketedSumBufferHelper}.
+ */
+public abstract class ExampleBucketedSumBufferAggregator implements BufferAggregator
+{
+  protected final ExampleBucketedSumBufferHelper helper;
+
+  ExampleBucketedSumBufferAggregator(ExampleBucketedSumBufferHelper helper)
+  {
+    this.helper = helper;
+  }
+
+  @Override
+  public final void init(final ByteBuffer buf, final int position)
+  {
+    helper.init(buf, position);
+  }
+
+  @Override
+  public final Object get(ByteBuffer buf, int position)
+  {
+    return helper.get(buf, position);
+  }
+
+  @Override
+  public final float getFloat(ByteBuffer buf, int position)
+  {
+    throw new UnsupportedOperationException("ExampleBucketedSumBufferAggregator does not support getFloat()");
+  }
+
+  @Override
+  public final long getLong(ByteBuffer buf, int position)
+  {
+    throw new UnsupportedOperationException("ExampleBucketedSumBufferAggregator does not support getLong()");
+  }
+
+  @Override
+  public final void relocate(int oldPosition, int newPosition, ByteBuffer oldBuffer, ByteBuffer newBuffer)
+  {
+    helper.relocate(oldPosition, newPosition, oldBuffer, newBuffer);
+  }
+
+  @Override
+  public final void close()
+  {
+    helper.close();
+  }
+
+  static final class FieldInput extends ExampleBucketedSumBufferAggregator
+  {
+    private final BaseLongColumnValueSelector timeSelector;
+    private final BaseDoubleColumnValueSelector selector;
+    private final ExampleBucketedSumBucketer bucketer;
+
+    FieldInput(
+        BaseLongColumnValueSelector timeSelector,
+        BaseDoubleColumnValueSelector selector,
+        ExampleBucketedSumBucketer bucketer,
+        ExampleBucketedSumBufferHelper helper
+    )
+    {
+      super(helper);
+      this.timeSelector = timeSelector;
+      this.selector = selector;
+      this.bucketer = bucketer;
+    }
+
+    @Override
+    public void aggregate(ByteBuffer buf, int position)
+    {
+      if (!selector.isNull()) {
+        helper.add(buf, position, bucketer.bucketStart(timeSelector.getLong()), selector.getDouble());
+      }
+    }
+  }
+
+  static final class SumsInput extends ExampleBucketedSumBufferAggregator
+  {
+    private final BaseObjectColumnValueSelector<?> selector;
+
+    SumsInput(BaseObjectColumnValueSelector<?> selector, ExampleBucketedSumBufferHelper helper)
+    {
+      super(helper);
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate(ByteBuffer buf, int position)
+    {
+      final ExampleBucketedSums other = ExampleBucketedSumAggregatorFactory.toSums(selector.getObject());
+      if (other != null) {
+        helper.merge(buf, position, other);
+      }
+    }
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+
+/**
+ * {@link ExampleBucketedSums} stored in an aggregation buffer, shared by {@link ExampleBucketedSumBufferAggregator} and
+ * {@link ExampleBucketedSumVectorAggregator}.
+ *
+ * Each slot starts with an int holding the number of buckets, followed by fixed-size arrays of "maxEntries" bucket
+ * starts and sums, ordered by bucket start. New buckets usually come after the last one, so that one is checked before
+ * searching. When a slot outgrows "maxEntries" buckets, its sums move on heap and the count is set to {@link #SPILLED}.
+ */
+final class ExampleBucketedSumBufferHelper
+{
+  private static final int SPILLED = -1;
+  private static final int HEADER_BYTES = Integer.BYTES;
+
+  private final int maxEntries;
+  private final int sumsOffset;
+
+  // Sums that outgrew their slot, by buffer and position, as in ExampleDistinctSumBufferHelper.
+  private final IdentityHashMap<ByteBuffer, Int2ObjectMap<ExampleBucketedSums>> spilled = new IdentityHashMap<>();
+
+  ExampleBucketedSumBufferHelper(int maxEntries)
+  {
+    this.maxEntries = maxEntries;
+    this.sumsOffset = HEADER_BYTES + maxEntries * Long.BYTES;
+  }
+
+  static int getBufferSize(int maxEntries)
+  {
+    return HEADER_BYTES + maxEntries * (Long.BYTES + Double.BYTES);
+  }
+
+  void init(final ByteBuffer buf, final int position)
+  {
+    removeSpilled(buf, position);
+    // Entries past the count are never read, so only the count needs resetting.
+    buf.putInt(position, 0);
+  }
+
+  void add(final ByteBuffer buf, final int position, final long bucketStart, final double value)
+  {
+    final int count = buf.getInt(position);
+    if (count == SPILLED) {
+      spilled.get(buf).get(position).add(bucketStart, value);
+      return;
+    }
+
+    if (count > 0 && buf.getLong(startOffset(position, count - 1)) == bucketStart) {
+      addToSum(buf, position, count - 1, value);
+      return;
+    }
+
+    final int i = search(buf, position, count, bucketStart);
+    if (i >= 0) {
+      addToSum(buf, position, i, value);
+    } else if (count < maxEntries) {
+      final int insertAt = -i - 1;
+      for (int j = count; j > insertAt; j--) {
+        buf.putLong(startOffset(position, j), buf.getLong(startOffset(position, j - 1)));
+        buf.putDouble(sumOffset(position, j), buf.getDouble(sumOffset(position, j - 1)));
+      }
+      buf.putLong(startOffset(position, insertAt), bucketStart);
+      buf.putDouble(sumOffset(position, insertAt), value);
+      buf.putInt(position, count + 1);
+    } else {
+      spill(buf, position).add(bucketStart, value);
+    }
+  }
+
+  /**
+   * Merges other sums into the slot, moving it on heap if the result has too many buckets.
+   */
+  void merge(final ByteBuffer buf, final int position, final ExampleBucketedSums other)
+  {
+    if (buf.getInt(position) == SPILLED) {
+      final Int2ObjectMap<ExampleBucketedSums> slots = spilled.get(buf);
+      slots.put(position, ExampleBucketedSums.merge(slots.get(position), other));
+      return;
+    }
+
+    final ExampleBucketedSums merged = ExampleBucketedSums.merge(get(buf, position), other);
+    if (merged.size() <= maxEntries) {
+      for (int i = 0; i < merged.size(); i++) {
+        buf.putLong(startOffset(position, i), merged.getBucketStart(i));
+        buf.putDouble(sumOffset(position, i), merged.getSum(i));
+      }
+      buf.putInt(position, merged.size());
+    } else {
+      spilled.computeIfAbsent(buf, b -> new Int2ObjectOpenHashMap<>()).put(position, merged);
+      buf.putInt(position, SPILLED);
+    }
+  }
+
+  ExampleBucketedSums get(final ByteBuffer buf, final int position)
+  {
+    final int count = buf.getInt(position);
+    if (count == SPILLED) {
+      // Copied, since the slot keeps changing as more rows are aggregated.
+      return spilled.get(buf).get(position).copy();
+    }
+
+    final ExampleBucketedSums sums = new ExampleBucketedSums(Math.max(count, 1));
+    for (int i = 0; i < count; i++) {
+      sums.append(buf.getLong(startOffset(position, i)), buf.getDouble(sumOffset(position, i)));
+    }
+    return sums;
+  }
+
+  void relocate(int oldPosition, int newPosition, ByteBuffer oldBuffer, ByteBuffer newBuffer)
+  {
+    // The buffer contents have already been copied; only on-heap sums need to follow.
+    final ExampleBucketedSums sums = removeSpilled(oldBuffer, oldPosition);
+    if (sums != null) {
+      spilled.computeIfAbsent(newBuffer, b -> new Int2ObjectOpenHashMap<>()).put(newPosition, sums);
+    }
+  }
+
+  void close()
+  {
+    spilled.clear();
+  }
+
+  private ExampleBucketedSums spill(final ByteBuffer buf, final int position)
+  {
+    final ExampleBucketedSums sums = get(buf, position);
+    spilled.computeIfAbsent(buf, b -> new Int2ObjectOpenHashMap<>()).put(position, sums);
+    buf.putInt(position, SPILLED);
+    return sums;
+  }
+
+  /**
+   * Binary search over the bucket starts of the slot, with the same return value as
+   * {@link java.util.Arrays#binarySearch(long[], long)}.
+   */
+  private static int search(final ByteBuffer buf, final int position, final int count, final long bucketStart)
+  {
+    int low = 0;
+    int high = count - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final long midStart = buf.getLong(startOffset(position, mid));
+      if (midStart < bucketStart) {
+        low = mid + 1;
+      } else if (midStart > bucketStart) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  private void addToSum(final ByteBuffer buf, final int position, final int i, final double value)
+  {
+    final int offset = sumOffset(position, i);
+    buf.putDouble(offset, buf.getDouble(offset) + value);
+  }
+
+  private static int startOffset(final int position, final int i)
+  {
+    return position + HEADER_BYTES + i * Long.BYTES;
+  }
+
+  private int sumOffset(final int position, final int i)
+  {
+    return position + sumsOffset + i * Double.BYTES;
+  }
+
+  @Nullable
+  private ExampleBucketedSums removeSpilled(final ByteBuffer buf, final int position)
+  {
+    final Int2ObjectMap<ExampleBucketedSums> slots = spilled.get(buf);
+    if (slots == null) {
+      return null;
+    }
+    final ExampleBucketedSums sums = slots.remove(position);
+    if (slots.isEmpty()) {
+      spilled.remove(buf);
+    }
+    return sums;
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import org.apache.druid.java.util.common.IAE;
+import org.apache.druid.java.util.common.granularity.Granularity;
+import org.apache.druid.query.aggregation.AggregatorFactory;
+import org.apache.druid.query.aggregation.PostAggregator;
+import org.apache.druid.query.aggregation.post.FieldAccessPostAggregator;
+import org.apache.druid.query.cache.CacheKeyBuilder;
+import org.apache.druid.segment.ColumnInspector;
+import org.apache.druid.segment.column.ColumnType;
+
+import javax.annotation.Nullable;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Rolls up the result of an "exampleBucketedSum" aggregator to a coarser granularity, such as from minutes to hours,
+ * without scanning the rows again. Several of these can read the same aggregator, to get every zoom level of a chart
+ * from one scan. Coarse buckets should be unions of the aggregator's buckets; otherwise each fine bucket counts toward
+ * the coarse bucket its start falls in. Rolling up to a granularity finer than the aggregator's is rejected, since its
+ * buckets can't be split.
+ */
+public class ExampleBucketedSumRollupPostAggregator implements PostAggregator
+{
+  // Type name for JSON.
+  public static final String TYPE_NAME = "exampleBucketedSumRollup";
+
+  // Second byte of our cache keys; see ExampleDistinctSumAggregatorFactory for the others.
+  private static final byte CACHE_KEY_SITE_ID = (byte) 0x06;
+
+  private static final Comparator<Object> COMPARATOR = (o, o1) -> {
+    throw new IAE("Comparing %s results is not supported", TYPE_NAME);
+  };
+
+  private final String name;
+  private final PostAggregator field;
+  private final Granularity granularity;
+
+  /**
+   * @param field       post-aggregator that reads the bucketed sums, usually a "fieldAccess" of the aggregator.
+   * @param granularity size of the buckets to roll up to.
+   */
+  @JsonCreator
+  public ExampleBucketedSumRollupPostAggregator(
+      @JsonProperty("name") final String name,
+      @JsonProperty("field") final PostAggregator field,
+      @JsonProperty("granularity") final Granularity granularity
+  )
+  {
+    this.name = Preconditions.checkNotNull(name, "name");
+    this.field = Preconditions.checkNotNull(field, "field");
+    this.granularity = Preconditions.checkNotNull(granularity, "granularity");
+  }
+
+  @Override
+  public Set<String> getDependentFields()
+  {
+    return field.getDependentFields();
+  }
+
+  @Override
+  public Comparator getComparator()
+  {
+    return COMPARATOR;
+  }
+
+  @Nullable
+  @Override
+  public Object compute(Map<String, Object> combinedAggregators)
+  {
+    final ExampleBucketedSums sums = ExampleBucketedSumAggregatorFactory.toSums(field.compute(combinedAggregators));
+    return sums == null ? null : sums.rollup(granularity).toResult();
+  }
+
+  @Override
+  @JsonProperty
+  public String getName()
+  {
+    return name;
+  }
+
+  @JsonProperty
+  public PostAggregator getField()
+  {
+    return field;
+  }
+
+  @JsonProperty
+  public Granularity getGranularity()
+  {
+    return granularity;
+  }
+
+  @Override
+  public ColumnType getType(ColumnInspector signature)
+  {
+    return ColumnType.NESTED_DATA;
+  }
+
+  /**
+   * Checks the granularity against the aggregator, when {@link #field} reads one directly with a "fieldAccess". Other
+   * fields can't be traced back to an aggregator, so they are not checked.
+   */
+  @Override
+  public PostAggregator decorate(Map<String, AggregatorFactory> aggregators)
+  {
+    if (field instanceof FieldAccessPostAggregator) {
+      final AggregatorFactory aggregator = aggregators.get(((FieldAccessPostAggregator) field).getFieldName());
+      if (aggregator instanceof ExampleBucketedSumAggregatorFactory) {
+        final Granularity bucketGranularity = ((ExampleBucketedSumAggregatorFactory) aggregator).getGranularity();
+        if (granularity.isFinerThan(bucketGranularity)) {
+          throw new IAE(
+              "Cannot roll up [%s] to granularity [%s], which is finer than its buckets of [%s]",
+              aggregator.getName(),
+              granularity,
+              bucketGranularity
+          );
+        }
+      }
+    }
+    return this;
+  }
+
+  @Override
+  public byte[] getCacheKey()
+  {
+    return new CacheKeyBuilder((byte) 0xFF)
+        .appendByte(CACHE_KEY_SITE_ID)
+        .appendCacheable(field)
+        .appendCacheable(granularity)
+        .build();
+  }
+
+  @Override
+  public boolean equals(final Object o)
+  {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    final ExampleBucketedSumRollupPostAggregator that = (ExampleBucketedSumRollupPostAggregator) o;
+    return Objects.equals(name, that.name) &&
+           Objects.equals(field, that.field) &&
+           Objects.equals(granularity, that.granularity);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return Objects.hash(name, field, granularity);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "ExampleBucketedSumRollupPostAggregator{" +
+           "name='" + name + '\'' +
+           ", field=" + field +
+           ", granularity=" + granularity +
+           '}';
+  }
+}
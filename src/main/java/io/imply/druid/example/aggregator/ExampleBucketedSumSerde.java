@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.data.input.InputRow;
+import org.apache.druid.segment.column.ColumnBuilder;
+import org.apache.druid.segment.data.GenericIndexed;
+import org.apache.druid.segment.data.ObjectStrategy;
+import org.apache.druid.segment.serde.ComplexColumnPartSupplier;
+import org.apache.druid.segment.serde.ComplexMetricExtractor;
+import org.apache.druid.segment.serde.ComplexMetricSerde;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+/**
+ * Stores {@link ExampleBucketedSums} in segments, so "exampleBucketedSum" can be used at ingestion time,
+ * and tells Druid how to read the complex type of its intermediate values.
+ */
+public class ExampleBucketedSumSerde extends ComplexMetricSerde
+{
+  private static final Comparator<ExampleBucketedSums> COMPARATOR =
+      Comparator.nullsFirst(Comparator.comparingDouble(ExampleBucketedSums::getTotal));
+
+  private static final ObjectStrategy<ExampleBucketedSums> STRATEGY = new ObjectStrategy<ExampleBucketedSums>()
+  {
+    @Override
+    public Class<? extends ExampleBucketedSums> getClazz()
+    {
+      return ExampleBucketedSums.class;
+    }
+
+    @Nullable
+    @Override
+    public ExampleBucketedSums fromByteBuffer(ByteBuffer buffer, int numBytes)
+    {
+      if (numBytes == 0) {
+        return null;
+      }
+      final ByteBuffer readOnly = buffer.asReadOnlyBuffer();
+      readOnly.limit(readOnly.position() + numBytes);
+      return ExampleBucketedSums.fromBytes(readOnly);
+    }
+
+    @Override
+    public byte[] toBytes(@Nullable ExampleBucketedSums sums)
+    {
+      return sums == null ? new byte[0] : sums.toBytes();
+    }
+
+    @Override
+    public int compare(ExampleBucketedSums o1, ExampleBucketedSums o2)
+    {
+      return COMPARATOR.compare(o1, o2);
+    }
+  };
+
+  @Override
+  public String getTypeName()
+  {
+    return ExampleBucketedSumAggregatorFactory.TYPE_NAME;
+  }
+
+  @Override
+  public ComplexMetricExtractor getExtractor()
+  {
+    return new ComplexMetricExtractor<ExampleBucketedSums>()
+    {
+      @Override
+      public Class<ExampleBucketedSums> extractedClass()
+      {
+        return ExampleBucketedSums.class;
+      }
+
+      @Nullable
+      @Override
+      public ExampleBucketedSums extractValue(InputRow inputRow, String metricName)
+      {
+        // Sums written by an earlier ingestion, for example when reindexing.
+        return ExampleBucketedSumAggregatorFactory.toSums(inputRow.getRaw(metricName));
+      }
+    };
+  }
+
+  @Override
+  public void deserializeColumn(ByteBuffer buffer, ColumnBuilder builder)
+  {
+    final GenericIndexed<ExampleBucketedSums> column = GenericIndexed.read(buffer, STRATEGY, builder.getFileMapper());
+    builder.setComplexColumnSupplier(new ComplexColumnPartSupplier(getTypeName(), column));
+  }
+
+  @Override
+  public ObjectStrategy<ExampleBucketedSums> getObjectStrategy()
+  {
+    return STRATEGY;
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.VectorAggregator;
+import org.apache.druid.segment.vector.VectorValueSelector;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * Vectorized version of {@link ExampleBucketedSumBufferAggregator}, with the same slot layout.
+ */
+public class ExampleBucketedSumVectorAggregator implements VectorAggregator
+{
+  private final VectorValueSelector timeSelector;
+  private final VectorValueSelector selector;
+  private final ExampleBucketedSumBucketer bucketer;
+  private final ExampleBucketedSumBufferHelper helper;
+
+  ExampleBucketedSumVectorAggregator(
+      VectorValueSelector timeSelector,
+      VectorValueSelector selector,
+      ExampleBucketedSumBucketer bucketer,
+      ExampleBucketedSumBufferHelper helper
+  )
+  {
+    this.timeSelector = timeSelector;
+    this.selector = selector;
+    this.bucketer = bucketer;
+    this.helper = helper;
+  }
+
+  @Override
+  public void init(final ByteBuffer buf, final int position)
+  {
+    helper.init(buf, position);
+  }
+
+  @Override
+  public void aggregate(final ByteBuffer buf, final int position, final int startRow, final int endRow)
+  {
+    final long[] times = timeSelector.getLongVector();
+    final double[] vector = selector.getDoubleVector();
+    final boolean[] nullVector = selector.getNullVector();
+
+    // Rows of a batch are usually in the same bucket, so sum runs of them before adding to the slot.
+    long runStart = 0;
+    double runSum = 0;
+    boolean inRun = false;
+    for (int i = startRow; i < endRow; i++) {
+      if (nullVector == null || !nullVector[i]) {
+        final long bucketStart = bucketer.bucketStart(times[i]);
+        if (inRun && bucketStart != runStart) {
+          helper.add(buf, position, runStart, runSum);
+          runSum = 0;
+        }
+        runStart = bucketStart;
+        runSum += vector[i];
+        inRun = true;
+      }
+    }
+    if (inRun) {
+      helper.add(buf, position, runStart, runSum);
+    }
+  }
+
+  @Override
+  public void aggregate(
+      final ByteBuffer buf,
+      final int numRows,
+      final int[] positions,
+      @Nullable final int[] rows,
+      final int positionOffset
+  )
+  {
+    final long[] times = timeSelector.getLongVector();
+    final double[] vector = selector.getDoubleVector();
+    final boolean[] nullVector = selector.getNullVector();
+
+    for (int i = 0; i < numRows; i++) {
+      final int row = rows != null ? rows[i] : i;
+
+      if (nullVector == null || !nullVector[row]) {
+        helper.add(buf, positions[i] + positionOffset, bucketer.bucketStart(times[row]), vector[row]);
+      }
+    }
+  }
+
+  @Override
+  public Object get(final ByteBuffer buf, final int position)
+  {
+    return helper.get(buf, position);
+  }
+
+  @Override
+  public void relocate(int oldPosition, int newPosition, ByteBuffer oldBuffer, ByteBuffer newBuffer)
+  {
+    helper.relocate(oldPosition, newPosition, oldBuffer, newBuffer);
+  }
+
+  @Override
+  public void close()
+  {
+    helper.close();
+  }
+}
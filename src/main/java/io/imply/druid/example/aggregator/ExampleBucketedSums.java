@@ -0,0 +1,303 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import org.apache.druid.java.util.common.DateTimes;
+import org.apache.druid.java.util.common.IAE;
+import org.apache.druid.java.util.common.StringUtils;
+import org.apache.druid.java.util.common.granularity.Granularity;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sums of a column per time bucket, ordered by bucket start. Buckets with no rows are left out.
+ *
+ * This is the intermediate value of {@link ExampleBucketedSumAggregatorFactory}. Sums at a fine granularity can be
+ * rolled up to any coarser granularity whose buckets are unions of the fine ones, e.g. minutes to hours to days, with
+ * {@link #rollup(Granularity)}. It is serialized to JSON as the base64 form of {@link #toBytes()}.
+ */
+public class ExampleBucketedSums
+{
+  private static final byte VERSION = 1;
+  private static final int INITIAL_CAPACITY = 8;
+
+  private long[] starts;
+  private double[] sums;
+  private int size;
+
+  public ExampleBucketedSums()
+  {
+    this(INITIAL_CAPACITY);
+  }
+
+  ExampleBucketedSums(int capacity)
+  {
+    this.starts = new long[capacity];
+    this.sums = new double[capacity];
+  }
+
+  /**
+   * Adds a value to the bucket starting at "bucketStart". Rows usually arrive in time order, so the last bucket is
+   * checked first.
+   */
+  public void add(long bucketStart, double value)
+  {
+    if (size > 0 && starts[size - 1] == bucketStart) {
+      sums[size - 1] += value;
+      return;
+    }
+
+    final int i = Arrays.binarySearch(starts, 0, size, bucketStart);
+    if (i >= 0) {
+      sums[i] += value;
+    } else {
+      insert(-i - 1, bucketStart, value);
+    }
+  }
+
+  /**
+   * Merges two sets of sums into a new one, adding the sums of buckets that are in both.
+   */
+  public static ExampleBucketedSums merge(ExampleBucketedSums lhs, ExampleBucketedSums rhs)
+  {
+    final ExampleBucketedSums merged = new ExampleBucketedSums(Math.max(lhs.size + rhs.size, 1));
+    int i = 0;
+    int j = 0;
+    while (i < lhs.size || j < rhs.size) {
+      if (j == rhs.size || (i < lhs.size && lhs.starts[i] < rhs.starts[j])) {
+        merged.append(lhs.starts[i], lhs.sums[i++]);
+      } else if (i == lhs.size || rhs.starts[j] < lhs.starts[i]) {
+        merged.append(rhs.starts[j], rhs.sums[j++]);
+      } else {
+        merged.append(lhs.starts[i], lhs.sums[i++] + rhs.sums[j++]);
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * Returns the sums per bucket of a coarser granularity. Bucket starts are in order, so the buckets that roll up into
+   * the same coarse bucket are next to each other.
+   */
+  public ExampleBucketedSums rollup(Granularity granularity)
+  {
+    final ExampleBucketedSums rolledUp = new ExampleBucketedSums(Math.max(size, 1));
+    for (int i = 0; i < size; i++) {
+      final long start = granularity.bucketStart(starts[i]);
+      if (rolledUp.size > 0 && rolledUp.starts[rolledUp.size - 1] == start) {
+        rolledUp.sums[rolledUp.size - 1] += sums[i];
+      } else {
+        rolledUp.append(start, sums[i]);
+      }
+    }
+    return rolledUp;
+  }
+
+  /**
+   * Copy that later changes to these sums don't affect.
+   */
+  public ExampleBucketedSums copy()
+  {
+    final ExampleBucketedSums copy = new ExampleBucketedSums(Math.max(size, 1));
+    System.arraycopy(starts, 0, copy.starts, 0, size);
+    System.arraycopy(sums, 0, copy.sums, 0, size);
+    copy.size = size;
+    return copy;
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  public long getBucketStart(int i)
+  {
+    return starts[i];
+  }
+
+  public double getSum(int i)
+  {
+    return sums[i];
+  }
+
+  public double getTotal()
+  {
+    double total = 0;
+    for (int i = 0; i < size; i++) {
+      total += sums[i];
+    }
+    return total;
+  }
+
+  /**
+   * Returns the buckets in time order, as maps with "timestamp" and "sum".
+   */
+  public List<Map<String, Object>> toResult()
+  {
+    final List<Map<String, Object>> result = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      final Map<String, Object> bucket = new LinkedHashMap<>();
+      bucket.put("timestamp", DateTimes.utc(starts[i]).toString());
+      bucket.put("sum", sums[i]);
+      result.add(bucket);
+    }
+    return result;
+  }
+
+  /**
+   * Binary form: version byte, the number of buckets as a varint, the bucket starts, then the sums as doubles. Each
+   * start is stored as a zigzag varint of its difference from the previous one, starting from zero, so minute
+   * buckets take three bytes each instead of eight.
+   */
+  public byte[] toBytes()
+  {
+    final ByteBuffer buf = ByteBuffer.allocate(1 + 5 + size * (10 + Double.BYTES));
+    buf.put(VERSION);
+    writeVarLong(buf, size);
+    long previous = 0;
+    for (int i = 0; i < size; i++) {
+      final long delta = starts[i] - previous;
+      writeVarLong(buf, (delta << 1) ^ (delta >> 63));
+      previous = starts[i];
+    }
+    for (int i = 0; i < size; i++) {
+      buf.putDouble(sums[i]);
+    }
+    return Arrays.copyOf(buf.array(), buf.position());
+  }
+
+  public static ExampleBucketedSums fromBytes(ByteBuffer buf)
+  {
+    final byte version = buf.get();
+    if (version != VERSION) {
+      throw new IAE("Unknown %s version [%d]", ExampleBucketedSums.class.getSimpleName(), version);
+    }
+
+    final int size = (int) readVarLong(buf);
+    final ExampleBucketedSums sums = new ExampleBucketedSums(Math.max(size, 1));
+    long previous = 0;
+    for (int i = 0; i < size; i++) {
+      final long zigzag = readVarLong(buf);
+      previous += (zigzag >>> 1) ^ -(zigzag & 1);
+      sums.starts[i] = previous;
+    }
+    for (int i = 0; i < size; i++) {
+      sums.sums[i] = buf.getDouble();
+    }
+    sums.size = size;
+    return sums;
+  }
+
+  @JsonValue
+  public String toBase64()
+  {
+    return StringUtils.encodeBase64String(toBytes());
+  }
+
+  public static ExampleBucketedSums fromBase64(String base64)
+  {
+    return fromBytes(ByteBuffer.wrap(StringUtils.decodeBase64String(base64)));
+  }
+
+  /**
+   * Adds a bucket after all the others.
+   */
+  void append(long bucketStart, double sum)
+  {
+    insert(size, bucketStart, sum);
+  }
+
+  private void insert(int i, long bucketStart, double sum)
+  {
+    if (size == starts.length) {
+      starts = Arrays.copyOf(starts, size * 2);
+      sums = Arrays.copyOf(sums, size * 2);
+    }
+    System.arraycopy(starts, i, starts, i + 1, size - i);
+    System.arraycopy(sums, i, sums, i + 1, size - i);
+    starts[i] = bucketStart;
+    sums[i] = sum;
+    size++;
+  }
+
+  private static void writeVarLong(ByteBuffer buf, long value)
+  {
+    while ((value & ~0x7FL) != 0) {
+      buf.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buf.put((byte) value);
+  }
+
+  private static long readVarLong(ByteBuffer buf)
+  {
+    long value = 0;
+    for (int shift = 0; ; shift += 7) {
+      final byte b = buf.get();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+  }
+
+  @Override
+  public boolean equals(Object o)
+  {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    final ExampleBucketedSums that = (ExampleBucketedSums) o;
+    if (size != that.size) {
+      return false;
+    }
+    for (int i = 0; i < size; i++) {
+      if (starts[i] != that.starts[i] || Double.compare(sums[i], that.sums[i]) != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode()
+  {
+    int result = size;
+    for (int i = 0; i < size; i++) {
+      result = 31 * result + Long.hashCode(starts[i]);
+      result = 31 * result + Double.hashCode(sums[i]);
+    }
+    return result;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "ExampleBucketedSums{" +
+           "buckets=" + toResult() +
+           '}';
+  }
+}
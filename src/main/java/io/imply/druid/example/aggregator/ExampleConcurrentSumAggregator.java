@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.Aggregator;
+import org.apache.druid.segment.BaseDoubleColumnValueSelector;
+
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Thread-safe version of {@link ExampleSumAggregator}, used when the factory is created with "concurrent": true.
+ *
+ * The sum is kept in a {@link DoubleAdder}: an uncontended add is a single CAS on a base cell, and contended adds
+ * spread over striped cells that are only merged when the value is read.
+ */
+public class ExampleConcurrentSumAggregator implements Aggregator
+{
+  /**
+   * Estimated on-heap size of one aggregator: the aggregator itself plus an uncontended {@link DoubleAdder}. Striped
+   * cells are only allocated under contention and are not included.
+   */
+  static final int ESTIMATED_SIZE_BYTES = 56;
+
+  private final BaseDoubleColumnValueSelector selector;
+  private final DoubleAdder sum;
+
+  ExampleConcurrentSumAggregator(BaseDoubleColumnValueSelector selector)
+  {
+    this.selector = selector;
+    this.sum = new DoubleAdder();
+  }
+
+  @Override
+  public void aggregate()
+  {
+    if (!selector.isNull()) {
+      sum.add(selector.getDouble());
+    }
+  }
+
+  @Override
+  public Object get()
+  {
+    return sum.sum();
+  }
+
+  @Override
+  public float getFloat()
+  {
+    return (float) sum.sum();
+  }
+
+  @Override
+  public long getLong()
+  {
+    return (long) sum.sum();
+  }
+
+  @Override
+  public double getDouble()
+  {
+    return sum.sum();
+  }
+
+  @Override
+  public void close()
+  {
+    // no resources to cleanup
+  }
+}
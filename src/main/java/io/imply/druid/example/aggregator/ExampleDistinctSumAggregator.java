@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import it.unimi.dsi.fastutil.doubles.DoubleOpenHashSet;
+import org.apache.druid.query.aggregation.Aggregator;
+import org.apache.druid.segment.BaseDoubleColumnValueSelector;
+import org.apache.druid.segment.BaseObjectColumnValueSelector;
+
+/**
+ * Collects the distinct values of a column into an on-heap set. Like the buffer version, zeros are not kept, since
+ * they don't change the sum.
+ */
+public abstract class ExampleDistinctSumAggregator implements Aggregator
+{
+  protected final DoubleOpenHashSet values = new DoubleOpenHashSet();
+
+  protected void add(double value)
+  {
+    if (value != 0) {
+      values.add(value);
+    }
+  }
+
+  @Override
+  public Object get()
+  {
+    return ExampleDistinctSumAggregatorFactory.toArray(values);
+  }
+
+  @Override
+  public float getFloat()
+  {
+    throw new UnsupportedOperationException("ExampleDistinctSumAggregator does not support getFloat()");
+  }
+
+  @Override
+  public long getLong()
+  {
+    throw new UnsupportedOperationException("ExampleDistinctSumAggregator does not support getLong()");
+  }
+
+  @Override
+  public void close()
+  {
+    // no resources to cleanup
+  }
+
+  static final class FieldInput extends ExampleDistinctSumAggregator
+  {
+    private final BaseDoubleColumnValueSelector selector;
+
+    FieldInput(BaseDoubleColumnValueSelector selector)
+    {
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate()
+    {
+      if (!selector.isNull()) {
+        add(selector.getDouble());
+      }
+    }
+  }
+
+  static final class ArrayInput extends ExampleDistinctSumAggregator
+  {
+    private final BaseObjectColumnValueSelector<?> selector;
+
+    ArrayInput(BaseObjectColumnValueSelector<?> selector)
+    {
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate()
+    {
+      for (double value : ExampleDistinctSumAggregatorFactory.toDoubles(selector.getObject())) {
+        add(value);
+      }
+    }
+  }
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Doubles;
+import it.unimi.dsi.fastutil.doubles.DoubleOpenHashSet;
+import org.apache.druid.query.aggregation.Aggregator;
+import org.apache.druid.query.aggregation.AggregatorFactory;
+import org.apache.druid.query.aggregation.AggregatorFactoryNotMergeableException;
+import org.apache.druid.query.aggregation.BufferAggregator;
+import org.apache.druid.query.aggregation.VectorAggregator;
+import org.apache.druid.query.cache.CacheKeyBuilder;
+import org.apache.druid.segment.ColumnInspector;
+import org.apache.druid.segment.ColumnSelectorFactory;
+import org.apache.druid.segment.column.ColumnCapabilities;
+import org.apache.druid.segment.column.ColumnType;
+import org.apache.druid.segment.vector.VectorColumnSelectorFactory;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Sums the distinct values of a column. The intermediate value is the set of distinct values, as an array, so that
+ * sets from different segments and servers can be merged before summing. Buffer aggregators keep the set in an
+ * open-addressing hash table inside the aggregation buffer, and move it on heap if it outgrows "maxBufferEntries".
+ */
+public class ExampleDistinctSumAggregatorFactory extends AggregatorFactory
+{
+  // Type name for JSON.
+  public static final String TYPE_NAME = "exampleDistinctSum";
+
+  public static final int DEFAULT_MAX_BUFFER_ENTRIES = 64;
+
+  // Upper bound for "maxBufferEntries", to keep the buffer slot size reasonable.
+  private static final int MAX_MAX_BUFFER_ENTRIES = 1 << 16;
+
+  // Second byte of our cache keys. Each aggregator and post-aggregator in this package has its own:
+  // 0x00 ExampleSumAggregatorFactory, 0x01 ExampleMultiSumAggregatorFactory, 0x02 this one,
+  // 0x03 ExampleHeavyHittersAggregatorFactory, 0x04 ExampleSampledSumAggregatorFactory,
+  // 0x05 ExampleBucketedSumAggregatorFactory, 0x06 ExampleBucketedSumRollupPostAggregator.
+  private static final byte CACHE_KEY_SITE_ID = (byte) 0x02;
+
+  private static final Comparator<Object> COMPARATOR = new Ordering<Object>()
+  {
+    @Override
+    public int compare(Object o, Object o1)
+    {
+      return Doubles.compare(sum(toDoubles(o)), sum(toDoubles(o1)));
+    }
+  }.nullsFirst();
+
+  private final String name;
+  private final String fieldName;
+  private final int maxBufferEntries;
+  private final boolean combine;
+
+  /**
+   * @param maxBufferEntries number of distinct values a buffer aggregator keeps in the aggregation buffer before
+   *                         moving them on heap. Does not change results, so it is not part of the cache key.
+   * @param combine          if true, this is a combining factory: it reads arrays of distinct values from the column
+   *                         named "name", rather than reading "fieldName".
+   */
+  @JsonCreator
+  public ExampleDistinctSumAggregatorFactory(
+      @JsonProperty("name") final String name,
+      @JsonProperty("fieldName") final String fieldName,
+      @JsonProperty("maxBufferEntries") @Nullable final Integer maxBufferEntries,
+      @JsonProperty("combine") @Nullable final Boolean combine
+  )
+  {
+    this.name = Preconditions.checkNotNull(name, "name");
+    this.fieldName = Preconditions.checkNotNull(fieldName, "fieldName");
+    this.maxBufferEntries = maxBufferEntries == null ? DEFAULT_MAX_BUFFER_ENTRIES : maxBufferEntries;
+    Preconditions.checkArgument(
+        this.maxBufferEntries > 0 && this.maxBufferEntries <= MAX_MAX_BUFFER_ENTRIES,
+        "maxBufferEntries must be between 1 and %s",
+        MAX_MAX_BUFFER_ENTRIES
+    );
+    this.combine = combine != null && combine;
+  }
+
+  public ExampleDistinctSumAggregatorFactory(final String name, final String fieldName)
+  {
+    this(name, fieldName, null, null);
+  }
+
+  @Override
+  public Aggregator factorize(ColumnSelectorFactory metricFactory)
+  {
+    if (combine) {
+      return new ExampleDistinctSumAggregator.ArrayInput(metricFactory.makeColumnValueSelector(name));
+    }
+    return new ExampleDistinctSumAggregator.FieldInput(metricFactory.makeColumnValueSelector(fieldName));
+  }
+
+  @Override
+  public BufferAggregator factorizeBuffered(ColumnSelectorFactory metricFactory)
+  {
+    if (combine) {
+      return new ExampleDistinctSumBufferAggregator.ArrayInput(
+          metricFactory.makeColumnValueSelector(name),
+          new ExampleDistinctSumBufferHelper(maxBufferEntries)
+      );
+    }
+    return new ExampleDistinctSumBufferAggregator.FieldInput(
+        metricFactory.makeColumnValueSelector(fieldName),
+        new ExampleDistinctSumBufferHelper(maxBufferEntries)
+    );
+  }
+
+  @Override
+  public boolean canVectorize(ColumnInspector columnInspector)
+  {
+    if (combine) {
+      return false;
+    }
+    final ColumnCapabilities capabilities = columnInspector.getColumnCapabilities(fieldName);
+    return capabilities == null || capabilities.isNumeric();
+  }
+
+  @Override
+  public VectorAggregator factorizeVector(VectorColumnSelectorFactory selectorFactory)
+  {
+    return new ExampleDistinctSumVectorAggregator(
+        selectorFactory.makeValueSelector(fieldName),
+        new ExampleDistinctSumBufferHelper(maxBufferEntries)
+    );
+  }
+
+  @Override
+  public Comparator getComparator()
+  {
+    return COMPARATOR;
+  }
+
+  @Override
+  public Object combine(Object lhs, Object rhs)
+  {
+    if (rhs == null) {
+      return lhs;
+    }
+    if (lhs == null) {
+      return rhs;
+    }
+
+    final DoubleOpenHashSet values = new DoubleOpenHashSet(toDoubles(lhs));
+    for (double value : toDoubles(rhs)) {
+      values.add(value);
+    }
+    return toArray(values);
+  }
+
+  @Override
+  public AggregatorFactory getCombiningFactory()
+  {
+    return new ExampleDistinctSumAggregatorFactory(name, fieldName, maxBufferEntries, true);
+  }
+
+  @Override
+  public AggregatorFactory getMergingFactory(AggregatorFactory other) throws AggregatorFactoryNotMergeableException
+  {
+    if (other.getName().equals(this.getName()) && this.getClass() == other.getClass()) {
+      return getCombiningFactory();
+    } else {
+      throw new AggregatorFactoryNotMergeableException(this, other);
+    }
+  }
+
+  @Override
+  public AggregatorFactory withName(String newName)
+  {
+    return new ExampleDistinctSumAggregatorFactory(newName, fieldName, maxBufferEntries, combine);
+  }
+
+  @Override
+  public List<AggregatorFactory> getRequiredColumns()
+  {
+    return ImmutableList.of(new ExampleDistinctSumAggregatorFactory(fieldName, fieldName, maxBufferEntries, false));
+  }
+
+  @Override
+  public Object deserialize(Object object)
+  {
+    if (object == null || object instanceof Object[]) {
+      return object;
+    }
+
+    // JSON results come back as lists, possibly with "NaN" / "Infinity" strings
+    final double[] values = toDoubles(object);
+    final Object[] result = new Object[values.length];
+    for (int i = 0; i < values.length; i++) {
+      result[i] = values[i];
+    }
+    return result;
+  }
+
+  @Nullable
+  @Override
+  public Object finalizeComputation(@Nullable Object object)
+  {
+    return object == null ? null : sum(toDoubles(object));
+  }
+
+  @JsonProperty
+  public String getFieldName()
+  {
+    return fieldName;
+  }
+
+  @JsonProperty
+  public int getMaxBufferEntries()
+  {
+    return maxBufferEntries;
+  }
+
+  @JsonProperty
+  @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+  public boolean isCombine()
+  {
+    return combine;
+  }
+
+  @Override
+  @JsonProperty
+  public String getName()
+  {
+    return name;
+  }
+
+  @Override
+  public List<String> requiredFields()
+  {
+    return ImmutableList.of(combine ? name : fieldName);
+  }
+
+  @Override
+  public byte[] getCacheKey()
+  {
+    return new CacheKeyBuilder((byte) 0xFF)
+        .appendByte(CACHE_KEY_SITE_ID)
+        .appendBoolean(combine)
+        .appendString(combine ? name : fieldName)
+        .build();
+  }
+
+  @Override
+  public ColumnType getIntermediateType()
+  {
+    return ColumnType.DOUBLE_ARRAY;
+  }
+
+  @Override
+  public ColumnType getResultType()
+  {
+    return ColumnType.DOUBLE;
+  }
+
+  @Override
+  public int getMaxIntermediateSize()
+  {
+    return ExampleDistinctSumBufferHelper.getBufferSize(maxBufferEntries);
+  }
+
+  /**
+   * Sums the values in ascending order, so the result does not depend on the order the set was built in.
+   */
+  static double sum(double[] values)
+  {
+    Arrays.sort(values);
+    double sum = 0;
+    for (double value : values) {
+      sum += value;
+    }
+    return sum;
+  }
+
+  /**
+   * Converts a set of distinct values to the intermediate representation: an array of doubles in ascending order.
+   */
+  static Object[] toArray(DoubleOpenHashSet values)
+  {
+    final double[] sorted = values.toDoubleArray();
+    Arrays.sort(sorted);
+    final Object[] result = new Object[sorted.length];
+    for (int i = 0; i < sorted.length; i++) {
+      result[i] = sorted[i];
+    }
+    return result;
+  }
+
+  /**
+   * Reads an array of distinct values in any of the forms it can take: Object[] from aggregators, lists from JSON,
+   * or primitive arrays. Nulls are skipped.
+   */
+  static double[] toDoubles(@Nullable Object array)
+  {
+    if (array instanceof double[]) {
+      return ((double[]) array).clone();
+    }
+
+    final List<?> list;
+    if (array instanceof Object[]) {
+      list = Arrays.asList((Object[]) array);
+    } else if (array instanceof List) {
+      list = (List<?>) array;
+    } else if (array == null) {
+      list = ImmutableList.of();
+    } else {
+      list = ImmutableList.of(array);
+    }
+
+    final double[] values = new double[list.size()];
+    int size = 0;
+    for (Object element : list) {
+      if (element instanceof Number) {
+        values[size++] = ((Number) element).doubleValue();
+      } else if (element instanceof String) {
+        // handle "NaN" / "Infinity" values serialized as strings in JSON
+        values[size++] = Double.parseDouble((String) element);
+      }
+    }
+    return size == values.length ? values : Arrays.copyOf(values, size);
+  }
+
+  @Override
+  public boolean equals(final Object o)
+  {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    final ExampleDistinctSumAggregatorFactory that = (ExampleDistinctSumAggregatorFactory) o;
+    return maxBufferEntries == that.maxBufferEntries &&
+           combine == that.combine &&
+           Objects.equals(name, that.name) &&
+           Objects.equals(fieldName, that.fieldName);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return Objects.hash(name, fieldName, maxBufferEntries, combine);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "ExampleDistinctSumAggregatorFactory{" +
+           "name='" + name + '\'' +
+           ", fieldName='" + fieldName + '\'' +
+           ", maxBufferEntries=" + maxBufferEntries +
+           ", combine=" + combine +
+           '}';
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.BufferAggregator;
+import org.apache.druid.segment.BaseDoubleColumnValueSelector;
+import org.apache.druid.segment.BaseObjectColumnValueSelector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Buffer-based version of {@link ExampleDistinctSumAggregator}. The slot layout is described in
+ * {@link ExampleDistinctSumBufferHelper}.
+ */
+public abstract class ExampleDistinctSumBufferAggregator implements BufferAggregator
+{
+  protected final ExampleDistinctSumBufferHelper helper;
+
+  ExampleDistinctSumBufferAggregator(ExampleDistinctSumBufferHelper helper)
+  {
+    this.helper = helper;
+  }
+
+  @Override
+  public final void init(final ByteBuffer buf, final int position)
+  {
+    helper.init(buf, position);
+  }
+
+  @Override
+  public final Object get(ByteBuffer buf, int position)
+  {
+    return helper.get(buf, position);
+  }
+
+  @Override
+  public final float getFloat(ByteBuffer buf, int position)
+  {
+    throw new UnsupportedOperationException("ExampleDistinctSumBufferAggregator does not support getFloat()");
+  }
+
+  @Override
+  public final long getLong(ByteBuffer buf, int position)
+  {
+    throw new UnsupportedOperationException("ExampleDistinctSumBufferAggregator does not support getLong()");
+  }
+
+  @Override
+  public final void relocate(int oldPosition, int newPosition, ByteBuffer oldBuffer, ByteBuffer newBuffer)
+  {
+    helper.relocate(oldPosition, newPosition, oldBuffer, newBuffer);
+  }
+
+  @Override
+  public final void close()
+  {
+    helper.close();
+  }
+
+  static final class FieldInput extends ExampleDistinctSumBufferAggregator
+  {
+    private final BaseDoubleColumnValueSelector selector;
+
+    FieldInput(BaseDoubleColumnValueSelector selector, ExampleDistinctSumBufferHelper helper)
+    {
+      super(helper);
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate(ByteBuffer buf, int position)
+    {
+      if (!selector.isNull()) {
+        helper.add(buf, position, selector.getDouble());
+      }
+    }
+  }
+
+  static final class ArrayInput extends ExampleDistinctSumBufferAggregator
+  {
+    private final BaseObjectColumnValueSelector<?> selector;
+
+    ArrayInput(BaseObjectColumnValueSelector<?> selector, ExampleDistinctSumBufferHelper helper)
+    {
+      super(helper);
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate(ByteBuffer buf, int position)
+    {
+      for (double value : ExampleDistinctSumAggregatorFactory.toDoubles(selector.getObject())) {
+        helper.add(buf, position, value);
+      }
+    }
+  }
+}
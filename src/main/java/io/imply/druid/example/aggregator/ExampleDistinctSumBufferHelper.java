@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.doubles.DoubleOpenHashSet;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+
+/**
+ * Set of distinct doubles stored in an aggregation buffer, shared by {@link ExampleDistinctSumBufferAggregator} and
+ * {@link ExampleDistinctSumVectorAggregator}.
+ *
+ * Each slot starts with an int holding the number of entries, followed by an open-addressing hash table of the raw
+ * bits of each value, with linear probing. The table has twice as many cells as "maxEntries", so probes stay short.
+ * Zero is never stored, since it does not change the sum; that leaves the all-zero bit pattern free to mark empty
+ * cells. When a set outgrows "maxEntries", it moves to an on-heap set and the count is set to {@link #SPILLED}.
+ */
+final class ExampleDistinctSumBufferHelper
+{
+  private static final int SPILLED = -1;
+  private static final int HEADER_BYTES = Integer.BYTES;
+  private static final long EMPTY = 0L;
+
+  private final int maxEntries;
+  private final int mask;
+
+  // Sets that outgrew their slot, by buffer and position, in the style of Druid's sketch aggregators.
+  private final IdentityHashMap<ByteBuffer, Int2ObjectMap<DoubleOpenHashSet>> spilled = new IdentityHashMap<>();
+
+  ExampleDistinctSumBufferHelper(int maxEntries)
+  {
+    this.maxEntries = maxEntries;
+    this.mask = getTableSize(maxEntries) - 1;
+  }
+
+  static int getBufferSize(int maxEntries)
+  {
+    return HEADER_BYTES + getTableSize(maxEntries) * Long.BYTES;
+  }
+
+  private static int getTableSize(int maxEntries)
+  {
+    return HashCommon.nextPowerOfTwo(maxEntries * 2);
+  }
+
+  void init(final ByteBuffer buf, final int position)
+  {
+    removeSpilled(buf, position);
+    buf.putInt(position, 0);
+    for (int i = 0, offset = position + HEADER_BYTES; i <= mask; i++, offset += Long.BYTES) {
+      buf.putLong(offset, EMPTY);
+    }
+  }
+
+  void add(final ByteBuffer buf, final int position, final double value)
+  {
+    // Zero does not change the sum. This also folds -0.0 into 0.0, which are equal as SQL values.
+    if (value == 0) {
+      return;
+    }
+
+    final int count = buf.getInt(position);
+    if (count == SPILLED) {
+      spilled.get(buf).get(position).add(value);
+      return;
+    }
+
+    // doubleToLongBits collapses all NaNs into one, so they count as a single distinct value.
+    final long bits = Double.doubleToLongBits(value);
+    int cell = (int) HashCommon.mix(bits) & mask;
+    while (true) {
+      final int offset = position + HEADER_BYTES + cell * Long.BYTES;
+      final long current = buf.getLong(offset);
+      if (current == bits) {
+        return;
+      } else if (current == EMPTY) {
+        if (count < maxEntries) {
+          buf.putLong(offset, bits);
+          buf.putInt(position, count + 1);
+        } else {
+          spill(buf, position).add(value);
+        }
+        return;
+      }
+      cell = (cell + 1) & mask;
+    }
+  }
+
+  /**
+   * Returns the set as an array in ascending order, see {@link ExampleDistinctSumAggregatorFactory#toArray}.
+   */
+  Object[] get(final ByteBuffer buf, final int position)
+  {
+    if (buf.getInt(position) == SPILLED) {
+      return ExampleDistinctSumAggregatorFactory.toArray(spilled.get(buf).get(position));
+    }
+    return ExampleDistinctSumAggregatorFactory.toArray(readTable(buf, position));
+  }
+
+  void relocate(int oldPosition, int newPosition, ByteBuffer oldBuffer, ByteBuffer newBuffer)
+  {
+    // The buffer contents have already been copied; only on-heap sets need to follow.
+    final DoubleOpenHashSet values = removeSpilled(oldBuffer, oldPosition);
+    if (values != null) {
+      spilled.computeIfAbsent(newBuffer, b -> new Int2ObjectOpenHashMap<>()).put(newPosition, values);
+    }
+  }
+
+  void close()
+  {
+    spilled.clear();
+  }
+
+  private DoubleOpenHashSet spill(final ByteBuffer buf, final int position)
+  {
+    final DoubleOpenHashSet values = readTable(buf, position);
+    spilled.computeIfAbsent(buf, b -> new Int2ObjectOpenHashMap<>()).put(position, values);
+    buf.putInt(position, SPILLED);
+    return values;
+  }
+
+  private DoubleOpenHashSet readTable(final ByteBuffer buf, final int position)
+  {
+    final DoubleOpenHashSet values = new DoubleOpenHashSet(buf.getInt(position));
+    for (int i = 0, offset = position + HEADER_BYTES; i <= mask; i++, offset += Long.BYTES) {
+      final long bits = buf.getLong(offset);
+      if (bits != EMPTY) {
+        values.add(Double.longBitsToDouble(bits));
+      }
+    }
+    return values;
+  }
+
+  @Nullable
+  private DoubleOpenHashSet removeSpilled(final ByteBuffer buf, final int position)
+  {
+    final Int2ObjectMap<DoubleOpenHashSet> sets = spilled.get(buf);
+    if (sets == null) {
+      return null;
+    }
+    final DoubleOpenHashSet values = sets.remove(position);
+    if (sets.isEmpty()) {
+      spilled.remove(buf);
+    }
+    return values;
+  }
+}
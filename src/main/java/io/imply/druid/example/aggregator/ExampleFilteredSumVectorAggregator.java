@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.VectorAggregator;
+import org.apache.druid.query.filter.vector.ReadableVectorMatch;
+import org.apache.druid.query.filter.vector.VectorMatch;
+import org.apache.druid.query.filter.vector.VectorValueMatcher;
+import org.apache.druid.segment.vector.VectorValueSelector;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ExampleSumVectorAggregator} with a filter, used when the factory has a "filter". Same buffer layout: a
+ * single double per slot.
+ *
+ * Each batch is matched once, and only the matching rows are summed. A batch with no matching rows does not read the
+ * value vector at all, and a batch where every row matches is summed as if there were no filter. Unlike a filtered
+ * aggregator wrapped around {@link ExampleSumVectorAggregator}, the matching rows of a batch that all go to one slot
+ * are summed into a local before a single write to the buffer.
+ */
+public class ExampleFilteredSumVectorAggregator implements VectorAggregator
+{
+  private final VectorValueSelector selector;
+  private final VectorValueMatcher matcher;
+
+  // Scratch space for the rows to match and for positions of the matching rows, sized for a full batch.
+  private final VectorMatch maskScratch;
+  private final int[] matchPositions;
+
+  ExampleFilteredSumVectorAggregator(VectorValueSelector selector, VectorValueMatcher matcher)
+  {
+    this.selector = selector;
+    this.matcher = matcher;
+    this.maskScratch = VectorMatch.wrap(new int[matcher.getMaxVectorSize()]);
+    this.matchPositions = new int[matcher.getMaxVectorSize()];
+  }
+
+  @Override
+  public void init(final ByteBuffer buf, final int position)
+  {
+    buf.putDouble(position, 0.0d);
+  }
+
+  @Override
+  public void aggregate(final ByteBuffer buf, final int position, final int startRow, final int endRow)
+  {
+    final ReadableVectorMatch mask;
+    if (startRow == 0 && endRow == matcher.getCurrentVectorSize()) {
+      mask = VectorMatch.allTrue(endRow);
+    } else {
+      final int[] selection = maskScratch.getSelection();
+      for (int i = startRow; i < endRow; i++) {
+        selection[i - startRow] = i;
+      }
+      mask = maskScratch.setSelectionSize(endRow - startRow);
+    }
+
+    final ReadableVectorMatch match = matcher.match(mask, false);
+    if (match.isAllFalse()) {
+      return;
+    }
+
+    final double[] vector = selector.getDoubleVector();
+    final boolean[] nullVector = selector.getNullVector();
+    final int[] selection = match.getSelection();
+    final int numMatches = match.getSelectionSize();
+
+    double sum = 0;
+    if (numMatches == endRow - startRow) {
+      // Every row matched, so the range is summed directly, as if there were no filter.
+      for (int i = startRow; i < endRow; i++) {
+        if (nullVector == null || !nullVector[i]) {
+          sum += vector[i];
+        }
+      }
+    } else if (nullVector == null) {
+      for (int i = 0; i < numMatches; i++) {
+        sum += vector[selection[i]];
+      }
+    } else {
+      for (int i = 0; i < numMatches; i++) {
+        if (!nullVector[selection[i]]) {
+          sum += vector[selection[i]];
+        }
+      }
+    }
+
+    buf.putDouble(position, buf.getDouble(position) + sum);
+  }
+
+  @Override
+  public void aggregate(
+      final ByteBuffer buf,
+      final int numRows,
+      final int[] positions,
+      @Nullable final int[] rows,
+      final int positionOffset
+  )
+  {
+    final ReadableVectorMatch mask;
+    if (rows == null) {
+      mask = VectorMatch.allTrue(numRows);
+    } else {
+      System.arraycopy(rows, 0, maskScratch.getSelection(), 0, numRows);
+      mask = maskScratch.setSelectionSize(numRows);
+    }
+
+    final ReadableVectorMatch match = matcher.match(mask, false);
+    if (match.isAllFalse()) {
+      return;
+    }
+
+    final int[] selection = match.getSelection();
+    final int numMatches = match.getSelectionSize();
+
+    if (rows == null) {
+      for (int i = 0; i < numMatches; i++) {
+        matchPositions[i] = positions[selection[i]];
+      }
+    } else {
+      // The match is a subset of the rows in the same order, so one forward scan finds the position of each match.
+      for (int i = 0, j = 0; i < numMatches; i++, j++) {
+        while (rows[j] < selection[i]) {
+          j++;
+        }
+        matchPositions[i] = positions[j];
+      }
+    }
+
+    final double[] vector = selector.getDoubleVector();
+    final boolean[] nullVector = selector.getNullVector();
+
+    for (int i = 0; i < numMatches; i++) {
+      final int row = selection[i];
+      if (nullVector == null || !nullVector[row]) {
+        final int position = matchPositions[i] + positionOffset;
+        buf.putDouble(position, buf.getDouble(position) + vector[row]);
+      }
+    }
+  }
+
+  @Override
+  public Object get(final ByteBuffer buf, final int position)
+  {
+    return buf.getDouble(position);
+  }
+
+  @Override
+  public void close()
+  {
+    // no resources to cleanup
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.java.util.common.StringUtils;
+import org.apache.druid.segment.ColumnValueSelector;
+
+import java.math.BigDecimal;
+
+/**
+ * Arithmetic for the fixed-point mode of exampleSum, where values are longs counting units of 10^-scale. Overflows
+ * throw an {@link ArithmeticException} with a hint, failing the query, rather than wrapping around silently.
+ */
+final class ExampleFixedPoint
+{
+  static final int MAX_SCALE = 18;
+
+  private ExampleFixedPoint()
+  {
+  }
+
+  static long add(long lhs, long rhs)
+  {
+    final long sum = lhs + rhs;
+    // Overflow iff both operands have the same sign and the sum has the other one, like Math.addExact.
+    if (((lhs ^ sum) & (rhs ^ sum)) < 0) {
+      throw new ArithmeticException(
+          "exampleSum overflowed the range of a long in fixed-point mode; use a smaller scale, "
+          + "or remove it to sum doubles"
+      );
+    }
+    return sum;
+  }
+
+  /**
+   * Rounds a floating-point input to the nearest whole unit.
+   */
+  static long round(double value)
+  {
+    if (!(Math.abs(value) < 0x1p63)) {
+      throw new ArithmeticException(
+          StringUtils.format("exampleSum cannot represent value[%s] in fixed-point mode", value)
+      );
+    }
+    return Math.round(value);
+  }
+
+  /**
+   * Rounds the current value of a selector that may hold floating-point numbers, such as one of unknown type.
+   * Doubles skip some longs past 2^53, but values that large have nothing to round, so those are read as longs to
+   * stay exact.
+   */
+  static long round(ColumnValueSelector<?> selector)
+  {
+    final double value = selector.getDouble();
+    return isExact(value) ? Math.round(value) : roundLarge(value, selector.getLong());
+  }
+
+  /**
+   * Whether a double can be rounded as-is, that is, whether doubles near it still hold every long.
+   */
+  static boolean isExact(double value)
+  {
+    return Math.abs(value) < 0x1p53;
+  }
+
+  /**
+   * Rounds a value that fails {@link #isExact}, given the same input read as a long. Throws if the value doesn't fit
+   * in a long at all.
+   */
+  static long roundLarge(double value, long longValue)
+  {
+    round(value);
+    return longValue;
+  }
+
+  static double toDouble(long units, int scale)
+  {
+    // BigDecimal rounds correctly, which a plain division by a power of ten does not always do.
+    return scale == 0 ? (double) units : BigDecimal.valueOf(units, scale).doubleValue();
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.LongAggregateCombiner;
+import org.apache.druid.segment.ColumnValueSelector;
+
+/**
+ * Fixed-point version of {@link ExampleSumAggregateCombiner}.
+ */
+public class ExampleFixedPointSumAggregateCombiner extends LongAggregateCombiner
+{
+  private long sum;
+
+  @Override
+  public void reset(ColumnValueSelector selector)
+  {
+    sum = selector.isNull() ? 0L : selector.getLong();
+  }
+
+  @Override
+  public void fold(ColumnValueSelector selector)
+  {
+    if (!selector.isNull()) {
+      sum = ExampleFixedPoint.add(sum, selector.getLong());
+    }
+  }
+
+  @Override
+  public long getLong()
+  {
+    return sum;
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.Aggregator;
+import org.apache.druid.segment.BaseLongColumnValueSelector;
+import org.apache.druid.segment.ColumnValueSelector;
+import org.apache.druid.segment.NilColumnValueSelector;
+
+/**
+ * Fixed-point version of {@link ExampleSumAggregator}: sums whole units into a long. Integer inputs are added as-is;
+ * floating-point inputs, and inputs of unknown type, are rounded to the nearest unit first.
+ */
+public abstract class ExampleFixedPointSumAggregator implements Aggregator
+{
+  private static final ExampleFixedPointSumAggregator NIL = new NilInput();
+
+  protected long sum;
+
+  public static ExampleFixedPointSumAggregator create(
+      final ColumnValueSelector<?> selector,
+      final boolean floatingPoint
+  )
+  {
+    if (selector instanceof NilColumnValueSelector) {
+      return NIL;
+    }
+    return floatingPoint ? new DoubleInput(selector) : new LongInput(selector);
+  }
+
+  @Override
+  public Object get()
+  {
+    return sum;
+  }
+
+  @Override
+  public float getFloat()
+  {
+    return (float) sum;
+  }
+
+  @Override
+  public long getLong()
+  {
+    return sum;
+  }
+
+  @Override
+  public double getDouble()
+  {
+    return (double) sum;
+  }
+
+  /**
+   * Estimated on-heap size of this aggregator, used for memory accounting in the incremental index.
+   */
+  int getEstimatedSizeBytes()
+  {
+    return ExampleSumAggregator.ESTIMATED_SIZE_BYTES;
+  }
+
+  @Override
+  public void close()
+  {
+    // no resources to cleanup
+  }
+
+  private static final class NilInput extends ExampleFixedPointSumAggregator
+  {
+    @Override
+    public void aggregate()
+    {
+      // the column does not exist, so every row contributes zero
+    }
+
+    @Override
+    int getEstimatedSizeBytes()
+    {
+      // shared instance, so rows don't pay for it
+      return 0;
+    }
+  }
+
+  private static final class LongInput extends ExampleFixedPointSumAggregator
+  {
+    private final BaseLongColumnValueSelector selector;
+
+    LongInput(BaseLongColumnValueSelector selector)
+    {
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate()
+    {
+      if (!selector.isNull()) {
+        sum = ExampleFixedPoint.add(sum, selector.getLong());
+      }
+    }
+  }
+
+  private static final class DoubleInput extends ExampleFixedPointSumAggregator
+  {
+    private final ColumnValueSelector<?> selector;
+
+    DoubleInput(ColumnValueSelector<?> selector)
+    {
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate()
+    {
+      if (!selector.isNull()) {
+        sum = ExampleFixedPoint.add(sum, ExampleFixedPoint.round(selector));
+      }
+    }
+  }
+}
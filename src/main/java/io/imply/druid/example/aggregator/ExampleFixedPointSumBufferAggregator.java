@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.BufferAggregator;
+import org.apache.druid.segment.BaseLongColumnValueSelector;
+import org.apache.druid.segment.ColumnValueSelector;
+import org.apache.druid.segment.NilColumnValueSelector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Buffer-based version of {@link ExampleFixedPointSumAggregator}. Every implementation stores a single long per slot.
+ */
+public abstract class ExampleFixedPointSumBufferAggregator implements BufferAggregator
+{
+  /**
+   * Picks an implementation the same way as {@link ExampleFixedPointSumAggregator#create}.
+   */
+  public static ExampleFixedPointSumBufferAggregator create(
+      final ColumnValueSelector<?> selector,
+      final boolean floatingPoint
+  )
+  {
+    if (selector instanceof NilColumnValueSelector) {
+      return new NilInput();
+    }
+    return floatingPoint ? new DoubleInput(selector) : new LongInput(selector);
+  }
+
+  @Override
+  public final void init(final ByteBuffer buf, final int position)
+  {
+    buf.putLong(position, 0L);
+  }
+
+  @Override
+  public final Object get(ByteBuffer buf, int position)
+  {
+    return buf.getLong(position);
+  }
+
+  @Override
+  public final float getFloat(ByteBuffer buf, int position)
+  {
+    return (float) buf.getLong(position);
+  }
+
+  @Override
+  public final long getLong(ByteBuffer buf, int position)
+  {
+    return buf.getLong(position);
+  }
+
+  @Override
+  public final double getDouble(ByteBuffer buf, int position)
+  {
+    return (double) buf.getLong(position);
+  }
+
+  @Override
+  public void close()
+  {
+    // no resources to cleanup
+  }
+
+  private static final class NilInput extends ExampleFixedPointSumBufferAggregator
+  {
+    @Override
+    public void aggregate(ByteBuffer buf, int position)
+    {
+      // the column does not exist, so every row contributes zero
+    }
+  }
+
+  private static final class LongInput extends ExampleFixedPointSumBufferAggregator
+  {
+    private final BaseLongColumnValueSelector selector;
+
+    LongInput(BaseLongColumnValueSelector selector)
+    {
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate(ByteBuffer buf, int position)
+    {
+      if (!selector.isNull()) {
+        buf.putLong(position, ExampleFixedPoint.add(buf.getLong(position), selector.getLong()));
+      }
+    }
+  }
+
+  private static final class DoubleInput extends ExampleFixedPointSumBufferAggregator
+  {
+    private final ColumnValueSelector<?> selector;
+
+    DoubleInput(ColumnValueSelector<?> selector)
+    {
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate(ByteBuffer buf, int position)
+    {
+      if (!selector.isNull()) {
+        final long value = ExampleFixedPoint.round(selector);
+        buf.putLong(position, ExampleFixedPoint.add(buf.getLong(position), value));
+      }
+    }
+  }
+}
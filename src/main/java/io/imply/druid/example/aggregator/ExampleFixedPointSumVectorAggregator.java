@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.VectorAggregator;
+import org.apache.druid.segment.vector.VectorValueSelector;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * Vectorized version of {@link ExampleFixedPointSumBufferAggregator}. Uses the same buffer layout: a single long per
+ * slot. Integer inputs are read through the long vector, so no conversions happen in the loop. Floating-point inputs
+ * are rounded as in the buffer aggregator: values too large to round exactly are taken from the long vector, which is
+ * only read if the batch has one.
+ */
+public class ExampleFixedPointSumVectorAggregator implements VectorAggregator
+{
+  private final VectorValueSelector selector;
+  private final boolean floatingPoint;
+
+  ExampleFixedPointSumVectorAggregator(VectorValueSelector selector, boolean floatingPoint)
+  {
+    this.selector = selector;
+    this.floatingPoint = floatingPoint;
+  }
+
+  @Override
+  public void init(final ByteBuffer buf, final int position)
+  {
+    buf.putLong(position, 0L);
+  }
+
+  @Override
+  public void aggregate(final ByteBuffer buf, final int position, final int startRow, final int endRow)
+  {
+    final boolean[] nullVector = selector.getNullVector();
+
+    long sum = buf.getLong(position);
+
+    if (floatingPoint) {
+      final double[] vector = selector.getDoubleVector();
+      long[] longVector = null;
+      for (int i = startRow; i < endRow; i++) {
+        if (nullVector == null || !nullVector[i]) {
+          final double value = vector[i];
+          if (ExampleFixedPoint.isExact(value)) {
+            sum = ExampleFixedPoint.add(sum, Math.round(value));
+          } else {
+            if (longVector == null) {
+              longVector = selector.getLongVector();
+            }
+            sum = ExampleFixedPoint.add(sum, ExampleFixedPoint.roundLarge(value, longVector[i]));
+          }
+        }
+      }
+    } else {
+      final long[] vector = selector.getLongVector();
+      if (nullVector == null) {
+        for (int i = startRow; i < endRow; i++) {
+          sum = ExampleFixedPoint.add(sum, vector[i]);
+        }
+      } else {
+        for (int i = startRow; i < endRow; i++) {
+          if (!nullVector[i]) {
+            sum = ExampleFixedPoint.add(sum, vector[i]);
+          }
+        }
+      }
+    }
+
+    buf.putLong(position, sum);
+  }
+
+  @Override
+  public void aggregate(
+      final ByteBuffer buf,
+      final int numRows,
+      final int[] positions,
+      @Nullable final int[] rows,
+      final int positionOffset
+  )
+  {
+    final boolean[] nullVector = selector.getNullVector();
+    final double[] doubleVector = floatingPoint ? selector.getDoubleVector() : null;
+    long[] longVector = floatingPoint ? null : selector.getLongVector();
+
+    for (int i = 0; i < numRows; i++) {
+      final int row = rows != null ? rows[i] : i;
+
+      if (nullVector == null || !nullVector[row]) {
+        final int position = positions[i] + positionOffset;
+        final long value;
+        if (!floatingPoint) {
+          value = longVector[row];
+        } else if (ExampleFixedPoint.isExact(doubleVector[row])) {
+          value = Math.round(doubleVector[row]);
+        } else {
+          if (longVector == null) {
+            longVector = selector.getLongVector();
+          }
+          value = ExampleFixedPoint.roundLarge(doubleVector[row], longVector[row]);
+        }
+        buf.putLong(position, ExampleFixedPoint.add(buf.getLong(position), value));
+      }
+    }
+  }
+
+  @Override
+  public Object get(final ByteBuffer buf, final int position)
+  {
+    return buf.getLong(position);
+  }
+
+  @Override
+  public void close()
+  {
+    // no resources to cleanup
+  }
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.apache.druid.java.util.common.IAE;
+import org.apache.druid.java.util.common.StringUtils;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Weighted space-saving summary: keeps at most "maxEntries" keys with an estimated sum of weights for each. A key
+ * that is not in a full summary replaces the one with the smallest estimate, and inherits that estimate as its error.
+ * Every estimate is an upper bound on the true sum of the key, and overestimates it by at most its error, which is
+ * at most the total weight divided by "maxEntries".
+ *
+ * Keys are found through a hash index, and a binary min-heap over the estimates finds the one to replace, so each row
+ * costs O(1) on a hit and O(log maxEntries) on a miss. Ties between estimates go to the lowest entry index, so the
+ * replaced entry does not depend on the shape of the heap.
+ *
+ * This is the intermediate value of {@link ExampleHeavyHittersAggregatorFactory}, and is serialized to JSON as the
+ * base64 form of {@link #toBytes()}.
+ */
+public class ExampleHeavyHitters
+{
+  private static final byte VERSION = 1;
+  private static final int NULL_KEY_LENGTH = -1;
+
+  private static final Comparator<String> KEY_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+
+  private final int maxEntries;
+  private final String[] keys;
+  private final double[] weights;
+  private final double[] errors;
+  private final Object2IntOpenHashMap<String> index;
+  // Entry indexes ordered as a min-heap by estimate, and the position of each entry in it.
+  private final int[] heap;
+  private final int[] heapPositions;
+  private int size;
+
+  public ExampleHeavyHitters(int maxEntries)
+  {
+    this.maxEntries = maxEntries;
+    this.keys = new String[maxEntries];
+    this.weights = new double[maxEntries];
+    this.errors = new double[maxEntries];
+    this.index = new Object2IntOpenHashMap<>();
+    this.index.defaultReturnValue(-1);
+    this.heap = new int[maxEntries];
+    this.heapPositions = new int[maxEntries];
+  }
+
+  /**
+   * Adds the weight of one row. Rows with a weight that is not positive are skipped, since space-saving relies on
+   * estimates only growing.
+   */
+  public void add(@Nullable String key, double weight)
+  {
+    if (weight > 0) {
+      add(key, weight, 0);
+    }
+  }
+
+  /**
+   * Adds an entry of another summary, or of a buffer slot, as if it were a row with the given weight.
+   */
+  void add(@Nullable String key, double weight, double error)
+  {
+    final int i = index.getInt(key);
+    if (i >= 0) {
+      weights[i] += weight;
+      errors[i] += error;
+      siftDown(heapPositions[i]);
+    } else if (size < maxEntries) {
+      append(key, weight, error);
+    } else {
+      final int min = heap[0];
+      index.removeInt(keys[min]);
+      set(min, key, weights[min] + weight, weights[min] + error);
+      siftDown(0);
+    }
+  }
+
+  /**
+   * Merges two summaries into a new one with the capacity of the larger, so neither side loses entries it could
+   * keep. Keys missing from a full summary may have
+   * had any weight up to that summary's smallest estimate, so they get that estimate added to both their weight and
+   * their error. Then only the largest estimates are kept.
+   */
+  public static ExampleHeavyHitters merge(ExampleHeavyHitters lhs, ExampleHeavyHitters rhs)
+  {
+    final double lhsMin = lhs.getMinWeight();
+    final double rhsMin = rhs.getMinWeight();
+
+    final int capacity = lhs.size + rhs.size;
+    final String[] keys = new String[capacity];
+    final double[] weights = new double[capacity];
+    final double[] errors = new double[capacity];
+    int n = 0;
+
+    for (int i = 0; i < lhs.size; i++) {
+      final int j = rhs.index.getInt(lhs.keys[i]);
+      keys[n] = lhs.keys[i];
+      weights[n] = lhs.weights[i] + (j >= 0 ? rhs.weights[j] : rhsMin);
+      errors[n] = lhs.errors[i] + (j >= 0 ? rhs.errors[j] : rhsMin);
+      n++;
+    }
+    for (int j = 0; j < rhs.size; j++) {
+      if (!lhs.index.containsKey(rhs.keys[j])) {
+        keys[n] = rhs.keys[j];
+        weights[n] = rhs.weights[j] + lhsMin;
+        errors[n] = rhs.errors[j] + lhsMin;
+        n++;
+      }
+    }
+
+    final int[] order = sortedOrder(keys, weights, n);
+    final ExampleHeavyHitters merged = new ExampleHeavyHitters(Math.max(lhs.maxEntries, rhs.maxEntries));
+    for (int k = 0; k < Math.min(n, merged.maxEntries); k++) {
+      merged.append(keys[order[k]], weights[order[k]], errors[order[k]]);
+    }
+    return merged;
+  }
+
+  /**
+   * Copy that later changes to this summary don't affect.
+   */
+  public ExampleHeavyHitters copy()
+  {
+    final ExampleHeavyHitters copy = new ExampleHeavyHitters(maxEntries);
+    for (int i = 0; i < size; i++) {
+      copy.append(keys[i], weights[i], errors[i]);
+    }
+    return copy;
+  }
+
+  public int getMaxEntries()
+  {
+    return maxEntries;
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  @Nullable
+  public String getKey(int i)
+  {
+    return keys[i];
+  }
+
+  public double getWeight(int i)
+  {
+    return weights[i];
+  }
+
+  public double getError(int i)
+  {
+    return errors[i];
+  }
+
+  /**
+   * Smallest estimate of a full summary, which bounds the weight of every key it does not hold. Zero if the summary
+   * is not full, since then it holds every key it has seen.
+   */
+  public double getMinWeight()
+  {
+    return size < maxEntries ? 0 : weights[heap[0]];
+  }
+
+  public double getMaxWeight()
+  {
+    double max = 0;
+    for (int i = 0; i < size; i++) {
+      max = Math.max(max, weights[i]);
+    }
+    return max;
+  }
+
+  /**
+   * Returns the entries from the largest estimate to the smallest, as maps with "key", "sum" and "error".
+   */
+  public List<Map<String, Object>> toResult()
+  {
+    final int[] order = sortedOrder(keys, weights, size);
+    final List<Map<String, Object>> result = new ArrayList<>(size);
+    for (int i : order) {
+      final Map<String, Object> entry = new LinkedHashMap<>();
+      entry.put("key", keys[i]);
+      entry.put("sum", weights[i]);
+      entry.put("error", errors[i]);
+      result.add(entry);
+    }
+    return result;
+  }
+
+  /**
+   * Binary form: version byte, maxEntries, size, then for each entry its weight, its error and its key as a length
+   * followed by UTF-8 bytes. Null keys have length -1.
+   */
+  public byte[] toBytes()
+  {
+    final byte[][] keyBytes = new byte[size][];
+    int length = 1 + Integer.BYTES * 2;
+    for (int i = 0; i < size; i++) {
+      keyBytes[i] = StringUtils.toUtf8Nullable(keys[i]);
+      length += Double.BYTES * 2 + Integer.BYTES + (keyBytes[i] == null ? 0 : keyBytes[i].length);
+    }
+
+    final ByteBuffer buf = ByteBuffer.allocate(length);
+    buf.put(VERSION).putInt(maxEntries).putInt(size);
+    for (int i = 0; i < size; i++) {
+      buf.putDouble(weights[i]).putDouble(errors[i]);
+      if (keyBytes[i] == null) {
+        buf.putInt(NULL_KEY_LENGTH);
+      } else {
+        buf.putInt(keyBytes[i].length).put(keyBytes[i]);
+      }
+    }
+    return buf.array();
+  }
+
+  public static ExampleHeavyHitters fromBytes(ByteBuffer buf)
+  {
+    final byte version = buf.get();
+    if (version != VERSION) {
+      throw new IAE("Unknown %s version [%d]", ExampleHeavyHitters.class.getSimpleName(), version);
+    }
+
+    final ExampleHeavyHitters summary = new ExampleHeavyHitters(buf.getInt());
+    final int size = buf.getInt();
+    for (int i = 0; i < size; i++) {
+      final double weight = buf.getDouble();
+      final double error = buf.getDouble();
+      final int keyLength = buf.getInt();
+      final String key;
+      if (keyLength == NULL_KEY_LENGTH) {
+        key = null;
+      } else {
+        key = StringUtils.fromUtf8(buf, keyLength);
+      }
+      summary.append(key, weight, error);
+    }
+    return summary;
+  }
+
+  @JsonValue
+  public String toBase64()
+  {
+    return StringUtils.encodeBase64String(toBytes());
+  }
+
+  public static ExampleHeavyHitters fromBase64(String base64)
+  {
+    return fromBytes(ByteBuffer.wrap(StringUtils.decodeBase64String(base64)));
+  }
+
+  private void append(@Nullable String key, double weight, double error)
+  {
+    final int i = size++;
+    set(i, key, weight, error);
+    heap[i] = i;
+    heapPositions[i] = i;
+    siftUp(i);
+  }
+
+  private void set(int i, @Nullable String key, double weight, double error)
+  {
+    keys[i] = key;
+    weights[i] = weight;
+    errors[i] = error;
+    index.put(key, i);
+  }
+
+  /**
+   * Whether entry "a" comes before entry "b" in the heap: a smaller estimate, or the same one and a lower index.
+   */
+  private boolean isBefore(int a, int b)
+  {
+    return weights[a] < weights[b] || (weights[a] == weights[b] && a < b);
+  }
+
+  private void siftUp(int pos)
+  {
+    final int entry = heap[pos];
+    while (pos > 0) {
+      final int parent = (pos - 1) >>> 1;
+      if (!isBefore(entry, heap[parent])) {
+        break;
+      }
+      moveInHeap(heap[parent], pos);
+      pos = parent;
+    }
+    moveInHeap(entry, pos);
+  }
+
+  /**
+   * Restores the heap after the estimate at "pos" grew. Estimates never shrink, so entries only move down.
+   */
+  private void siftDown(int pos)
+  {
+    final int entry = heap[pos];
+    while (true) {
+      int child = 2 * pos + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && isBefore(heap[child + 1], heap[child])) {
+        child++;
+      }
+      if (!isBefore(heap[child], entry)) {
+        break;
+      }
+      moveInHeap(heap[child], pos);
+      pos = child;
+    }
+    moveInHeap(entry, pos);
+  }
+
+  private void moveInHeap(int entry, int pos)
+  {
+    heap[pos] = entry;
+    heapPositions[entry] = pos;
+  }
+
+  /**
+   * Indexes of the first "n" entries, from the largest weight to the smallest, with ties broken by key so the order
+   * does not depend on the order entries were added in.
+   */
+  private static int[] sortedOrder(String[] keys, double[] weights, int n)
+  {
+    final int[] order = new int[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    IntArrays.quickSort(order, (a, b) -> {
+      final int cmp = Double.compare(weights[b], weights[a]);
+      return cmp != 0 ? cmp : KEY_ORDER.compare(keys[a], keys[b]);
+    });
+    return order;
+  }
+
+  @Override
+  public boolean equals(Object o)
+  {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    final ExampleHeavyHitters that = (ExampleHeavyHitters) o;
+    return maxEntries == that.maxEntries && toResult().equals(that.toResult());
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return Objects.hash(maxEntries, toResult());
+  }
+
+  @Override
+  public String toString()
+  {
+    return "ExampleHeavyHitters{" +
+           "maxEntries=" + maxEntries +
+           ", entries=" + toResult() +
+           '}';
+  }
+}
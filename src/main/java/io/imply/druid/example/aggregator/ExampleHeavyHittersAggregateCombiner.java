@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.ObjectAggregateCombiner;
+import org.apache.druid.segment.ColumnValueSelector;
+
+import javax.annotation.Nullable;
+
+/**
+ * Merges exampleHeavyHitters summaries while merging segments (rollup and compaction). Summaries read from the
+ * selector are never changed: merging makes a new one.
+ */
+public class ExampleHeavyHittersAggregateCombiner extends ObjectAggregateCombiner<ExampleHeavyHitters>
+{
+  @Nullable
+  private ExampleHeavyHitters summary;
+
+  @Override
+  public void reset(ColumnValueSelector selector)
+  {
+    final ExampleHeavyHitters other = ExampleHeavyHittersAggregatorFactory.toSummary(selector.getObject());
+    summary = other == null ? null : other.copy();
+  }
+
+  @Override
+  public void fold(ColumnValueSelector selector)
+  {
+    final ExampleHeavyHitters other = ExampleHeavyHittersAggregatorFactory.toSummary(selector.getObject());
+    if (other == null) {
+      return;
+    }
+    summary = summary == null ? other.copy() : ExampleHeavyHitters.merge(summary, other);
+  }
+
+  @Nullable
+  @Override
+  public ExampleHeavyHitters getObject()
+  {
+    return summary;
+  }
+
+  @Override
+  public Class<ExampleHeavyHitters> classOfObject()
+  {
+    return ExampleHeavyHitters.class;
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.Aggregator;
+import org.apache.druid.segment.BaseDoubleColumnValueSelector;
+import org.apache.druid.segment.BaseObjectColumnValueSelector;
+import org.apache.druid.segment.DimensionSelector;
+import org.apache.druid.segment.data.IndexedInts;
+
+/**
+ * Builds an {@link ExampleHeavyHitters} summary on heap.
+ */
+public abstract class ExampleHeavyHittersAggregator implements Aggregator
+{
+  protected ExampleHeavyHitters summary;
+
+  ExampleHeavyHittersAggregator(int maxEntries)
+  {
+    this.summary = new ExampleHeavyHitters(maxEntries);
+  }
+
+  /**
+   * Returns a copy, since the summary keeps changing as rows are aggregated, like the buffer aggregators do.
+   */
+  @Override
+  public Object get()
+  {
+    return summary.copy();
+  }
+
+  @Override
+  public float getFloat()
+  {
+    throw new UnsupportedOperationException("ExampleHeavyHittersAggregator does not support getFloat()");
+  }
+
+  @Override
+  public long getLong()
+  {
+    throw new UnsupportedOperationException("ExampleHeavyHittersAggregator does not support getLong()");
+  }
+
+  @Override
+  public void close()
+  {
+    // no resources to cleanup
+  }
+
+  static final class FieldInput extends ExampleHeavyHittersAggregator
+  {
+    private final DimensionSelector keySelector;
+    private final BaseDoubleColumnValueSelector weightSelector;
+
+    FieldInput(DimensionSelector keySelector, BaseDoubleColumnValueSelector weightSelector, int maxEntries)
+    {
+      super(maxEntries);
+      this.keySelector = keySelector;
+      this.weightSelector = weightSelector;
+    }
+
+    @Override
+    public void aggregate()
+    {
+      if (weightSelector.isNull()) {
+        return;
+      }
+
+      final double weight = weightSelector.getDouble();
+      final IndexedInts row = keySelector.getRow();
+      final int size = row.size();
+      if (size == 0) {
+        summary.add(null, weight);
+      }
+      // Like grouping on a multi-value dimension, each value of the row gets the full weight.
+      for (int i = 0; i < size; i++) {
+        summary.add(keySelector.lookupName(row.get(i)), weight);
+      }
+    }
+  }
+
+  static final class SummaryInput extends ExampleHeavyHittersAggregator
+  {
+    private final BaseObjectColumnValueSelector<?> selector;
+
+    SummaryInput(BaseObjectColumnValueSelector<?> selector, int maxEntries)
+    {
+      super(maxEntries);
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate()
+    {
+      final ExampleHeavyHitters other = ExampleHeavyHittersAggregatorFactory.toSummary(selector.getObject());
+      if (other != null) {
+        summary = ExampleHeavyHitters.merge(summary, other);
+      }
+    }
+  }
+}
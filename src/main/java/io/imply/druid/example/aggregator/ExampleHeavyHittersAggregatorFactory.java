@@ -0,0 +1,371 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Doubles;
+import org.apache.druid.java.util.common.IAE;
+import org.apache.druid.query.aggregation.AggregateCombiner;
+import org.apache.druid.query.aggregation.Aggregator;
+import org.apache.druid.query.aggregation.AggregatorFactory;
+import org.apache.druid.query.aggregation.AggregatorFactoryNotMergeableException;
+import org.apache.druid.query.aggregation.BufferAggregator;
+import org.apache.druid.query.cache.CacheKeyBuilder;
+import org.apache.druid.query.dimension.DefaultDimensionSpec;
+import org.apache.druid.segment.ColumnSelectorFactory;
+import org.apache.druid.segment.column.ColumnType;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Finds the keys with the largest sums of a weight column, such as the accounts with the most revenue, in bounded
+ * memory. The intermediate value is an {@link ExampleHeavyHitters} summary of at most "maxEntries" keys, which merges
+ * across segments and servers. The result lists the summary's keys from the largest estimated sum to the smallest.
+ *
+ * Buffer aggregators keep the summary in a fixed-size slot of the aggregation buffer, see
+ * {@link ExampleHeavyHittersBufferHelper}.
+ */
+public class ExampleHeavyHittersAggregatorFactory extends AggregatorFactory
+{
+  // Type name for JSON, and for the complex type of the intermediate value.
+  public static final String TYPE_NAME = "exampleHeavyHitters";
+  public static final ColumnType TYPE = ColumnType.ofComplex(TYPE_NAME);
+
+  public static final int DEFAULT_MAX_ENTRIES = 128;
+  public static final int DEFAULT_MAX_KEY_BYTES = 64;
+
+  // Upper bounds, to keep the buffer slot size reasonable.
+  public static final int MAX_MAX_ENTRIES = 1 << 14;
+  private static final int MAX_MAX_KEY_BYTES = 1 << 12;
+
+  // Second byte of our cache keys; see ExampleDistinctSumAggregatorFactory for the others.
+  private static final byte CACHE_KEY_SITE_ID = (byte) 0x03;
+
+  private static final Comparator<Object> COMPARATOR = new Ordering<Object>()
+  {
+    @Override
+    public int compare(Object o, Object o1)
+    {
+      return Doubles.compare(toSummary(o).getMaxWeight(), toSummary(o1).getMaxWeight());
+    }
+  }.nullsFirst();
+
+  private final String name;
+  private final String fieldName;
+  private final String weightFieldName;
+  private final int maxEntries;
+  private final int maxKeyBytes;
+  private final boolean combine;
+
+  /**
+   * @param fieldName       column with the keys to rank. Multi-value rows add their weight to each of their values.
+   * @param weightFieldName numeric column to sum for each key. Rows with a weight that is null or not positive are
+   *                        skipped.
+   * @param maxEntries      number of keys in the summary. Larger summaries are more accurate: an estimate is off by at
+   *                        most the total weight divided by "maxEntries".
+   * @param maxKeyBytes     space for each key in the aggregation buffer. A longer key moves the summary on heap. Does
+   *                        not change results, so it is not part of the cache key.
+   * @param combine         if true, this is a combining factory: it reads summaries from the column named "name".
+   */
+  @JsonCreator
+  public ExampleHeavyHittersAggregatorFactory(
+      @JsonProperty("name") final String name,
+      @JsonProperty("fieldName") final String fieldName,
+      @JsonProperty("weightFieldName") final String weightFieldName,
+      @JsonProperty("maxEntries") @Nullable final Integer maxEntries,
+      @JsonProperty("maxKeyBytes") @Nullable final Integer maxKeyBytes,
+      @JsonProperty("combine") @Nullable final Boolean combine
+  )
+  {
+    this.name = Preconditions.checkNotNull(name, "name");
+    this.fieldName = Preconditions.checkNotNull(fieldName, "fieldName");
+    this.weightFieldName = Preconditions.checkNotNull(weightFieldName, "weightFieldName");
+    this.maxEntries = maxEntries == null ? DEFAULT_MAX_ENTRIES : maxEntries;
+    Preconditions.checkArgument(
+        this.maxEntries > 0 && this.maxEntries <= MAX_MAX_ENTRIES,
+        "maxEntries must be between 1 and %s",
+        MAX_MAX_ENTRIES
+    );
+    this.maxKeyBytes = maxKeyBytes == null ? DEFAULT_MAX_KEY_BYTES : maxKeyBytes;
+    Preconditions.checkArgument(
+        this.maxKeyBytes >= 0 && this.maxKeyBytes <= MAX_MAX_KEY_BYTES,
+        "maxKeyBytes must be between 0 and %s",
+        MAX_MAX_KEY_BYTES
+    );
+    this.combine = combine != null && combine;
+  }
+
+  public ExampleHeavyHittersAggregatorFactory(
+      final String name,
+      final String fieldName,
+      final String weightFieldName,
+      @Nullable final Integer maxEntries
+  )
+  {
+    this(name, fieldName, weightFieldName, maxEntries, null, null);
+  }
+
+  @Override
+  public Aggregator factorize(ColumnSelectorFactory metricFactory)
+  {
+    if (combine) {
+      return new ExampleHeavyHittersAggregator.SummaryInput(metricFactory.makeColumnValueSelector(name), maxEntries);
+    }
+    return new ExampleHeavyHittersAggregator.FieldInput(
+        metricFactory.makeDimensionSelector(DefaultDimensionSpec.of(fieldName)),
+        metricFactory.makeColumnValueSelector(weightFieldName),
+        maxEntries
+    );
+  }
+
+  @Override
+  public BufferAggregator factorizeBuffered(ColumnSelectorFactory metricFactory)
+  {
+    final ExampleHeavyHittersBufferHelper helper = new ExampleHeavyHittersBufferHelper(maxEntries, maxKeyBytes);
+    if (combine) {
+      return new ExampleHeavyHittersBufferAggregator.SummaryInput(metricFactory.makeColumnValueSelector(name), helper);
+    }
+    return new ExampleHeavyHittersBufferAggregator.FieldInput(
+        metricFactory.makeDimensionSelector(DefaultDimensionSpec.of(fieldName)),
+        metricFactory.makeColumnValueSelector(weightFieldName),
+        helper
+    );
+  }
+
+  @Override
+  public Comparator getComparator()
+  {
+    return COMPARATOR;
+  }
+
+  @Override
+  public Object combine(Object lhs, Object rhs)
+  {
+    if (rhs == null) {
+      return lhs;
+    }
+    if (lhs == null) {
+      return rhs;
+    }
+    return ExampleHeavyHitters.merge(toSummary(lhs), toSummary(rhs));
+  }
+
+  @Override
+  public AggregateCombiner makeAggregateCombiner()
+  {
+    return new ExampleHeavyHittersAggregateCombiner();
+  }
+
+  @Override
+  public AggregatorFactory getCombiningFactory()
+  {
+    return new ExampleHeavyHittersAggregatorFactory(name, fieldName, weightFieldName, maxEntries, maxKeyBytes, true);
+  }
+
+  @Override
+  public AggregatorFactory getMergingFactory(AggregatorFactory other) throws AggregatorFactoryNotMergeableException
+  {
+    if (other.getName().equals(this.getName()) && this.getClass() == other.getClass()) {
+      // Summaries of different sizes still merge, into one with the larger size.
+      final ExampleHeavyHittersAggregatorFactory that = (ExampleHeavyHittersAggregatorFactory) other;
+      return new ExampleHeavyHittersAggregatorFactory(
+          name,
+          fieldName,
+          weightFieldName,
+          Math.max(maxEntries, that.maxEntries),
+          Math.max(maxKeyBytes, that.maxKeyBytes),
+          true
+      );
+    } else {
+      throw new AggregatorFactoryNotMergeableException(this, other);
+    }
+  }
+
+  @Override
+  public AggregatorFactory withName(String newName)
+  {
+    return new ExampleHeavyHittersAggregatorFactory(
+        newName,
+        fieldName,
+        weightFieldName,
+        maxEntries,
+        maxKeyBytes,
+        combine
+    );
+  }
+
+  @Override
+  public List<AggregatorFactory> getRequiredColumns()
+  {
+    return ImmutableList.of(
+        new ExampleHeavyHittersAggregatorFactory(fieldName, fieldName, weightFieldName, maxEntries, maxKeyBytes, false)
+    );
+  }
+
+  @Override
+  public Object deserialize(Object object)
+  {
+    return toSummary(object);
+  }
+
+  @Nullable
+  @Override
+  public Object finalizeComputation(@Nullable Object object)
+  {
+    return object == null ? null : toSummary(object).toResult();
+  }
+
+  @JsonProperty
+  public String getFieldName()
+  {
+    return fieldName;
+  }
+
+  @JsonProperty
+  public String getWeightFieldName()
+  {
+    return weightFieldName;
+  }
+
+  @JsonProperty
+  public int getMaxEntries()
+  {
+    return maxEntries;
+  }
+
+  @JsonProperty
+  public int getMaxKeyBytes()
+  {
+    return maxKeyBytes;
+  }
+
+  @JsonProperty
+  @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+  public boolean isCombine()
+  {
+    return combine;
+  }
+
+  @Override
+  @JsonProperty
+  public String getName()
+  {
+    return name;
+  }
+
+  @Override
+  public List<String> requiredFields()
+  {
+    return combine ? ImmutableList.of(name) : ImmutableList.of(fieldName, weightFieldName);
+  }
+
+  @Override
+  public byte[] getCacheKey()
+  {
+    final CacheKeyBuilder builder = new CacheKeyBuilder((byte) 0xFF)
+        .appendByte(CACHE_KEY_SITE_ID)
+        .appendBoolean(combine)
+        .appendInt(maxEntries);
+    if (combine) {
+      return builder.appendString(name).build();
+    }
+    return builder.appendString(fieldName).appendString(weightFieldName).build();
+  }
+
+  @Override
+  public ColumnType getIntermediateType()
+  {
+    return TYPE;
+  }
+
+  @Override
+  public ColumnType getResultType()
+  {
+    return ColumnType.NESTED_DATA;
+  }
+
+  @Override
+  public int getMaxIntermediateSize()
+  {
+    return ExampleHeavyHittersBufferHelper.getBufferSize(maxEntries, maxKeyBytes);
+  }
+
+  /**
+   * Reads a summary in any of the forms it can take: the object itself from aggregators, base64 strings from JSON, or
+   * bytes.
+   */
+  @Nullable
+  static ExampleHeavyHitters toSummary(@Nullable Object object)
+  {
+    if (object == null || object instanceof ExampleHeavyHitters) {
+      return (ExampleHeavyHitters) object;
+    } else if (object instanceof String) {
+      return ExampleHeavyHitters.fromBase64((String) object);
+    } else if (object instanceof byte[]) {
+      return ExampleHeavyHitters.fromBytes(ByteBuffer.wrap((byte[]) object));
+    } else if (object instanceof ByteBuffer) {
+      return ExampleHeavyHitters.fromBytes(((ByteBuffer) object).duplicate());
+    }
+    throw new IAE("Cannot read %s from [%s]", TYPE_NAME, object.getClass().getName());
+  }
+
+  @Override
+  public boolean equals(final Object o)
+  {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    final ExampleHeavyHittersAggregatorFactory that = (ExampleHeavyHittersAggregatorFactory) o;
+    return maxEntries == that.maxEntries &&
+           maxKeyBytes == that.maxKeyBytes &&
+           combine == that.combine &&
+           Objects.equals(name, that.name) &&
+           Objects.equals(fieldName, that.fieldName) &&
+           Objects.equals(weightFieldName, that.weightFieldName);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return Objects.hash(name, fieldName, weightFieldName, maxEntries, maxKeyBytes, combine);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "ExampleHeavyHittersAggregatorFactory{" +
+           "name='" + name + '\'' +
+           ", fieldName='" + fieldName + '\'' +
+           ", weightFieldName='" + weightFieldName + '\'' +
+           ", maxEntries=" + maxEntries +
+           ", maxKeyBytes=" + maxKeyBytes +
+           ", combine=" + combine +
+           '}';
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.java.util.common.StringUtils;
+import org.apache.druid.query.aggregation.BufferAggregator;
+import org.apache.druid.segment.BaseDoubleColumnValueSelector;
+import org.apache.druid.segment.BaseObjectColumnValueSelector;
+import org.apache.druid.segment.DimensionSelector;
+import org.apache.druid.segment.data.IndexedInts;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * Buffer-based version of {@link ExampleHeavyHittersAggregator}. The slot layout is described in
+ * {@link ExampleHeavyHittersBufferHelper}.
+ */
+public abstract class ExampleHeavyHittersBufferAggregator implements BufferAggregator
+{
+  protected final ExampleHeavyHittersBufferHelper helper;
+
+  ExampleHeavyHittersBufferAggregator(ExampleHeavyHittersBufferHelper helper)
+  {
+    this.helper = helper;
+  }
+
+  @Override
+  public final void init(final ByteBuffer buf, final int position)
+  {
+    helper.init(buf, position);
+  }
+
+  @Override
+  public final Object get(ByteBuffer buf, int position)
+  {
+    return helper.get(buf, position);
+  }
+
+  @Override
+  public final float getFloat(ByteBuffer buf, int position)
+  {
+    throw new UnsupportedOperationException("ExampleHeavyHittersBufferAggregator does not support getFloat()");
+  }
+
+  @Override
+  public final long getLong(ByteBuffer buf, int position)
+  {
+    throw new UnsupportedOperationException("ExampleHeavyHittersBufferAggregator does not support getLong()");
+  }
+
+  @Override
+  public final void relocate(int oldPosition, int newPosition, ByteBuffer oldBuffer, ByteBuffer newBuffer)
+  {
+    helper.relocate(oldPosition, newPosition, oldBuffer, newBuffer);
+  }
+
+  @Override
+  public final void close()
+  {
+    helper.close();
+  }
+
+  static final class FieldInput extends ExampleHeavyHittersBufferAggregator
+  {
+    private final DimensionSelector keySelector;
+    private final BaseDoubleColumnValueSelector weightSelector;
+    private final boolean utf8;
+
+    FieldInput(
+        DimensionSelector keySelector,
+        BaseDoubleColumnValueSelector weightSelector,
+        ExampleHeavyHittersBufferHelper helper
+    )
+    {
+      super(helper);
+      this.keySelector = keySelector;
+      this.weightSelector = weightSelector;
+      this.utf8 = keySelector.supportsLookupNameUtf8();
+    }
+
+    @Override
+    public void aggregate(ByteBuffer buf, int position)
+    {
+      if (weightSelector.isNull()) {
+        return;
+      }
+
+      final double weight = weightSelector.getDouble();
+      final IndexedInts row = keySelector.getRow();
+      final int size = row.size();
+      if (size == 0) {
+        helper.add(buf, position, null, weight);
+      }
+      for (int i = 0; i < size; i++) {
+        helper.add(buf, position, lookupKey(row.get(i)), weight);
+      }
+    }
+
+    /**
+     * Reads the UTF-8 bytes of a key straight from the dictionary when the selector can, to skip decoding it.
+     */
+    @Nullable
+    private ByteBuffer lookupKey(int id)
+    {
+      if (utf8) {
+        return keySelector.lookupNameUtf8(id);
+      }
+      final String key = keySelector.lookupName(id);
+      return key == null ? null : StringUtils.toUtf8ByteBuffer(key);
+    }
+  }
+
+  static final class SummaryInput extends ExampleHeavyHittersBufferAggregator
+  {
+    private final BaseObjectColumnValueSelector<?> selector;
+
+    SummaryInput(BaseObjectColumnValueSelector<?> selector, ExampleHeavyHittersBufferHelper helper)
+    {
+      super(helper);
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate(ByteBuffer buf, int position)
+    {
+      final ExampleHeavyHitters other = ExampleHeavyHittersAggregatorFactory.toSummary(selector.getObject());
+      if (other != null) {
+        helper.merge(buf, position, other);
+      }
+    }
+  }
+}
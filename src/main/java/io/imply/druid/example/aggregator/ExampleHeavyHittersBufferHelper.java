@@ -0,0 +1,457 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import org.apache.druid.java.util.common.StringUtils;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+
+/**
+ * {@link ExampleHeavyHitters} summary stored in an aggregation buffer, used by
+ * {@link ExampleHeavyHittersBufferAggregator}.
+ *
+ * Each slot starts with an int holding the number of entries, followed by fixed-size arrays of "maxEntries" elements:
+ * a 64-bit hash of each key, the weights, the errors and the key lengths. Next comes an open-addressing hash table
+ * from key hash to entry index, with linear probing and twice as many cells as "maxEntries", then a binary min-heap of
+ * entry indexes ordered as in {@link ExampleHeavyHitters}, the position of each entry in that heap, and finally the
+ * UTF-8 bytes of the keys, with "maxKeyBytes" bytes for each. A row costs one probe on a hit, and O(log maxEntries)
+ * when it replaces the smallest entry. A key longer than "maxKeyBytes" moves the summary to the heap, and the count is
+ * set to {@link #SPILLED}.
+ */
+final class ExampleHeavyHittersBufferHelper
+{
+  private static final int SPILLED = -1;
+  private static final int HEADER_BYTES = Integer.BYTES;
+  private static final int NULL_KEY_LENGTH = -1;
+  private static final long NULL_KEY_HASH = 0x9E3779B97F4A7C15L;
+  // Table cells hold the entry index plus one, so that zero marks an empty cell.
+  private static final int EMPTY = 0;
+
+  private final int maxEntries;
+  private final int maxKeyBytes;
+  private final int mask;
+  private final int weightsOffset;
+  private final int errorsOffset;
+  private final int lengthsOffset;
+  private final int tableOffset;
+  private final int heapOffset;
+  private final int heapPositionsOffset;
+  private final int keysOffset;
+
+  // Summaries that moved on heap, by buffer and position, as in ExampleDistinctSumBufferHelper.
+  private final IdentityHashMap<ByteBuffer, Int2ObjectMap<ExampleHeavyHitters>> spilled = new IdentityHashMap<>();
+
+  ExampleHeavyHittersBufferHelper(int maxEntries, int maxKeyBytes)
+  {
+    this.maxEntries = maxEntries;
+    this.maxKeyBytes = maxKeyBytes;
+    this.mask = getTableSize(maxEntries) - 1;
+    this.weightsOffset = HEADER_BYTES + maxEntries * Long.BYTES;
+    this.errorsOffset = weightsOffset + maxEntries * Double.BYTES;
+    this.lengthsOffset = errorsOffset + maxEntries * Double.BYTES;
+    this.tableOffset = lengthsOffset + maxEntries * Integer.BYTES;
+    this.heapOffset = tableOffset + (mask + 1) * Integer.BYTES;
+    this.heapPositionsOffset = heapOffset + maxEntries * Integer.BYTES;
+    this.keysOffset = heapPositionsOffset + maxEntries * Integer.BYTES;
+  }
+
+  static int getBufferSize(int maxEntries, int maxKeyBytes)
+  {
+    return HEADER_BYTES
+           + getTableSize(maxEntries) * Integer.BYTES
+           + maxEntries * (Long.BYTES + Double.BYTES * 2 + Integer.BYTES * 3 + maxKeyBytes);
+  }
+
+  private static int getTableSize(int maxEntries)
+  {
+    return HashCommon.nextPowerOfTwo(maxEntries * 2);
+  }
+
+  void init(final ByteBuffer buf, final int position)
+  {
+    removeSpilled(buf, position);
+    // Entries past the count are never read, so only the count and the table need resetting.
+    buf.putInt(position, 0);
+    clearTable(buf, position);
+  }
+
+  /**
+   * Adds the weight of one row. The key is read from its position to its limit, without changing either.
+   */
+  void add(final ByteBuffer buf, final int position, @Nullable final ByteBuffer key, final double weight)
+  {
+    if (!(weight > 0)) {
+      return;
+    }
+
+    final int count = buf.getInt(position);
+    if (count == SPILLED) {
+      spilled.get(buf).get(position).add(toString(key), weight);
+      return;
+    }
+
+    final long hash = hash(key);
+    final int cell = findCell(buf, position, hash, key);
+    final int i = getCell(buf, position, cell) - 1;
+    if (i >= 0) {
+      final int weightOffset = position + weightsOffset + i * Double.BYTES;
+      buf.putDouble(weightOffset, buf.getDouble(weightOffset) + weight);
+      siftDown(buf, position, count, buf.getInt(position + heapPositionsOffset + i * Integer.BYTES));
+      return;
+    }
+
+    final int keyLength = key == null ? NULL_KEY_LENGTH : key.remaining();
+    if (keyLength > maxKeyBytes) {
+      spill(buf, position).add(toString(key), weight);
+    } else if (count < maxEntries) {
+      set(buf, position, count, hash, key, weight, 0);
+      putCell(buf, position, cell, count);
+      push(buf, position, count);
+      buf.putInt(position, count + 1);
+    } else {
+      final int min = buf.getInt(position + heapOffset);
+      final double minWeight = buf.getDouble(position + weightsOffset + min * Double.BYTES);
+      removeFromTable(buf, position, min);
+      set(buf, position, min, hash, key, minWeight + weight, minWeight);
+      putCell(buf, position, findCell(buf, position, hash, key), min);
+      siftDown(buf, position, count, 0);
+    }
+  }
+
+  /**
+   * Merges another summary into the slot. Merging needs every entry of both sides, so it goes through the heap, and
+   * writes the result back unless one of its keys is too long.
+   */
+  void merge(final ByteBuffer buf, final int position, final ExampleHeavyHitters other)
+  {
+    if (buf.getInt(position) == SPILLED) {
+      final Int2ObjectMap<ExampleHeavyHitters> summaries = spilled.get(buf);
+      summaries.put(position, ExampleHeavyHitters.merge(summaries.get(position), other));
+      return;
+    }
+
+    final ExampleHeavyHitters merged = ExampleHeavyHitters.merge(get(buf, position), other);
+    if (!write(buf, position, merged)) {
+      spilled.computeIfAbsent(buf, b -> new Int2ObjectOpenHashMap<>()).put(position, merged);
+      buf.putInt(position, SPILLED);
+    }
+  }
+
+  ExampleHeavyHitters get(final ByteBuffer buf, final int position)
+  {
+    final int count = buf.getInt(position);
+    if (count == SPILLED) {
+      // Copied, since the slot keeps changing as more rows are aggregated.
+      return spilled.get(buf).get(position).copy();
+    }
+
+    final ExampleHeavyHitters summary = new ExampleHeavyHitters(maxEntries);
+    for (int i = 0; i < count; i++) {
+      summary.add(
+          readKey(buf, position, i),
+          buf.getDouble(position + weightsOffset + i * Double.BYTES),
+          buf.getDouble(position + errorsOffset + i * Double.BYTES)
+      );
+    }
+    return summary;
+  }
+
+  void relocate(int oldPosition, int newPosition, ByteBuffer oldBuffer, ByteBuffer newBuffer)
+  {
+    // The buffer contents have already been copied; only on-heap summaries need to follow.
+    final ExampleHeavyHitters summary = removeSpilled(oldBuffer, oldPosition);
+    if (summary != null) {
+      spilled.computeIfAbsent(newBuffer, b -> new Int2ObjectOpenHashMap<>()).put(newPosition, summary);
+    }
+  }
+
+  void close()
+  {
+    spilled.clear();
+  }
+
+  private ExampleHeavyHitters spill(final ByteBuffer buf, final int position)
+  {
+    final ExampleHeavyHitters summary = get(buf, position);
+    spilled.computeIfAbsent(buf, b -> new Int2ObjectOpenHashMap<>()).put(position, summary);
+    buf.putInt(position, SPILLED);
+    return summary;
+  }
+
+  /**
+   * Writes a summary into the slot. Returns false, leaving the slot unchanged, if one of its keys is too long, or if
+   * it holds more entries than the slot, which happens when merging a summary with a larger capacity.
+   */
+  private boolean write(final ByteBuffer buf, final int position, final ExampleHeavyHitters summary)
+  {
+    if (summary.size() > maxEntries) {
+      return false;
+    }
+
+    final ByteBuffer[] keys = new ByteBuffer[summary.size()];
+    for (int i = 0; i < keys.length; i++) {
+      final String key = summary.getKey(i);
+      keys[i] = key == null ? null : StringUtils.toUtf8ByteBuffer(key);
+      if (keys[i] != null && keys[i].remaining() > maxKeyBytes) {
+        return false;
+      }
+    }
+
+    clearTable(buf, position);
+    for (int i = 0; i < keys.length; i++) {
+      final long hash = hash(keys[i]);
+      set(buf, position, i, hash, keys[i], summary.getWeight(i), summary.getError(i));
+      putCell(buf, position, findCell(buf, position, hash, keys[i]), i);
+      push(buf, position, i);
+    }
+    buf.putInt(position, keys.length);
+    return true;
+  }
+
+  private void set(
+      final ByteBuffer buf,
+      final int position,
+      final int i,
+      final long hash,
+      @Nullable final ByteBuffer key,
+      final double weight,
+      final double error
+  )
+  {
+    buf.putLong(position + HEADER_BYTES + i * Long.BYTES, hash);
+    buf.putDouble(position + weightsOffset + i * Double.BYTES, weight);
+    buf.putDouble(position + errorsOffset + i * Double.BYTES, error);
+    if (key == null) {
+      buf.putInt(position + lengthsOffset + i * Integer.BYTES, NULL_KEY_LENGTH);
+    } else {
+      final int keyLength = key.remaining();
+      buf.putInt(position + lengthsOffset + i * Integer.BYTES, keyLength);
+      final int keyOffset = position + keysOffset + i * maxKeyBytes;
+      for (int b = 0; b < keyLength; b++) {
+        buf.put(keyOffset + b, key.get(key.position() + b));
+      }
+    }
+  }
+
+  private boolean keyEquals(final ByteBuffer buf, final int position, final int i, @Nullable final ByteBuffer key)
+  {
+    final int keyLength = buf.getInt(position + lengthsOffset + i * Integer.BYTES);
+    if (key == null || keyLength == NULL_KEY_LENGTH) {
+      return key == null && keyLength == NULL_KEY_LENGTH;
+    }
+    if (keyLength != key.remaining()) {
+      return false;
+    }
+    final int keyOffset = position + keysOffset + i * maxKeyBytes;
+    for (int b = 0; b < keyLength; b++) {
+      if (buf.get(keyOffset + b) != key.get(key.position() + b)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Nullable
+  private String readKey(final ByteBuffer buf, final int position, final int i)
+  {
+    final int keyLength = buf.getInt(position + lengthsOffset + i * Integer.BYTES);
+    if (keyLength == NULL_KEY_LENGTH) {
+      return null;
+    }
+    final ByteBuffer dup = buf.duplicate();
+    dup.position(position + keysOffset + i * maxKeyBytes);
+    return StringUtils.fromUtf8(dup, keyLength);
+  }
+
+  private void clearTable(final ByteBuffer buf, final int position)
+  {
+    for (int cell = 0, offset = position + tableOffset; cell <= mask; cell++, offset += Integer.BYTES) {
+      buf.putInt(offset, EMPTY);
+    }
+  }
+
+  /**
+   * Returns the table cell holding the key, or the empty cell that ends its probe sequence if the key is absent.
+   */
+  private int findCell(final ByteBuffer buf, final int position, final long hash, @Nullable final ByteBuffer key)
+  {
+    int cell = (int) hash & mask;
+    while (true) {
+      final int i = getCell(buf, position, cell) - 1;
+      if (i < 0 || (getHash(buf, position, i) == hash && keyEquals(buf, position, i, key))) {
+        return cell;
+      }
+      cell = (cell + 1) & mask;
+    }
+  }
+
+  /**
+   * Removes an entry from the table, shifting later entries of its probe sequence back so that no lookup stops early
+   * at the freed cell.
+   */
+  private void removeFromTable(final ByteBuffer buf, final int position, final int i)
+  {
+    int cell = (int) getHash(buf, position, i) & mask;
+    while (getCell(buf, position, cell) != i + 1) {
+      cell = (cell + 1) & mask;
+    }
+
+    int gap = cell;
+    while (true) {
+      cell = (cell + 1) & mask;
+      final int entry = getCell(buf, position, cell);
+      if (entry == EMPTY) {
+        break;
+      }
+      // The entry may fill the gap unless its home cell lies after the gap, up to its current cell.
+      final int home = (int) getHash(buf, position, entry - 1) & mask;
+      if (gap <= cell ? (home <= gap || home > cell) : (home <= gap && home > cell)) {
+        buf.putInt(position + tableOffset + gap * Integer.BYTES, entry);
+        gap = cell;
+      }
+    }
+    buf.putInt(position + tableOffset + gap * Integer.BYTES, EMPTY);
+  }
+
+  private int getCell(final ByteBuffer buf, final int position, final int cell)
+  {
+    return buf.getInt(position + tableOffset + cell * Integer.BYTES);
+  }
+
+  private void putCell(final ByteBuffer buf, final int position, final int cell, final int i)
+  {
+    buf.putInt(position + tableOffset + cell * Integer.BYTES, i + 1);
+  }
+
+  private long getHash(final ByteBuffer buf, final int position, final int i)
+  {
+    return buf.getLong(position + HEADER_BYTES + i * Long.BYTES);
+  }
+
+  /**
+   * Adds entry "i" to a heap holding entries 0 to i - 1.
+   */
+  private void push(final ByteBuffer buf, final int position, final int i)
+  {
+    moveInHeap(buf, position, i, i);
+    siftUp(buf, position, i);
+  }
+
+  /**
+   * Whether entry "a" comes before entry "b" in the heap: a smaller weight, or the same one and a lower index.
+   */
+  private boolean isBefore(final ByteBuffer buf, final int position, final int a, final int b)
+  {
+    final double weightA = buf.getDouble(position + weightsOffset + a * Double.BYTES);
+    final double weightB = buf.getDouble(position + weightsOffset + b * Double.BYTES);
+    return weightA < weightB || (weightA == weightB && a < b);
+  }
+
+  private void siftUp(final ByteBuffer buf, final int position, int pos)
+  {
+    final int entry = getHeap(buf, position, pos);
+    while (pos > 0) {
+      final int parent = (pos - 1) >>> 1;
+      final int parentEntry = getHeap(buf, position, parent);
+      if (!isBefore(buf, position, entry, parentEntry)) {
+        break;
+      }
+      moveInHeap(buf, position, parentEntry, pos);
+      pos = parent;
+    }
+    moveInHeap(buf, position, entry, pos);
+  }
+
+  /**
+   * Restores the heap after the weight at "pos" grew. Weights never shrink, so entries only move down.
+   */
+  private void siftDown(final ByteBuffer buf, final int position, final int count, int pos)
+  {
+    final int entry = getHeap(buf, position, pos);
+    while (true) {
+      int child = 2 * pos + 1;
+      if (child >= count) {
+        break;
+      }
+      int childEntry = getHeap(buf, position, child);
+      if (child + 1 < count) {
+        final int rightEntry = getHeap(buf, position, child + 1);
+        if (isBefore(buf, position, rightEntry, childEntry)) {
+          child++;
+          childEntry = rightEntry;
+        }
+      }
+      if (!isBefore(buf, position, childEntry, entry)) {
+        break;
+      }
+      moveInHeap(buf, position, childEntry, pos);
+      pos = child;
+    }
+    moveInHeap(buf, position, entry, pos);
+  }
+
+  private int getHeap(final ByteBuffer buf, final int position, final int pos)
+  {
+    return buf.getInt(position + heapOffset + pos * Integer.BYTES);
+  }
+
+  private void moveInHeap(final ByteBuffer buf, final int position, final int i, final int pos)
+  {
+    buf.putInt(position + heapOffset + pos * Integer.BYTES, i);
+    buf.putInt(position + heapPositionsOffset + i * Integer.BYTES, pos);
+  }
+
+  /**
+   * FNV-1a over the key bytes, finished with {@link HashCommon#mix(long)}.
+   */
+  private static long hash(@Nullable final ByteBuffer key)
+  {
+    if (key == null) {
+      return NULL_KEY_HASH;
+    }
+    long hash = 0xcbf29ce484222325L;
+    for (int i = key.position(); i < key.limit(); i++) {
+      hash = (hash ^ key.get(i)) * 0x100000001b3L;
+    }
+    return HashCommon.mix(hash);
+  }
+
+  @Nullable
+  private static String toString(@Nullable final ByteBuffer key)
+  {
+    return key == null ? null : StringUtils.fromUtf8(key.duplicate());
+  }
+
+  @Nullable
+  private ExampleHeavyHitters removeSpilled(final ByteBuffer buf, final int position)
+  {
+    final Int2ObjectMap<ExampleHeavyHitters> summaries = spilled.get(buf);
+    if (summaries == null) {
+      return null;
+    }
+    final ExampleHeavyHitters summary = summaries.remove(position);
+    if (summaries.isEmpty()) {
+      spilled.remove(buf);
+    }
+    return summary;
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.data.input.InputRow;
+import org.apache.druid.segment.column.ColumnBuilder;
+import org.apache.druid.segment.data.GenericIndexed;
+import org.apache.druid.segment.data.ObjectStrategy;
+import org.apache.druid.segment.serde.ComplexColumnPartSupplier;
+import org.apache.druid.segment.serde.ComplexMetricExtractor;
+import org.apache.druid.segment.serde.ComplexMetricSerde;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+/**
+ * Stores {@link ExampleHeavyHitters} summaries in segments, so "exampleHeavyHitters" can be used at ingestion time,
+ * and tells Druid how to read the complex type of its intermediate values.
+ */
+public class ExampleHeavyHittersSerde extends ComplexMetricSerde
+{
+  private static final Comparator<ExampleHeavyHitters> COMPARATOR =
+      Comparator.nullsFirst(Comparator.comparingDouble(ExampleHeavyHitters::getMaxWeight));
+
+  private static final ObjectStrategy<ExampleHeavyHitters> STRATEGY = new ObjectStrategy<ExampleHeavyHitters>()
+  {
+    @Override
+    public Class<? extends ExampleHeavyHitters> getClazz()
+    {
+      return ExampleHeavyHitters.class;
+    }
+
+    @Nullable
+    @Override
+    public ExampleHeavyHitters fromByteBuffer(ByteBuffer buffer, int numBytes)
+    {
+      if (numBytes == 0) {
+        return null;
+      }
+      final ByteBuffer readOnly = buffer.asReadOnlyBuffer();
+      readOnly.limit(readOnly.position() + numBytes);
+      return ExampleHeavyHitters.fromBytes(readOnly);
+    }
+
+    @Override
+    public byte[] toBytes(@Nullable ExampleHeavyHitters summary)
+    {
+      return summary == null ? new byte[0] : summary.toBytes();
+    }
+
+    @Override
+    public int compare(ExampleHeavyHitters o1, ExampleHeavyHitters o2)
+    {
+      return COMPARATOR.compare(o1, o2);
+    }
+  };
+
+  @Override
+  public String getTypeName()
+  {
+    return ExampleHeavyHittersAggregatorFactory.TYPE_NAME;
+  }
+
+  @Override
+  public ComplexMetricExtractor getExtractor()
+  {
+    return new ComplexMetricExtractor<ExampleHeavyHitters>()
+    {
+      @Override
+      public Class<ExampleHeavyHitters> extractedClass()
+      {
+        return ExampleHeavyHitters.class;
+      }
+
+      @Nullable
+      @Override
+      public ExampleHeavyHitters extractValue(InputRow inputRow, String metricName)
+      {
+        // Summaries written by an earlier ingestion, for example when reindexing.
+        return ExampleHeavyHittersAggregatorFactory.toSummary(inputRow.getRaw(metricName));
+      }
+    };
+  }
+
+  @Override
+  public void deserializeColumn(ByteBuffer buffer, ColumnBuilder builder)
+  {
+    final GenericIndexed<ExampleHeavyHitters> column = GenericIndexed.read(buffer, STRATEGY, builder.getFileMapper());
+    builder.setComplexColumnSupplier(new ComplexColumnPartSupplier(getTypeName(), column));
+  }
+
+  @Override
+  public ObjectStrategy<ExampleHeavyHitters> getObjectStrategy()
+  {
+    return STRATEGY;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.Aggregator;
+
+/**
+ * Counts the rows an "exampleSum" {@link Aggregator} sees, for {@link ExampleSumMetrics}. The delegate reads its
+ * input through an {@link ExampleNullCountingSelector} sharing the same counters, which counts the null rows. Only
+ * used while metrics are enabled. A filter goes around this aggregator, so only rows that pass it are counted.
+ */
+public class ExampleInstrumentedSumAggregator implements Aggregator
+{
+  private final Aggregator delegate;
+  private final ExampleSumMetrics.Counters counters;
+
+  ExampleInstrumentedSumAggregator(Aggregator delegate, ExampleSumMetrics.Counters counters)
+  {
+    this.delegate = delegate;
+    this.counters = counters;
+  }
+
+  @Override
+  public void aggregate()
+  {
+    counters.rows++;
+    delegate.aggregate();
+  }
+
+  @Override
+  public Object get()
+  {
+    return delegate.get();
+  }
+
+  @Override
+  public float getFloat()
+  {
+    return delegate.getFloat();
+  }
+
+  @Override
+  public long getLong()
+  {
+    return delegate.getLong();
+  }
+
+  @Override
+  public double getDouble()
+  {
+    return delegate.getDouble();
+  }
+
+  @Override
+  public boolean isNull()
+  {
+    return delegate.isNull();
+  }
+
+  @Override
+  public void close()
+  {
+    counters.flush();
+    delegate.close();
+  }
+}
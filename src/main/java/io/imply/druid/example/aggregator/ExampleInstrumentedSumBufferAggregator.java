@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.BufferAggregator;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Buffer-based version of {@link ExampleInstrumentedSumAggregator}.
+ */
+public class ExampleInstrumentedSumBufferAggregator implements BufferAggregator
+{
+  private final BufferAggregator delegate;
+  private final ExampleSumMetrics.Counters counters;
+
+  ExampleInstrumentedSumBufferAggregator(BufferAggregator delegate, ExampleSumMetrics.Counters counters)
+  {
+    this.delegate = delegate;
+    this.counters = counters;
+  }
+
+  @Override
+  public void init(ByteBuffer buf, int position)
+  {
+    delegate.init(buf, position);
+  }
+
+  @Override
+  public void aggregate(ByteBuffer buf, int position)
+  {
+    counters.rows++;
+    delegate.aggregate(buf, position);
+  }
+
+  @Override
+  public Object get(ByteBuffer buf, int position)
+  {
+    return delegate.get(buf, position);
+  }
+
+  @Override
+  public float getFloat(ByteBuffer buf, int position)
+  {
+    return delegate.getFloat(buf, position);
+  }
+
+  @Override
+  public long getLong(ByteBuffer buf, int position)
+  {
+    return delegate.getLong(buf, position);
+  }
+
+  @Override
+  public double getDouble(ByteBuffer buf, int position)
+  {
+    return delegate.getDouble(buf, position);
+  }
+
+  @Override
+  public boolean isNull(ByteBuffer buf, int position)
+  {
+    return delegate.isNull(buf, position);
+  }
+
+  @Override
+  public void relocate(int oldPosition, int newPosition, ByteBuffer oldBuffer, ByteBuffer newBuffer)
+  {
+    delegate.relocate(oldPosition, newPosition, oldBuffer, newBuffer);
+  }
+
+  @Override
+  public void close()
+  {
+    counters.flush();
+    delegate.close();
+  }
+}
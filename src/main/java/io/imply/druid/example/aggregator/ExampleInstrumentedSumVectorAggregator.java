@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.VectorAggregator;
+import org.apache.druid.segment.vector.VectorValueSelector;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * Vectorized version of {@link ExampleInstrumentedSumAggregator}. Rows are counted once per batch. Nulls are counted
+ * from the null vector of numeric inputs; array inputs, read through an object selector, count no nulls. As on heap,
+ * a filter goes around this aggregator, so only the rows it passes on are counted.
+ */
+public class ExampleInstrumentedSumVectorAggregator implements VectorAggregator
+{
+  private final VectorAggregator delegate;
+  @Nullable
+  private final VectorValueSelector selector;
+  private final ExampleSumMetrics.Counters counters = new ExampleSumMetrics.Counters(ExampleSumMetrics.Path.VECTOR);
+
+  ExampleInstrumentedSumVectorAggregator(VectorAggregator delegate, @Nullable VectorValueSelector selector)
+  {
+    this.delegate = delegate;
+    this.selector = selector;
+  }
+
+  @Override
+  public void init(ByteBuffer buf, int position)
+  {
+    delegate.init(buf, position);
+  }
+
+  @Override
+  public void aggregate(ByteBuffer buf, int position, int startRow, int endRow)
+  {
+    counters.rows += endRow - startRow;
+    final boolean[] nullVector = selector == null ? null : selector.getNullVector();
+    if (nullVector != null) {
+      for (int i = startRow; i < endRow; i++) {
+        if (nullVector[i]) {
+          counters.nullRows++;
+        }
+      }
+    }
+    delegate.aggregate(buf, position, startRow, endRow);
+  }
+
+  @Override
+  public void aggregate(ByteBuffer buf, int numRows, int[] positions, @Nullable int[] rows, int positionOffset)
+  {
+    counters.rows += numRows;
+    final boolean[] nullVector = selector == null ? null : selector.getNullVector();
+    if (nullVector != null) {
+      for (int i = 0; i < numRows; i++) {
+        if (nullVector[rows != null ? rows[i] : i]) {
+          counters.nullRows++;
+        }
+      }
+    }
+    delegate.aggregate(buf, numRows, positions, rows, positionOffset);
+  }
+
+  @Override
+  public Object get(ByteBuffer buf, int position)
+  {
+    return delegate.get(buf, position);
+  }
+
+  @Override
+  public void relocate(int oldPosition, int newPosition, ByteBuffer oldBuffer, ByteBuffer newBuffer)
+  {
+    delegate.relocate(oldPosition, newPosition, oldBuffer, newBuffer);
+  }
+
+  @Override
+  public void close()
+  {
+    counters.flush();
+    delegate.close();
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.ObjectAggregateCombiner;
+import org.apache.druid.segment.ColumnValueSelector;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * Adds up exampleMultiSum arrays while merging segments (rollup and compaction), into one double per field. A null
+ * array contributes nothing; the result is null only if every array read since the last reset was.
+ */
+public class ExampleMultiSumAggregateCombiner extends ObjectAggregateCombiner<Object[]>
+{
+  private final double[] sums;
+  private boolean empty = true;
+
+  ExampleMultiSumAggregateCombiner(int width)
+  {
+    this.sums = new double[width];
+  }
+
+  @Override
+  public void reset(ColumnValueSelector selector)
+  {
+    Arrays.fill(sums, 0.0d);
+    empty = true;
+    fold(selector);
+  }
+
+  @Override
+  public void fold(ColumnValueSelector selector)
+  {
+    final Object array = selector.getObject();
+    if (array == null) {
+      return;
+    }
+    for (int i = 0; i < sums.length; i++) {
+      sums[i] += ExampleMultiSumAggregatorFactory.getElement(array, i);
+    }
+    empty = false;
+  }
+
+  @Nullable
+  @Override
+  public Object[] getObject()
+  {
+    if (empty) {
+      return null;
+    }
+    final Object[] result = new Object[sums.length];
+    for (int i = 0; i < sums.length; i++) {
+      result[i] = sums[i];
+    }
+    return result;
+  }
+
+  @Override
+  public Class<Object[]> classOfObject()
+  {
+    return Object[].class;
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.Aggregator;
+import org.apache.druid.segment.BaseDoubleColumnValueSelector;
+import org.apache.druid.segment.BaseObjectColumnValueSelector;
+
+/**
+ * Aggregator for {@link ExampleMultiSumAggregatorFactory}. {@link FieldsInput} reads one selector per field;
+ * {@link ArrayInput} folds in arrays of sums, for combining.
+ */
+public abstract class ExampleMultiSumAggregator implements Aggregator
+{
+  protected final double[] sums;
+
+  ExampleMultiSumAggregator(int width)
+  {
+    this.sums = new double[width];
+  }
+
+  @Override
+  public Object get()
+  {
+    final Object[] result = new Object[sums.length];
+    for (int i = 0; i < sums.length; i++) {
+      result[i] = sums[i];
+    }
+    return result;
+  }
+
+  /**
+   * The result is an array of sums, so there is no single number to return. The primitive getters return the total
+   * over all fields instead: what one exampleSum over every field would give.
+   */
+  @Override
+  public double getDouble()
+  {
+    double total = 0;
+    for (double sum : sums) {
+      total += sum;
+    }
+    return total;
+  }
+
+  @Override
+  public float getFloat()
+  {
+    return (float) getDouble();
+  }
+
+  @Override
+  public long getLong()
+  {
+    return (long) getDouble();
+  }
+
+  @Override
+  public void close()
+  {
+    // no resources to cleanup
+  }
+
+  static final class FieldsInput extends ExampleMultiSumAggregator
+  {
+    private final BaseDoubleColumnValueSelector[] selectors;
+
+    FieldsInput(BaseDoubleColumnValueSelector[] selectors)
+    {
+      super(selectors.length);
+      this.selectors = selectors;
+    }
+
+    @Override
+    public void aggregate()
+    {
+      for (int i = 0; i < selectors.length; i++) {
+        if (!selectors[i].isNull()) {
+          sums[i] += selectors[i].getDouble();
+        }
+      }
+    }
+  }
+
+  static final class ArrayInput extends ExampleMultiSumAggregator
+  {
+    private final BaseObjectColumnValueSelector<?> selector;
+
+    ArrayInput(BaseObjectColumnValueSelector<?> selector, int width)
+    {
+      super(width);
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate()
+    {
+      final Object array = selector.getObject();
+      if (array != null) {
+        for (int i = 0; i < sums.length; i++) {
+          sums[i] += ExampleMultiSumAggregatorFactory.getElement(array, i);
+        }
+      }
+    }
+  }
+}
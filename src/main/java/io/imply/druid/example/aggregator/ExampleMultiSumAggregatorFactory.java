@@ -0,0 +1,359 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Doubles;
+import org.apache.druid.query.aggregation.AggregateCombiner;
+import org.apache.druid.query.aggregation.Aggregator;
+import org.apache.druid.query.aggregation.AggregatorFactory;
+import org.apache.druid.query.aggregation.AggregatorFactoryNotMergeableException;
+import org.apache.druid.query.aggregation.BufferAggregator;
+import org.apache.druid.query.aggregation.VectorAggregator;
+import org.apache.druid.query.cache.CacheKeyBuilder;
+import org.apache.druid.segment.BaseDoubleColumnValueSelector;
+import org.apache.druid.segment.ColumnInspector;
+import org.apache.druid.segment.ColumnSelectorFactory;
+import org.apache.druid.segment.column.ColumnCapabilities;
+import org.apache.druid.segment.column.ColumnType;
+import org.apache.druid.segment.vector.VectorColumnSelectorFactory;
+import org.apache.druid.segment.vector.VectorValueSelector;
+
+import javax.annotation.Nullable;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Sums several columns at once. Equivalent to one {@link ExampleSumAggregatorFactory} per entry in "fieldNames",
+ * but every row is read by a single aggregator, and a buffer aggregator uses one slot holding all the sums. The
+ * value is an array with one sum per field, in the order of "fieldNames".
+ */
+public class ExampleMultiSumAggregatorFactory extends AggregatorFactory
+{
+  // Type name for JSON.
+  public static final String TYPE_NAME = "exampleMultiSum";
+
+  // Second byte of our cache keys; ExampleSumAggregatorFactory uses 0x00.
+  private static final byte CACHE_KEY_SITE_ID = (byte) 0x01;
+
+  private static final Comparator<Object> COMPARATOR = new Ordering<Object>()
+  {
+    @Override
+    public int compare(Object o, Object o1)
+    {
+      final int width = Math.max(length(o), length(o1));
+      for (int i = 0; i < width; i++) {
+        final int cmp = Doubles.compare(getElement(o, i), getElement(o1, i));
+        if (cmp != 0) {
+          return cmp;
+        }
+      }
+      return 0;
+    }
+  }.nullsFirst();
+
+  private final String name;
+  private final List<String> fieldNames;
+  private final boolean combine;
+
+  /**
+   * @param combine if true, this is a combining factory: it reads arrays of sums from the column named "name", rather
+   *                than reading "fieldNames". "fieldNames" is still needed to know how many sums there are.
+   */
+  @JsonCreator
+  public ExampleMultiSumAggregatorFactory(
+      @JsonProperty("name") final String name,
+      @JsonProperty("fieldNames") final List<String> fieldNames,
+      @JsonProperty("combine") @Nullable final Boolean combine
+  )
+  {
+    this.name = Preconditions.checkNotNull(name, "name");
+    this.fieldNames = Preconditions.checkNotNull(fieldNames, "fieldNames");
+    Preconditions.checkArgument(!fieldNames.isEmpty(), "fieldNames must not be empty");
+    this.combine = combine != null && combine;
+  }
+
+  @Override
+  public Aggregator factorize(ColumnSelectorFactory metricFactory)
+  {
+    if (combine) {
+      return new ExampleMultiSumAggregator.ArrayInput(metricFactory.makeColumnValueSelector(name), getWidth());
+    }
+    return new ExampleMultiSumAggregator.FieldsInput(makeSelectors(metricFactory));
+  }
+
+  @Override
+  public BufferAggregator factorizeBuffered(ColumnSelectorFactory metricFactory)
+  {
+    if (combine) {
+      return new ExampleMultiSumBufferAggregator.ArrayInput(metricFactory.makeColumnValueSelector(name), getWidth());
+    }
+    return new ExampleMultiSumBufferAggregator.FieldsInput(makeSelectors(metricFactory));
+  }
+
+  @Override
+  public boolean canVectorize(ColumnInspector columnInspector)
+  {
+    if (combine) {
+      return false;
+    }
+    for (String fieldName : fieldNames) {
+      final ColumnCapabilities capabilities = columnInspector.getColumnCapabilities(fieldName);
+      if (capabilities != null && !capabilities.isNumeric()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public VectorAggregator factorizeVector(VectorColumnSelectorFactory selectorFactory)
+  {
+    final VectorValueSelector[] selectors = new VectorValueSelector[fieldNames.size()];
+    for (int i = 0; i < selectors.length; i++) {
+      selectors[i] = selectorFactory.makeValueSelector(fieldNames.get(i));
+    }
+    return new ExampleMultiSumVectorAggregator(selectors);
+  }
+
+  private BaseDoubleColumnValueSelector[] makeSelectors(ColumnSelectorFactory metricFactory)
+  {
+    final BaseDoubleColumnValueSelector[] selectors = new BaseDoubleColumnValueSelector[fieldNames.size()];
+    for (int i = 0; i < selectors.length; i++) {
+      selectors[i] = metricFactory.makeColumnValueSelector(fieldNames.get(i));
+    }
+    return selectors;
+  }
+
+  @Override
+  public Comparator getComparator()
+  {
+    return COMPARATOR;
+  }
+
+  @Override
+  public Object combine(Object lhs, Object rhs)
+  {
+    if (rhs == null) {
+      return lhs;
+    }
+    if (lhs == null) {
+      return rhs;
+    }
+
+    final int width = getWidth();
+    final Object[] sums = new Object[width];
+    for (int i = 0; i < width; i++) {
+      sums[i] = getElement(lhs, i) + getElement(rhs, i);
+    }
+    return sums;
+  }
+
+  @Override
+  public AggregateCombiner makeAggregateCombiner()
+  {
+    return new ExampleMultiSumAggregateCombiner(getWidth());
+  }
+
+  @Override
+  public AggregatorFactory getCombiningFactory()
+  {
+    return new ExampleMultiSumAggregatorFactory(name, fieldNames, true);
+  }
+
+  @Override
+  public AggregatorFactory getMergingFactory(AggregatorFactory other) throws AggregatorFactoryNotMergeableException
+  {
+    if (other.getName().equals(this.getName())
+        && this.getClass() == other.getClass()
+        && ((ExampleMultiSumAggregatorFactory) other).getWidth() == getWidth()) {
+      return getCombiningFactory();
+    } else {
+      throw new AggregatorFactoryNotMergeableException(this, other);
+    }
+  }
+
+  @Override
+  public List<AggregatorFactory> getRequiredColumns()
+  {
+    return fieldNames.stream()
+                     .map(fieldName -> new ExampleSumAggregatorFactory(fieldName, fieldName))
+                     .collect(Collectors.toList());
+  }
+
+  @Override
+  public Object deserialize(Object object)
+  {
+    if (object == null || object instanceof Object[]) {
+      return object;
+    }
+
+    // JSON results come back as lists, possibly with "NaN" / "Infinity" strings
+    final int width = getWidth();
+    final Object[] sums = new Object[width];
+    for (int i = 0; i < width; i++) {
+      sums[i] = getElement(object, i);
+    }
+    return sums;
+  }
+
+  @Override
+  public Object finalizeComputation(Object object)
+  {
+    return object;
+  }
+
+  @JsonProperty
+  public List<String> getFieldNames()
+  {
+    return fieldNames;
+  }
+
+  @JsonProperty
+  @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+  public boolean isCombine()
+  {
+    return combine;
+  }
+
+  @Override
+  @JsonProperty
+  public String getName()
+  {
+    return name;
+  }
+
+  @Override
+  public List<String> requiredFields()
+  {
+    return combine ? ImmutableList.of(name) : fieldNames;
+  }
+
+  @Override
+  public byte[] getCacheKey()
+  {
+    return new CacheKeyBuilder((byte) 0xFF)
+        .appendByte(CACHE_KEY_SITE_ID)
+        .appendBoolean(combine)
+        .appendString(combine ? name : null)
+        .appendStrings(fieldNames)
+        .build();
+  }
+
+  @Override
+  public ColumnType getIntermediateType()
+  {
+    return ColumnType.DOUBLE_ARRAY;
+  }
+
+  @Override
+  public ColumnType getResultType()
+  {
+    return ColumnType.DOUBLE_ARRAY;
+  }
+
+  @Override
+  public int getMaxIntermediateSize()
+  {
+    return Doubles.BYTES * getWidth();
+  }
+
+  private int getWidth()
+  {
+    return fieldNames.size();
+  }
+
+  private static int length(@Nullable Object array)
+  {
+    if (array instanceof Object[]) {
+      return ((Object[]) array).length;
+    } else if (array instanceof List) {
+      return ((List<?>) array).size();
+    } else if (array instanceof double[]) {
+      return ((double[]) array).length;
+    } else {
+      return 0;
+    }
+  }
+
+  /**
+   * Returns element "i" of an array of sums. Nulls and missing elements read as zero.
+   */
+  static double getElement(@Nullable Object array, int i)
+  {
+    final Object element;
+    if (array instanceof double[]) {
+      final double[] doubles = (double[]) array;
+      return i < doubles.length ? doubles[i] : 0.0d;
+    } else if (array instanceof Object[]) {
+      final Object[] objects = (Object[]) array;
+      element = i < objects.length ? objects[i] : null;
+    } else if (array instanceof List) {
+      final List<?> list = (List<?>) array;
+      element = i < list.size() ? list.get(i) : null;
+    } else {
+      element = null;
+    }
+
+    if (element instanceof Number) {
+      return ((Number) element).doubleValue();
+    } else if (element instanceof String) {
+      // handle "NaN" / "Infinity" values serialized as strings in JSON
+      return Double.parseDouble((String) element);
+    } else {
+      return 0.0d;
+    }
+  }
+
+  @Override
+  public boolean equals(final Object o)
+  {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    final ExampleMultiSumAggregatorFactory that = (ExampleMultiSumAggregatorFactory) o;
+    return combine == that.combine &&
+           Objects.equals(name, that.name) &&
+           Objects.equals(fieldNames, that.fieldNames);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return Objects.hash(name, fieldNames, combine);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "ExampleMultiSumAggregatorFactory{" +
+           "name='" + name + '\'' +
+           ", fieldNames=" + fieldNames +
+           ", combine=" + combine +
+           '}';
+  }
+}
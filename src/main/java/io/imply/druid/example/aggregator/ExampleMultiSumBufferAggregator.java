@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import com.google.common.primitives.Doubles;
+import org.apache.druid.query.aggregation.BufferAggregator;
+import org.apache.druid.segment.BaseDoubleColumnValueSelector;
+import org.apache.druid.segment.BaseObjectColumnValueSelector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Buffer-based version of {@link ExampleMultiSumAggregator}. Each slot holds one double per field, packed together.
+ */
+public abstract class ExampleMultiSumBufferAggregator implements BufferAggregator
+{
+  protected final int width;
+
+  ExampleMultiSumBufferAggregator(int width)
+  {
+    this.width = width;
+  }
+
+  @Override
+  public final void init(final ByteBuffer buf, final int position)
+  {
+    for (int i = 0; i < width; i++) {
+      buf.putDouble(position + i * Doubles.BYTES, 0.0d);
+    }
+  }
+
+  @Override
+  public final Object get(ByteBuffer buf, int position)
+  {
+    final Object[] result = new Object[width];
+    for (int i = 0; i < width; i++) {
+      result[i] = buf.getDouble(position + i * Doubles.BYTES);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the total over all fields, as {@link ExampleMultiSumAggregator#getDouble()} does.
+   */
+  @Override
+  public final double getDouble(ByteBuffer buf, int position)
+  {
+    double total = 0;
+    for (int i = 0; i < width; i++) {
+      total += buf.getDouble(position + i * Doubles.BYTES);
+    }
+    return total;
+  }
+
+  @Override
+  public final float getFloat(ByteBuffer buf, int position)
+  {
+    return (float) getDouble(buf, position);
+  }
+
+  @Override
+  public final long getLong(ByteBuffer buf, int position)
+  {
+    return (long) getDouble(buf, position);
+  }
+
+  @Override
+  public void close()
+  {
+    // no resources to cleanup
+  }
+
+  static final class FieldsInput extends ExampleMultiSumBufferAggregator
+  {
+    private final BaseDoubleColumnValueSelector[] selectors;
+
+    FieldsInput(BaseDoubleColumnValueSelector[] selectors)
+    {
+      super(selectors.length);
+      this.selectors = selectors;
+    }
+
+    @Override
+    public void aggregate(ByteBuffer buf, int position)
+    {
+      for (int i = 0, offset = position; i < width; i++, offset += Doubles.BYTES) {
+        if (!selectors[i].isNull()) {
+          buf.putDouble(offset, buf.getDouble(offset) + selectors[i].getDouble());
+        }
+      }
+    }
+  }
+
+  static final class ArrayInput extends ExampleMultiSumBufferAggregator
+  {
+    private final BaseObjectColumnValueSelector<?> selector;
+
+    ArrayInput(BaseObjectColumnValueSelector<?> selector, int width)
+    {
+      super(width);
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate(ByteBuffer buf, int position)
+    {
+      final Object array = selector.getObject();
+      if (array != null) {
+        for (int i = 0, offset = position; i < width; i++, offset += Doubles.BYTES) {
+          buf.putDouble(offset, buf.getDouble(offset) + ExampleMultiSumAggregatorFactory.getElement(array, i));
+        }
+      }
+    }
+  }
+}
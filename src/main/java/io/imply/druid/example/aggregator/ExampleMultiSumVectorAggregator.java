@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import com.google.common.primitives.Doubles;
+import org.apache.druid.query.aggregation.VectorAggregator;
+import org.apache.druid.segment.vector.VectorValueSelector;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * Vectorized version of {@link ExampleMultiSumBufferAggregator}, with the same buffer layout.
+ */
+public class ExampleMultiSumVectorAggregator implements VectorAggregator
+{
+  private final VectorValueSelector[] selectors;
+
+  ExampleMultiSumVectorAggregator(VectorValueSelector[] selectors)
+  {
+    this.selectors = selectors;
+  }
+
+  @Override
+  public void init(final ByteBuffer buf, final int position)
+  {
+    for (int i = 0; i < selectors.length; i++) {
+      buf.putDouble(position + i * Doubles.BYTES, 0.0d);
+    }
+  }
+
+  @Override
+  public void aggregate(final ByteBuffer buf, final int position, final int startRow, final int endRow)
+  {
+    for (int field = 0, offset = position; field < selectors.length; field++, offset += Doubles.BYTES) {
+      final double[] vector = selectors[field].getDoubleVector();
+      final boolean[] nullVector = selectors[field].getNullVector();
+
+      double sum = 0;
+      if (nullVector == null) {
+        for (int i = startRow; i < endRow; i++) {
+          sum += vector[i];
+        }
+      } else {
+        for (int i = startRow; i < endRow; i++) {
+          if (!nullVector[i]) {
+            sum += vector[i];
+          }
+        }
+      }
+
+      buf.putDouble(offset, buf.getDouble(offset) + sum);
+    }
+  }
+
+  @Override
+  public void aggregate(
+      final ByteBuffer buf,
+      final int numRows,
+      final int[] positions,
+      @Nullable final int[] rows,
+      final int positionOffset
+  )
+  {
+    for (int field = 0; field < selectors.length; field++) {
+      final double[] vector = selectors[field].getDoubleVector();
+      final boolean[] nullVector = selectors[field].getNullVector();
+      final int fieldOffset = positionOffset + field * Doubles.BYTES;
+
+      for (int i = 0; i < numRows; i++) {
+        final int row = rows != null ? rows[i] : i;
+
+        if (nullVector == null || !nullVector[row]) {
+          final int position = positions[i] + fieldOffset;
+          buf.putDouble(position, buf.getDouble(position) + vector[row]);
+        }
+      }
+    }
+  }
+
+  @Override
+  public Object get(final ByteBuffer buf, final int position)
+  {
+    final Object[] result = new Object[selectors.length];
+    for (int i = 0; i < selectors.length; i++) {
+      result[i] = buf.getDouble(position + i * Doubles.BYTES);
+    }
+    return result;
+  }
+
+  @Override
+  public void close()
+  {
+    // no resources to cleanup
+  }
+}
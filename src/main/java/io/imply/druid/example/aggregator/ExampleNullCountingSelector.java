@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.monomorphicprocessing.RuntimeShapeInspector;
+import org.apache.druid.segment.ColumnValueSelector;
+
+import javax.annotation.Nullable;
+
+/**
+ * Passes an "exampleSum" aggregator's input through, counting the nulls it reads into {@link ExampleSumMetrics}
+ * counters. The aggregator already checks each row for null, so counting there saves the instrumented wrappers a
+ * second read. Only used while metrics are enabled.
+ */
+final class ExampleNullCountingSelector<T> implements ColumnValueSelector<T>
+{
+  private final ColumnValueSelector<T> delegate;
+  private final ExampleSumMetrics.Counters counters;
+
+  ExampleNullCountingSelector(ColumnValueSelector<T> delegate, ExampleSumMetrics.Counters counters)
+  {
+    this.delegate = delegate;
+    this.counters = counters;
+  }
+
+  @Override
+  public boolean isNull()
+  {
+    final boolean isNull = delegate.isNull();
+    if (isNull) {
+      counters.nullRows++;
+    }
+    return isNull;
+  }
+
+  @Override
+  public double getDouble()
+  {
+    return delegate.getDouble();
+  }
+
+  @Override
+  public float getFloat()
+  {
+    return delegate.getFloat();
+  }
+
+  @Override
+  public long getLong()
+  {
+    return delegate.getLong();
+  }
+
+  @Nullable
+  @Override
+  public T getObject()
+  {
+    return delegate.getObject();
+  }
+
+  @Override
+  public Class<? extends T> classOfObject()
+  {
+    return delegate.classOfObject();
+  }
+
+  @Override
+  public void inspectRuntimeShape(RuntimeShapeInspector inspector)
+  {
+    inspector.visit("delegate", delegate);
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.Aggregator;
+import org.apache.druid.segment.BaseDoubleColumnValueSelector;
+import org.apache.druid.segment.BaseLongColumnValueSelector;
+
+/**
+ * Sums the rows of the blocks picked by an {@link ExampleSampledSumSampler}, and the squared total of each block, from
+ * which {@link ExampleSampledSumAggregatorFactory} estimates the variance.
+ */
+public class ExampleSampledSumAggregator implements Aggregator
+{
+  private final BaseDoubleColumnValueSelector selector;
+  private final BaseLongColumnValueSelector timeSelector;
+  private final ExampleSampledSumSampler sampler;
+
+  private double sum = 0;
+  private double squares = 0;
+  private long block = -1;
+  private double blockTotal = 0;
+
+  ExampleSampledSumAggregator(
+      BaseDoubleColumnValueSelector selector,
+      BaseLongColumnValueSelector timeSelector,
+      ExampleSampledSumSampler sampler
+  )
+  {
+    this.selector = selector;
+    this.timeSelector = timeSelector;
+    this.sampler = sampler;
+  }
+
+  @Override
+  public void aggregate()
+  {
+    if (sampler.next(timeSelector) && !selector.isNull()) {
+      final double value = selector.getDouble();
+      if (sampler.getBlock() != block) {
+        squares += blockTotal * blockTotal;
+        block = sampler.getBlock();
+        blockTotal = 0;
+      }
+      blockTotal += value;
+      sum += value;
+    }
+  }
+
+  @Override
+  public Object get()
+  {
+    return new Object[]{sum, squares + blockTotal * blockTotal};
+  }
+
+  @Override
+  public float getFloat()
+  {
+    throw new UnsupportedOperationException("ExampleSampledSumAggregator does not support getFloat()");
+  }
+
+  @Override
+  public long getLong()
+  {
+    throw new UnsupportedOperationException("ExampleSampledSumAggregator does not support getLong()");
+  }
+
+  @Override
+  public void close()
+  {
+    // no resources to cleanup
+  }
+}
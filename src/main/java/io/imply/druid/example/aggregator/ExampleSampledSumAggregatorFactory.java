@@ -0,0 +1,350 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Doubles;
+import org.apache.druid.query.aggregation.Aggregator;
+import org.apache.druid.query.aggregation.AggregatorFactory;
+import org.apache.druid.query.aggregation.AggregatorFactoryNotMergeableException;
+import org.apache.druid.query.aggregation.BufferAggregator;
+import org.apache.druid.query.aggregation.VectorAggregator;
+import org.apache.druid.query.cache.CacheKeyBuilder;
+import org.apache.druid.segment.ColumnInspector;
+import org.apache.druid.segment.ColumnSelectorFactory;
+import org.apache.druid.segment.column.ColumnCapabilities;
+import org.apache.druid.segment.column.ColumnHolder;
+import org.apache.druid.segment.column.ColumnType;
+import org.apache.druid.segment.vector.VectorColumnSelectorFactory;
+
+import javax.annotation.Nullable;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Estimates the sum of a column from a sample of its rows, for dashboards that can trade exactness for speed. Rows are
+ * sampled in blocks, see {@link ExampleSampledSumSampler}, so the blocks that are not sampled are not read.
+ *
+ * The intermediate value is a pair of sums over the sampled rows: the sum of their values, and the sum of the squared
+ * total of each block, per group. Both add up across segments. The result is an array of the estimated sum, which is
+ * the sampled sum divided by "sampleRate", followed by the bounds of a 95% confidence interval. The interval uses the
+ * variance estimate for blocks kept independently with probability "sampleRate": (1 - rate) / rate^2 times the sum of
+ * the squared block totals.
+ */
+public class ExampleSampledSumAggregatorFactory extends AggregatorFactory
+{
+  // Type name for JSON.
+  public static final String TYPE_NAME = "exampleSampledSum";
+
+  // Number of doubles in a 64 KiB compressed column block.
+  public static final int DEFAULT_BLOCK_ROWS = 8192;
+
+  // Second byte of our cache keys; see ExampleDistinctSumAggregatorFactory for the others.
+  private static final byte CACHE_KEY_SITE_ID = (byte) 0x04;
+
+  // Two-sided 95% quantile of the normal distribution.
+  private static final double Z_95 = 1.959963984540054;
+
+  private static final int SUM = 0;
+  private static final int SQUARES = 1;
+
+  private static final Comparator<Object> COMPARATOR = new Ordering<Object>()
+  {
+    @Override
+    public int compare(Object o, Object o1)
+    {
+      return Doubles.compare(
+          ExampleMultiSumAggregatorFactory.getElement(o, SUM),
+          ExampleMultiSumAggregatorFactory.getElement(o1, SUM)
+      );
+    }
+  }.nullsFirst();
+
+  private final String name;
+  private final String fieldName;
+  private final double sampleRate;
+  private final int blockRows;
+  private final boolean combine;
+
+  /**
+   * @param sampleRate fraction of blocks to read, greater than 0 and at most 1.
+   * @param blockRows  number of consecutive rows that are sampled together.
+   * @param combine    if true, this is a combining factory: it reads intermediate values from the column named "name".
+   */
+  @JsonCreator
+  public ExampleSampledSumAggregatorFactory(
+      @JsonProperty("name") final String name,
+      @JsonProperty("fieldName") final String fieldName,
+      @JsonProperty("sampleRate") final double sampleRate,
+      @JsonProperty("blockRows") @Nullable final Integer blockRows,
+      @JsonProperty("combine") @Nullable final Boolean combine
+  )
+  {
+    this.name = Preconditions.checkNotNull(name, "name");
+    this.fieldName = Preconditions.checkNotNull(fieldName, "fieldName");
+    Preconditions.checkArgument(sampleRate > 0 && sampleRate <= 1, "sampleRate must be greater than 0 and at most 1");
+    this.sampleRate = sampleRate;
+    this.blockRows = blockRows == null ? DEFAULT_BLOCK_ROWS : blockRows;
+    Preconditions.checkArgument(this.blockRows > 0, "blockRows must be positive");
+    this.combine = combine != null && combine;
+  }
+
+  public ExampleSampledSumAggregatorFactory(final String name, final String fieldName, final double sampleRate)
+  {
+    this(name, fieldName, sampleRate, null, null);
+  }
+
+  @Override
+  public Aggregator factorize(ColumnSelectorFactory metricFactory)
+  {
+    if (combine) {
+      return new ExampleMultiSumAggregator.ArrayInput(metricFactory.makeColumnValueSelector(name), 2);
+    }
+    return new ExampleSampledSumAggregator(
+        metricFactory.makeColumnValueSelector(fieldName),
+        metricFactory.makeColumnValueSelector(ColumnHolder.TIME_COLUMN_NAME),
+        new ExampleSampledSumSampler(sampleRate, blockRows)
+    );
+  }
+
+  @Override
+  public BufferAggregator factorizeBuffered(ColumnSelectorFactory metricFactory)
+  {
+    if (combine) {
+      return new ExampleMultiSumBufferAggregator.ArrayInput(metricFactory.makeColumnValueSelector(name), 2);
+    }
+    return new ExampleSampledSumBufferAggregator(
+        metricFactory.makeColumnValueSelector(fieldName),
+        metricFactory.makeColumnValueSelector(ColumnHolder.TIME_COLUMN_NAME),
+        new ExampleSampledSumSampler(sampleRate, blockRows)
+    );
+  }
+
+  @Override
+  public boolean canVectorize(ColumnInspector columnInspector)
+  {
+    if (combine) {
+      return false;
+    }
+    final ColumnCapabilities capabilities = columnInspector.getColumnCapabilities(fieldName);
+    return capabilities == null || capabilities.isNumeric();
+  }
+
+  @Override
+  public VectorAggregator factorizeVector(VectorColumnSelectorFactory selectorFactory)
+  {
+    return new ExampleSampledSumVectorAggregator(
+        selectorFactory.makeValueSelector(fieldName),
+        selectorFactory.makeValueSelector(ColumnHolder.TIME_COLUMN_NAME),
+        new ExampleSampledSumSampler(sampleRate, blockRows, selectorFactory.getMaxVectorSize())
+    );
+  }
+
+  @Override
+  public Comparator getComparator()
+  {
+    return COMPARATOR;
+  }
+
+  @Override
+  public Object combine(Object lhs, Object rhs)
+  {
+    if (rhs == null) {
+      return lhs;
+    }
+    if (lhs == null) {
+      return rhs;
+    }
+    return new Object[]{
+        ExampleMultiSumAggregatorFactory.getElement(lhs, SUM) + ExampleMultiSumAggregatorFactory.getElement(rhs, SUM),
+        ExampleMultiSumAggregatorFactory.getElement(lhs, SQUARES)
+        + ExampleMultiSumAggregatorFactory.getElement(rhs, SQUARES)
+    };
+  }
+
+  @Override
+  public AggregatorFactory getCombiningFactory()
+  {
+    return new ExampleSampledSumAggregatorFactory(name, fieldName, sampleRate, blockRows, true);
+  }
+
+  @Override
+  public AggregatorFactory getMergingFactory(AggregatorFactory other) throws AggregatorFactoryNotMergeableException
+  {
+    // Intermediate values can only be added up if they were sampled the same way: at the same rate, in blocks of the
+    // same size, since both shape the variance behind the confidence interval.
+    if (other.getName().equals(this.getName())
+        && this.getClass() == other.getClass()
+        && ((ExampleSampledSumAggregatorFactory) other).sampleRate == sampleRate
+        && ((ExampleSampledSumAggregatorFactory) other).blockRows == blockRows) {
+      return getCombiningFactory();
+    } else {
+      throw new AggregatorFactoryNotMergeableException(this, other);
+    }
+  }
+
+  @Override
+  public AggregatorFactory withName(String newName)
+  {
+    return new ExampleSampledSumAggregatorFactory(newName, fieldName, sampleRate, blockRows, combine);
+  }
+
+  @Override
+  public List<AggregatorFactory> getRequiredColumns()
+  {
+    return ImmutableList.of(new ExampleSampledSumAggregatorFactory(fieldName, fieldName, sampleRate, blockRows, false));
+  }
+
+  @Override
+  public Object deserialize(Object object)
+  {
+    if (object == null || object instanceof Object[]) {
+      return object;
+    }
+
+    // JSON results come back as lists, possibly with "NaN" / "Infinity" strings
+    return new Object[]{
+        ExampleMultiSumAggregatorFactory.getElement(object, SUM),
+        ExampleMultiSumAggregatorFactory.getElement(object, SQUARES)
+    };
+  }
+
+  @Nullable
+  @Override
+  public Object finalizeComputation(@Nullable Object object)
+  {
+    if (object == null) {
+      return null;
+    }
+
+    final double estimate = ExampleMultiSumAggregatorFactory.getElement(object, SUM) / sampleRate;
+    final double variance =
+        (1 - sampleRate) / (sampleRate * sampleRate) * ExampleMultiSumAggregatorFactory.getElement(object, SQUARES);
+    final double halfWidth = Z_95 * Math.sqrt(variance);
+    return new Object[]{estimate, estimate - halfWidth, estimate + halfWidth};
+  }
+
+  @JsonProperty
+  public String getFieldName()
+  {
+    return fieldName;
+  }
+
+  @JsonProperty
+  public double getSampleRate()
+  {
+    return sampleRate;
+  }
+
+  @JsonProperty
+  public int getBlockRows()
+  {
+    return blockRows;
+  }
+
+  @JsonProperty
+  @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+  public boolean isCombine()
+  {
+    return combine;
+  }
+
+  @Override
+  @JsonProperty
+  public String getName()
+  {
+    return name;
+  }
+
+  @Override
+  public List<String> requiredFields()
+  {
+    return ImmutableList.of(combine ? name : fieldName);
+  }
+
+  @Override
+  public byte[] getCacheKey()
+  {
+    // The sample depends on both sampling parameters, so different values must not share cached results.
+    return new CacheKeyBuilder((byte) 0xFF)
+        .appendByte(CACHE_KEY_SITE_ID)
+        .appendBoolean(combine)
+        .appendString(combine ? name : fieldName)
+        .appendDouble(sampleRate)
+        .appendInt(blockRows)
+        .build();
+  }
+
+  @Override
+  public ColumnType getIntermediateType()
+  {
+    return ColumnType.DOUBLE_ARRAY;
+  }
+
+  @Override
+  public ColumnType getResultType()
+  {
+    return ColumnType.DOUBLE_ARRAY;
+  }
+
+  @Override
+  public int getMaxIntermediateSize()
+  {
+    return ExampleSampledSumBufferAggregator.SIZE;
+  }
+
+  @Override
+  public boolean equals(final Object o)
+  {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    final ExampleSampledSumAggregatorFactory that = (ExampleSampledSumAggregatorFactory) o;
+    return Double.compare(sampleRate, that.sampleRate) == 0 &&
+           blockRows == that.blockRows &&
+           combine == that.combine &&
+           Objects.equals(name, that.name) &&
+           Objects.equals(fieldName, that.fieldName);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return Objects.hash(name, fieldName, sampleRate, blockRows, combine);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "ExampleSampledSumAggregatorFactory{" +
+           "name='" + name + '\'' +
+           ", fieldName='" + fieldName + '\'' +
+           ", sampleRate=" + sampleRate +
+           ", blockRows=" + blockRows +
+           ", combine=" + combine +
+           '}';
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.BufferAggregator;
+import org.apache.druid.segment.BaseDoubleColumnValueSelector;
+import org.apache.druid.segment.BaseLongColumnValueSelector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Buffer-based version of {@link ExampleSampledSumAggregator}. Each slot holds the sum of the sampled rows, the sum of
+ * the squared totals of the blocks the group has finished, the block the group last saw, and that block's total so
+ * far. {@link ExampleSampledSumVectorAggregator} uses the same layout.
+ */
+public class ExampleSampledSumBufferAggregator implements BufferAggregator
+{
+  static final int SUM_OFFSET = 0;
+  static final int SQUARES_OFFSET = Double.BYTES;
+  static final int BLOCK_OFFSET = 2 * Double.BYTES;
+  static final int BLOCK_TOTAL_OFFSET = 2 * Double.BYTES + Long.BYTES;
+  static final int SIZE = 3 * Double.BYTES + Long.BYTES;
+
+  private final BaseDoubleColumnValueSelector selector;
+  private final BaseLongColumnValueSelector timeSelector;
+  private final ExampleSampledSumSampler sampler;
+
+  ExampleSampledSumBufferAggregator(
+      BaseDoubleColumnValueSelector selector,
+      BaseLongColumnValueSelector timeSelector,
+      ExampleSampledSumSampler sampler
+  )
+  {
+    this.selector = selector;
+    this.timeSelector = timeSelector;
+    this.sampler = sampler;
+  }
+
+  @Override
+  public void init(final ByteBuffer buf, final int position)
+  {
+    initSlot(buf, position);
+  }
+
+  @Override
+  public void aggregate(final ByteBuffer buf, final int position)
+  {
+    if (sampler.next(timeSelector) && !selector.isNull()) {
+      addToSlot(buf, position, sampler.getBlock(), selector.getDouble());
+    }
+  }
+
+  @Override
+  public Object get(final ByteBuffer buf, final int position)
+  {
+    return getSlot(buf, position);
+  }
+
+  @Override
+  public float getFloat(ByteBuffer buf, int position)
+  {
+    throw new UnsupportedOperationException("ExampleSampledSumBufferAggregator does not support getFloat()");
+  }
+
+  @Override
+  public long getLong(ByteBuffer buf, int position)
+  {
+    throw new UnsupportedOperationException("ExampleSampledSumBufferAggregator does not support getLong()");
+  }
+
+  @Override
+  public void close()
+  {
+    // no resources to cleanup
+  }
+
+  static void initSlot(final ByteBuffer buf, final int position)
+  {
+    buf.putDouble(position + SUM_OFFSET, 0.0d);
+    buf.putDouble(position + SQUARES_OFFSET, 0.0d);
+    buf.putLong(position + BLOCK_OFFSET, -1L);
+    buf.putDouble(position + BLOCK_TOTAL_OFFSET, 0.0d);
+  }
+
+  static void addToSlot(final ByteBuffer buf, final int position, final long block, final double value)
+  {
+    double blockTotal = buf.getDouble(position + BLOCK_TOTAL_OFFSET);
+    if (buf.getLong(position + BLOCK_OFFSET) != block) {
+      buf.putDouble(position + SQUARES_OFFSET, buf.getDouble(position + SQUARES_OFFSET) + blockTotal * blockTotal);
+      buf.putLong(position + BLOCK_OFFSET, block);
+      blockTotal = 0;
+    }
+    buf.putDouble(position + BLOCK_TOTAL_OFFSET, blockTotal + value);
+    buf.putDouble(position + SUM_OFFSET, buf.getDouble(position + SUM_OFFSET) + value);
+  }
+
+  /**
+   * Returns the intermediate value, see {@link ExampleSampledSumAggregatorFactory}.
+   */
+  static Object[] getSlot(final ByteBuffer buf, final int position)
+  {
+    final double blockTotal = buf.getDouble(position + BLOCK_TOTAL_OFFSET);
+    return new Object[]{
+        buf.getDouble(position + SUM_OFFSET),
+        buf.getDouble(position + SQUARES_OFFSET) + blockTotal * blockTotal
+    };
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import org.apache.druid.segment.BaseLongColumnValueSelector;
+import org.apache.druid.segment.vector.VectorValueSelector;
+
+import javax.annotation.Nullable;
+
+/**
+ * Picks the rows that {@link ExampleSampledSumAggregatorFactory} reads. Rows are split into blocks of "blockRows"
+ * consecutive rows, in the order the aggregator sees them, and each block is kept with probability "sampleRate".
+ *
+ * Whole blocks are kept or skipped so that skipped rows are contiguous: a skipped block never reads its values. The
+ * default block size matches the number of doubles in a compressed column block, so an unfiltered scan also skips
+ * decompressing those column blocks. The choice is a hash of the block number and the time of its first row, so it is
+ * the same every time a segment is scanned, but differs between segments.
+ */
+final class ExampleSampledSumSampler
+{
+  private final double sampleRate;
+  private final int blockRows;
+
+  // Rows seen so far, and the block of the last one.
+  private long rowCount = 0;
+  private long block = -1;
+  private boolean sampled = false;
+
+  // Per-row results of the last call to advance(), for vector aggregators.
+  @Nullable
+  private final boolean[] sampledVector;
+  @Nullable
+  private final long[] blockVector;
+
+  ExampleSampledSumSampler(double sampleRate, int blockRows)
+  {
+    this(sampleRate, blockRows, 0);
+  }
+
+  ExampleSampledSumSampler(double sampleRate, int blockRows, int maxVectorSize)
+  {
+    this.sampleRate = sampleRate;
+    this.blockRows = blockRows;
+    this.sampledVector = maxVectorSize > 0 ? new boolean[maxVectorSize] : null;
+    this.blockVector = maxVectorSize > 0 ? new long[maxVectorSize] : null;
+  }
+
+  /**
+   * Moves to the next row, and returns whether it is sampled. The time is only read at the start of a block.
+   */
+  boolean next(BaseLongColumnValueSelector timeSelector)
+  {
+    if (rowCount % blockRows == 0) {
+      block = rowCount / blockRows;
+      sampled = isSampled(block, timeSelector.getLong());
+    }
+    rowCount++;
+    return sampled;
+  }
+
+  /**
+   * Block of the row passed to the last call to {@link #next}.
+   */
+  long getBlock()
+  {
+    return block;
+  }
+
+  /**
+   * Moves past a batch of "numRows" rows: rows "startRow" to "startRow + numRows" of the vector, or the rows listed in
+   * "rows" if it is not null. Returns the number of sampled rows; {@link #isSampled(int)} and {@link #getBlock(int)}
+   * then describe each row of the batch. The time vector is only read if a block starts in the batch.
+   */
+  int advance(VectorValueSelector timeSelector, int startRow, @Nullable int[] rows, int numRows)
+  {
+    long[] times = null;
+    int sampledRows = 0;
+    for (int i = 0; i < numRows; i++) {
+      if (rowCount % blockRows == 0) {
+        if (times == null) {
+          times = timeSelector.getLongVector();
+        }
+        block = rowCount / blockRows;
+        sampled = isSampled(block, times[rows != null ? rows[i] : startRow + i]);
+      }
+      rowCount++;
+      sampledVector[i] = sampled;
+      blockVector[i] = block;
+      if (sampled) {
+        sampledRows++;
+      }
+    }
+    return sampledRows;
+  }
+
+  boolean isSampled(int i)
+  {
+    return sampledVector[i];
+  }
+
+  long getBlock(int i)
+  {
+    return blockVector[i];
+  }
+
+  private boolean isSampled(long block, long time)
+  {
+    // top 53 bits of the hash, as a fraction in [0, 1); the added constant keeps block 0 at time 0 from hashing to 0
+    final long hash = HashCommon.mix((block + 1) * 0x9E3779B97F4A7C15L ^ time);
+    return (hash >>> 11) * 0x1.0p-53 < sampleRate;
+  }
+}
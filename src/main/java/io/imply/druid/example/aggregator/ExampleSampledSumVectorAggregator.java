@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.VectorAggregator;
+import org.apache.druid.segment.vector.VectorValueSelector;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * Vectorized version of {@link ExampleSampledSumBufferAggregator}, with the same buffer layout. A batch with no
+ * sampled rows does not read the value vector at all.
+ */
+public class ExampleSampledSumVectorAggregator implements VectorAggregator
+{
+  private final VectorValueSelector selector;
+  private final VectorValueSelector timeSelector;
+  private final ExampleSampledSumSampler sampler;
+
+  ExampleSampledSumVectorAggregator(
+      VectorValueSelector selector,
+      VectorValueSelector timeSelector,
+      ExampleSampledSumSampler sampler
+  )
+  {
+    this.selector = selector;
+    this.timeSelector = timeSelector;
+    this.sampler = sampler;
+  }
+
+  @Override
+  public void init(final ByteBuffer buf, final int position)
+  {
+    ExampleSampledSumBufferAggregator.initSlot(buf, position);
+  }
+
+  @Override
+  public void aggregate(final ByteBuffer buf, final int position, final int startRow, final int endRow)
+  {
+    if (sampler.advance(timeSelector, startRow, null, endRow - startRow) == 0) {
+      return;
+    }
+
+    final double[] vector = selector.getDoubleVector();
+    final boolean[] nullVector = selector.getNullVector();
+
+    for (int i = 0, row = startRow; row < endRow; i++, row++) {
+      if (sampler.isSampled(i) && (nullVector == null || !nullVector[row])) {
+        ExampleSampledSumBufferAggregator.addToSlot(buf, position, sampler.getBlock(i), vector[row]);
+      }
+    }
+  }
+
+  @Override
+  public void aggregate(
+      final ByteBuffer buf,
+      final int numRows,
+      final int[] positions,
+      @Nullable final int[] rows,
+      final int positionOffset
+  )
+  {
+    if (sampler.advance(timeSelector, 0, rows, numRows) == 0) {
+      return;
+    }
+
+    final double[] vector = selector.getDoubleVector();
+    final boolean[] nullVector = selector.getNullVector();
+
+    for (int i = 0; i < numRows; i++) {
+      final int row = rows != null ? rows[i] : i;
+      if (sampler.isSampled(i) && (nullVector == null || !nullVector[row])) {
+        final int position = positions[i] + positionOffset;
+        ExampleSampledSumBufferAggregator.addToSlot(buf, position, sampler.getBlock(i), vector[row]);
+      }
+    }
+  }
+
+  @Override
+  public Object get(final ByteBuffer buf, final int position)
+  {
+    return ExampleSampledSumBufferAggregator.getSlot(buf, position);
+  }
+
+  @Override
+  public void close()
+  {
+    // no resources to cleanup
+  }
+}
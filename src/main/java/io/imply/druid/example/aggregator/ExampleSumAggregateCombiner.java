@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.query.aggregation.DoubleAggregateCombiner;
+import org.apache.druid.segment.ColumnValueSelector;
+
+/**
+ * Combines exampleSum values while merging segments (rollup and compaction), without boxing. Nulls contribute zero,
+ * matching {@link ExampleSumAggregator}.
+ */
+public class ExampleSumAggregateCombiner extends DoubleAggregateCombiner
+{
+  private double sum;
+
+  @Override
+  public void reset(ColumnValueSelector selector)
+  {
+    sum = selector.isNull() ? 0.0d : selector.getDouble();
+  }
+
+  @Override
+  public void fold(ColumnValueSelector selector)
+  {
+    if (!selector.isNull()) {
+      sum += selector.getDouble();
+    }
+  }
+
+  @Override
+  public double getDouble()
+  {
+    return sum;
+  }
+}
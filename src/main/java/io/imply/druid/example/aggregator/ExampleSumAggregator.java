@@ -16,27 +16,90 @@
 
 package io.imply.druid.example.aggregator;
 
-import org.apache.druid.common.config.NullHandling;
 import org.apache.druid.query.aggregation.Aggregator;
 import org.apache.druid.segment.BaseDoubleColumnValueSelector;
+import org.apache.druid.segment.BaseFloatColumnValueSelector;
+import org.apache.druid.segment.BaseLongColumnValueSelector;
+import org.apache.druid.segment.BaseObjectColumnValueSelector;
+import org.apache.druid.segment.ColumnValueSelector;
+import org.apache.druid.segment.NilColumnValueSelector;
+import org.apache.druid.segment.column.ColumnCapabilities;
 
-public class ExampleSumAggregator implements Aggregator
+import javax.annotation.Nullable;
+
+/**
+ * Sums the values of a column into a double. Use {@link #create} to get an implementation specialized for the
+ * input column: each one reads the column in its native type, and skips the per-row null check when the column
+ * is known to have no nulls. Array columns are summed element by element, so each row adds the sum of its array.
+ */
+public abstract class ExampleSumAggregator implements Aggregator
 {
-  private final BaseDoubleColumnValueSelector selector;
+  /**
+   * Estimated on-heap size of one aggregator: object header, selector reference and the running sum.
+   */
+  static final int ESTIMATED_SIZE_BYTES = 24;
 
-  private double sum;
+  /**
+   * Aggregator for missing columns. It never changes, so one instance is shared by every row of every index.
+   */
+  private static final ExampleSumAggregator NIL = new NilInput();
 
-  public ExampleSumAggregator(BaseDoubleColumnValueSelector selector)
-  {
-    this.selector = selector;
+  protected double sum;
 
+  ExampleSumAggregator()
+  {
     this.sum = 0;
   }
 
-  @Override
-  public void aggregate()
+  /**
+   * Picks an implementation based on the selector and the capabilities of the column it reads. Null capabilities
+   * mean the type is unknown (for example, raw input rows at ingestion time), so we fall back to reading doubles
+   * and checking every row for nulls.
+   */
+  public static ExampleSumAggregator create(
+      final ColumnValueSelector<?> selector,
+      @Nullable final ColumnCapabilities capabilities
+  )
+  {
+    if (selector instanceof NilColumnValueSelector) {
+      return NIL;
+    }
+
+    if (capabilities != null && capabilities.isArray()) {
+      return new ArrayInput(selector);
+    }
+
+    if (capabilities == null || !capabilities.isNumeric()) {
+      return new NullableDoubleInput(selector);
+    }
+
+    final boolean hasNulls = !capabilities.hasNulls().isFalse();
+    switch (capabilities.getType()) {
+      case LONG:
+        return hasNulls ? new NullableLongInput(selector) : new LongInput(selector);
+      case FLOAT:
+        return hasNulls ? new NullableFloatInput(selector) : new FloatInput(selector);
+      default:
+        return hasNulls ? new NullableDoubleInput(selector) : new DoubleInput(selector);
+    }
+  }
+
+  /**
+   * Sums the elements of one row of an array column. Null and non-numeric elements contribute zero, like null rows.
+   */
+  static double sumArray(@Nullable final Object value)
   {
-    sum += selector.isNull() ? NullHandling.ZERO_DOUBLE : selector.getDouble();
+    if (!(value instanceof Object[])) {
+      return 0;
+    }
+
+    double arraySum = 0;
+    for (Object element : (Object[]) value) {
+      if (element instanceof Number) {
+        arraySum += ((Number) element).doubleValue();
+      }
+    }
+    return arraySum;
   }
 
   @Override
@@ -58,9 +121,17 @@ public class ExampleSumAggregator implements Aggregator
   }
 
   @Override
-  public Aggregator clone()
+  public double getDouble()
+  {
+    return sum;
+  }
+
+  /**
+   * Estimated on-heap size of this aggregator, used for memory accounting in the incremental index.
+   */
+  int getEstimatedSizeBytes()
   {
-    return new ExampleSumAggregator(selector);
+    return ESTIMATED_SIZE_BYTES;
   }
 
   @Override
@@ -68,4 +139,138 @@ public class ExampleSumAggregator implements Aggregator
   {
     // no resources to cleanup
   }
+
+  private static final class NilInput extends ExampleSumAggregator
+  {
+    @Override
+    public void aggregate()
+    {
+      // the column does not exist, so every row contributes zero
+    }
+
+    @Override
+    int getEstimatedSizeBytes()
+    {
+      // shared instance, so rows don't pay for it
+      return 0;
+    }
+  }
+
+  private static final class NullableDoubleInput extends ExampleSumAggregator
+  {
+    private final BaseDoubleColumnValueSelector selector;
+
+    NullableDoubleInput(BaseDoubleColumnValueSelector selector)
+    {
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate()
+    {
+      if (!selector.isNull()) {
+        sum += selector.getDouble();
+      }
+    }
+  }
+
+  private static final class DoubleInput extends ExampleSumAggregator
+  {
+    private final BaseDoubleColumnValueSelector selector;
+
+    DoubleInput(BaseDoubleColumnValueSelector selector)
+    {
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate()
+    {
+      sum += selector.getDouble();
+    }
+  }
+
+  private static final class NullableLongInput extends ExampleSumAggregator
+  {
+    private final BaseLongColumnValueSelector selector;
+
+    NullableLongInput(BaseLongColumnValueSelector selector)
+    {
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate()
+    {
+      if (!selector.isNull()) {
+        sum += selector.getLong();
+      }
+    }
+  }
+
+  private static final class LongInput extends ExampleSumAggregator
+  {
+    private final BaseLongColumnValueSelector selector;
+
+    LongInput(BaseLongColumnValueSelector selector)
+    {
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate()
+    {
+      sum += selector.getLong();
+    }
+  }
+
+  private static final class NullableFloatInput extends ExampleSumAggregator
+  {
+    private final BaseFloatColumnValueSelector selector;
+
+    NullableFloatInput(BaseFloatColumnValueSelector selector)
+    {
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate()
+    {
+      if (!selector.isNull()) {
+        sum += selector.getFloat();
+      }
+    }
+  }
+
+  private static final class FloatInput extends ExampleSumAggregator
+  {
+    private final BaseFloatColumnValueSelector selector;
+
+    FloatInput(BaseFloatColumnValueSelector selector)
+    {
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate()
+    {
+      sum += selector.getFloat();
+    }
+  }
+
+  private static final class ArrayInput extends ExampleSumAggregator
+  {
+    private final BaseObjectColumnValueSelector<?> selector;
+
+    ArrayInput(BaseObjectColumnValueSelector<?> selector)
+    {
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate()
+    {
+      sum += sumArray(selector.getObject());
+    }
+  }
 }
@@ -16,20 +16,50 @@
 
 package io.imply.druid.example.aggregator;
 
+import com.fasterxml.jackson.annotation.JacksonInject;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Ordering;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.primitives.Doubles;
+import org.apache.druid.java.util.common.IAE;
 import org.apache.druid.java.util.common.StringUtils;
+import org.apache.druid.math.expr.Expr;
+import org.apache.druid.math.expr.ExprMacroTable;
+import org.apache.druid.math.expr.ExprType;
+import org.apache.druid.math.expr.ExpressionType;
+import org.apache.druid.math.expr.Parser;
+import org.apache.druid.query.aggregation.AggregateCombiner;
 import org.apache.druid.query.aggregation.Aggregator;
+import org.apache.druid.query.aggregation.AggregatorAndSize;
 import org.apache.druid.query.aggregation.AggregatorFactory;
 import org.apache.druid.query.aggregation.AggregatorFactoryNotMergeableException;
+import org.apache.druid.query.aggregation.AggregatorUtil;
 import org.apache.druid.query.aggregation.BufferAggregator;
+import org.apache.druid.query.aggregation.FilteredAggregator;
+import org.apache.druid.query.aggregation.FilteredBufferAggregator;
+import org.apache.druid.query.aggregation.FilteredVectorAggregator;
+import org.apache.druid.query.aggregation.VectorAggregator;
+import org.apache.druid.query.filter.DimFilter;
+import org.apache.druid.query.filter.Filter;
+import org.apache.druid.query.filter.vector.VectorValueMatcher;
+import org.apache.druid.segment.ColumnInspector;
 import org.apache.druid.segment.ColumnSelectorFactory;
+import org.apache.druid.segment.ColumnValueSelector;
+import org.apache.druid.segment.column.ColumnCapabilities;
+import org.apache.druid.segment.column.ColumnCapabilitiesImpl;
 import org.apache.druid.segment.column.ColumnType;
+import org.apache.druid.segment.column.ValueType;
+import org.apache.druid.segment.vector.VectorColumnSelectorFactory;
+import org.apache.druid.segment.vector.VectorValueSelector;
+import org.apache.druid.segment.virtual.ExpressionSelectors;
+import org.apache.druid.segment.virtual.ExpressionVectorSelectors;
 
+import javax.annotation.Nullable;
 import java.nio.ByteBuffer;
 import java.util.Comparator;
 import java.util.List;
@@ -44,61 +74,387 @@ public class ExampleSumAggregatorFactory extends AggregatorFactory
   // Type name for JSON.
   public static final String TYPE_NAME = "exampleSum";
 
-  private static final Comparator COMPARATOR = new Ordering()
-  {
-    @Override
-    public int compare(Object o, Object o1)
-    {
-      return Doubles.compare(((Number) o).doubleValue(), ((Number) o1).doubleValue());
+  // Brokers call the comparator for every pair of rows they merge in topN and ordered queries, so it compares
+  // primitives directly, with nulls first, instead of going through Guava's Ordering wrappers.
+  private static final Comparator<Object> COMPARATOR = (o, o1) -> {
+    if (o == null || o1 == null) {
+      return o == o1 ? 0 : (o == null ? -1 : 1);
+    }
+    return Double.compare(toDouble(o), toDouble(o1));
+  };
+
+  private static final Comparator<Object> FIXED_POINT_COMPARATOR = (o, o1) -> {
+    if (o == null || o1 == null) {
+      return o == o1 ? 0 : (o == null ? -1 : 1);
     }
-  }.nullsFirst();
+    return Long.compare(((Number) o).longValue(), ((Number) o1).longValue());
+  };
 
-  private static double combineValues(Object lhs, Object rhs)
+  private static final Double NAN = Double.NaN;
+  private static final Double POSITIVE_INFINITY = Double.POSITIVE_INFINITY;
+  private static final Double NEGATIVE_INFINITY = Double.NEGATIVE_INFINITY;
+
+  /**
+   * Reads a double sum. Aggregators, and the JSON and Smile readers on the broker, produce {@link Double}, which is
+   * read without a call through {@link Number}.
+   */
+  private static double toDouble(Object value)
   {
-    return ((Number) lhs).doubleValue() + ((Number) rhs).doubleValue();
+    return value instanceof Double ? (Double) value : ((Number) value).doubleValue();
   }
 
   private final String name;
+  @Nullable
   private final String fieldName;
+  @Nullable
+  private final String expression;
+  private final boolean concurrent;
+  @Nullable
+  private final Integer scale;
+  @Nullable
+  private final DimFilter filter;
+  private final ExprMacroTable macroTable;
+  private final Supplier<Expr> fieldExpression;
+  private final Supplier<Filter> filterSupplier;
 
+  /**
+   * Exactly one of "fieldName" and "expression" must be given. An expression is evaluated directly by the aggregator,
+   * like the "expression" property of the built-in simple aggregators, so it does not need a virtual column.
+   *
+   * @param scale if set, sums in fixed point: inputs count units of 10^-scale, and are summed exactly into a long.
+   *              Floating-point inputs are rounded to whole units. The sum is converted to a double when finalized.
+   * @param filter if set, only rows matching the filter are summed, like a "filtered" aggregator around this one.
+   *               The filter is applied by the aggregator itself, which lets vectorized queries sum the matching
+   *               rows of each batch in one pass.
+   */
   @JsonCreator
   public ExampleSumAggregatorFactory(
       @JsonProperty("name") final String name,
-      @JsonProperty("fieldName") final String fieldName
+      @JsonProperty("fieldName") @Nullable final String fieldName,
+      @JsonProperty("expression") @Nullable final String expression,
+      @JsonProperty("concurrent") @Nullable final Boolean concurrent,
+      @JsonProperty("scale") @Nullable final Integer scale,
+      @JsonProperty("filter") @Nullable final DimFilter filter,
+      @JacksonInject final ExprMacroTable macroTable
   )
   {
     this.name = Preconditions.checkNotNull(name, "name");
-    this.fieldName = Preconditions.checkNotNull(fieldName, "fieldName");
+    Preconditions.checkArgument(
+        fieldName == null ^ expression == null,
+        "Must have a valid, non-null fieldName or expression"
+    );
+    this.fieldName = fieldName;
+    this.expression = expression;
+    this.concurrent = concurrent != null && concurrent;
+    Preconditions.checkArgument(
+        scale == null || (scale >= 0 && scale <= ExampleFixedPoint.MAX_SCALE),
+        "scale must be between 0 and %s",
+        ExampleFixedPoint.MAX_SCALE
+    );
+    Preconditions.checkArgument(scale == null || !this.concurrent, "concurrent cannot be combined with scale");
+    this.scale = scale;
+    this.filter = filter;
+    this.macroTable = macroTable;
+    this.fieldExpression = Parser.lazyParse(expression, macroTable);
+    this.filterSupplier = filter == null ? () -> null : Suppliers.memoize(filter::toFilter);
+  }
+
+  public ExampleSumAggregatorFactory(
+      final String name,
+      @Nullable final String fieldName,
+      @Nullable final String expression,
+      @Nullable final Boolean concurrent,
+      @Nullable final Integer scale,
+      final ExprMacroTable macroTable
+  )
+  {
+    this(name, fieldName, expression, concurrent, scale, null, macroTable);
+  }
+
+  public ExampleSumAggregatorFactory(final String name, final String fieldName)
+  {
+    this(name, fieldName, null, null, null, ExprMacroTable.nil());
   }
 
   @Override
   public Aggregator factorize(ColumnSelectorFactory metricFactory)
   {
-    return new ExampleSumAggregator(metricFactory.makeColumnValueSelector(fieldName));
+    // Concurrent aggregators are shared between threads, which the per-aggregator counters are not. In every path,
+    // the counting happens inside the filter, so rows and nulls are both counted only for rows that pass it.
+    if (ExampleSumMetrics.isEnabled() && !concurrent) {
+      final ExampleSumMetrics.Counters counters = new ExampleSumMetrics.Counters(ExampleSumMetrics.Path.ROW);
+      final ColumnValueSelector<?> selector = makeCountingSelector(metricFactory, counters);
+      return filterAggregator(
+          metricFactory,
+          new ExampleInstrumentedSumAggregator(factorizeSum(metricFactory, selector), counters)
+      );
+    }
+    return filterAggregator(metricFactory, factorizeSum(metricFactory, makeSelector(metricFactory)));
+  }
+
+  private Aggregator factorizeSum(ColumnSelectorFactory metricFactory, ColumnValueSelector<?> selector)
+  {
+    if (scale != null) {
+      return ExampleFixedPointSumAggregator.create(selector, isFloatingPoint(metricFactory));
+    }
+    if (concurrent) {
+      // Only the on-heap Aggregator can be shared between threads. Buffer and vector aggregators are always
+      // driven by a single thread, so they don't need this mode. It is meant for ingestion, where the input type is
+      // unknown, so inputs are always read as scalars.
+      return new ExampleConcurrentSumAggregator(selector);
+    }
+    return ExampleSumAggregator.create(selector, getCapabilities(metricFactory));
+  }
+
+  @Override
+  public AggregatorAndSize factorizeWithSize(ColumnSelectorFactory metricFactory)
+  {
+    // Report what each row really costs on heap, so the incremental index's maxBytesInMemory accounting is accurate.
+    // Ingestion-time aggregators are not instrumented; ExampleSumMetrics is about queries.
+    final Aggregator aggregator = factorizeSum(metricFactory, makeSelector(metricFactory));
+    final int sizeBytes;
+    if (concurrent) {
+      sizeBytes = ExampleConcurrentSumAggregator.ESTIMATED_SIZE_BYTES;
+    } else if (scale != null) {
+      sizeBytes = ((ExampleFixedPointSumAggregator) aggregator).getEstimatedSizeBytes();
+    } else {
+      sizeBytes = ((ExampleSumAggregator) aggregator).getEstimatedSizeBytes();
+    }
+    return new AggregatorAndSize(filterAggregator(metricFactory, aggregator), sizeBytes);
+  }
+
+  @Override
+  public int guessAggregatorHeapFootprint(long rows)
+  {
+    return concurrent ? ExampleConcurrentSumAggregator.ESTIMATED_SIZE_BYTES : ExampleSumAggregator.ESTIMATED_SIZE_BYTES;
   }
 
   @Override
   public BufferAggregator factorizeBuffered(ColumnSelectorFactory metricFactory)
   {
-    return new ExampleSumBufferAggregator(metricFactory.makeColumnValueSelector(fieldName));
+    final ExampleSumMetrics.Counters counters =
+        ExampleSumMetrics.isEnabled() ? new ExampleSumMetrics.Counters(ExampleSumMetrics.Path.BUFFER) : null;
+    final ColumnValueSelector<?> selector =
+        counters == null ? makeSelector(metricFactory) : makeCountingSelector(metricFactory, counters);
+    BufferAggregator aggregator;
+    if (scale != null) {
+      aggregator = ExampleFixedPointSumBufferAggregator.create(selector, isFloatingPoint(metricFactory));
+    } else {
+      aggregator = ExampleSumBufferAggregator.create(selector, getCapabilities(metricFactory));
+    }
+    if (counters != null) {
+      aggregator = new ExampleInstrumentedSumBufferAggregator(aggregator, counters);
+    }
+    if (filter != null) {
+      aggregator = new FilteredBufferAggregator(filterSupplier.get().makeMatcher(metricFactory), aggregator);
+    }
+    return aggregator;
+  }
+
+  private Aggregator filterAggregator(ColumnSelectorFactory metricFactory, Aggregator aggregator)
+  {
+    return filter == null
+           ? aggregator
+           : new FilteredAggregator(filterSupplier.get().makeMatcher(metricFactory), aggregator);
+  }
+
+  @Override
+  public boolean canVectorize(ColumnInspector columnInspector)
+  {
+    // Numeric columns (and missing columns, which read as nulls) can be read through a VectorValueSelector, and
+    // array columns through a VectorObjectSelector. Expressions can be vectorized if all of their functions and
+    // inputs support it.
+    if (filter != null && !filterSupplier.get().canVectorizeMatcher(columnInspector)) {
+      return false;
+    }
+    if (scale == null && isArray(getCapabilities(columnInspector))) {
+      return fieldName != null || fieldExpression.get().canVectorize(columnInspector);
+    }
+    return AggregatorUtil.canVectorize(columnInspector, fieldName, expression, fieldExpression);
+  }
+
+  @Override
+  public VectorAggregator factorizeVector(VectorColumnSelectorFactory selectorFactory)
+  {
+    final VectorValueMatcher matcher =
+        filter == null ? null : filterSupplier.get().makeVectorMatcher(selectorFactory);
+
+    if (scale == null && isArray(getCapabilities(selectorFactory))) {
+      final VectorAggregator aggregator = new ExampleArraySumVectorAggregator(
+          fieldName != null
+          ? selectorFactory.makeObjectSelector(fieldName)
+          : ExpressionVectorSelectors.makeVectorObjectSelector(selectorFactory, fieldExpression.get())
+      );
+      return filterVectorAggregator(matcher, instrument(aggregator, null));
+    }
+
+    final VectorValueSelector selector =
+        AggregatorUtil.makeVectorValueSelector(selectorFactory, fieldName, expression, fieldExpression);
+    final VectorAggregator aggregator;
+    if (scale != null) {
+      aggregator = new ExampleFixedPointSumVectorAggregator(selector, isFloatingPoint(selectorFactory));
+    } else if (matcher != null && !ExampleSumMetrics.isEnabled()) {
+      // The common case gets the matcher fused in, so it sums each batch's matching rows in one pass. Instrumented
+      // aggregators skip this, so that they count after the filter like every other path.
+      return new ExampleFilteredSumVectorAggregator(selector, matcher);
+    } else {
+      aggregator = new ExampleSumVectorAggregator(selector);
+    }
+    return filterVectorAggregator(matcher, instrument(aggregator, selector));
+  }
+
+  private static VectorAggregator filterVectorAggregator(
+      @Nullable VectorValueMatcher matcher,
+      VectorAggregator aggregator
+  )
+  {
+    return matcher == null ? aggregator : new FilteredVectorAggregator(matcher, aggregator);
+  }
+
+  private static VectorAggregator instrument(VectorAggregator aggregator, @Nullable VectorValueSelector selector)
+  {
+    if (ExampleSumMetrics.isEnabled()) {
+      return new ExampleInstrumentedSumVectorAggregator(aggregator, selector);
+    }
+    return aggregator;
+  }
+
+  /**
+   * Input selector of an instrumented aggregator. The aggregator checks each row for null anyway, so the selector
+   * counts the nulls it finds instead of the wrapper reading every row a second time.
+   */
+  private ColumnValueSelector<?> makeCountingSelector(
+      ColumnSelectorFactory metricFactory,
+      ExampleSumMetrics.Counters counters
+  )
+  {
+    return new ExampleNullCountingSelector<>(makeSelector(metricFactory), counters);
+  }
+
+  private ColumnValueSelector<?> makeSelector(ColumnSelectorFactory metricFactory)
+  {
+    if (fieldName != null) {
+      return metricFactory.makeColumnValueSelector(fieldName);
+    } else {
+      return ExpressionSelectors.makeColumnValueSelector(metricFactory, fieldExpression.get());
+    }
+  }
+
+  /**
+   * Capabilities of the input column, used to pick a specialized aggregator. Expression inputs return null, which
+   * selects the generic nullable-double implementation, unless they produce arrays.
+   */
+  @Nullable
+  private ColumnCapabilities getCapabilities(ColumnInspector columnInspector)
+  {
+    if (fieldName != null) {
+      return columnInspector.getColumnCapabilities(fieldName);
+    }
+    final ExpressionType outputType = fieldExpression.get().getOutputType(columnInspector);
+    if (outputType != null && outputType.isArray()) {
+      return ColumnCapabilitiesImpl.createSimpleArrayColumnCapabilities(ExpressionType.toColumnType(outputType));
+    }
+    return null;
+  }
+
+  /**
+   * Whether the capabilities are those of an array input, such as an ARRAY&lt;LONG&gt; or ARRAY&lt;DOUBLE&gt; column.
+   * Arrays are summed element by element, instead of having to be unnested first.
+   */
+  private static boolean isArray(@Nullable ColumnCapabilities capabilities)
+  {
+    return capabilities != null && capabilities.isArray();
+  }
+
+  /**
+   * Fixed-point sums only read scalar inputs.
+   */
+  private void checkScalarInput(boolean arrayInput)
+  {
+    if (arrayInput) {
+      throw new IAE("%s [%s] cannot sum array input with scale set", TYPE_NAME, name);
+    }
+  }
+
+  /**
+   * Whether fixed-point mode should round the input, rather than read it as a long. Only inputs known to be longs are
+   * read as longs. Inputs of unknown type, like raw rows at ingestion time, may have fractions, so they are rounded
+   * too; large values are still read exactly (see {@link ExampleFixedPoint#round(ColumnValueSelector)}). Array
+   * inputs are rejected.
+   */
+  private boolean isFloatingPoint(ColumnInspector columnInspector)
+  {
+    if (fieldName != null) {
+      final ColumnCapabilities capabilities = columnInspector.getColumnCapabilities(fieldName);
+      checkScalarInput(isArray(capabilities));
+      return capabilities == null || !capabilities.is(ValueType.LONG);
+    } else {
+      final ExpressionType outputType = fieldExpression.get().getOutputType(columnInspector);
+      checkScalarInput(outputType != null && outputType.isArray());
+      return outputType == null || !outputType.is(ExprType.LONG);
+    }
   }
 
   @Override
   public Comparator getComparator()
   {
-    return COMPARATOR;
+    return scale != null ? FIXED_POINT_COMPARATOR : COMPARATOR;
   }
 
   @Override
   public Object combine(Object lhs, Object rhs)
   {
-    return combineValues(lhs, rhs);
+    // A null side contributes nothing, so return the other side as-is instead of allocating a new Double.
+    if (rhs == null) {
+      return lhs;
+    }
+    if (lhs == null) {
+      return rhs;
+    }
+    if (scale != null) {
+      return ExampleFixedPoint.add(((Number) lhs).longValue(), ((Number) rhs).longValue());
+    }
+    final double lhsValue = toDouble(lhs);
+    final double rhsValue = toDouble(rhs);
+    final double sum = lhsValue + rhsValue;
+    // Zero sums, such as empty time buckets, are common when merging many segments. Adding one usually changes
+    // nothing, so the other side is returned as-is rather than boxed again. The bits are compared rather than the
+    // values, since -0.0 + 0.0 is 0.0.
+    final long sumBits = Double.doubleToRawLongBits(sum);
+    if (rhsValue == 0 && lhs instanceof Double && sumBits == Double.doubleToRawLongBits(lhsValue)) {
+      return lhs;
+    }
+    if (lhsValue == 0 && rhs instanceof Double && sumBits == Double.doubleToRawLongBits(rhsValue)) {
+      return rhs;
+    }
+    return sum;
+  }
+
+  @Override
+  public AggregateCombiner makeAggregateCombiner()
+  {
+    return scale != null ? new ExampleFixedPointSumAggregateCombiner() : new ExampleSumAggregateCombiner();
   }
 
   @Override
   public AggregatorFactory getCombiningFactory()
   {
-    return new ExampleSumAggregatorFactory(name, name);
+    // In fixed-point mode the intermediate values are already whole units, so the same scale reads them back as-is.
+    return new ExampleSumAggregatorFactory(name, name, null, concurrent, scale, macroTable);
+  }
+
+  @Override
+  public AggregatorFactory withName(String newName)
+  {
+    return new ExampleSumAggregatorFactory(newName, fieldName, expression, concurrent, scale, filter, macroTable);
+  }
+
+  /**
+   * Returns a copy of this factory that only sums rows matching the given filter.
+   */
+  public ExampleSumAggregatorFactory withFilter(@Nullable DimFilter newFilter)
+  {
+    return new ExampleSumAggregatorFactory(name, fieldName, expression, concurrent, scale, newFilter, macroTable);
   }
 
   @Override
@@ -114,15 +470,38 @@ public class ExampleSumAggregatorFactory extends AggregatorFactory
   @Override
   public List<AggregatorFactory> getRequiredColumns()
   {
-    return ImmutableList.of(new ExampleSumAggregatorFactory(fieldName, fieldName));
+    if (fieldName != null) {
+      return ImmutableList.of(
+          new ExampleSumAggregatorFactory(fieldName, fieldName, null, concurrent, scale, filter, macroTable)
+      );
+    } else {
+      return ImmutableList.of(
+          new ExampleSumAggregatorFactory(name, null, expression, concurrent, scale, filter, macroTable)
+      );
+    }
   }
 
   @Override
   public Object deserialize(Object object)
   {
-    // handle "NaN" / "Infinity" values serialized as strings in JSON
+    if (scale != null) {
+      return object instanceof String ? Long.parseLong((String) object) : object;
+    }
+    // Double is what the JSON and Smile readers produce for sums, so it is checked first.
+    if (object instanceof Double) {
+      return object;
+    }
+    // handle "NaN" / "Infinity" values serialized as strings in JSON, reusing boxed constants for them
     if (object instanceof String) {
-      return Double.parseDouble((String) object);
+      final double value = Double.parseDouble((String) object);
+      if (Double.isNaN(value)) {
+        return NAN;
+      } else if (value == Double.POSITIVE_INFINITY) {
+        return POSITIVE_INFINITY;
+      } else if (value == Double.NEGATIVE_INFINITY) {
+        return NEGATIVE_INFINITY;
+      }
+      return value;
     }
     return object;
   }
@@ -130,15 +509,51 @@ public class ExampleSumAggregatorFactory extends AggregatorFactory
   @Override
   public Object finalizeComputation(Object object)
   {
+    if (scale != null && object != null) {
+      return ExampleFixedPoint.toDouble(((Number) object).longValue(), scale);
+    }
     return object;
   }
 
+  @Nullable
   @JsonProperty
+  @JsonInclude(JsonInclude.Include.NON_NULL)
   public String getFieldName()
   {
     return fieldName;
   }
 
+  @Nullable
+  @JsonProperty
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public String getExpression()
+  {
+    return expression;
+  }
+
+  @JsonProperty
+  @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+  public boolean isConcurrent()
+  {
+    return concurrent;
+  }
+
+  @Nullable
+  @JsonProperty
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public Integer getScale()
+  {
+    return scale;
+  }
+
+  @Nullable
+  @JsonProperty
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public DimFilter getFilter()
+  {
+    return filter;
+  }
+
   @Override
   @JsonProperty
   public String getName()
@@ -149,34 +564,63 @@ public class ExampleSumAggregatorFactory extends AggregatorFactory
   @Override
   public List<String> requiredFields()
   {
-    return ImmutableList.of(fieldName);
+    final List<String> inputs;
+    if (fieldName != null) {
+      inputs = ImmutableList.of(fieldName);
+    } else {
+      inputs = fieldExpression.get().analyzeInputs().getRequiredBindingsList();
+    }
+    if (filter == null) {
+      return inputs;
+    }
+    return ImmutableList.copyOf(
+        ImmutableSet.<String>builder().addAll(inputs).addAll(filterSupplier.get().getRequiredColumns()).build()
+    );
   }
 
   @Override
   public byte[] getCacheKey()
   {
     byte[] fieldNameBytes = StringUtils.toUtf8WithNullToEmpty(fieldName);
-    return ByteBuffer.allocate(2 + fieldNameBytes.length)
-                     .put(CACHE_KEY_PREFIX)
-                     .put(fieldNameBytes)
-                     .array();
+    // A plain column sum keeps the original key, so its cached results stay valid. Otherwise the expression follows a
+    // separator that UTF-8 never contains; a field name is never empty, so the two layouts can't be confused.
+    final byte[] expressionBytes = expression == null ? new byte[0] : StringUtils.toUtf8(expression);
+    final int expressionKeyBytes = expression == null ? 0 : 1 + expressionBytes.length;
+    final int scaleBytes = scale == null ? 0 : 2;
+    final byte[] filterBytes = filter == null ? new byte[0] : filter.getCacheKey();
+    final int filterKeyBytes = filter == null ? 0 : 1 + filterBytes.length;
+    final int length = 2 + fieldNameBytes.length + expressionKeyBytes + scaleBytes + filterKeyBytes;
+    final ByteBuffer key = ByteBuffer.allocate(length)
+                                     .put(CACHE_KEY_PREFIX)
+                                     .put(fieldNameBytes);
+    if (expression != null) {
+      key.put((byte) 0xFF).put(expressionBytes);
+    }
+    if (scale != null) {
+      key.put((byte) 0xFF).put(scale.byteValue());
+    }
+    if (filter != null) {
+      // A different separator than scale's, so the two can't be confused.
+      key.put((byte) 0xFE).put(filterBytes);
+    }
+    return key.array();
   }
 
   @Override
   public ColumnType getIntermediateType()
   {
-    return ColumnType.DOUBLE;
+    return scale != null ? ColumnType.LONG : ColumnType.DOUBLE;
   }
 
   @Override
   public ColumnType getResultType() {
-    return this.getIntermediateType();
+    return ColumnType.DOUBLE;
   }
 
   @Override
   public int getMaxIntermediateSize()
   {
-    return Doubles.BYTES;
+    return scale != null ? Long.BYTES : Doubles.BYTES;
   }
 
   @Override
@@ -189,14 +633,18 @@ public class ExampleSumAggregatorFactory extends AggregatorFactory
       return false;
     }
     final ExampleSumAggregatorFactory that = (ExampleSumAggregatorFactory) o;
-    return Objects.equals(name, that.name) &&
-           Objects.equals(fieldName, that.fieldName);
+    return concurrent == that.concurrent &&
+           Objects.equals(name, that.name) &&
+           Objects.equals(fieldName, that.fieldName) &&
+           Objects.equals(expression, that.expression) &&
+           Objects.equals(scale, that.scale) &&
+           Objects.equals(filter, that.filter);
   }
 
   @Override
   public int hashCode()
   {
-    return Objects.hash(name, fieldName);
+    return Objects.hash(name, fieldName, expression, concurrent, scale, filter);
   }
 
   @Override
@@ -205,6 +653,10 @@ public class ExampleSumAggregatorFactory extends AggregatorFactory
     return "ExampleSumAggregatorFactory{" +
            "name='" + name + '\'' +
            ", fieldName='" + fieldName + '\'' +
+           ", expression='" + expression + '\'' +
+           ", concurrent=" + concurrent +
+           ", scale=" + scale +
+           ", filter=" + filter +
            '}';
   }
 }
@@ -16,37 +16,62 @@
 
 package io.imply.druid.example.aggregator;
 
-import org.apache.druid.common.config.NullHandling;
 import org.apache.druid.query.aggregation.BufferAggregator;
 import org.apache.druid.segment.BaseDoubleColumnValueSelector;
+import org.apache.druid.segment.BaseFloatColumnValueSelector;
+import org.apache.druid.segment.BaseLongColumnValueSelector;
+import org.apache.druid.segment.BaseObjectColumnValueSelector;
+import org.apache.druid.segment.ColumnValueSelector;
+import org.apache.druid.segment.NilColumnValueSelector;
+import org.apache.druid.segment.column.ColumnCapabilities;
 
+import javax.annotation.Nullable;
 import java.nio.ByteBuffer;
 
-public class ExampleSumBufferAggregator implements BufferAggregator
+/**
+ * Buffer-based version of {@link ExampleSumAggregator}, with the same specializations. Every implementation stores
+ * a single double per slot.
+ */
+public abstract class ExampleSumBufferAggregator implements BufferAggregator
 {
-  private final BaseDoubleColumnValueSelector selector;
-
-  ExampleSumBufferAggregator(BaseDoubleColumnValueSelector selector)
+  /**
+   * Picks an implementation the same way as {@link ExampleSumAggregator#create}.
+   */
+  public static ExampleSumBufferAggregator create(
+      final ColumnValueSelector<?> selector,
+      @Nullable final ColumnCapabilities capabilities
+  )
   {
-    this.selector = selector;
+    if (selector instanceof NilColumnValueSelector) {
+      return new NilInput();
+    }
+
+    if (capabilities != null && capabilities.isArray()) {
+      return new ArrayInput(selector);
+    }
+
+    if (capabilities == null || !capabilities.isNumeric()) {
+      return new NullableDoubleInput(selector);
+    }
+
+    final boolean hasNulls = !capabilities.hasNulls().isFalse();
+    switch (capabilities.getType()) {
+      case LONG:
+        return hasNulls ? new NullableLongInput(selector) : new LongInput(selector);
+      case FLOAT:
+        return hasNulls ? new NullableFloatInput(selector) : new FloatInput(selector);
+      default:
+        return hasNulls ? new NullableDoubleInput(selector) : new DoubleInput(selector);
+    }
   }
 
   @Override
-  public void init(final ByteBuffer buf, final int position)
+  public final void init(final ByteBuffer buf, final int position)
   {
     // The amount of space here is given by getMaxIntermediateSize in the factory.
     buf.putDouble(position, 0.0d);
   }
 
-  @Override
-  public final void aggregate(ByteBuffer buf, int position)
-  {
-    buf.putDouble(
-        position,
-        buf.getDouble(position) + (selector.isNull() ? NullHandling.ZERO_DOUBLE : selector.getDouble())
-    );
-  }
-
   @Override
   public final Object get(ByteBuffer buf, int position)
   {
@@ -65,9 +90,142 @@ public class ExampleSumBufferAggregator implements BufferAggregator
     return (long) buf.getDouble(position);
   }
 
+  @Override
+  public final double getDouble(ByteBuffer buf, int position)
+  {
+    return buf.getDouble(position);
+  }
+
   @Override
   public void close()
   {
     // no resources to cleanup
   }
+
+  private static final class NilInput extends ExampleSumBufferAggregator
+  {
+    @Override
+    public void aggregate(ByteBuffer buf, int position)
+    {
+      // the column does not exist, so every row contributes zero
+    }
+  }
+
+  private static final class NullableDoubleInput extends ExampleSumBufferAggregator
+  {
+    private final BaseDoubleColumnValueSelector selector;
+
+    NullableDoubleInput(BaseDoubleColumnValueSelector selector)
+    {
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate(ByteBuffer buf, int position)
+    {
+      if (!selector.isNull()) {
+        buf.putDouble(position, buf.getDouble(position) + selector.getDouble());
+      }
+    }
+  }
+
+  private static final class DoubleInput extends ExampleSumBufferAggregator
+  {
+    private final BaseDoubleColumnValueSelector selector;
+
+    DoubleInput(BaseDoubleColumnValueSelector selector)
+    {
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate(ByteBuffer buf, int position)
+    {
+      buf.putDouble(position, buf.getDouble(position) + selector.getDouble());
+    }
+  }
+
+  private static final class NullableLongInput extends ExampleSumBufferAggregator
+  {
+    private final BaseLongColumnValueSelector selector;
+
+    NullableLongInput(BaseLongColumnValueSelector selector)
+    {
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate(ByteBuffer buf, int position)
+    {
+      if (!selector.isNull()) {
+        buf.putDouble(position, buf.getDouble(position) + selector.getLong());
+      }
+    }
+  }
+
+  private static final class LongInput extends ExampleSumBufferAggregator
+  {
+    private final BaseLongColumnValueSelector selector;
+
+    LongInput(BaseLongColumnValueSelector selector)
+    {
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate(ByteBuffer buf, int position)
+    {
+      buf.putDouble(position, buf.getDouble(position) + selector.getLong());
+    }
+  }
+
+  private static final class NullableFloatInput extends ExampleSumBufferAggregator
+  {
+    private final BaseFloatColumnValueSelector selector;
+
+    NullableFloatInput(BaseFloatColumnValueSelector selector)
+    {
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate(ByteBuffer buf, int position)
+    {
+      if (!selector.isNull()) {
+        buf.putDouble(position, buf.getDouble(position) + selector.getFloat());
+      }
+    }
+  }
+
+  private static final class FloatInput extends ExampleSumBufferAggregator
+  {
+    private final BaseFloatColumnValueSelector selector;
+
+    FloatInput(BaseFloatColumnValueSelector selector)
+    {
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate(ByteBuffer buf, int position)
+    {
+      buf.putDouble(position, buf.getDouble(position) + selector.getFloat());
+    }
+  }
+
+  private static final class ArrayInput extends ExampleSumBufferAggregator
+  {
+    private final BaseObjectColumnValueSelector<?> selector;
+
+    ArrayInput(BaseObjectColumnValueSelector<?> selector)
+    {
+      this.selector = selector;
+    }
+
+    @Override
+    public void aggregate(ByteBuffer buf, int position)
+    {
+      buf.putDouble(position, buf.getDouble(position) + ExampleSumAggregator.sumArray(selector.getObject()));
+    }
+  }
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.java.util.common.StringUtils;
+import org.apache.druid.java.util.emitter.service.ServiceEmitter;
+import org.apache.druid.java.util.emitter.service.ServiceMetricEvent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for "exampleSum" aggregators, emitted by {@link ExampleSumMonitor}. Counting is off until the monitor
+ * starts. While it is off, factories hand out the plain aggregators, so queries pay nothing for it.
+ *
+ * Each aggregator counts into its own {@link Counters}, which are plain fields touched by the one thread driving it,
+ * and adds them to the shared totals when it is closed.
+ */
+public final class ExampleSumMetrics
+{
+  public static final String ROWS_METRIC = "example/sum/rows";
+  public static final String NULL_ROWS_METRIC = "example/sum/nullRows";
+  public static final String AGGREGATORS_METRIC = "example/sum/aggregators";
+  public static final String LIFETIME_METRIC = "example/sum/lifetime";
+  public static final String PATH_DIMENSION = "path";
+
+  /**
+   * How rows reached the aggregator: one at a time on heap, one at a time into an aggregation buffer, or in batches.
+   */
+  enum Path
+  {
+    ROW,
+    BUFFER,
+    VECTOR;
+
+    private final Totals totals = new Totals();
+
+    @Override
+    public String toString()
+    {
+      return StringUtils.toLowerCase(name());
+    }
+  }
+
+  private static volatile boolean enabled = false;
+
+  private ExampleSumMetrics()
+  {
+    // no instances
+  }
+
+  public static boolean isEnabled()
+  {
+    return enabled;
+  }
+
+  static void setEnabled(boolean enabled)
+  {
+    ExampleSumMetrics.enabled = enabled;
+  }
+
+  /**
+   * Emits the totals of each path that saw any aggregators since the last call, and resets them.
+   */
+  static void emit(ServiceEmitter emitter)
+  {
+    for (Path path : Path.values()) {
+      final long aggregators = path.totals.aggregators.sumThenReset();
+      final long rows = path.totals.rows.sumThenReset();
+      final long nullRows = path.totals.nullRows.sumThenReset();
+      final long nanos = path.totals.nanos.sumThenReset();
+      if (aggregators == 0) {
+        continue;
+      }
+
+      final ServiceMetricEvent.Builder builder =
+          ServiceMetricEvent.builder().setDimension(PATH_DIMENSION, path.toString());
+      emitter.emit(builder.setMetric(AGGREGATORS_METRIC, aggregators));
+      emitter.emit(builder.setMetric(ROWS_METRIC, rows));
+      emitter.emit(builder.setMetric(NULL_ROWS_METRIC, nullRows));
+      emitter.emit(builder.setMetric(LIFETIME_METRIC, TimeUnit.NANOSECONDS.toMillis(nanos)));
+    }
+  }
+
+  private static final class Totals
+  {
+    private final LongAdder aggregators = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder nullRows = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+  }
+
+  /**
+   * Counts of one aggregator. Its lifetime runs from creation to {@link #flush()}: for query-time aggregators, the
+   * time the query spent on one segment, including the rest of its work, not just summing.
+   */
+  static final class Counters
+  {
+    private final Path path;
+    private final long startNanos = System.nanoTime();
+    private boolean flushed = false;
+
+    long rows = 0;
+    long nullRows = 0;
+
+    Counters(Path path)
+    {
+      this.path = path;
+    }
+
+    void flush()
+    {
+      if (flushed) {
+        return;
+      }
+      flushed = true;
+      path.totals.aggregators.increment();
+      path.totals.rows.add(rows);
+      path.totals.nullRows.add(nullRows);
+      path.totals.nanos.add(System.nanoTime() - startNanos);
+    }
+  }
+}
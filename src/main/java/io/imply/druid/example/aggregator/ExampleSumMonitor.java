@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.aggregator;
+
+import org.apache.druid.java.util.emitter.service.ServiceEmitter;
+import org.apache.druid.java.util.metrics.AbstractMonitor;
+
+/**
+ * Emits the {@link ExampleSumMetrics} counters of this process, with a "path" dimension of "row", "buffer" or
+ * "vector". Counting only happens while the monitor runs.
+ */
+public class ExampleSumMonitor extends AbstractMonitor
+{
+  @Override
+  public void start()
+  {
+    super.start();
+    ExampleSumMetrics.setEnabled(true);
+  }
+
+  @Override
+  public void stop()
+  {
+    ExampleSumMetrics.setEnabled(false);
+    super.stop();
+  }
+
+  @Override
+  public boolean doMonitor(ServiceEmitter emitter)
+  {
+    ExampleSumMetrics.emit(emitter);
+    return true;
+  }
+}
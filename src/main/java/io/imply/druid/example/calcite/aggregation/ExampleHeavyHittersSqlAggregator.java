@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.imply.druid.example.calcite.aggregation;
+
+import io.imply.druid.example.aggregator.ExampleHeavyHittersAggregatorFactory;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.SqlAggFunction;
+import org.apache.calcite.sql.SqlFunctionCategory;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.type.SqlTypeFamily;
+import org.apache.druid.error.InvalidSqlInput;
+import org.apache.druid.segment.column.ColumnType;
+import org.apache.druid.segment.column.RowSignature;
+import org.apache.druid.sql.calcite.aggregation.Aggregation;
+import org.apache.druid.sql.calcite.aggregation.Aggregations;
+import org.apache.druid.sql.calcite.aggregation.SqlAggregator;
+import org.apache.druid.sql.calcite.expression.DruidExpression;
+import org.apache.druid.sql.calcite.expression.Expressions;
+import org.apache.druid.sql.calcite.expression.OperatorConversions;
+import org.apache.druid.sql.calcite.expression.builtin.NestedDataOperatorConversions;
+import org.apache.druid.sql.calcite.planner.PlannerContext;
+import org.apache.druid.sql.calcite.rel.InputAccessor;
+import org.apache.druid.sql.calcite.rel.VirtualColumnRegistry;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * This class serves as sql binding for EXAMPLE_TOP_SUM(key, weight [, maxEntries]).
+ *
+ * It converts the call to druid aggregation using {@link ExampleHeavyHittersAggregatorFactory}, and returns the keys
+ * with the largest estimated sums as a JSON array of objects with "key", "sum" and "error" fields.
+ */
+public class ExampleHeavyHittersSqlAggregator implements SqlAggregator
+{
+  public static final String NAME = "EXAMPLE_TOP_SUM";
+  public static final SqlAggFunction FUNCTION_INSTANCE =
+      OperatorConversions.aggregatorBuilder(NAME)
+                         .operandTypes(SqlTypeFamily.ANY, SqlTypeFamily.NUMERIC, SqlTypeFamily.EXACT_NUMERIC)
+                         .requiredOperandCount(2)
+                         .literalOperands(2)
+                         .returnTypeInference(NestedDataOperatorConversions.NESTED_RETURN_TYPE_INFERENCE)
+                         .functionCategory(SqlFunctionCategory.USER_DEFINED_FUNCTION)
+                         .build();
+
+  /**
+   * @return the user defined {@link SqlAggFunction}
+   */
+  @Override
+  public SqlAggFunction calciteFunction()
+  {
+    return FUNCTION_INSTANCE;
+  }
+
+  /**
+   * converts the call to an Aggregation
+   */
+  @Nullable
+  @Override
+  public Aggregation toDruidAggregation(
+      final PlannerContext plannerContext,
+      final VirtualColumnRegistry virtualColumnRegistry,
+      final String name,
+      final AggregateCall aggregateCall,
+      final InputAccessor inputAccessor,
+      final List<Aggregation> existingAggregations,
+      final boolean finalizeAggregations
+  )
+  {
+    // Unfinalized summaries have a complex type, which can't stand in for the JSON SQL type.
+    if (aggregateCall.isDistinct() || !finalizeAggregations) {
+      return null;
+    }
+
+    final RowSignature rowSignature = inputAccessor.getInputRowSignature();
+    final List<Integer> argList = aggregateCall.getArgList();
+
+    final DruidExpression key =
+        Expressions.toDruidExpression(plannerContext, rowSignature, inputAccessor.getField(argList.get(0)));
+    final DruidExpression weight = Aggregations.toDruidExpressionForNumericAggregator(
+        plannerContext,
+        rowSignature,
+        inputAccessor.getField(argList.get(1))
+    );
+    if (key == null || weight == null) {
+      return null;
+    }
+
+    Integer maxEntries = null;
+    if (argList.size() > 2) {
+      final RexNode maxEntriesArg = inputAccessor.getField(argList.get(2));
+      if (!maxEntriesArg.isA(SqlKind.LITERAL) || !(RexLiteral.value(maxEntriesArg) instanceof Number)) {
+        return null;
+      }
+      final long maxEntriesValue = ((Number) RexLiteral.value(maxEntriesArg)).longValue();
+      if (maxEntriesValue < 1 || maxEntriesValue > ExampleHeavyHittersAggregatorFactory.MAX_MAX_ENTRIES) {
+        throw InvalidSqlInput.exception(
+            "%s maxEntries argument must be between 1 and %s, got [%s]",
+            NAME,
+            ExampleHeavyHittersAggregatorFactory.MAX_MAX_ENTRIES,
+            maxEntriesValue
+        );
+      }
+      maxEntries = (int) maxEntriesValue;
+    }
+
+    final String keyFieldName = key.isDirectColumnAccess()
+        ? key.getDirectColumn()
+        : virtualColumnRegistry.getOrCreateVirtualColumnForExpression(key, ColumnType.STRING);
+    final String weightFieldName = weight.isDirectColumnAccess()
+        ? weight.getDirectColumn()
+        : virtualColumnRegistry.getOrCreateVirtualColumnForExpression(weight, ColumnType.DOUBLE);
+
+    return Aggregation.create(
+        new ExampleHeavyHittersAggregatorFactory(name, keyFieldName, weightFieldName, maxEntries)
+    );
+  }
+}
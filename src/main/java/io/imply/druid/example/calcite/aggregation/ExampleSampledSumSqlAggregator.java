@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.imply.druid.example.calcite.aggregation;
+
+import io.imply.druid.example.aggregator.ExampleSampledSumAggregatorFactory;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.SqlAggFunction;
+import org.apache.calcite.sql.SqlFunctionCategory;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.type.SqlTypeFamily;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.druid.error.InvalidSqlInput;
+import org.apache.druid.java.util.common.Numbers;
+import org.apache.druid.segment.column.ColumnType;
+import org.apache.druid.sql.calcite.aggregation.Aggregation;
+import org.apache.druid.sql.calcite.aggregation.Aggregations;
+import org.apache.druid.sql.calcite.aggregation.SqlAggregator;
+import org.apache.druid.sql.calcite.expression.DruidExpression;
+import org.apache.druid.sql.calcite.expression.OperatorConversions;
+import org.apache.druid.sql.calcite.planner.Calcites;
+import org.apache.druid.sql.calcite.planner.PlannerContext;
+import org.apache.druid.sql.calcite.rel.InputAccessor;
+import org.apache.druid.sql.calcite.rel.VirtualColumnRegistry;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * This class serves as sql binding for EXAMPLE_SAMPLED_SUM(x [, sampleRate]).
+ *
+ * It converts the call to druid aggregation using {@link ExampleSampledSumAggregatorFactory}, and returns an array of
+ * the estimated sum and the bounds of its 95% confidence interval. Without a "sampleRate" argument, the rate comes
+ * from the {@link #CONTEXT_SAMPLE_RATE} query context parameter, so a dashboard can change it for all its queries.
+ */
+public class ExampleSampledSumSqlAggregator implements SqlAggregator
+{
+  public static final String NAME = "EXAMPLE_SAMPLED_SUM";
+  public static final String CONTEXT_SAMPLE_RATE = "exampleSampleRate";
+  public static final double DEFAULT_SAMPLE_RATE = 0.1;
+
+  public static final SqlAggFunction FUNCTION_INSTANCE =
+      OperatorConversions.aggregatorBuilder(NAME)
+                         .operandTypes(SqlTypeFamily.NUMERIC, SqlTypeFamily.NUMERIC)
+                         .requiredOperandCount(1)
+                         .literalOperands(1)
+                         .returnTypeInference(
+                             opBinding -> Calcites.createSqlArrayTypeWithNullability(
+                                 opBinding.getTypeFactory(),
+                                 SqlTypeName.DOUBLE,
+                                 true
+                             )
+                         )
+                         .functionCategory(SqlFunctionCategory.USER_DEFINED_FUNCTION)
+                         .build();
+
+  /**
+   * @return the user defined {@link SqlAggFunction}
+   */
+  @Override
+  public SqlAggFunction calciteFunction()
+  {
+    return FUNCTION_INSTANCE;
+  }
+
+  /**
+   * converts the call to an Aggregation
+   */
+  @Nullable
+  @Override
+  public Aggregation toDruidAggregation(
+      final PlannerContext plannerContext,
+      final VirtualColumnRegistry virtualColumnRegistry,
+      final String name,
+      final AggregateCall aggregateCall,
+      final InputAccessor inputAccessor,
+      final List<Aggregation> existingAggregations,
+      final boolean finalizeAggregations
+  )
+  {
+    // Unfinalized values are sampled sums, not estimates, so they can't stand in for the SQL result.
+    if (aggregateCall.isDistinct() || !finalizeAggregations) {
+      return null;
+    }
+
+    final List<Integer> argList = aggregateCall.getArgList();
+    final DruidExpression arg = Aggregations.toDruidExpressionForNumericAggregator(
+        plannerContext,
+        inputAccessor.getInputRowSignature(),
+        inputAccessor.getField(argList.get(0))
+    );
+    if (arg == null) {
+      return null;
+    }
+
+    final double sampleRate;
+    final String sampleRateSource;
+    if (argList.size() > 1) {
+      final RexNode sampleRateArg = inputAccessor.getField(argList.get(1));
+      if (!sampleRateArg.isA(SqlKind.LITERAL) || !(RexLiteral.value(sampleRateArg) instanceof Number)) {
+        return null;
+      }
+      sampleRate = ((Number) RexLiteral.value(sampleRateArg)).doubleValue();
+      sampleRateSource = "sampleRate argument";
+    } else {
+      sampleRate = Numbers.tryParseDouble(
+          plannerContext.queryContext().get(CONTEXT_SAMPLE_RATE),
+          DEFAULT_SAMPLE_RATE
+      );
+      sampleRateSource = "query context parameter [" + CONTEXT_SAMPLE_RATE + "]";
+    }
+    // Checked here too, so that a bad rate is reported as invalid SQL rather than as a failure to plan.
+    if (!(sampleRate > 0 && sampleRate <= 1)) {
+      throw InvalidSqlInput.exception(
+          "%s %s must be greater than 0 and at most 1, got [%s]",
+          NAME,
+          sampleRateSource,
+          sampleRate
+      );
+    }
+
+    final String fieldName = arg.isDirectColumnAccess()
+        ? arg.getDirectColumn()
+        : virtualColumnRegistry.getOrCreateVirtualColumnForExpression(arg, ColumnType.DOUBLE);
+    return Aggregation.create(new ExampleSampledSumAggregatorFactory(name, fieldName, sampleRate));
+  }
+}
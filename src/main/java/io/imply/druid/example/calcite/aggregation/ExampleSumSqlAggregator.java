@@ -20,15 +20,32 @@
 package io.imply.druid.example.calcite.aggregation;
 
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import io.imply.druid.example.aggregator.ExampleDistinctSumAggregatorFactory;
 import io.imply.druid.example.aggregator.ExampleSumAggregatorFactory;
 import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.sql.SqlAggFunction;
 import org.apache.calcite.sql.SqlFunctionCategory;
+import org.apache.calcite.sql.SqlOperatorBinding;
+import org.apache.calcite.sql.type.OperandTypes;
 import org.apache.calcite.sql.type.ReturnTypes;
-import org.apache.calcite.sql.type.SqlTypeFamily;
-import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.sql.type.SqlTypeUtil;
+import org.apache.druid.math.expr.ExprMacroTable;
+import org.apache.druid.query.aggregation.AggregatorFactory;
+import org.apache.druid.query.aggregation.CountAggregatorFactory;
+import org.apache.druid.query.aggregation.FilteredAggregatorFactory;
+import org.apache.druid.query.aggregation.PostAggregator;
+import org.apache.druid.query.aggregation.post.ArithmeticPostAggregator;
+import org.apache.druid.query.aggregation.post.ConstantPostAggregator;
+import org.apache.druid.query.aggregation.post.FieldAccessPostAggregator;
+import org.apache.druid.query.filter.AndDimFilter;
+import org.apache.druid.query.filter.DimFilter;
+import org.apache.druid.query.filter.NotDimFilter;
+import org.apache.druid.query.filter.NullFilter;
 import org.apache.druid.segment.column.ColumnType;
+import org.apache.druid.segment.column.RowSignature;
 import org.apache.druid.sql.calcite.aggregation.Aggregation;
 import org.apache.druid.sql.calcite.aggregation.Aggregations;
 import org.apache.druid.sql.calcite.aggregation.SqlAggregator;
@@ -41,26 +58,43 @@ import org.apache.druid.sql.calcite.rel.InputAccessor;
 import org.apache.druid.sql.calcite.rel.VirtualColumnRegistry;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This class serves as sql binding for EXAMPLE_SUM.
  *
  * It defines a {@link SqlAggFunction} for EXAMPLE_SUM which takes a Numeric operand as input
  * and converts the call to druid aggregation using {@link ExampleSumAggregatorFactory}
+ *
+ * Numeric ARRAY operands are also accepted. Their elements are summed in place, with the element type as the type
+ * of the sum, so summing an array column does not need UNNEST.
  */
 public class ExampleSumSqlAggregator implements SqlAggregator
 {
   public static final String NAME = "EXAMPLE_SUM";
   public static final SqlAggFunction FUNCTION_INSTANCE =
       OperatorConversions.aggregatorBuilder(NAME)
-                         .operandTypes(SqlTypeFamily.NUMERIC)
-                         .requiredOperandCount(1)
-                         .literalOperands(1)
-                         .returnTypeInference(ReturnTypes.ARG0)
+                         .operandTypeChecker(OperandTypes.or(OperandTypes.NUMERIC, OperandTypes.ARRAY))
+                         .returnTypeInference(ReturnTypes.ARG0.andThen(ExampleSumSqlAggregator::toElementType))
                          .functionCategory(SqlFunctionCategory.USER_DEFINED_FUNCTION)
                          .build();
 
+  /**
+   * The sum of an array operand has the type of its elements.
+   */
+  private static RelDataType toElementType(final SqlOperatorBinding binding, final RelDataType type)
+  {
+    final RelDataType elementType = type.getComponentType();
+    if (elementType == null) {
+      return type;
+    }
+    return binding.getTypeFactory().createTypeWithNullability(elementType, type.isNullable());
+  }
+
   /**
    * @return the user defined {@link SqlAggFunction}
    */
@@ -85,8 +119,9 @@ public class ExampleSumSqlAggregator implements SqlAggregator
       final boolean finalizeAggregations
   )
   {
-    // since we don't support distinct sum, we bail out here and let planner pick another operator
-    if (aggregateCall.isDistinct()) {
+    // Distinct sums have an array of values as intermediate type, which can't stand in for the numeric SQL type
+    // when aggregations are left unfinalized. Bail out and let the planner pick another operator.
+    if (aggregateCall.isDistinct() && !finalizeAggregations) {
       return null;
     }
 
@@ -103,24 +138,61 @@ public class ExampleSumSqlAggregator implements SqlAggregator
 
     // we expect only one argument to the example_sum function
     final DruidExpression arg = Iterables.getOnlyElement(arguments);
-    final String fieldName;
 
-    // If the field is not a direct column access, we create a virtual column.
-    // To avoid creating multiple virtual columns for the same expression, we instead use a virtualColumnRegistry
-    if (arg.isDirectColumnAccess()) {
-      fieldName = arg.getDirectColumn();
+    // The operand checker accepts any array, but only numeric elements can be summed. Arrays are otherwise planned
+    // like numbers: the aggregator sums their elements in place. Distinct sums would need the elements unnested.
+    final RelDataType argType =
+        inputAccessor.getField(Iterables.getOnlyElement(aggregateCall.getArgList())).getType();
+    if (SqlTypeUtil.isArray(argType)
+        && (!SqlTypeUtil.isNumeric(argType.getComponentType()) || aggregateCall.isDistinct())) {
+      return null;
+    }
+
+    if (aggregateCall.isDistinct()) {
+      final String fieldName = arg.isDirectColumnAccess()
+          ? arg.getDirectColumn()
+          : virtualColumnRegistry.getOrCreateVirtualColumnForExpression(arg, aggregateCall.getType());
+      return reuseExistingAggregation(
+          name,
+          aggregateCall,
+          Aggregation.create(new ExampleDistinctSumAggregatorFactory(name, fieldName)),
+          existingAggregations
+      );
+    }
+
+    final Aggregation linearAggregation = arg.isDirectColumnAccess()
+        ? null
+        : getLinearAggregation(name, aggregateCall, inputAccessor, existingAggregations);
+
+    // Linear expressions are split into sums of raw columns. Direct column access reads the column as-is. Other
+    // expressions are given to the aggregator itself, so it can evaluate them row by row without materializing a
+    // virtual column. Specialized expressions have no native expression form, so they still go through the
+    // virtualColumnRegistry, which also dedupes identical ones.
+    final Aggregation aggregation;
+    if (linearAggregation != null) {
+      aggregation = linearAggregation;
+    } else if (arg.isDirectColumnAccess()) {
+      aggregation =
+          getAggregation(name, aggregateCall, arg.getDirectColumn(), null, plannerContext.getExprMacroTable());
+    } else if (arg.getType() == DruidExpression.NodeType.SPECIALIZED) {
+      final String fieldName =
+          virtualColumnRegistry.getOrCreateVirtualColumnForExpression(arg, aggregateCall.getType());
+      aggregation = getAggregation(name, aggregateCall, fieldName, null, plannerContext.getExprMacroTable());
     } else {
-      fieldName = virtualColumnRegistry.getOrCreateVirtualColumnForExpression(arg, aggregateCall.getType());
+      aggregation =
+          getAggregation(name, aggregateCall, null, arg.getExpression(), plannerContext.getExprMacroTable());
     }
 
-    return getAggregation(name, aggregateCall, fieldName);
+    return reuseExistingAggregation(name, aggregateCall, aggregation, existingAggregations);
   }
 
   @Nullable
   Aggregation getAggregation(
       String name,
       AggregateCall aggregateCall,
-      String fieldName
+      @Nullable String fieldName,
+      @Nullable String expression,
+      ExprMacroTable macroTable
   )
   {
     final ColumnType valueType = Calcites.getColumnTypeForRelDataType(aggregateCall.getType());
@@ -128,6 +200,194 @@ public class ExampleSumSqlAggregator implements SqlAggregator
       return null;
     }
 
-    return Aggregation.create(new ExampleSumAggregatorFactory(name, fieldName));
+    return Aggregation.create(new ExampleSumAggregatorFactory(name, fieldName, expression, null, null, macroTable));
+  }
+
+  /**
+   * Rewrites the sum of a linear expression, such as {@code 2 * a + b - 3}, as the same combination of the sums of its
+   * columns and a row count: {@code 2 * SUM(a) + SUM(b) - 3 * COUNT(*)}. The aggregators then read raw columns, which
+   * is cheaper than evaluating the expression on every row, and can reuse sums that the query already computes.
+   * Returns null if the argument is not linear.
+   */
+  @Nullable
+  private Aggregation getLinearAggregation(
+      final String name,
+      final AggregateCall aggregateCall,
+      final InputAccessor inputAccessor,
+      final List<Aggregation> existingAggregations
+  )
+  {
+    final LinearExpression linearExpression =
+        LinearExpression.fromRexNode(inputAccessor.getField(Iterables.getOnlyElement(aggregateCall.getArgList())));
+    if (linearExpression == null || linearExpression.getCoefficients().isEmpty()) {
+      return null;
+    }
+
+    final RowSignature rowSignature = inputAccessor.getInputRowSignature();
+    final Map<Integer, Double> coefficients = linearExpression.getCoefficients();
+
+    if (coefficients.size() == 1
+        && linearExpression.getConstant() == 0
+        && coefficients.containsValue(1.0)
+        && coefficients.keySet().containsAll(linearExpression.getNullableInputs())) {
+      // Just a column, perhaps behind a cast.
+      final String column = rowSignature.getColumnName(Iterables.getOnlyElement(coefficients.keySet()));
+      return Aggregation.create(new ExampleSumAggregatorFactory(name, column));
+    }
+
+    // A row where any input is null has a null expression, which the sum skips. Each component only counts rows
+    // where all the inputs are non-null. Sums can leave out their own column, since they already skip its nulls.
+    final Map<String, DimFilter> notNullFilters = new LinkedHashMap<>();
+    for (int index : linearExpression.getNullableInputs()) {
+      final String column = rowSignature.getColumnName(index);
+      notNullFilters.put(column, new NotDimFilter(NullFilter.forColumn(column)));
+    }
+
+    // Matching existing aggregators is only safe without a FILTER clause, because the planner applies that clause to
+    // every aggregator of the Aggregation we return, and existing aggregators must not be filtered twice.
+    final List<Aggregation> reusable = aggregateCall.hasFilter() ? Collections.emptyList() : existingAggregations;
+    final List<AggregatorFactory> aggregatorFactories = new ArrayList<>();
+    final Map<String, Double> terms = new LinkedHashMap<>();
+
+    int i = 0;
+    for (Map.Entry<Integer, Double> entry : coefficients.entrySet()) {
+      final String column = rowSignature.getColumnName(entry.getKey());
+      final AggregatorFactory sum = withNotNullFilter(
+          new ExampleSumAggregatorFactory(Calcites.makePrefixedName(name, "sum" + i++), column),
+          notNullFilters,
+          column
+      );
+      terms.merge(getOrAddAggregator(sum, reusable, aggregatorFactories), entry.getValue(), Double::sum);
+    }
+
+    if (linearExpression.getConstant() != 0) {
+      final AggregatorFactory count = withNotNullFilter(
+          new CountAggregatorFactory(Calcites.makePrefixedName(name, "count")),
+          notNullFilters,
+          null
+      );
+      final String countName = getOrAddAggregator(count, reusable, aggregatorFactories);
+      terms.merge(countName, linearExpression.getConstant(), Double::sum);
+    }
+
+    final PostAggregator postAggregator;
+    if (terms.size() == 1) {
+      final Map.Entry<String, Double> term = Iterables.getOnlyElement(terms.entrySet());
+      postAggregator = makeTerm(name, term.getValue(), term.getKey());
+    } else {
+      final List<PostAggregator> fields = new ArrayList<>();
+      for (Map.Entry<String, Double> term : terms.entrySet()) {
+        fields.add(makeTerm(null, term.getValue(), term.getKey()));
+      }
+      postAggregator = new ArithmeticPostAggregator(name, "+", fields);
+    }
+
+    return aggregatorFactories.isEmpty()
+           ? Aggregation.create(postAggregator)
+           : Aggregation.create(aggregatorFactories, postAggregator);
+  }
+
+  /**
+   * If the query already has an aggregator that computes the same sum, for example because the same EXAMPLE_SUM
+   * appears in the select list, in HAVING and inside a ratio, reads that one through a post-aggregator instead of
+   * summing every row again.
+   */
+  @Nullable
+  private static Aggregation reuseExistingAggregation(
+      final String name,
+      final AggregateCall aggregateCall,
+      @Nullable final Aggregation aggregation,
+      final List<Aggregation> existingAggregations
+  )
+  {
+    // With a FILTER clause, existing aggregations are already filtered while ours is not yet, so they never match.
+    if (aggregation == null
+        || aggregateCall.hasFilter()
+        || aggregation.getPostAggregator() != null
+        || aggregation.getAggregatorFactories().size() != 1) {
+      return aggregation;
+    }
+
+    final String existingName =
+        findExistingAggregator(Iterables.getOnlyElement(aggregation.getAggregatorFactories()), existingAggregations);
+    if (existingName == null) {
+      return aggregation;
+    }
+    return Aggregation.create(new FieldAccessPostAggregator(name, existingName));
+  }
+
+  private static AggregatorFactory withNotNullFilter(
+      final AggregatorFactory aggregatorFactory,
+      final Map<String, DimFilter> notNullFilters,
+      @Nullable final String column
+  )
+  {
+    final List<DimFilter> filters = new ArrayList<>();
+    for (Map.Entry<String, DimFilter> entry : notNullFilters.entrySet()) {
+      if (!entry.getKey().equals(column)) {
+        filters.add(entry.getValue());
+      }
+    }
+
+    if (filters.isEmpty()) {
+      return aggregatorFactory;
+    }
+    final DimFilter filter = filters.size() == 1 ? filters.get(0) : new AndDimFilter(filters);
+    if (aggregatorFactory instanceof ExampleSumAggregatorFactory) {
+      // Sums apply the filter themselves, which saves a wrapper and sums matching rows in one pass when vectorized.
+      return ((ExampleSumAggregatorFactory) aggregatorFactory).withFilter(filter);
+    }
+    return new FilteredAggregatorFactory(aggregatorFactory, filter);
+  }
+
+  /**
+   * Returns the name of an existing aggregator that computes the same thing as the given one, or adds the given one
+   * to "aggregatorFactories" and returns its name.
+   */
+  private static String getOrAddAggregator(
+      final AggregatorFactory aggregatorFactory,
+      final List<Aggregation> existingAggregations,
+      final List<AggregatorFactory> aggregatorFactories
+  )
+  {
+    final String existingName = findExistingAggregator(aggregatorFactory, existingAggregations);
+    if (existingName != null) {
+      return existingName;
+    }
+
+    aggregatorFactories.add(aggregatorFactory);
+    return aggregatorFactory.getName();
+  }
+
+  /**
+   * Returns the name of an existing aggregator that is equal to the given one apart from its name, or null if there
+   * is none.
+   */
+  @Nullable
+  private static String findExistingAggregator(
+      final AggregatorFactory aggregatorFactory,
+      final List<Aggregation> existingAggregations
+  )
+  {
+    for (Aggregation existing : existingAggregations) {
+      for (AggregatorFactory existingFactory : existing.getAggregatorFactories()) {
+        if (aggregatorFactory.withName(existingFactory.getName()).equals(existingFactory)) {
+          return existingFactory.getName();
+        }
+      }
+    }
+    return null;
+  }
+
+  private static PostAggregator makeTerm(@Nullable final String name, final double coefficient, final String fieldName)
+  {
+    if (coefficient == 1) {
+      return new FieldAccessPostAggregator(name, fieldName);
+    }
+    return new ArithmeticPostAggregator(
+        name,
+        "*",
+        ImmutableList.of(new ConstantPostAggregator(null, coefficient), new FieldAccessPostAggregator(null, fieldName))
+    );
   }
 }
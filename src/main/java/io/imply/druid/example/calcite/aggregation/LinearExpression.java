@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.imply.druid.example.calcite.aggregation;
+
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import javax.annotation.Nullable;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A linear combination of input columns, {@code c1 * x1 + c2 * x2 + ... + constant}, read from a Calcite expression.
+ * Since a sum is linear, the sum of such an expression can be computed from the sums of its columns and a row count.
+ */
+class LinearExpression
+{
+  private final Map<Integer, Double> coefficients = new LinkedHashMap<>();
+  private final Set<Integer> nullableInputs = new LinkedHashSet<>();
+  private double constant;
+
+  private LinearExpression()
+  {
+  }
+
+  /**
+   * Reads a linear expression of numeric columns and literals: +, -, unary minus, multiplication where one side is
+   * constant, and division by a constant in floating-point arithmetic. Returns null for anything else.
+   */
+  @Nullable
+  static LinearExpression fromRexNode(final RexNode node)
+  {
+    if (!SqlTypeName.NUMERIC_TYPES.contains(node.getType().getSqlTypeName())) {
+      return null;
+    }
+
+    switch (node.getKind()) {
+      case INPUT_REF: {
+        final LinearExpression retVal = new LinearExpression();
+        final int index = ((RexInputRef) node).getIndex();
+        retVal.coefficients.put(index, 1.0);
+        if (node.getType().isNullable()) {
+          retVal.nullableInputs.add(index);
+        }
+        return retVal;
+      }
+      case LITERAL: {
+        final BigDecimal value = ((RexLiteral) node).getValueAs(BigDecimal.class);
+        if (value == null) {
+          return null;
+        }
+        final LinearExpression retVal = new LinearExpression();
+        retVal.constant = value.doubleValue();
+        return retVal;
+      }
+      case PLUS_PREFIX:
+        return fromRexNode(getOnlyOperand(node));
+      case MINUS_PREFIX: {
+        final LinearExpression operand = fromRexNode(getOnlyOperand(node));
+        return operand == null ? null : operand.times(-1);
+      }
+      case CAST: {
+        // Only widening casts keep the values the sum would see; narrowing ones round or truncate them.
+        final RexNode operand = getOnlyOperand(node);
+        return isWidening(operand.getType(), node.getType()) ? fromRexNode(operand) : null;
+      }
+      case PLUS:
+      case MINUS: {
+        final List<RexNode> operands = ((RexCall) node).getOperands();
+        if (operands.size() != 2) {
+          return null;
+        }
+        final LinearExpression lhs = fromRexNode(operands.get(0));
+        final LinearExpression rhs = fromRexNode(operands.get(1));
+        if (lhs == null || rhs == null) {
+          return null;
+        }
+        return lhs.plus(node.getKind() == SqlKind.MINUS ? rhs.times(-1) : rhs);
+      }
+      case TIMES: {
+        final List<RexNode> operands = ((RexCall) node).getOperands();
+        if (operands.size() != 2) {
+          return null;
+        }
+        final LinearExpression lhs = fromRexNode(operands.get(0));
+        final LinearExpression rhs = fromRexNode(operands.get(1));
+        if (lhs == null || rhs == null) {
+          return null;
+        } else if (lhs.isConstant()) {
+          return rhs.times(lhs.constant);
+        } else if (rhs.isConstant()) {
+          return lhs.times(rhs.constant);
+        } else {
+          return null;
+        }
+      }
+      case DIVIDE: {
+        // Integer division truncates, so it is only linear in floating-point arithmetic.
+        final List<RexNode> operands = ((RexCall) node).getOperands();
+        if (operands.size() != 2 || !isApproximate(node.getType())) {
+          return null;
+        }
+        final LinearExpression lhs = fromRexNode(operands.get(0));
+        final LinearExpression rhs = fromRexNode(operands.get(1));
+        if (lhs == null || rhs == null || !rhs.isConstant() || rhs.constant == 0) {
+          return null;
+        }
+        return lhs.times(1 / rhs.constant);
+      }
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Input columns with a nonzero coefficient, by index in the input row signature.
+   */
+  Map<Integer, Double> getCoefficients()
+  {
+    final Map<Integer, Double> retVal = new LinkedHashMap<>();
+    for (Map.Entry<Integer, Double> entry : coefficients.entrySet()) {
+      if (entry.getValue() != 0) {
+        retVal.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return retVal;
+  }
+
+  /**
+   * Nullable input columns, including ones whose coefficient cancelled out. A null in any of them makes the whole
+   * expression null for that row.
+   */
+  Set<Integer> getNullableInputs()
+  {
+    return Collections.unmodifiableSet(nullableInputs);
+  }
+
+  double getConstant()
+  {
+    return constant;
+  }
+
+  private boolean isConstant()
+  {
+    return coefficients.isEmpty() && nullableInputs.isEmpty();
+  }
+
+  private LinearExpression plus(final LinearExpression other)
+  {
+    for (Map.Entry<Integer, Double> entry : other.coefficients.entrySet()) {
+      coefficients.merge(entry.getKey(), entry.getValue(), Double::sum);
+    }
+    nullableInputs.addAll(other.nullableInputs);
+    constant += other.constant;
+    return this;
+  }
+
+  private LinearExpression times(final double factor)
+  {
+    coefficients.replaceAll((index, coefficient) -> coefficient * factor);
+    constant *= factor;
+    return this;
+  }
+
+  private static RexNode getOnlyOperand(final RexNode node)
+  {
+    return ((RexCall) node).getOperands().get(0);
+  }
+
+  /**
+   * Whether a cast keeps every value: to the same type, from an integer type to BIGINT or DOUBLE, or from FLOAT to
+   * DOUBLE.
+   */
+  private static boolean isWidening(final RelDataType from, final RelDataType to)
+  {
+    if (from.getSqlTypeName() == to.getSqlTypeName()) {
+      return true;
+    } else if (isDouble(to)) {
+      return isApproximate(from) || isInteger(from);
+    } else {
+      return to.getSqlTypeName() == SqlTypeName.BIGINT && isInteger(from);
+    }
+  }
+
+  private static boolean isDouble(final RelDataType type)
+  {
+    // Druid plans DECIMAL as DOUBLE.
+    return type.getSqlTypeName() == SqlTypeName.DOUBLE || type.getSqlTypeName() == SqlTypeName.DECIMAL;
+  }
+
+  private static boolean isApproximate(final RelDataType type)
+  {
+    // Druid plans DECIMAL as DOUBLE.
+    return SqlTypeName.APPROX_TYPES.contains(type.getSqlTypeName()) || type.getSqlTypeName() == SqlTypeName.DECIMAL;
+  }
+
+  private static boolean isInteger(final RelDataType type)
+  {
+    return SqlTypeName.INT_TYPES.contains(type.getSqlTypeName());
+  }
+}
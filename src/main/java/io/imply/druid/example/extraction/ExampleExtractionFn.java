@@ -24,7 +24,8 @@ import org.apache.druid.query.extraction.DimExtractionFn;
 import java.nio.ByteBuffer;
 
 /**
- * ExtractionFn that returns the first "length" characters of a string.
+ * ExtractionFn that returns the first "length" characters of a string. Characters are Unicode code points, so
+ * surrogate pairs are never split, and prefixes of UTF-8 values can be taken on their bytes with {@link #applyUtf8}.
  */
 public class ExampleExtractionFn extends DimExtractionFn
 {
@@ -34,6 +35,10 @@ public class ExampleExtractionFn extends DimExtractionFn
   // Extension extractionFns can use 0xFF + our own site-specific byte.
   private static final byte[] CACHE_KEY_PREFIX = new byte[]{(byte) 0xFF, (byte) 0x00};
 
+  // Last byte of our cache keys, bumped when results change for the same length. Version 1 counts code points rather
+  // than chars, so surrogate pairs are no longer split.
+  private static final byte CACHE_KEY_VERSION = (byte) 0x01;
+
   private final int length;
 
   @JsonCreator
@@ -53,9 +58,10 @@ public class ExampleExtractionFn extends DimExtractionFn
   @Override
   public byte[] getCacheKey()
   {
-    return ByteBuffer.allocate(CACHE_KEY_PREFIX.length + Ints.BYTES)
+    return ByteBuffer.allocate(CACHE_KEY_PREFIX.length + Ints.BYTES + 1)
                      .put(CACHE_KEY_PREFIX)
                      .putInt(length)
+                     .put(CACHE_KEY_VERSION)
                      .array();
   }
 
@@ -66,15 +72,45 @@ public class ExampleExtractionFn extends DimExtractionFn
       return null;
     } else if (value.length() <= length) {
       return value;
-    } else {
-      return value.substring(0, length);
     }
+
+    int end = 0;
+    for (int i = 0; i < length && end < value.length(); i++) {
+      end += Character.charCount(value.codePointAt(end));
+    }
+    return end == value.length() ? value : value.substring(0, end);
+  }
+
+  /**
+   * Number of bytes in the prefix of a UTF-8 value, from its position to its limit, without decoding it: the prefix
+   * ends at the first byte starting a code point past the first "length". Neither the position nor the limit change.
+   */
+  public int applyUtf8(final ByteBuffer utf8)
+  {
+    final int start = utf8.position();
+    final int limit = utf8.limit();
+    if (limit - start <= length) {
+      return limit - start;
+    }
+
+    int codePoints = 0;
+    for (int i = start; i < limit; i++) {
+      // Continuation bytes are 10xxxxxx; every other byte starts a code point.
+      if ((utf8.get(i) & 0xC0) != 0x80 && codePoints++ == length) {
+        return i - start;
+      }
+    }
+    return limit - start;
   }
 
+  /**
+   * Like Druid's "substring" extractionFn from index 0: if "a" sorts before "b", the prefix of "a" sorts before the
+   * prefix of "b" or is equal to it.
+   */
   @Override
   public boolean preservesOrdering()
   {
-    return false;
+    return true;
   }
 
   @Override
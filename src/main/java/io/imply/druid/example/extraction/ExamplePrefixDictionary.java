@@ -0,0 +1,287 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.extraction;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.apache.druid.common.config.NullHandling;
+import org.apache.druid.java.util.common.ByteBufferUtils;
+import org.apache.druid.java.util.common.StringUtils;
+import org.apache.druid.query.ordering.StringComparators;
+import org.apache.druid.segment.DimensionDictionarySelector;
+import org.apache.druid.segment.IdLookup;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Dictionary of the distinct prefixes of a dictionary-encoded column, built once per segment by
+ * {@link ExamplePrefixDimensionSpec} and {@link ExamplePrefixVirtualColumn}. Each id of the column maps to the id of
+ * its prefix, so rows only need an array lookup, and every prefix is computed once no matter how many rows or
+ * dictionary ids share it.
+ *
+ * Prefix ids are assigned in the order the column's ids first map to them. Columns whose dictionary grows while it is
+ * read, like those of an incremental index, are mapped further when a new id shows up.
+ *
+ * Taking a prefix preserves lexicographic order, so in a sorted dictionary the ids sharing a prefix form a range
+ * [startId, endId), and prefix ids come out sorted too. For sorted dictionaries, the end of each range is found by
+ * galloping and binary search, which computes O(log n) prefixes per range instead of one per id. Ranges also let
+ * {@link #lookupId} return insertion points, like the dictionaries of segments do. Probes skip ids, so callers must
+ * only say a dictionary is sorted when the column's capabilities do. As a safety net, each range must start with a
+ * prefix greater than the one before it; if one doesn't, the rest of the dictionary is mapped id by id.
+ *
+ * Selectors that can return the UTF-8 bytes of their values, like those of segments, are read without decoding: the
+ * prefix of each id is a window on its bytes, see {@link ExampleExtractionFn#applyUtf8}, and prefixes are compared
+ * and hashed as bytes. Only the first id of each prefix is copied and decoded.
+ */
+final class ExamplePrefixDictionary implements IdLookup
+{
+  private final DimensionDictionarySelector selector;
+  private final ExampleExtractionFn extractionFn;
+  private final boolean utf8;
+  private boolean sorted;
+
+  // Prefix id of each column id below "mapped".
+  private int[] forward;
+  private int mapped = 0;
+
+  // Prefix of each prefix id, and its key: the prefix itself, or its UTF-8 bytes.
+  private final List<String> prefixes = new ArrayList<>();
+  private final List<Object> keys = new ArrayList<>();
+  private final Object2IntOpenHashMap<Object> ids = new Object2IntOpenHashMap<>();
+
+  // First column id of each prefix, while the dictionary is sorted.
+  private final IntArrayList starts = new IntArrayList();
+
+  // Last id found outside a range while looking for its end, which is where the next range starts, and its key.
+  // UTF-8 keys are windows of the selector's buffer, which later lookups don't overwrite (see keyOf).
+  private int probedId = -1;
+  @Nullable
+  private Object probedKey;
+
+  ExamplePrefixDictionary(DimensionDictionarySelector selector, ExampleExtractionFn extractionFn, boolean sorted)
+  {
+    this.selector = selector;
+    this.extractionFn = extractionFn;
+    this.utf8 = selector.supportsLookupNameUtf8();
+    this.sorted = sorted;
+    this.ids.defaultReturnValue(-1);
+
+    final int cardinality = Math.max(selector.getValueCardinality(), 0);
+    this.forward = new int[cardinality];
+    mapUpTo(cardinality);
+  }
+
+  /**
+   * Prefix id of a column id.
+   */
+  int forward(int id)
+  {
+    if (id >= mapped) {
+      mapUpTo(Math.max(id + 1, selector.getValueCardinality()));
+    }
+    return forward[id];
+  }
+
+  int size()
+  {
+    return prefixes.size();
+  }
+
+  @Nullable
+  String lookupName(int prefixId)
+  {
+    return prefixes.get(prefixId);
+  }
+
+  /**
+   * Whether every prefix covers the range of column ids from {@link #startId} to {@link #endId}.
+   */
+  boolean isSorted()
+  {
+    return sorted;
+  }
+
+  /**
+   * First column id with the given prefix. Only for sorted dictionaries.
+   */
+  int startId(int prefixId)
+  {
+    return starts.getInt(prefixId);
+  }
+
+  /**
+   * Column id after the last one with the given prefix. Only for sorted dictionaries.
+   */
+  int endId(int prefixId)
+  {
+    return prefixId + 1 < starts.size() ? starts.getInt(prefixId + 1) : mapped;
+  }
+
+  /**
+   * Id of a prefix. Missing prefixes return -1, or -(insertion point) - 1 if the dictionary is sorted.
+   */
+  @Override
+  public int lookupId(@Nullable String name)
+  {
+    final String prefix = NullHandling.emptyToNullIfNeeded(name);
+    final int id = ids.getInt(utf8 && prefix != null ? ByteBuffer.wrap(StringUtils.toUtf8(prefix)) : prefix);
+    if (id >= 0 || !sorted) {
+      return id;
+    }
+
+    int lo = 0;
+    int hi = prefixes.size();
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (StringComparators.LEXICOGRAPHIC.compare(prefixes.get(mid), prefix) < 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return -lo - 1;
+  }
+
+  private void mapUpTo(int cardinality)
+  {
+    if (cardinality > forward.length) {
+      forward = Arrays.copyOf(forward, Math.max(cardinality, forward.length * 2));
+    }
+
+    int id = mapped;
+    while (sorted && id < cardinality) {
+      final Object key = copyKey(id == probedId ? probedKey : keyOf(id));
+      final int last = keys.size() - 1;
+      if (last >= 0 && compareKeys(keys.get(last), key) >= 0) {
+        sorted = false;
+        starts.clear();
+        break;
+      }
+      final int end = rangeEnd(id, key, cardinality);
+      starts.add(id);
+      Arrays.fill(forward, id, end, addPrefix(key));
+      id = end;
+    }
+
+    for (; id < cardinality; id++) {
+      final Object key = id == probedId ? probedKey : keyOf(id);
+      int prefixId = ids.getInt(key);
+      if (prefixId < 0) {
+        prefixId = addPrefix(copyKey(key));
+      }
+      forward[id] = prefixId;
+    }
+    mapped = Math.max(mapped, cardinality);
+  }
+
+  /**
+   * End of the range of ids starting at "start" that have the given prefix: doubles the step until an id has another
+   * prefix, then binary searches between the last two steps.
+   */
+  private int rangeEnd(int start, @Nullable Object key, int cardinality)
+  {
+    int lo = start;
+    int hi = start + 1;
+    int step = 1;
+    while (hi < cardinality && hasKey(hi, key)) {
+      lo = hi;
+      step <<= 1;
+      hi = (int) Math.min((long) start + step, cardinality);
+    }
+    while (hi - lo > 1) {
+      final int mid = (lo + hi) >>> 1;
+      if (hasKey(mid, key)) {
+        lo = mid;
+      } else {
+        hi = mid;
+      }
+    }
+    return hi;
+  }
+
+  private boolean hasKey(int id, @Nullable Object key)
+  {
+    final Object idKey = keyOf(id);
+    if (Objects.equals(idKey, key)) {
+      return true;
+    }
+    probedId = id;
+    probedKey = idKey;
+    return false;
+  }
+
+  /**
+   * Key of the prefix of a column id: the prefix, or for UTF-8 selectors the buffer returned by the selector, limited
+   * to the bytes of the prefix. Selectors don't reuse these buffers, so their limit is ours to change. Null for null
+   * prefixes.
+   */
+  @Nullable
+  private Object keyOf(int id)
+  {
+    if (!utf8) {
+      return NullHandling.emptyToNullIfNeeded(extractionFn.apply(selector.lookupName(id)));
+    }
+    final ByteBuffer value = selector.lookupNameUtf8(id);
+    if (value == null) {
+      return null;
+    }
+    value.limit(value.position() + extractionFn.applyUtf8(value));
+    return NullHandling.isNullOrEquivalent(value) ? null : value;
+  }
+
+  /**
+   * Copy of a key, for the keys this dictionary keeps. UTF-8 keys are windows into the column's data, whose limit we
+   * changed; copies hold just the prefix bytes, on heap.
+   */
+  @Nullable
+  private static Object copyKey(@Nullable Object key)
+  {
+    if (key instanceof ByteBuffer) {
+      final ByteBuffer value = (ByteBuffer) key;
+      final byte[] bytes = new byte[value.remaining()];
+      value.duplicate().get(bytes);
+      return ByteBuffer.wrap(bytes);
+    }
+    return key;
+  }
+
+  /**
+   * Compares keys in the order of {@link String#compareTo}, nulls first, which is the order of segment dictionaries.
+   * UTF-8 keys are compared without decoding them.
+   */
+  private int compareKeys(@Nullable Object lhs, @Nullable Object rhs)
+  {
+    if (utf8) {
+      return ByteBufferUtils.compareUtf8ByteBuffers((ByteBuffer) lhs, (ByteBuffer) rhs);
+    }
+    return StringComparators.LEXICOGRAPHIC.compare((String) lhs, (String) rhs);
+  }
+
+  private int addPrefix(@Nullable Object key)
+  {
+    final int prefixId = prefixes.size();
+    prefixes.add(key instanceof ByteBuffer ? StringUtils.fromUtf8(((ByteBuffer) key).duplicate()) : (String) key);
+    keys.add(key);
+    ids.put(key, prefixId);
+    return prefixId;
+  }
+}
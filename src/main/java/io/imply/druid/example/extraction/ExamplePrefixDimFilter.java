@@ -0,0 +1,249 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.extraction;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.RangeSet;
+import org.apache.druid.common.config.NullHandling;
+import org.apache.druid.java.util.common.guava.Comparators;
+import org.apache.druid.query.cache.CacheKeyBuilder;
+import org.apache.druid.query.filter.AbstractOptimizableDimFilter;
+import org.apache.druid.query.filter.BoundDimFilter;
+import org.apache.druid.query.filter.DimFilter;
+import org.apache.druid.query.filter.Filter;
+import org.apache.druid.query.filter.InDimFilter;
+import org.apache.druid.query.ordering.StringComparators;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Filter on the first "length" characters of a dimension: either an "in" filter on a list of "values", or a "bound"
+ * filter between "lower" and "upper". It matches the same rows as those filters with an {@link ExampleExtractionFn},
+ * but uses the bitmap indexes of the dimension where it can, see {@link ExamplePrefixIndexes}.
+ */
+public class ExamplePrefixDimFilter extends AbstractOptimizableDimFilter
+{
+  public static final String TYPE_NAME = "examplePrefix";
+
+  // Built-in filters use 1-byte codes starting with 0x00 for cache keys.
+  // Extension filters can use 0xFF + our own site-specific byte.
+  private static final byte CACHE_TYPE_ID = (byte) 0xFF;
+  private static final byte CACHE_SITE_ID = 0x00;
+
+  private final String dimension;
+  private final ExampleExtractionFn extractionFn;
+  @Nullable
+  private final SortedSet<String> values;
+  @Nullable
+  private final String lower;
+  @Nullable
+  private final String upper;
+  private final boolean lowerStrict;
+  private final boolean upperStrict;
+
+  @JsonCreator
+  public ExamplePrefixDimFilter(
+      @JsonProperty("dimension") String dimension,
+      @JsonProperty("length") int length,
+      @JsonProperty("values") @Nullable List<String> values,
+      @JsonProperty("lower") @Nullable String lower,
+      @JsonProperty("upper") @Nullable String upper,
+      @JsonProperty("lowerStrict") @Nullable Boolean lowerStrict,
+      @JsonProperty("upperStrict") @Nullable Boolean upperStrict
+  )
+  {
+    this.dimension = Preconditions.checkNotNull(dimension, "dimension");
+    this.extractionFn = new ExampleExtractionFn(length);
+    Preconditions.checkArgument(
+        values == null || (lower == null && upper == null),
+        "values cannot be combined with lower or upper"
+    );
+    Preconditions.checkArgument(values != null || lower != null || upper != null, "values, lower or upper must be set");
+    if (values == null) {
+      this.values = null;
+    } else {
+      this.values = new TreeSet<>(Comparators.naturalNullsFirst());
+      for (String value : values) {
+        this.values.add(NullHandling.emptyToNullIfNeeded(value));
+      }
+    }
+    this.lower = lower;
+    this.upper = upper;
+    this.lowerStrict = lowerStrict != null && lowerStrict;
+    this.upperStrict = upperStrict != null && upperStrict;
+  }
+
+  @JsonProperty
+  public String getDimension()
+  {
+    return dimension;
+  }
+
+  @JsonProperty
+  public int getLength()
+  {
+    return extractionFn.getLength();
+  }
+
+  @Nullable
+  @JsonProperty
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public SortedSet<String> getValues()
+  {
+    return values;
+  }
+
+  @Nullable
+  @JsonProperty
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public String getLower()
+  {
+    return lower;
+  }
+
+  @Nullable
+  @JsonProperty
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public String getUpper()
+  {
+    return upper;
+  }
+
+  @JsonProperty
+  @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+  public boolean isLowerStrict()
+  {
+    return lowerStrict;
+  }
+
+  @JsonProperty
+  @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+  public boolean isUpperStrict()
+  {
+    return upperStrict;
+  }
+
+  ExampleExtractionFn getExtractionFn()
+  {
+    return extractionFn;
+  }
+
+  /**
+   * The same filter, written as a built-in "in" or "bound" filter with an extractionFn.
+   */
+  DimFilter toExtractionFilter()
+  {
+    if (values != null) {
+      return new InDimFilter(dimension, values, extractionFn);
+    }
+    return new BoundDimFilter(
+        dimension,
+        lower,
+        upper,
+        lowerStrict,
+        upperStrict,
+        null,
+        extractionFn,
+        StringComparators.LEXICOGRAPHIC
+    );
+  }
+
+  @Override
+  public Filter toFilter()
+  {
+    return new ExamplePrefixFilter(this);
+  }
+
+  @Nullable
+  @Override
+  public RangeSet<String> getDimensionRangeSet(String dimension)
+  {
+    return null;
+  }
+
+  @Override
+  public Set<String> getRequiredColumns()
+  {
+    return Collections.singleton(dimension);
+  }
+
+  @Override
+  public byte[] getCacheKey()
+  {
+    final CacheKeyBuilder builder = new CacheKeyBuilder(CACHE_TYPE_ID)
+        .appendByte(CACHE_SITE_ID)
+        .appendString(dimension)
+        .appendCacheable(extractionFn);
+    if (values != null) {
+      return builder.appendBoolean(true).appendStrings(values).build();
+    }
+    return builder.appendBoolean(false)
+                  .appendString(lower)
+                  .appendBoolean(lowerStrict)
+                  .appendString(upper)
+                  .appendBoolean(upperStrict)
+                  .build();
+  }
+
+  @Override
+  public boolean equals(Object o)
+  {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    final ExamplePrefixDimFilter that = (ExamplePrefixDimFilter) o;
+    return lowerStrict == that.lowerStrict &&
+           upperStrict == that.upperStrict &&
+           dimension.equals(that.dimension) &&
+           extractionFn.equals(that.extractionFn) &&
+           Objects.equals(values, that.values) &&
+           Objects.equals(lower, that.lower) &&
+           Objects.equals(upper, that.upper);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return Objects.hash(dimension, extractionFn, values, lower, upper, lowerStrict, upperStrict);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "ExamplePrefixDimFilter{" +
+           "dimension='" + dimension + '\'' +
+           ", length=" + extractionFn.getLength() +
+           ", values=" + values +
+           ", lower='" + lower + '\'' +
+           ", upper='" + upper + '\'' +
+           ", lowerStrict=" + lowerStrict +
+           ", upperStrict=" + upperStrict +
+           '}';
+  }
+}
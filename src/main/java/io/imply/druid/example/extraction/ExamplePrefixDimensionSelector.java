@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.extraction;
+
+import org.apache.druid.common.config.NullHandling;
+import org.apache.druid.query.filter.DruidPredicateFactory;
+import org.apache.druid.query.filter.ValueMatcher;
+import org.apache.druid.query.monomorphicprocessing.RuntimeShapeInspector;
+import org.apache.druid.segment.AbstractDimensionSelector;
+import org.apache.druid.segment.DimensionSelector;
+import org.apache.druid.segment.DimensionSelectorUtils;
+import org.apache.druid.segment.IdLookup;
+import org.apache.druid.segment.data.ArrayBasedIndexedInts;
+import org.apache.druid.segment.data.IndexedInts;
+import org.apache.druid.segment.historical.HistoricalDimensionSelector;
+
+import javax.annotation.Nullable;
+
+/**
+ * Prefixes of the values of a {@link DimensionSelector}, made by {@link ExamplePrefixDimensionSpec}.
+ *
+ * If the underlying selector can look names up in advance, rows are remapped to the ids of an
+ * {@link ExamplePrefixDictionary}, so the selector has one id per distinct prefix, and grouping works on those ids.
+ * Otherwise ids pass through and each lookup computes the prefix, like an extraction dimension selector would.
+ *
+ * If the caller knows from the column's capabilities that its dictionary is sorted, prefixes are found a range of ids
+ * at a time; otherwise id by id. Being a {@link HistoricalDimensionSelector} is not enough: the dictionaries of nested
+ * and variant columns list strings, then longs and doubles in numeric order.
+ */
+final class ExamplePrefixDimensionSelector extends AbstractDimensionSelector
+{
+  private final DimensionSelector selector;
+  private final ExampleExtractionFn extractionFn;
+  @Nullable
+  private final ExamplePrefixDictionary dictionary;
+  private final ArrayBasedIndexedInts row = new ArrayBasedIndexedInts();
+
+  ExamplePrefixDimensionSelector(DimensionSelector selector, ExampleExtractionFn extractionFn, boolean sorted)
+  {
+    this.selector = selector;
+    this.extractionFn = extractionFn;
+    this.dictionary =
+        selector.nameLookupPossibleInAdvance() ? new ExamplePrefixDictionary(selector, extractionFn, sorted) : null;
+  }
+
+  @Override
+  public IndexedInts getRow()
+  {
+    final IndexedInts baseRow = selector.getRow();
+    if (dictionary == null) {
+      return baseRow;
+    }
+
+    final int size = baseRow.size();
+    row.ensureSize(size);
+    row.setSize(size);
+    for (int i = 0; i < size; i++) {
+      row.setValue(i, dictionary.forward(baseRow.get(i)));
+    }
+    return row;
+  }
+
+  @Override
+  public ValueMatcher makeValueMatcher(@Nullable String value)
+  {
+    return DimensionSelectorUtils.makeValueMatcherGeneric(this, value);
+  }
+
+  @Override
+  public ValueMatcher makeValueMatcher(DruidPredicateFactory predicateFactory)
+  {
+    return DimensionSelectorUtils.makeValueMatcherGeneric(this, predicateFactory);
+  }
+
+  @Override
+  public int getValueCardinality()
+  {
+    return dictionary == null ? selector.getValueCardinality() : dictionary.size();
+  }
+
+  @Nullable
+  @Override
+  public String lookupName(int id)
+  {
+    if (dictionary == null) {
+      return NullHandling.emptyToNullIfNeeded(extractionFn.apply(selector.lookupName(id)));
+    }
+    return dictionary.lookupName(id);
+  }
+
+  @Override
+  public boolean nameLookupPossibleInAdvance()
+  {
+    return dictionary != null;
+  }
+
+  @Nullable
+  @Override
+  public IdLookup idLookup()
+  {
+    return dictionary;
+  }
+
+  @Override
+  public Class<?> classOfObject()
+  {
+    return Object.class;
+  }
+
+  @Override
+  public void inspectRuntimeShape(RuntimeShapeInspector inspector)
+  {
+    inspector.visit("selector", selector);
+    inspector.visit("remapped", dictionary != null);
+  }
+}
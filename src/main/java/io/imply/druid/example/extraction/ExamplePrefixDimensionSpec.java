@@ -0,0 +1,184 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.extraction;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import org.apache.druid.query.cache.CacheKeyBuilder;
+import org.apache.druid.query.dimension.DimensionSpec;
+import org.apache.druid.query.extraction.ExtractionFn;
+import org.apache.druid.segment.DimensionSelector;
+import org.apache.druid.segment.column.ColumnType;
+import org.apache.druid.segment.vector.SingleValueDimensionVectorSelector;
+
+import javax.annotation.Nullable;
+import java.util.Objects;
+
+/**
+ * DimensionSpec that returns the first "length" characters of each value, like an "extraction" DimensionSpec with
+ * an {@link ExampleExtractionFn}, but computes each prefix once per dictionary id instead of once per row.
+ *
+ * Druid treats the output of a many-to-one extractionFn as a column with repeated values, so groupBy and topN look
+ * every row's value up as a string. This spec has no extractionFn. Instead it decorates the selector with one that
+ * maps each dictionary id to the id of a distinct prefix, see {@link ExamplePrefixDictionary}, and grouping stays on
+ * ints.
+ */
+public class ExamplePrefixDimensionSpec implements DimensionSpec
+{
+  public static final String TYPE_NAME = "examplePrefix";
+
+  // Built-in dimensionSpecs use 1-byte codes starting with 0x00 for cache keys.
+  // Extension dimensionSpecs can use 0xFF + our own site-specific byte.
+  private static final byte CACHE_TYPE_ID = (byte) 0xFF;
+  private static final byte CACHE_SITE_ID = 0x00;
+
+  private final String dimension;
+  private final String outputName;
+  private final ExampleExtractionFn extractionFn;
+
+  @JsonCreator
+  public ExamplePrefixDimensionSpec(
+      @JsonProperty("dimension") String dimension,
+      @JsonProperty("outputName") @Nullable String outputName,
+      @JsonProperty("length") int length
+  )
+  {
+    this.dimension = Preconditions.checkNotNull(dimension, "dimension");
+    this.outputName = outputName == null ? dimension : outputName;
+    this.extractionFn = new ExampleExtractionFn(length);
+  }
+
+  @Override
+  @JsonProperty
+  public String getDimension()
+  {
+    return dimension;
+  }
+
+  @Override
+  @JsonProperty
+  public String getOutputName()
+  {
+    return outputName;
+  }
+
+  @JsonProperty
+  public int getLength()
+  {
+    return extractionFn.getLength();
+  }
+
+  @Override
+  public ColumnType getOutputType()
+  {
+    return ColumnType.STRING;
+  }
+
+  /**
+   * Null, so that Druid keeps the dictionary capabilities of the column. The prefixes are applied by
+   * {@link #decorate(DimensionSelector)}.
+   */
+  @Nullable
+  @Override
+  public ExtractionFn getExtractionFn()
+  {
+    return null;
+  }
+
+  @Override
+  public DimensionSelector decorate(DimensionSelector selector)
+  {
+    return new ExamplePrefixDimensionSelector(selector, extractionFn, false);
+  }
+
+  @Override
+  public SingleValueDimensionVectorSelector decorate(SingleValueDimensionVectorSelector selector)
+  {
+    return new ExamplePrefixVectorSelector(selector, extractionFn, false);
+  }
+
+  @Override
+  public boolean mustDecorate()
+  {
+    return true;
+  }
+
+  @Override
+  public boolean canVectorize()
+  {
+    return true;
+  }
+
+  /**
+   * False: prefix ids are only in the order of their values if the column has a sorted string dictionary, and a
+   * DimensionSpec can't see the column's capabilities. For the same reason its selectors map the dictionary id by id.
+   * {@link ExamplePrefixVirtualColumn} can, and does both.
+   */
+  @Override
+  public boolean preservesOrdering()
+  {
+    return false;
+  }
+
+  @Override
+  public DimensionSpec withDimension(String newDimension)
+  {
+    return new ExamplePrefixDimensionSpec(newDimension, outputName, extractionFn.getLength());
+  }
+
+  @Override
+  public byte[] getCacheKey()
+  {
+    return new CacheKeyBuilder(CACHE_TYPE_ID)
+        .appendByte(CACHE_SITE_ID)
+        .appendString(dimension)
+        .appendCacheable(extractionFn)
+        .build();
+  }
+
+  @Override
+  public boolean equals(Object o)
+  {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    final ExamplePrefixDimensionSpec that = (ExamplePrefixDimensionSpec) o;
+    return dimension.equals(that.dimension) &&
+           outputName.equals(that.outputName) &&
+           extractionFn.equals(that.extractionFn);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return Objects.hash(dimension, outputName, extractionFn);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "ExamplePrefixDimensionSpec{" +
+           "dimension='" + dimension + '\'' +
+           ", outputName='" + outputName + '\'' +
+           ", length=" + extractionFn.getLength() +
+           '}';
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.extraction;
+
+import org.apache.druid.query.filter.ColumnIndexSelector;
+import org.apache.druid.query.filter.Filter;
+import org.apache.druid.query.filter.ValueMatcher;
+import org.apache.druid.query.filter.vector.VectorValueMatcher;
+import org.apache.druid.segment.ColumnInspector;
+import org.apache.druid.segment.ColumnSelectorFactory;
+import org.apache.druid.segment.filter.Filters;
+import org.apache.druid.segment.index.BitmapColumnIndex;
+import org.apache.druid.segment.vector.VectorColumnSelectorFactory;
+
+import javax.annotation.Nullable;
+import java.util.Set;
+
+/**
+ * {@link Filter} of {@link ExamplePrefixDimFilter}. Rows are matched by the equivalent built-in filter with an
+ * extractionFn, and indexes come from {@link ExamplePrefixIndexes} when the column has a sorted dictionary.
+ */
+final class ExamplePrefixFilter implements Filter
+{
+  private final ExamplePrefixDimFilter dimFilter;
+  private final Filter delegate;
+  private final boolean matchesNull;
+
+  ExamplePrefixFilter(ExamplePrefixDimFilter dimFilter)
+  {
+    this.dimFilter = dimFilter;
+    this.delegate = dimFilter.toExtractionFilter().toFilter();
+    this.matchesNull = Filters.filterMatchesNull(delegate);
+  }
+
+  @Nullable
+  @Override
+  public BitmapColumnIndex getBitmapColumnIndex(ColumnIndexSelector selector)
+  {
+    final ExamplePrefixIndexes indexes = ExamplePrefixIndexes.create(
+        selector.getIndexSupplier(dimFilter.getDimension()),
+        dimFilter.getExtractionFn()
+    );
+    if (indexes == null) {
+      return delegate.getBitmapColumnIndex(selector);
+    } else if (dimFilter.getValues() != null) {
+      return indexes.forValues(dimFilter.getValues(), matchesNull);
+    } else {
+      return indexes.forRange(
+          dimFilter.getLower(),
+          dimFilter.isLowerStrict(),
+          dimFilter.getUpper(),
+          dimFilter.isUpperStrict(),
+          matchesNull
+      );
+    }
+  }
+
+  @Override
+  public ValueMatcher makeMatcher(ColumnSelectorFactory factory)
+  {
+    return delegate.makeMatcher(factory);
+  }
+
+  @Override
+  public VectorValueMatcher makeVectorMatcher(VectorColumnSelectorFactory factory)
+  {
+    return delegate.makeVectorMatcher(factory);
+  }
+
+  @Override
+  public boolean canVectorizeMatcher(ColumnInspector inspector)
+  {
+    return delegate.canVectorizeMatcher(inspector);
+  }
+
+  @Override
+  public Set<String> getRequiredColumns()
+  {
+    return dimFilter.getRequiredColumns();
+  }
+
+  @Override
+  public boolean equals(Object o)
+  {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    return dimFilter.equals(((ExamplePrefixFilter) o).dimFilter);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return dimFilter.hashCode();
+  }
+
+  @Override
+  public String toString()
+  {
+    return dimFilter.toString();
+  }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.extraction;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import org.apache.druid.collections.bitmap.ImmutableBitmap;
+import org.apache.druid.common.config.NullHandling;
+import org.apache.druid.query.filter.DruidObjectPredicate;
+import org.apache.druid.segment.column.ColumnIndexSupplier;
+import org.apache.druid.segment.index.BitmapColumnIndex;
+import org.apache.druid.segment.index.SimpleImmutableBitmapIterableIndex;
+import org.apache.druid.segment.index.semantic.DictionaryEncodedStringValueIndex;
+import org.apache.druid.segment.index.semantic.LexicographicalRangeIndexes;
+import org.apache.druid.segment.index.semantic.StringValueSetIndexes;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+/**
+ * Indexes on the prefixes of a string column, answered with the bitmaps of the column itself.
+ *
+ * Taking a prefix preserves order, so the values of a sorted dictionary that have a given prefix, or a prefix within
+ * given bounds, form a range of ids. Each range is found by binary search, which computes O(log n) prefixes, and the
+ * filter is the union of the bitmaps in its ranges. Rows with a null prefix are never in a range; they only match
+ * when the filter matches null, or as unknowns.
+ */
+public class ExamplePrefixIndexes implements StringValueSetIndexes, LexicographicalRangeIndexes
+{
+  private final DictionaryEncodedStringValueIndex index;
+  private final ExampleExtractionFn extractionFn;
+  private final int cardinality;
+
+  // 1 if the first id is null, or empty and so null once truncated; prefixes of the other ids are never null.
+  private final int firstNonNull;
+
+  private ExamplePrefixIndexes(DictionaryEncodedStringValueIndex index, ExampleExtractionFn extractionFn)
+  {
+    this.index = index;
+    this.extractionFn = extractionFn;
+    this.cardinality = index.getCardinality();
+    this.firstNonNull = cardinality > 0 && prefixOf(0) == null ? 1 : 0;
+  }
+
+  /**
+   * Returns indexes on the prefixes of a column, or null if the column has no lexicographically sorted dictionary to
+   * search. A zero length makes every prefix empty, so there is nothing to search for either.
+   */
+  @Nullable
+  public static ExamplePrefixIndexes create(
+      @Nullable ColumnIndexSupplier indexSupplier,
+      ExampleExtractionFn extractionFn
+  )
+  {
+    if (indexSupplier == null || extractionFn.getLength() < 1
+        || indexSupplier.as(LexicographicalRangeIndexes.class) == null) {
+      return null;
+    }
+    final DictionaryEncodedStringValueIndex index = indexSupplier.as(DictionaryEncodedStringValueIndex.class);
+    return index == null ? null : new ExamplePrefixIndexes(index, extractionFn);
+  }
+
+  @Override
+  public BitmapColumnIndex forValue(@Nullable String value)
+  {
+    return forValues(Collections.singleton(value), value == null);
+  }
+
+  @Override
+  public BitmapColumnIndex forSortedValues(SortedSet<String> values)
+  {
+    return forValues(values, values.contains(null));
+  }
+
+  @Override
+  public BitmapColumnIndex forRange(
+      @Nullable String startValue,
+      boolean startStrict,
+      @Nullable String endValue,
+      boolean endStrict
+  )
+  {
+    return forRange(startValue, startStrict, endValue, endStrict, false);
+  }
+
+  /**
+   * Like {@link #forRange(String, boolean, String, boolean)}, but also checks the prefix of every id in the range.
+   */
+  @Override
+  public BitmapColumnIndex forRange(
+      @Nullable String startValue,
+      boolean startStrict,
+      @Nullable String endValue,
+      boolean endStrict,
+      DruidObjectPredicate<String> matcher
+  )
+  {
+    final IntList ranges = range(startValue, startStrict, endValue, endStrict);
+    final IntList ids = new IntArrayList();
+    for (int i = 0; i < ranges.size(); i += 2) {
+      for (int id = ranges.getInt(i); id < ranges.getInt(i + 1); id++) {
+        if (matcher.apply(prefixOf(id)).matches(false)) {
+          ids.add(id);
+          ids.add(id + 1);
+        }
+      }
+    }
+    return new RangesIndex(ids, false);
+  }
+
+  /**
+   * Rows whose prefix is one of the values. Null rows also match if "matchNull" is set, whether or not the values
+   * include null.
+   */
+  BitmapColumnIndex forValues(Collection<String> values, boolean matchNull)
+  {
+    final IntList ranges = new IntArrayList();
+    for (String value : values) {
+      final String prefix = NullHandling.emptyToNullIfNeeded(value);
+      if (prefix != null) {
+        final int start = search(prefix, true);
+        final int end = search(prefix, false);
+        if (start < end) {
+          ranges.add(start);
+          ranges.add(end);
+        }
+      }
+    }
+    return new RangesIndex(ranges, matchNull);
+  }
+
+  /**
+   * Rows whose prefix is within the bounds. Null bounds are unbounded. Null rows only match if "matchNull" is set.
+   */
+  BitmapColumnIndex forRange(
+      @Nullable String lower,
+      boolean lowerStrict,
+      @Nullable String upper,
+      boolean upperStrict,
+      boolean matchNull
+  )
+  {
+    return new RangesIndex(range(lower, lowerStrict, upper, upperStrict), matchNull);
+  }
+
+  private IntList range(@Nullable String lower, boolean lowerStrict, @Nullable String upper, boolean upperStrict)
+  {
+    final String lowerPrefix = NullHandling.emptyToNullIfNeeded(lower);
+    final String upperPrefix = NullHandling.emptyToNullIfNeeded(upper);
+    final int start = lowerPrefix == null ? firstNonNull : search(lowerPrefix, !lowerStrict);
+    final int end = upperPrefix == null ? cardinality : search(upperPrefix, upperStrict);
+    final IntList ranges = new IntArrayList(2);
+    if (start < end) {
+      ranges.add(start);
+      ranges.add(end);
+    }
+    return ranges;
+  }
+
+  /**
+   * First id with a prefix greater than the target, or at least the target if "orEqual" is set.
+   */
+  private int search(String target, boolean orEqual)
+  {
+    int lo = firstNonNull;
+    int hi = cardinality;
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      final int cmp = prefixOf(mid).compareTo(target);
+      if (cmp < 0 || (cmp == 0 && !orEqual)) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  @Nullable
+  private String prefixOf(int id)
+  {
+    return NullHandling.emptyToNullIfNeeded(extractionFn.apply(index.getValue(id)));
+  }
+
+  /**
+   * Union of the bitmaps of ranges of ids, given as start and end pairs, and of the null id when it matches.
+   */
+  private class RangesIndex extends SimpleImmutableBitmapIterableIndex
+  {
+    private final IntList ranges;
+    private final boolean matchNull;
+
+    RangesIndex(IntList ranges, boolean matchNull)
+    {
+      this.ranges = ranges;
+      this.matchNull = matchNull;
+    }
+
+    @Override
+    protected Iterable<ImmutableBitmap> getBitmapIterable(boolean includeUnknown)
+    {
+      final boolean includeNull = firstNonNull > 0 && (matchNull || includeUnknown);
+      return () -> new BitmapIterator(ranges, includeNull);
+    }
+  }
+
+  private class BitmapIterator implements Iterator<ImmutableBitmap>
+  {
+    private final IntList ranges;
+    // Position of the next range in "ranges".
+    private int range = 0;
+    // Next id, or -1 when done, and the end of its range.
+    private int next;
+    private int end;
+
+    BitmapIterator(IntList ranges, boolean includeNull)
+    {
+      this.ranges = ranges;
+      if (includeNull) {
+        next = 0;
+        end = 1;
+      } else {
+        nextRange();
+      }
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return next >= 0;
+    }
+
+    @Override
+    public ImmutableBitmap next()
+    {
+      if (next < 0) {
+        throw new NoSuchElementException();
+      }
+      final ImmutableBitmap bitmap = index.getBitmap(next);
+      if (++next >= end) {
+        nextRange();
+      }
+      return bitmap;
+    }
+
+    private void nextRange()
+    {
+      if (range < ranges.size()) {
+        next = ranges.getInt(range);
+        end = ranges.getInt(range + 1);
+        range += 2;
+      } else {
+        next = -1;
+      }
+    }
+  }
+}
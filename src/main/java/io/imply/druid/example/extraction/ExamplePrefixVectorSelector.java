@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.extraction;
+
+import org.apache.druid.common.config.NullHandling;
+import org.apache.druid.segment.IdLookup;
+import org.apache.druid.segment.vector.SingleValueDimensionVectorSelector;
+
+import javax.annotation.Nullable;
+
+/**
+ * Vectorized version of {@link ExamplePrefixDimensionSelector}, for single-value columns. Row vectors are remapped in
+ * the same cases, which include every dictionary-encoded column, and prefixes are found a range of ids at a time under
+ * the same condition.
+ */
+final class ExamplePrefixVectorSelector implements SingleValueDimensionVectorSelector
+{
+  private final SingleValueDimensionVectorSelector selector;
+  private final ExampleExtractionFn extractionFn;
+  @Nullable
+  private final ExamplePrefixDictionary dictionary;
+  private final int[] rowVector;
+
+  ExamplePrefixVectorSelector(
+      SingleValueDimensionVectorSelector selector,
+      ExampleExtractionFn extractionFn,
+      boolean sorted
+  )
+  {
+    this.selector = selector;
+    this.extractionFn = extractionFn;
+    this.dictionary =
+        selector.nameLookupPossibleInAdvance() ? new ExamplePrefixDictionary(selector, extractionFn, sorted) : null;
+    this.rowVector = new int[selector.getMaxVectorSize()];
+  }
+
+  @Override
+  public int[] getRowVector()
+  {
+    final int[] baseVector = selector.getRowVector();
+    if (dictionary == null) {
+      return baseVector;
+    }
+
+    final int size = selector.getCurrentVectorSize();
+    for (int i = 0; i < size; i++) {
+      rowVector[i] = dictionary.forward(baseVector[i]);
+    }
+    return rowVector;
+  }
+
+  @Override
+  public int getValueCardinality()
+  {
+    return dictionary == null ? selector.getValueCardinality() : dictionary.size();
+  }
+
+  @Nullable
+  @Override
+  public String lookupName(int id)
+  {
+    if (dictionary == null) {
+      return NullHandling.emptyToNullIfNeeded(extractionFn.apply(selector.lookupName(id)));
+    }
+    return dictionary.lookupName(id);
+  }
+
+  @Override
+  public boolean nameLookupPossibleInAdvance()
+  {
+    return dictionary != null;
+  }
+
+  @Nullable
+  @Override
+  public IdLookup idLookup()
+  {
+    return dictionary;
+  }
+
+  @Override
+  public int getMaxVectorSize()
+  {
+    return selector.getMaxVectorSize();
+  }
+
+  @Override
+  public int getCurrentVectorSize()
+  {
+    return selector.getCurrentVectorSize();
+  }
+}
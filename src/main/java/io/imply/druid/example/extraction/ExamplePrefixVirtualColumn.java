@@ -0,0 +1,313 @@
+/*
+ * Copyright 2016 Imply Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.imply.druid.example.extraction;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import org.apache.druid.query.cache.CacheKeyBuilder;
+import org.apache.druid.query.dimension.DefaultDimensionSpec;
+import org.apache.druid.query.dimension.DimensionSpec;
+import org.apache.druid.query.dimension.ExtractionDimensionSpec;
+import org.apache.druid.query.extraction.CascadeExtractionFn;
+import org.apache.druid.query.extraction.ExtractionFn;
+import org.apache.druid.query.filter.ColumnIndexSelector;
+import org.apache.druid.segment.ColumnInspector;
+import org.apache.druid.segment.ColumnSelectorFactory;
+import org.apache.druid.segment.ColumnValueSelector;
+import org.apache.druid.segment.DimensionSelector;
+import org.apache.druid.segment.VirtualColumn;
+import org.apache.druid.segment.column.ColumnCapabilities;
+import org.apache.druid.segment.column.ColumnCapabilitiesImpl;
+import org.apache.druid.segment.column.ColumnIndexSupplier;
+import org.apache.druid.segment.column.ColumnType;
+import org.apache.druid.segment.column.ValueType;
+import org.apache.druid.segment.index.semantic.LexicographicalRangeIndexes;
+import org.apache.druid.segment.index.semantic.StringValueSetIndexes;
+import org.apache.druid.segment.serde.NoIndexesColumnIndexSupplier;
+import org.apache.druid.segment.vector.SingleValueDimensionVectorSelector;
+import org.apache.druid.segment.vector.VectorColumnSelectorFactory;
+import org.apache.druid.segment.vector.VectorObjectSelector;
+import org.apache.druid.segment.virtual.VirtualColumnCacheHelper;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * VirtualColumn holding the first "length" characters of each value of a string column, like an
+ * {@link ExampleExtractionFn} on that column.
+ *
+ * Queries with an extractionFn can't be vectorized. This column is dictionary-encoded instead, with one id per
+ * distinct prefix, see {@link ExamplePrefixDictionary}, so grouping and filtering on it can. Its selectors are those of
+ * {@link ExamplePrefixDimensionSpec}, and its filters use the bitmap indexes of the underlying column, see
+ * {@link ExamplePrefixIndexes}.
+ */
+public class ExamplePrefixVirtualColumn implements VirtualColumn
+{
+  public static final String TYPE_NAME = "examplePrefix";
+
+  // Built-in virtual columns use 1-byte codes starting with 0x00 for cache keys.
+  // Extension virtual columns can use CACHE_TYPE_ID_USER_DEFINED (0xFF) + our own site-specific byte.
+  private static final byte CACHE_SITE_ID = 0x00;
+
+  private final String name;
+  private final String dimension;
+  private final ExampleExtractionFn extractionFn;
+
+  @JsonCreator
+  public ExamplePrefixVirtualColumn(
+      @JsonProperty("name") String name,
+      @JsonProperty("dimension") String dimension,
+      @JsonProperty("length") int length
+  )
+  {
+    this.name = Preconditions.checkNotNull(name, "name");
+    this.dimension = Preconditions.checkNotNull(dimension, "dimension");
+    this.extractionFn = new ExampleExtractionFn(length);
+  }
+
+  @Override
+  @JsonProperty("name")
+  public String getOutputName()
+  {
+    return name;
+  }
+
+  @JsonProperty
+  public String getDimension()
+  {
+    return dimension;
+  }
+
+  @JsonProperty
+  public int getLength()
+  {
+    return extractionFn.getLength();
+  }
+
+  @Override
+  public DimensionSelector makeDimensionSelector(DimensionSpec dimensionSpec, ColumnSelectorFactory factory)
+  {
+    final DimensionSelector selector;
+    if (dimensionSpec.getExtractionFn() == null) {
+      selector = new ExamplePrefixDimensionSelector(
+          factory.makeDimensionSelector(DefaultDimensionSpec.of(dimension)),
+          extractionFn,
+          isSortedString(factory.getColumnCapabilities(dimension))
+      );
+    } else {
+      // An extractionFn on top of the prefixes gives repeated values anyway, so there is no point in remapping.
+      selector = factory.makeDimensionSelector(
+          new ExtractionDimensionSpec(
+              dimension,
+              dimension,
+              new CascadeExtractionFn(new ExtractionFn[]{extractionFn, dimensionSpec.getExtractionFn()})
+          )
+      );
+    }
+    return dimensionSpec.decorate(selector);
+  }
+
+  @Override
+  public ColumnValueSelector<?> makeColumnValueSelector(String columnName, ColumnSelectorFactory factory)
+  {
+    return makeDimensionSelector(DefaultDimensionSpec.of(columnName), factory);
+  }
+
+  /**
+   * Vectorized reads go through the single-value selector of the underlying column, so it must not have multiple
+   * values. Missing columns read as nulls, which vectorize too.
+   */
+  @Override
+  public boolean canVectorize(ColumnInspector inspector)
+  {
+    final ColumnCapabilities capabilities = inspector.getColumnCapabilities(dimension);
+    return capabilities == null
+           || (capabilities.is(ValueType.STRING)
+               && capabilities.isDictionaryEncoded().isTrue()
+               && capabilities.hasMultipleValues().isFalse());
+  }
+
+  @Override
+  public SingleValueDimensionVectorSelector makeSingleValueVectorDimensionSelector(
+      DimensionSpec dimensionSpec,
+      VectorColumnSelectorFactory factory
+  )
+  {
+    return dimensionSpec.decorate(
+        new ExamplePrefixVectorSelector(
+            factory.makeSingleValueDimensionSelector(DefaultDimensionSpec.of(dimension)),
+            extractionFn,
+            isSortedString(factory.getColumnCapabilities(dimension))
+        )
+    );
+  }
+
+  @Override
+  public VectorObjectSelector makeVectorObjectSelector(String columnName, VectorColumnSelectorFactory factory)
+  {
+    final SingleValueDimensionVectorSelector selector =
+        makeSingleValueVectorDimensionSelector(DefaultDimensionSpec.of(columnName), factory);
+    final Object[] objectVector = new Object[selector.getMaxVectorSize()];
+    return new VectorObjectSelector()
+    {
+      @Override
+      public Object[] getObjectVector()
+      {
+        final int[] rowVector = selector.getRowVector();
+        for (int i = 0; i < selector.getCurrentVectorSize(); i++) {
+          objectVector[i] = selector.lookupName(rowVector[i]);
+        }
+        return objectVector;
+      }
+
+      @Override
+      public int getMaxVectorSize()
+      {
+        return selector.getMaxVectorSize();
+      }
+
+      @Override
+      public int getCurrentVectorSize()
+      {
+        return selector.getCurrentVectorSize();
+      }
+    };
+  }
+
+  @Override
+  public ColumnCapabilities capabilities(String columnName)
+  {
+    return new ColumnCapabilitiesImpl().setType(ColumnType.STRING).setDictionaryEncoded(true);
+  }
+
+  /**
+   * Dictionary-encoded if the underlying column is. Prefix ids are unique and sorted if the column is a string column
+   * with a sorted dictionary, since then its selectors remap it a range at a time, see {@link #isSortedString}.
+   */
+  @Override
+  public ColumnCapabilities capabilities(ColumnInspector inspector, String columnName)
+  {
+    final ColumnCapabilities capabilities = inspector.getColumnCapabilities(dimension);
+    if (capabilities == null) {
+      return capabilities(columnName);
+    }
+    if (!capabilities.is(ValueType.STRING) || !capabilities.isDictionaryEncoded().isTrue()) {
+      return new ColumnCapabilitiesImpl().setType(ColumnType.STRING)
+                                         .setHasMultipleValues(capabilities.hasMultipleValues())
+                                         .setHasNulls(true);
+    }
+    final boolean sorted = isSortedString(capabilities);
+    return ColumnCapabilitiesImpl.copyOf(capabilities)
+                                 .setDictionaryValuesSorted(sorted)
+                                 .setDictionaryValuesUnique(sorted);
+  }
+
+  /**
+   * Whether the column's dictionary lists strings in order. Nested and variant columns also have sorted dictionaries,
+   * but of strings followed by numbers in numeric order, which don't sort as strings.
+   */
+  private static boolean isSortedString(@Nullable ColumnCapabilities capabilities)
+  {
+    return capabilities != null
+           && capabilities.is(ValueType.STRING)
+           && capabilities.areDictionaryValuesSorted().isTrue();
+  }
+
+  @Override
+  public List<String> requiredColumns()
+  {
+    return Collections.singletonList(dimension);
+  }
+
+  @Override
+  public boolean usesDotNotation()
+  {
+    return false;
+  }
+
+  /**
+   * Serves {@link StringValueSetIndexes} and {@link LexicographicalRangeIndexes} from the indexes of the underlying
+   * column, if it has a sorted dictionary. Other filters match row by row.
+   */
+  @Override
+  public ColumnIndexSupplier getIndexSupplier(String columnName, ColumnIndexSelector columnIndexSelector)
+  {
+    final ExamplePrefixIndexes indexes =
+        ExamplePrefixIndexes.create(columnIndexSelector.getIndexSupplier(dimension), extractionFn);
+    if (indexes == null) {
+      return NoIndexesColumnIndexSupplier.getInstance();
+    }
+    return new ColumnIndexSupplier()
+    {
+      @Nullable
+      @Override
+      @SuppressWarnings("unchecked")
+      public <T> T as(Class<T> clazz)
+      {
+        if (clazz.equals(StringValueSetIndexes.class) || clazz.equals(LexicographicalRangeIndexes.class)) {
+          return (T) indexes;
+        }
+        return null;
+      }
+    };
+  }
+
+  @Override
+  public byte[] getCacheKey()
+  {
+    return new CacheKeyBuilder(VirtualColumnCacheHelper.CACHE_TYPE_ID_USER_DEFINED)
+        .appendByte(CACHE_SITE_ID)
+        .appendString(name)
+        .appendString(dimension)
+        .appendCacheable(extractionFn)
+        .build();
+  }
+
+  @Override
+  public boolean equals(Object o)
+  {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    final ExamplePrefixVirtualColumn that = (ExamplePrefixVirtualColumn) o;
+    return name.equals(that.name) &&
+           dimension.equals(that.dimension) &&
+           extractionFn.equals(that.extractionFn);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return Objects.hash(name, dimension, extractionFn);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "ExamplePrefixVirtualColumn{" +
+           "name='" + name + '\'' +
+           ", dimension='" + dimension + '\'' +
+           ", length=" + extractionFn.getLength() +
+           '}';
+  }
+}
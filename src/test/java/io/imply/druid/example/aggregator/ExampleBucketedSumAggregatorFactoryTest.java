@@ -0,0 +1,403 @@
+package io.imply.druid.example.aggregator;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.imply.druid.example.ExampleExtensionModule;
+import org.apache.druid.common.config.NullHandling;
+import org.apache.druid.data.input.MapBasedRow;
+import org.apache.druid.jackson.DefaultObjectMapper;
+import org.apache.druid.java.util.common.DateTimes;
+import org.apache.druid.java.util.common.granularity.Granularities;
+import org.apache.druid.java.util.common.granularity.Granularity;
+import org.apache.druid.query.aggregation.AggregateCombiner;
+import org.apache.druid.query.aggregation.Aggregator;
+import org.apache.druid.query.aggregation.AggregatorFactory;
+import org.apache.druid.query.aggregation.BufferAggregator;
+import org.apache.druid.query.aggregation.PostAggregator;
+import org.apache.druid.query.aggregation.TestObjectColumnSelector;
+import org.apache.druid.query.aggregation.VectorAggregator;
+import org.apache.druid.query.aggregation.post.FieldAccessPostAggregator;
+import org.apache.druid.segment.ColumnSelectorFactory;
+import org.apache.druid.segment.RowAdapters;
+import org.apache.druid.segment.RowBasedColumnSelectorFactory;
+import org.apache.druid.segment.column.ColumnHolder;
+import org.apache.druid.segment.column.ColumnType;
+import org.apache.druid.segment.column.RowSignature;
+import org.apache.druid.segment.data.ObjectStrategy;
+import org.apache.druid.segment.vector.VectorColumnSelectorFactory;
+import org.apache.druid.segment.vector.VectorValueSelector;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ExampleBucketedSumAggregatorFactoryTest
+{
+  private static final ObjectMapper MAPPER = new DefaultObjectMapper();
+
+  static {
+    NullHandling.initializeForTests();
+    for (Module module : new ExampleExtensionModule().getJacksonModules()) {
+      MAPPER.registerModule(module);
+    }
+  }
+
+  private static final List<MapBasedRow> ROWS = ImmutableList.of(
+      makeRow("2000-01-01T00:00:10", 1.0),
+      makeRow("2000-01-01T00:00:50", 2.0),
+      makeRow("2000-01-01T00:01:00", 3.0),
+      makeRow("2000-01-01T01:30:00", 4.0),
+      makeRow("2000-01-01T00:00:30", 5.0),
+      makeRow("2000-01-01T01:30:20", null)
+  );
+
+  private final ExampleBucketedSumAggregatorFactory factory =
+      new ExampleBucketedSumAggregatorFactory("billy", "nilly", Granularities.MINUTE);
+
+  @Test
+  public void testSimple()
+  {
+    Assert.assertEquals(ExampleBucketedSumAggregatorFactory.TYPE, factory.getIntermediateType());
+    Assert.assertEquals(ColumnType.NESTED_DATA, factory.getResultType());
+    Assert.assertEquals(4 + 256 * (8 + 8), factory.getMaxIntermediateSize());
+    Assert.assertEquals(ImmutableList.of(ColumnHolder.TIME_COLUMN_NAME, "nilly"), factory.requiredFields());
+    Assert.assertEquals(factory, factory.withName("nilly").withName("billy"));
+    Assert.assertNull(factory.finalizeComputation(null));
+  }
+
+  @Test
+  public void testSerde() throws Exception
+  {
+    Assert.assertEquals(
+        factory,
+        MAPPER.readValue(
+            "{ \"type\" : \"exampleBucketedSum\", \"name\" : \"billy\", \"fieldName\": \"nilly\","
+            + " \"granularity\": \"minute\"}",
+            AggregatorFactory.class
+        )
+    );
+    Assert.assertEquals(factory, MAPPER.readValue(MAPPER.writeValueAsBytes(factory), AggregatorFactory.class));
+
+    final AggregatorFactory combining = factory.getCombiningFactory();
+    Assert.assertEquals(combining, MAPPER.readValue(MAPPER.writeValueAsBytes(combining), AggregatorFactory.class));
+    Assert.assertNotEquals(factory, combining);
+
+    // maxBufferEntries does not change results, so it doesn't change the cache key either; granularity does
+    Assert.assertArrayEquals(
+        factory.getCacheKey(),
+        new ExampleBucketedSumAggregatorFactory("billy", "nilly", Granularities.MINUTE, 8, null).getCacheKey()
+    );
+    Assert.assertFalse(
+        Arrays.equals(
+            factory.getCacheKey(),
+            new ExampleBucketedSumAggregatorFactory("billy", "nilly", Granularities.HOUR).getCacheKey()
+        )
+    );
+
+    final PostAggregator rollup = makeRollup(Granularities.HOUR);
+    Assert.assertEquals(
+        rollup,
+        MAPPER.readValue(
+            "{ \"type\" : \"exampleBucketedSumRollup\", \"name\" : \"hourly\","
+            + " \"field\": { \"type\": \"fieldAccess\", \"fieldName\": \"billy\" }, \"granularity\": \"hour\"}",
+            PostAggregator.class
+        )
+    );
+    Assert.assertEquals(rollup, MAPPER.readValue(MAPPER.writeValueAsBytes(rollup), PostAggregator.class));
+    Assert.assertFalse(Arrays.equals(rollup.getCacheKey(), makeRollup(Granularities.DAY).getCacheKey()));
+  }
+
+  @Test
+  public void testSumsSerde() throws Exception
+  {
+    final ExampleBucketedSums sums = aggregate(factory);
+
+    // results come back from JSON as base64 strings
+    final Object fromJson = MAPPER.readValue(MAPPER.writeValueAsString(sums), Object.class);
+    Assert.assertEquals(sums, factory.deserialize(fromJson));
+
+    final ObjectStrategy<ExampleBucketedSums> strategy = new ExampleBucketedSumSerde().getObjectStrategy();
+    final byte[] bytes = strategy.toBytes(sums);
+    final ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 3);
+    buffer.position(3);
+    buffer.put(bytes);
+    buffer.position(3);
+    Assert.assertEquals(sums, strategy.fromByteBuffer(buffer, bytes.length));
+
+    // the first start takes six bytes; a minute takes three, and 89 minutes four
+    Assert.assertEquals(1 + 1 + (6 + 3 + 4) + 3 * 8, bytes.length);
+  }
+
+  @Test
+  public void testAggregate()
+  {
+    Assert.assertEquals(
+        ImmutableList.of(
+            makeResult("2000-01-01T00:00:00.000Z", 8.0),
+            makeResult("2000-01-01T00:01:00.000Z", 3.0),
+            makeResult("2000-01-01T01:30:00.000Z", 4.0)
+        ),
+        factory.finalizeComputation(aggregate(factory))
+    );
+  }
+
+  @Test
+  public void testAggregateSpilled()
+  {
+    final ExampleBucketedSumAggregatorFactory spilling =
+        new ExampleBucketedSumAggregatorFactory("billy", "nilly", Granularities.MINUTE, 1, null);
+    Assert.assertEquals(aggregate(factory), aggregate(spilling));
+  }
+
+  @Test
+  public void testMerge()
+  {
+    final ExampleBucketedSums lhs = new ExampleBucketedSums();
+    lhs.add(0, 1.0);
+    lhs.add(120_000, 2.0);
+    final ExampleBucketedSums rhs = new ExampleBucketedSums();
+    rhs.add(60_000, 3.0);
+    rhs.add(120_000, 4.0);
+
+    final ExampleBucketedSums expected = new ExampleBucketedSums();
+    expected.add(0, 1.0);
+    expected.add(60_000, 3.0);
+    expected.add(120_000, 6.0);
+    Assert.assertEquals(expected, ExampleBucketedSums.merge(lhs, rhs));
+    Assert.assertEquals(expected, factory.combine(lhs, rhs.toBase64()));
+    Assert.assertSame(lhs, factory.combine(lhs, null));
+  }
+
+  @Test
+  public void testRollup()
+  {
+    final Map<String, Object> row = ImmutableMap.of("billy", aggregate(factory));
+    Assert.assertEquals(
+        ImmutableList.of(
+            makeResult("2000-01-01T00:00:00.000Z", 11.0),
+            makeResult("2000-01-01T01:00:00.000Z", 4.0)
+        ),
+        makeRollup(Granularities.HOUR).compute(row)
+    );
+    Assert.assertEquals(
+        ImmutableList.of(makeResult("2000-01-01T00:00:00.000Z", 15.0)),
+        makeRollup(Granularities.DAY).compute(row)
+    );
+  }
+
+  @Test
+  public void testRollupFinerGranularity()
+  {
+    final Map<String, AggregatorFactory> aggregators = ImmutableMap.of("billy", factory);
+    Assert.assertNotNull(makeRollup(Granularities.MINUTE).decorate(aggregators));
+    Assert.assertNotNull(makeRollup(Granularities.HOUR).decorate(aggregators));
+    final IllegalArgumentException e = Assert.assertThrows(
+        IllegalArgumentException.class,
+        () -> makeRollup(Granularities.SECOND).decorate(aggregators)
+    );
+    Assert.assertTrue(e.getMessage(), e.getMessage().contains("finer than its buckets"));
+  }
+
+  @Test
+  public void testGetCopies()
+  {
+    // one buffer entry, so the second bucket moves the sums on heap
+    final ExampleBucketedSumAggregatorFactory spilling =
+        new ExampleBucketedSumAggregatorFactory("billy", "nilly", Granularities.MINUTE, 1, null);
+    final MapBasedRow[] currentRow = new MapBasedRow[1];
+    final ColumnSelectorFactory columnSelectorFactory = RowBasedColumnSelectorFactory.create(
+        RowAdapters.standardRow(),
+        () -> currentRow[0],
+        RowSignature.builder().add("nilly", ColumnType.DOUBLE).build(),
+        false,
+        false
+    );
+    final Aggregator aggregator = spilling.factorize(columnSelectorFactory);
+    final BufferAggregator bufferAggregator = spilling.factorizeBuffered(columnSelectorFactory);
+    final ByteBuffer buffer = ByteBuffer.allocate(spilling.getMaxIntermediateSizeWithNulls());
+    bufferAggregator.init(buffer, 0);
+
+    for (MapBasedRow row : ROWS.subList(0, 3)) {
+      currentRow[0] = row;
+      aggregator.aggregate();
+      bufferAggregator.aggregate(buffer, 0);
+    }
+    final Object onHeap = aggregator.get();
+    final Object inBuffer = bufferAggregator.get(buffer, 0);
+    aggregator.aggregate();
+    bufferAggregator.aggregate(buffer, 0);
+
+    final List<Map<String, Object>> expected =
+        ImmutableList.of(makeResult("2000-01-01T00:00:00.000Z", 3.0), makeResult("2000-01-01T00:01:00.000Z", 3.0));
+    Assert.assertEquals(expected, spilling.finalizeComputation(onHeap));
+    Assert.assertEquals(expected, spilling.finalizeComputation(inBuffer));
+    bufferAggregator.close();
+  }
+
+  @Test
+  public void testAggregateCombiner()
+  {
+    final ExampleBucketedSums first = new ExampleBucketedSums();
+    first.add(0, 2.0);
+    final ExampleBucketedSums second = new ExampleBucketedSums();
+    second.add(0, 3.0);
+    second.add(60_000, 1.0);
+
+    TestObjectColumnSelector<Object> sums = new TestObjectColumnSelector<>(
+        new Object[]{null, first, second.toBase64(), second}
+    );
+    AggregateCombiner<?> combiner = factory.makeAggregateCombiner();
+
+    combiner.reset(sums);
+    Assert.assertNull(combiner.getObject());
+    sums.increment();
+    combiner.fold(sums);
+    sums.increment();
+    combiner.fold(sums);
+    Assert.assertEquals(
+        ImmutableList.of(makeResult("1970-01-01T00:00:00.000Z", 5.0), makeResult("1970-01-01T00:01:00.000Z", 1.0)),
+        factory.finalizeComputation(combiner.getObject())
+    );
+
+    // resetting starts over, and the sums read were never changed
+    sums.increment();
+    combiner.reset(sums);
+    combiner.fold(sums);
+    Assert.assertEquals(
+        ImmutableList.of(makeResult("1970-01-01T00:00:00.000Z", 6.0), makeResult("1970-01-01T00:01:00.000Z", 2.0)),
+        factory.finalizeComputation(combiner.getObject())
+    );
+    Assert.assertEquals(ImmutableList.of(makeResult("1970-01-01T00:00:00.000Z", 2.0)), first.toResult());
+  }
+
+  @Test
+  public void testCombiningBufferAggregator()
+  {
+    final ExampleBucketedSums first = new ExampleBucketedSums();
+    first.add(0, 2.0);
+    final ExampleBucketedSums second = new ExampleBucketedSums();
+    second.add(0, 3.0);
+    second.add(60_000, 1.0);
+
+    TestObjectColumnSelector<Object> sums = new TestObjectColumnSelector<>(
+        new Object[]{first, null, second.toBase64()}
+    );
+    ColumnSelectorFactory selectorFactory = EasyMock.createMock(ColumnSelectorFactory.class);
+    EasyMock.expect(selectorFactory.makeColumnValueSelector("billy")).andReturn(sums);
+    EasyMock.replay(selectorFactory);
+
+    BufferAggregator agg = factory.getCombiningFactory().factorizeBuffered(selectorFactory);
+    ByteBuffer buffer = ByteBuffer.allocate(factory.getMaxIntermediateSizeWithNulls());
+    agg.init(buffer, 0);
+
+    for (int i = 0; i < 3; i++) {
+      agg.aggregate(buffer, 0);
+      sums.increment();
+    }
+
+    Assert.assertEquals(
+        ImmutableList.of(makeResult("1970-01-01T00:00:00.000Z", 5.0), makeResult("1970-01-01T00:01:00.000Z", 1.0)),
+        factory.finalizeComputation(agg.get(buffer, 0))
+    );
+  }
+
+  @Test
+  public void testVectorAggregator()
+  {
+    final long[] times = new long[ROWS.size()];
+    final double[] values = new double[ROWS.size()];
+    final boolean[] nulls = new boolean[ROWS.size()];
+    for (int i = 0; i < ROWS.size(); i++) {
+      times[i] = ROWS.get(i).getTimestampFromEpoch();
+      final Object value = ROWS.get(i).getRaw("nilly");
+      nulls[i] = value == null;
+      values[i] = value == null ? 0 : ((Number) value).doubleValue();
+    }
+
+    final VectorValueSelector valueSelector = EasyMock.createMock(VectorValueSelector.class);
+    EasyMock.expect(valueSelector.getDoubleVector()).andReturn(values).anyTimes();
+    EasyMock.expect(valueSelector.getNullVector()).andReturn(nulls).anyTimes();
+    final VectorValueSelector timeSelector = EasyMock.createMock(VectorValueSelector.class);
+    EasyMock.expect(timeSelector.getLongVector()).andReturn(times).anyTimes();
+    final VectorColumnSelectorFactory vectorFactory = EasyMock.createMock(VectorColumnSelectorFactory.class);
+    EasyMock.expect(vectorFactory.makeValueSelector("nilly")).andReturn(valueSelector);
+    EasyMock.expect(vectorFactory.makeValueSelector(ColumnHolder.TIME_COLUMN_NAME)).andReturn(timeSelector);
+    EasyMock.replay(valueSelector, timeSelector, vectorFactory);
+
+    final VectorAggregator agg = factory.factorizeVector(vectorFactory);
+    final ByteBuffer buffer = ByteBuffer.allocate(factory.getMaxIntermediateSizeWithNulls() * 2);
+    agg.init(buffer, 0);
+    agg.init(buffer, factory.getMaxIntermediateSizeWithNulls());
+    agg.aggregate(buffer, 0, 0, ROWS.size());
+    agg.aggregate(buffer, 1, new int[]{factory.getMaxIntermediateSizeWithNulls()}, new int[]{3}, 0);
+
+    Assert.assertEquals(aggregate(factory), agg.get(buffer, 0));
+    Assert.assertEquals(
+        ImmutableList.of(makeResult("2000-01-01T01:30:00.000Z", 4.0)),
+        factory.finalizeComputation(agg.get(buffer, factory.getMaxIntermediateSizeWithNulls()))
+    );
+  }
+
+  /**
+   * Aggregates {@link #ROWS} with both the on-heap and the buffer aggregator, checks that they agree, and returns the
+   * sums.
+   */
+  private static ExampleBucketedSums aggregate(ExampleBucketedSumAggregatorFactory factory)
+  {
+    final MapBasedRow[] currentRow = new MapBasedRow[1];
+    final ColumnSelectorFactory columnSelectorFactory = RowBasedColumnSelectorFactory.create(
+        RowAdapters.standardRow(),
+        () -> currentRow[0],
+        RowSignature.builder().add("nilly", ColumnType.DOUBLE).build(),
+        false,
+        false
+    );
+
+    final Aggregator aggregator = factory.factorize(columnSelectorFactory);
+    final BufferAggregator bufferAggregator = factory.factorizeBuffered(columnSelectorFactory);
+    final ByteBuffer buffer = ByteBuffer.allocate(factory.getMaxIntermediateSizeWithNulls());
+    bufferAggregator.init(buffer, 0);
+
+    for (MapBasedRow row : ROWS) {
+      currentRow[0] = row;
+      aggregator.aggregate();
+      bufferAggregator.aggregate(buffer, 0);
+    }
+
+    final ExampleBucketedSums sums = (ExampleBucketedSums) bufferAggregator.get(buffer, 0);
+    Assert.assertEquals(aggregator.get(), sums);
+    bufferAggregator.close();
+    return sums;
+  }
+
+  private static PostAggregator makeRollup(Granularity granularity)
+  {
+    return new ExampleBucketedSumRollupPostAggregator(
+        "hourly",
+        new FieldAccessPostAggregator(null, "billy"),
+        granularity
+    );
+  }
+
+  private static MapBasedRow makeRow(String time, Double value)
+  {
+    final Map<String, Object> event = new HashMap<>();
+    event.put("nilly", value);
+    return new MapBasedRow(DateTimes.of(time), event);
+  }
+
+  private static Map<String, Object> makeResult(String timestamp, double sum)
+  {
+    final Map<String, Object> result = new HashMap<>();
+    result.put("timestamp", timestamp);
+    result.put("sum", sum);
+    return result;
+  }
+}
@@ -0,0 +1,170 @@
+package io.imply.druid.example.aggregator;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import io.imply.druid.example.ExampleExtensionModule;
+import org.apache.druid.jackson.DefaultObjectMapper;
+import org.apache.druid.query.aggregation.Aggregator;
+import org.apache.druid.query.aggregation.AggregatorFactory;
+import org.apache.druid.query.aggregation.BufferAggregator;
+import org.apache.druid.query.aggregation.TestDoubleColumnSelectorImpl;
+import org.apache.druid.query.aggregation.TestObjectColumnSelector;
+import org.apache.druid.segment.ColumnSelectorFactory;
+import org.apache.druid.segment.column.ColumnType;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class ExampleDistinctSumAggregatorFactoryTest
+{
+  private static final ObjectMapper MAPPER = new DefaultObjectMapper();
+
+  static {
+    for (Module module : new ExampleExtensionModule().getJacksonModules()) {
+      MAPPER.registerModule(module);
+    }
+  }
+
+  private static final double[] VALUES = {1.0, 2.0, 2.0, 0.0, 3.0, -0.0, 1.0, 4.0, 4.0, 5.0};
+
+  private final ExampleDistinctSumAggregatorFactory factory = new ExampleDistinctSumAggregatorFactory("billy", "nilly");
+
+  @Test
+  public void testSimple()
+  {
+    Assert.assertEquals(ColumnType.DOUBLE_ARRAY, factory.getIntermediateType());
+    Assert.assertEquals(ColumnType.DOUBLE, factory.getResultType());
+    Assert.assertEquals(4 + 128 * 8, factory.getMaxIntermediateSize());
+    Assert.assertArrayEquals(
+        new Object[]{1.0, 2.0, 3.0},
+        (Object[]) factory.combine(new Object[]{3.0, 1.0}, ImmutableList.of(2.0, 3))
+    );
+    Assert.assertArrayEquals(new Object[]{1.0, Double.NaN}, (Object[]) factory.deserialize(ImmutableList.of(1, "NaN")));
+    Assert.assertEquals(6.0, factory.finalizeComputation(new Object[]{1.0, 2.0, 3.0}));
+    Assert.assertEquals(factory, factory.withName("nilly").withName("billy"));
+  }
+
+  @Test
+  public void testSerde() throws Exception
+  {
+    Assert.assertEquals(
+        factory,
+        MAPPER.readValue(
+            "{ \"type\" : \"exampleDistinctSum\", \"name\" : \"billy\", \"fieldName\": \"nilly\"}",
+            AggregatorFactory.class
+        )
+    );
+    Assert.assertEquals(factory, MAPPER.readValue(MAPPER.writeValueAsBytes(factory), AggregatorFactory.class));
+
+    final AggregatorFactory combining = factory.getCombiningFactory();
+    Assert.assertEquals(combining, MAPPER.readValue(MAPPER.writeValueAsBytes(combining), AggregatorFactory.class));
+    Assert.assertNotEquals(factory, combining);
+
+    // maxBufferEntries does not change results, so it doesn't change the cache key either
+    Assert.assertArrayEquals(
+        factory.getCacheKey(),
+        new ExampleDistinctSumAggregatorFactory("billy", "nilly", 2, null).getCacheKey()
+    );
+  }
+
+  @Test
+  public void testAggregate()
+  {
+    assertAggregate(factory);
+  }
+
+  @Test
+  public void testAggregateSpilled()
+  {
+    // only two entries fit in the buffer, so the set moves on heap
+    assertAggregate(new ExampleDistinctSumAggregatorFactory("billy", "nilly", 2, null));
+  }
+
+  @Test
+  public void testRelocateSpilled()
+  {
+    final ExampleDistinctSumAggregatorFactory spilling =
+        new ExampleDistinctSumAggregatorFactory("billy", "nilly", 2, null);
+    final TestDoubleColumnSelectorImpl selector = new TestDoubleColumnSelectorImpl(VALUES);
+    final BufferAggregator agg = spilling.factorizeBuffered(makeSelectorFactory(selector, 1));
+
+    final int size = spilling.getMaxIntermediateSizeWithNulls();
+    final ByteBuffer oldBuffer = ByteBuffer.allocate(size);
+    agg.init(oldBuffer, 0);
+    for (int i = 0; i < 5; i++) {
+      agg.aggregate(oldBuffer, 0);
+      selector.increment();
+    }
+
+    // move the slot, like groupBy does when it grows its hash table
+    final ByteBuffer newBuffer = ByteBuffer.allocate(size + 10);
+    for (int i = 0; i < size; i++) {
+      newBuffer.put(10 + i, oldBuffer.get(i));
+    }
+    agg.relocate(0, 10, oldBuffer, newBuffer);
+
+    for (int i = 5; i < VALUES.length; i++) {
+      agg.aggregate(newBuffer, 10);
+      selector.increment();
+    }
+
+    Assert.assertArrayEquals(new Object[]{1.0, 2.0, 3.0, 4.0, 5.0}, (Object[]) agg.get(newBuffer, 10));
+    agg.close();
+  }
+
+  @Test
+  public void testCombiningBufferAggregator()
+  {
+    TestObjectColumnSelector<Object[]> arrays = new TestObjectColumnSelector<>(
+        new Object[][]{{1.0, 2.0}, null, {2.0, 3.0}}
+    );
+    ColumnSelectorFactory selectorFactory = EasyMock.createMock(ColumnSelectorFactory.class);
+    EasyMock.expect(selectorFactory.makeColumnValueSelector("billy")).andReturn(arrays);
+    EasyMock.replay(selectorFactory);
+
+    BufferAggregator agg = factory.getCombiningFactory().factorizeBuffered(selectorFactory);
+    ByteBuffer buffer = ByteBuffer.allocate(factory.getMaxIntermediateSizeWithNulls());
+    agg.init(buffer, 0);
+
+    for (int i = 0; i < 3; i++) {
+      agg.aggregate(buffer, 0);
+      arrays.increment();
+    }
+
+    Assert.assertArrayEquals(new Object[]{1.0, 2.0, 3.0}, (Object[]) agg.get(buffer, 0));
+  }
+
+  private static void assertAggregate(ExampleDistinctSumAggregatorFactory factory)
+  {
+    final TestDoubleColumnSelectorImpl selector = new TestDoubleColumnSelectorImpl(VALUES);
+    final ColumnSelectorFactory selectorFactory = makeSelectorFactory(selector, 2);
+
+    Aggregator agg = factory.factorize(selectorFactory);
+    BufferAggregator bufferAgg = factory.factorizeBuffered(selectorFactory);
+    ByteBuffer buffer = ByteBuffer.allocate(factory.getMaxIntermediateSizeWithNulls());
+    bufferAgg.init(buffer, 0);
+
+    for (int i = 0; i < VALUES.length; i++) {
+      agg.aggregate();
+      bufferAgg.aggregate(buffer, 0);
+      selector.increment();
+    }
+
+    final Object[] expected = {1.0, 2.0, 3.0, 4.0, 5.0};
+    Assert.assertArrayEquals(expected, (Object[]) agg.get());
+    Assert.assertArrayEquals(expected, (Object[]) bufferAgg.get(buffer, 0));
+    Assert.assertEquals(15.0, factory.finalizeComputation(bufferAgg.get(buffer, 0)));
+    bufferAgg.close();
+  }
+
+  private static ColumnSelectorFactory makeSelectorFactory(TestDoubleColumnSelectorImpl selector, int times)
+  {
+    ColumnSelectorFactory selectorFactory = EasyMock.createMock(ColumnSelectorFactory.class);
+    EasyMock.expect(selectorFactory.makeColumnValueSelector("nilly")).andReturn(selector).times(times);
+    EasyMock.replay(selectorFactory);
+    return selectorFactory;
+  }
+}
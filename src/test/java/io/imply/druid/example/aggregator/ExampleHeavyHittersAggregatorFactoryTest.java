@@ -0,0 +1,373 @@
+package io.imply.druid.example.aggregator;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.imply.druid.example.ExampleExtensionModule;
+import org.apache.druid.common.config.NullHandling;
+import org.apache.druid.data.input.MapBasedRow;
+import org.apache.druid.jackson.DefaultObjectMapper;
+import org.apache.druid.query.aggregation.AggregateCombiner;
+import org.apache.druid.query.aggregation.Aggregator;
+import org.apache.druid.query.aggregation.AggregatorFactory;
+import org.apache.druid.query.aggregation.BufferAggregator;
+import org.apache.druid.query.aggregation.TestObjectColumnSelector;
+import org.apache.druid.segment.ColumnSelectorFactory;
+import org.apache.druid.segment.RowAdapters;
+import org.apache.druid.segment.RowBasedColumnSelectorFactory;
+import org.apache.druid.segment.column.ColumnType;
+import org.apache.druid.segment.column.RowSignature;
+import org.apache.druid.segment.data.ObjectStrategy;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class ExampleHeavyHittersAggregatorFactoryTest
+{
+  private static final ObjectMapper MAPPER = new DefaultObjectMapper();
+
+  static {
+    NullHandling.initializeForTests();
+    for (Module module : new ExampleExtensionModule().getJacksonModules()) {
+      MAPPER.registerModule(module);
+    }
+  }
+
+  private static final List<MapBasedRow> ROWS = ImmutableList.of(
+      makeRow("a", 10.0),
+      makeRow("b", 1.0),
+      makeRow("c", 1.0),
+      makeRow("d", 1.0),
+      makeRow("a", 5.0),
+      makeRow("e", 1.0),
+      makeRow("b", 1.0),
+      makeRow(null, 2.0),
+      makeRow("f", -3.0)
+  );
+
+  private final ExampleHeavyHittersAggregatorFactory factory =
+      new ExampleHeavyHittersAggregatorFactory("billy", "nilly", "weight", null);
+
+  @Test
+  public void testSimple()
+  {
+    Assert.assertEquals(ExampleHeavyHittersAggregatorFactory.TYPE, factory.getIntermediateType());
+    Assert.assertEquals(ColumnType.NESTED_DATA, factory.getResultType());
+    Assert.assertEquals(4 + 256 * 4 + 128 * (8 + 8 + 8 + 4 * 3 + 64), factory.getMaxIntermediateSize());
+    Assert.assertEquals(ImmutableList.of("nilly", "weight"), factory.requiredFields());
+    Assert.assertEquals(factory, factory.withName("nilly").withName("billy"));
+    Assert.assertNull(factory.finalizeComputation(null));
+  }
+
+  @Test
+  public void testSerde() throws Exception
+  {
+    Assert.assertEquals(
+        factory,
+        MAPPER.readValue(
+            "{ \"type\" : \"exampleHeavyHitters\", \"name\" : \"billy\", \"fieldName\": \"nilly\","
+            + " \"weightFieldName\": \"weight\"}",
+            AggregatorFactory.class
+        )
+    );
+    Assert.assertEquals(factory, MAPPER.readValue(MAPPER.writeValueAsBytes(factory), AggregatorFactory.class));
+
+    final AggregatorFactory combining = factory.getCombiningFactory();
+    Assert.assertEquals(combining, MAPPER.readValue(MAPPER.writeValueAsBytes(combining), AggregatorFactory.class));
+    Assert.assertNotEquals(factory, combining);
+
+    // maxKeyBytes does not change results, so it doesn't change the cache key either; maxEntries does
+    Assert.assertArrayEquals(
+        factory.getCacheKey(),
+        new ExampleHeavyHittersAggregatorFactory("billy", "nilly", "weight", null, 8, null).getCacheKey()
+    );
+    Assert.assertFalse(
+        Arrays.equals(
+            factory.getCacheKey(),
+            new ExampleHeavyHittersAggregatorFactory("billy", "nilly", "weight", 64).getCacheKey()
+        )
+    );
+  }
+
+  @Test
+  public void testSummarySerde() throws Exception
+  {
+    final ExampleHeavyHitters summary = aggregate(factory);
+
+    // results come back from JSON as base64 strings
+    final Object fromJson = MAPPER.readValue(MAPPER.writeValueAsString(summary), Object.class);
+    Assert.assertEquals(summary, factory.deserialize(fromJson));
+
+    final ObjectStrategy<ExampleHeavyHitters> strategy = new ExampleHeavyHittersSerde().getObjectStrategy();
+    final byte[] bytes = strategy.toBytes(summary);
+    final ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 3);
+    buffer.position(3);
+    buffer.put(bytes);
+    buffer.position(3);
+    Assert.assertEquals(summary, strategy.fromByteBuffer(buffer, bytes.length));
+  }
+
+  @Test
+  public void testAggregate()
+  {
+    // with room for every key, the sums are exact, and ties are ordered by key
+    Assert.assertEquals(
+        ImmutableList.of(
+            makeResult("a", 15.0, 0.0),
+            makeResult(null, 2.0, 0.0),
+            makeResult("b", 2.0, 0.0),
+            makeResult("c", 1.0, 0.0),
+            makeResult("d", 1.0, 0.0),
+            makeResult("e", 1.0, 0.0)
+        ),
+        factory.finalizeComputation(aggregate(factory))
+    );
+  }
+
+  @Test
+  public void testAggregateBounded()
+  {
+    // every new key replaces the smallest estimate, which becomes its error; null really has 2.0
+    Assert.assertEquals(
+        ImmutableList.of(makeResult("a", 15.0, 0.0), makeResult(null, 7.0, 5.0)),
+        factory.finalizeComputation(aggregate(new ExampleHeavyHittersAggregatorFactory("billy", "nilly", "weight", 2)))
+    );
+  }
+
+  @Test
+  public void testAggregateSpilled()
+  {
+    // no key fits in zero bytes, so the summary moves on heap
+    final ExampleHeavyHittersAggregatorFactory spilling =
+        new ExampleHeavyHittersAggregatorFactory("billy", "nilly", "weight", 2, 0, null);
+    Assert.assertEquals(
+        factory.finalizeComputation(aggregate(new ExampleHeavyHittersAggregatorFactory("billy", "nilly", "weight", 2))),
+        spilling.finalizeComputation(aggregate(spilling))
+    );
+  }
+
+  @Test
+  public void testAggregateManyKeys()
+  {
+    // many more keys than entries, so the buffer's hash table and heap keep replacing entries; both paths must agree
+    final Random random = new Random(42);
+    final List<MapBasedRow> rows = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      rows.add(makeRow(random.nextInt(10) == 0 ? null : "key" + random.nextInt(300), random.nextInt(5)));
+    }
+    final ExampleHeavyHitters summary =
+        aggregate(new ExampleHeavyHittersAggregatorFactory("billy", "nilly", "weight", 16), rows);
+    Assert.assertEquals(16, summary.size());
+    Assert.assertTrue(summary.getMinWeight() > 0);
+  }
+
+  @Test
+  public void testMerge()
+  {
+    final ExampleHeavyHitters lhs = new ExampleHeavyHitters(2);
+    lhs.add("a", 10.0);
+    lhs.add("b", 4.0);
+    lhs.add("c", 1.0);
+
+    final ExampleHeavyHitters rhs = new ExampleHeavyHitters(2);
+    rhs.add("b", 3.0);
+    rhs.add("a", 1.0);
+
+    // lhs is full, and dropped "b" for "c" at 5.0, so "b" may have had up to 5.0 more; rhs is not full, so it is exact
+    final ExampleHeavyHitters merged = ExampleHeavyHitters.merge(lhs, rhs);
+    Assert.assertEquals(
+        ImmutableList.of(makeResult("a", 11.0, 0.0), makeResult("b", 8.0, 5.0)),
+        merged.toResult()
+    );
+    Assert.assertEquals(merged, factory.combine(lhs, rhs.toBase64()));
+    Assert.assertSame(lhs, factory.combine(lhs, null));
+
+    // the merged summary keeps the larger capacity, whichever side has it
+    final ExampleHeavyHitters larger = new ExampleHeavyHitters(4);
+    larger.add("d", 1.0);
+    larger.add("e", 1.0);
+    Assert.assertEquals(4, ExampleHeavyHitters.merge(lhs, larger).size());
+    Assert.assertEquals(4, ExampleHeavyHitters.merge(larger, lhs).size());
+  }
+
+  @Test
+  public void testCombiningBufferAggregator()
+  {
+    final ExampleHeavyHitters first = new ExampleHeavyHitters(4);
+    first.add("a", 2.0);
+    first.add(null, 1.0);
+    final ExampleHeavyHitters second = new ExampleHeavyHitters(4);
+    second.add("a", 3.0);
+    second.add("b", 1.0);
+
+    TestObjectColumnSelector<Object> summaries = new TestObjectColumnSelector<>(
+        new Object[]{first, null, second.toBase64()}
+    );
+    ColumnSelectorFactory selectorFactory = EasyMock.createMock(ColumnSelectorFactory.class);
+    EasyMock.expect(selectorFactory.makeColumnValueSelector("billy")).andReturn(summaries);
+    EasyMock.replay(selectorFactory);
+
+    BufferAggregator agg = factory.getCombiningFactory().factorizeBuffered(selectorFactory);
+    ByteBuffer buffer = ByteBuffer.allocate(factory.getMaxIntermediateSizeWithNulls());
+    agg.init(buffer, 0);
+
+    for (int i = 0; i < 3; i++) {
+      agg.aggregate(buffer, 0);
+      summaries.increment();
+    }
+
+    Assert.assertEquals(
+        ImmutableList.of(makeResult("a", 5.0, 0.0), makeResult(null, 1.0, 0.0), makeResult("b", 1.0, 0.0)),
+        factory.finalizeComputation(agg.get(buffer, 0))
+    );
+  }
+
+  @Test
+  public void testAggregatorGetCopies()
+  {
+    final MapBasedRow[] currentRow = new MapBasedRow[]{ROWS.get(0)};
+    final Aggregator aggregator = factory.factorize(
+        RowBasedColumnSelectorFactory.create(
+            RowAdapters.standardRow(),
+            () -> currentRow[0],
+            RowSignature.builder().add("nilly", ColumnType.STRING).add("weight", ColumnType.DOUBLE).build(),
+            false,
+            false
+        )
+    );
+
+    aggregator.aggregate();
+    final Object first = aggregator.get();
+    aggregator.aggregate();
+    Assert.assertEquals(ImmutableList.of(makeResult("a", 10.0, 0.0)), factory.finalizeComputation(first));
+    Assert.assertEquals(ImmutableList.of(makeResult("a", 20.0, 0.0)), factory.finalizeComputation(aggregator.get()));
+  }
+
+  @Test
+  public void testSpilledGetCopies()
+  {
+    final MapBasedRow[] currentRow = new MapBasedRow[]{ROWS.get(0)};
+    final BufferAggregator aggregator = new ExampleHeavyHittersAggregatorFactory("billy", "nilly", "weight", 2, 0, null)
+        .factorizeBuffered(
+            RowBasedColumnSelectorFactory.create(
+                RowAdapters.standardRow(),
+                () -> currentRow[0],
+                RowSignature.builder().add("nilly", ColumnType.STRING).add("weight", ColumnType.DOUBLE).build(),
+                false,
+                false
+            )
+        );
+    final ByteBuffer buffer = ByteBuffer.allocate(factory.getMaxIntermediateSizeWithNulls());
+    aggregator.init(buffer, 0);
+
+    aggregator.aggregate(buffer, 0);
+    final Object first = aggregator.get(buffer, 0);
+    aggregator.aggregate(buffer, 0);
+    Assert.assertEquals(ImmutableList.of(makeResult("a", 10.0, 0.0)), factory.finalizeComputation(first));
+    Assert.assertEquals(
+        ImmutableList.of(makeResult("a", 20.0, 0.0)),
+        factory.finalizeComputation(aggregator.get(buffer, 0))
+    );
+  }
+
+  @Test
+  public void testAggregateCombiner()
+  {
+    final ExampleHeavyHitters first = new ExampleHeavyHitters(4);
+    first.add("a", 2.0);
+    first.add(null, 1.0);
+    final ExampleHeavyHitters second = new ExampleHeavyHitters(4);
+    second.add("a", 3.0);
+    second.add("b", 1.0);
+
+    TestObjectColumnSelector<Object> summaries = new TestObjectColumnSelector<>(
+        new Object[]{null, first, second.toBase64(), second}
+    );
+    AggregateCombiner<?> combiner = factory.makeAggregateCombiner();
+
+    combiner.reset(summaries);
+    Assert.assertNull(combiner.getObject());
+    summaries.increment();
+    combiner.fold(summaries);
+    summaries.increment();
+    combiner.fold(summaries);
+    Assert.assertEquals(
+        ImmutableList.of(makeResult("a", 5.0, 0.0), makeResult(null, 1.0, 0.0), makeResult("b", 1.0, 0.0)),
+        factory.finalizeComputation(combiner.getObject())
+    );
+
+    // resetting starts over, and the summaries read were never changed
+    summaries.increment();
+    combiner.reset(summaries);
+    combiner.fold(summaries);
+    Assert.assertEquals(
+        ImmutableList.of(makeResult("a", 6.0, 0.0), makeResult("b", 2.0, 0.0)),
+        factory.finalizeComputation(combiner.getObject())
+    );
+    Assert.assertEquals(ImmutableList.of(makeResult("a", 2.0, 0.0), makeResult(null, 1.0, 0.0)), first.toResult());
+    Assert.assertEquals(ImmutableList.of(makeResult("a", 3.0, 0.0), makeResult("b", 1.0, 0.0)), second.toResult());
+  }
+
+  private static ExampleHeavyHitters aggregate(ExampleHeavyHittersAggregatorFactory factory)
+  {
+    return aggregate(factory, ROWS);
+  }
+
+  /**
+   * Aggregates the rows with both the on-heap and the buffer aggregator, checks that they agree, and returns the
+   * summary.
+   */
+  private static ExampleHeavyHitters aggregate(ExampleHeavyHittersAggregatorFactory factory, List<MapBasedRow> rows)
+  {
+    final MapBasedRow[] currentRow = new MapBasedRow[1];
+    final ColumnSelectorFactory columnSelectorFactory = RowBasedColumnSelectorFactory.create(
+        RowAdapters.standardRow(),
+        () -> currentRow[0],
+        RowSignature.builder().add("nilly", ColumnType.STRING).add("weight", ColumnType.DOUBLE).build(),
+        false,
+        false
+    );
+
+    final Aggregator aggregator = factory.factorize(columnSelectorFactory);
+    final BufferAggregator bufferAggregator = factory.factorizeBuffered(columnSelectorFactory);
+    final ByteBuffer buffer = ByteBuffer.allocate(factory.getMaxIntermediateSizeWithNulls());
+    bufferAggregator.init(buffer, 0);
+
+    for (MapBasedRow row : rows) {
+      currentRow[0] = row;
+      aggregator.aggregate();
+      bufferAggregator.aggregate(buffer, 0);
+    }
+
+    final ExampleHeavyHitters summary = (ExampleHeavyHitters) bufferAggregator.get(buffer, 0);
+    Assert.assertEquals(aggregator.get(), summary);
+    bufferAggregator.close();
+    return summary;
+  }
+
+  private static MapBasedRow makeRow(String key, double weight)
+  {
+    final Map<String, Object> event = new HashMap<>();
+    event.put("nilly", key);
+    event.put("weight", weight);
+    return new MapBasedRow(0L, event);
+  }
+
+  private static Map<String, Object> makeResult(String key, double sum, double error)
+  {
+    final Map<String, Object> result = new HashMap<>();
+    result.put("key", key);
+    result.put("sum", sum);
+    result.put("error", error);
+    return result;
+  }
+}
@@ -0,0 +1,138 @@
+package io.imply.druid.example.aggregator;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import io.imply.druid.example.ExampleExtensionModule;
+import org.apache.druid.jackson.DefaultObjectMapper;
+import org.apache.druid.query.aggregation.AggregateCombiner;
+import org.apache.druid.query.aggregation.Aggregator;
+import org.apache.druid.query.aggregation.AggregatorFactory;
+import org.apache.druid.query.aggregation.BufferAggregator;
+import org.apache.druid.query.aggregation.TestDoubleColumnSelectorImpl;
+import org.apache.druid.query.aggregation.TestObjectColumnSelector;
+import org.apache.druid.segment.ColumnSelectorFactory;
+import org.apache.druid.segment.column.ColumnType;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class ExampleMultiSumAggregatorFactoryTest
+{
+  private static final ObjectMapper MAPPER = new DefaultObjectMapper();
+
+  static {
+    for (Module module : new ExampleExtensionModule().getJacksonModules()) {
+      MAPPER.registerModule(module);
+    }
+  }
+
+  private final ExampleMultiSumAggregatorFactory factory =
+      new ExampleMultiSumAggregatorFactory("billy", ImmutableList.of("a", "b"), null);
+
+  @Test
+  public void testSimple()
+  {
+    Assert.assertEquals(ColumnType.DOUBLE_ARRAY, factory.getIntermediateType());
+    Assert.assertEquals(16, factory.getMaxIntermediateSize());
+    Assert.assertArrayEquals(
+        new Object[]{4.0, 6.0},
+        (Object[]) factory.combine(new Object[]{1.0, 2.0}, ImmutableList.of(3.0, 4))
+    );
+    Assert.assertArrayEquals(new Object[]{Double.NaN, 1.0}, (Object[]) factory.deserialize(ImmutableList.of("NaN", 1)));
+  }
+
+  @Test
+  public void testSerde() throws Exception
+  {
+    Assert.assertEquals(
+        factory,
+        MAPPER.readValue(
+            "{ \"type\" : \"exampleMultiSum\", \"name\" : \"billy\", \"fieldNames\": [\"a\", \"b\"]}",
+            AggregatorFactory.class
+        )
+    );
+    Assert.assertEquals(factory, MAPPER.readValue(MAPPER.writeValueAsBytes(factory), AggregatorFactory.class));
+
+    final AggregatorFactory combining = factory.getCombiningFactory();
+    Assert.assertEquals(combining, MAPPER.readValue(MAPPER.writeValueAsBytes(combining), AggregatorFactory.class));
+    Assert.assertNotEquals(factory, combining);
+  }
+
+  @Test
+  public void testAggregate()
+  {
+    TestDoubleColumnSelectorImpl a = new TestDoubleColumnSelectorImpl(new double[]{1.0, 2.0, 3.0});
+    TestDoubleColumnSelectorImpl b = new TestDoubleColumnSelectorImpl(new double[]{10.0, 20.0, 30.0});
+    ColumnSelectorFactory selectorFactory = EasyMock.createMock(ColumnSelectorFactory.class);
+    EasyMock.expect(selectorFactory.makeColumnValueSelector("a")).andReturn(a).times(2);
+    EasyMock.expect(selectorFactory.makeColumnValueSelector("b")).andReturn(b).times(2);
+    EasyMock.replay(selectorFactory);
+
+    Aggregator agg = factory.factorize(selectorFactory);
+    BufferAggregator bufferAgg = factory.factorizeBuffered(selectorFactory);
+    ByteBuffer buffer = ByteBuffer.allocate(factory.getMaxIntermediateSizeWithNulls());
+    bufferAgg.init(buffer, 0);
+
+    for (int i = 0; i < 3; i++) {
+      agg.aggregate();
+      bufferAgg.aggregate(buffer, 0);
+      a.increment();
+      b.increment();
+    }
+
+    Assert.assertArrayEquals(new Object[]{6.0, 60.0}, (Object[]) agg.get());
+    Assert.assertArrayEquals(new Object[]{6.0, 60.0}, (Object[]) bufferAgg.get(buffer, 0));
+
+    // the primitive getters return the total over all fields
+    Assert.assertEquals(66.0, agg.getDouble(), 0.0);
+    Assert.assertEquals(66L, agg.getLong());
+    Assert.assertEquals(66.0f, bufferAgg.getFloat(buffer, 0), 0.0f);
+  }
+
+  @Test
+  public void testAggregateCombiner()
+  {
+    TestObjectColumnSelector<Object> arrays = new TestObjectColumnSelector<>(
+        new Object[]{null, new Object[]{1.0, 2.0}, ImmutableList.of(3, "NaN")}
+    );
+    AggregateCombiner<Object[]> combiner = factory.makeAggregateCombiner();
+
+    combiner.reset(arrays);
+    Assert.assertNull(combiner.getObject());
+
+    arrays.increment();
+    combiner.fold(arrays);
+    arrays.increment();
+    combiner.fold(arrays);
+    Assert.assertArrayEquals(new Object[]{4.0, Double.NaN}, combiner.getObject());
+
+    // resetting starts over from the current row
+    combiner.reset(arrays);
+    Assert.assertArrayEquals(new Object[]{3.0, Double.NaN}, combiner.getObject());
+  }
+
+  @Test
+  public void testCombiningBufferAggregator()
+  {
+    TestObjectColumnSelector<Object[]> arrays = new TestObjectColumnSelector<>(
+        new Object[][]{{1.0, 2.0}, null, {3.0, 4.0}}
+    );
+    ColumnSelectorFactory selectorFactory = EasyMock.createMock(ColumnSelectorFactory.class);
+    EasyMock.expect(selectorFactory.makeColumnValueSelector("billy")).andReturn(arrays);
+    EasyMock.replay(selectorFactory);
+
+    BufferAggregator agg = factory.getCombiningFactory().factorizeBuffered(selectorFactory);
+    ByteBuffer buffer = ByteBuffer.allocate(factory.getMaxIntermediateSizeWithNulls());
+    agg.init(buffer, 0);
+
+    for (int i = 0; i < 3; i++) {
+      agg.aggregate(buffer, 0);
+      arrays.increment();
+    }
+
+    Assert.assertArrayEquals(new Object[]{4.0, 6.0}, (Object[]) agg.get(buffer, 0));
+  }
+}
@@ -0,0 +1,220 @@
+package io.imply.druid.example.aggregator;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import io.imply.druid.example.ExampleExtensionModule;
+import org.apache.druid.jackson.DefaultObjectMapper;
+import org.apache.druid.query.aggregation.Aggregator;
+import org.apache.druid.query.aggregation.AggregatorFactory;
+import org.apache.druid.query.aggregation.AggregatorFactoryNotMergeableException;
+import org.apache.druid.query.aggregation.BufferAggregator;
+import org.apache.druid.query.aggregation.TestDoubleColumnSelectorImpl;
+import org.apache.druid.query.aggregation.TestLongColumnSelector;
+import org.apache.druid.query.aggregation.VectorAggregator;
+import org.apache.druid.segment.ColumnSelectorFactory;
+import org.apache.druid.segment.column.ColumnHolder;
+import org.apache.druid.segment.column.ColumnType;
+import org.apache.druid.segment.vector.VectorColumnSelectorFactory;
+import org.apache.druid.segment.vector.VectorValueSelector;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class ExampleSampledSumAggregatorFactoryTest
+{
+  private static final ObjectMapper MAPPER = new DefaultObjectMapper();
+
+  static {
+    for (Module module : new ExampleExtensionModule().getJacksonModules()) {
+      MAPPER.registerModule(module);
+    }
+  }
+
+  private static final int NUM_ROWS = 64;
+
+  private final ExampleSampledSumAggregatorFactory factory =
+      new ExampleSampledSumAggregatorFactory("billy", "nilly", 0.5, 4, null);
+
+  @Test
+  public void testSimple()
+  {
+    Assert.assertEquals(ColumnType.DOUBLE_ARRAY, factory.getIntermediateType());
+    Assert.assertEquals(ColumnType.DOUBLE_ARRAY, factory.getResultType());
+    Assert.assertEquals(32, factory.getMaxIntermediateSize());
+    Assert.assertEquals(factory, factory.withName("nilly").withName("billy"));
+    Assert.assertArrayEquals(
+        new Object[]{3.0, 5.0},
+        (Object[]) factory.combine(new Object[]{2.0, 4.0}, ImmutableList.of(1, 1))
+    );
+    Assert.assertArrayEquals(new Object[]{1.0, Double.NaN}, (Object[]) factory.deserialize(ImmutableList.of(1, "NaN")));
+
+    // estimate 3.0 / 0.5; variance (1 - 0.5) / 0.25 * 5.0
+    final Object[] result = (Object[]) factory.finalizeComputation(new Object[]{3.0, 5.0});
+    Assert.assertEquals(6.0, (double) result[0], 0.0);
+    Assert.assertEquals(6.0 - 1.959964 * Math.sqrt(10), (double) result[1], 1e-5);
+    Assert.assertEquals(6.0 + 1.959964 * Math.sqrt(10), (double) result[2], 1e-5);
+  }
+
+  @Test
+  public void testSerde() throws Exception
+  {
+    Assert.assertEquals(
+        new ExampleSampledSumAggregatorFactory("billy", "nilly", 0.5),
+        MAPPER.readValue(
+            "{ \"type\" : \"exampleSampledSum\", \"name\" : \"billy\", \"fieldName\": \"nilly\", \"sampleRate\": 0.5}",
+            AggregatorFactory.class
+        )
+    );
+    Assert.assertEquals(factory, MAPPER.readValue(MAPPER.writeValueAsBytes(factory), AggregatorFactory.class));
+
+    final AggregatorFactory combining = factory.getCombiningFactory();
+    Assert.assertEquals(combining, MAPPER.readValue(MAPPER.writeValueAsBytes(combining), AggregatorFactory.class));
+
+    // both sampling parameters change results, so they change the cache key
+    Assert.assertFalse(
+        Arrays.equals(
+            factory.getCacheKey(),
+            new ExampleSampledSumAggregatorFactory("billy", "nilly", 0.25, 4, null).getCacheKey()
+        )
+    );
+    Assert.assertFalse(
+        Arrays.equals(
+            factory.getCacheKey(),
+            new ExampleSampledSumAggregatorFactory("billy", "nilly", 0.5, 8, null).getCacheKey()
+        )
+    );
+  }
+
+  @Test
+  public void testMergingFactory() throws Exception
+  {
+    Assert.assertEquals(
+        factory.getCombiningFactory(),
+        factory.getMergingFactory(new ExampleSampledSumAggregatorFactory("billy", "nilly", 0.5, 4, null))
+    );
+
+    // both sampling parameters shape the intermediate values, so neither may differ
+    Assert.assertThrows(
+        AggregatorFactoryNotMergeableException.class,
+        () -> factory.getMergingFactory(new ExampleSampledSumAggregatorFactory("billy", "nilly", 0.25, 4, null))
+    );
+    Assert.assertThrows(
+        AggregatorFactoryNotMergeableException.class,
+        () -> factory.getMergingFactory(new ExampleSampledSumAggregatorFactory("billy", "nilly", 0.5, 8, null))
+    );
+  }
+
+  @Test
+  public void testFullSample()
+  {
+    // with every block sampled, the estimate is exact and the interval is empty
+    final ExampleSampledSumAggregatorFactory full =
+        new ExampleSampledSumAggregatorFactory("billy", "nilly", 1.0, 4, null);
+    final Object[] result = (Object[]) full.finalizeComputation(aggregate(full));
+    Assert.assertArrayEquals(new Object[]{(double) NUM_ROWS, (double) NUM_ROWS, (double) NUM_ROWS}, result);
+  }
+
+  @Test
+  public void testAggregate()
+  {
+    final Object[] sample = aggregate(factory);
+
+    // Every value is 1.0, so each sampled block adds 4.0 to the sum and 16.0 to the squares.
+    final double sum = (double) sample[0];
+    Assert.assertEquals(0.0, sum % 4, 0.0);
+    Assert.assertTrue(sum > 0 && sum < NUM_ROWS);
+    Assert.assertEquals(sum * 4, (double) sample[1], 0.0);
+
+    // the same rows are sampled every time
+    Assert.assertArrayEquals(sample, aggregate(factory));
+  }
+
+  @Test
+  public void testVectorAggregator()
+  {
+    final double[] values = new double[NUM_ROWS];
+    Arrays.fill(values, 1.0);
+    final VectorValueSelector valueSelector = EasyMock.createMock(VectorValueSelector.class);
+    EasyMock.expect(valueSelector.getDoubleVector()).andReturn(values).anyTimes();
+    EasyMock.expect(valueSelector.getNullVector()).andReturn(null).anyTimes();
+    final VectorValueSelector timeSelector = EasyMock.createMock(VectorValueSelector.class);
+    EasyMock.expect(timeSelector.getLongVector()).andReturn(new long[NUM_ROWS]).anyTimes();
+    final VectorColumnSelectorFactory vectorFactory = EasyMock.createMock(VectorColumnSelectorFactory.class);
+    EasyMock.expect(vectorFactory.makeValueSelector("nilly")).andReturn(valueSelector);
+    EasyMock.expect(vectorFactory.makeValueSelector(ColumnHolder.TIME_COLUMN_NAME)).andReturn(timeSelector);
+    EasyMock.expect(vectorFactory.getMaxVectorSize()).andReturn(NUM_ROWS);
+    EasyMock.replay(valueSelector, timeSelector, vectorFactory);
+
+    final VectorAggregator agg = factory.factorizeVector(vectorFactory);
+    final ByteBuffer buffer = ByteBuffer.allocate(factory.getMaxIntermediateSizeWithNulls());
+    agg.init(buffer, 0);
+    agg.aggregate(buffer, 0, 0, NUM_ROWS);
+
+    // same rows as the other aggregators, which also see times of zero
+    Assert.assertArrayEquals(aggregate(factory), (Object[]) agg.get(buffer, 0));
+  }
+
+  @Test
+  public void testVectorAggregatorSkipsUnsampledBatches()
+  {
+    final ExampleSampledSumAggregatorFactory sparse =
+        new ExampleSampledSumAggregatorFactory("billy", "nilly", Double.MIN_VALUE, 4, null);
+
+    // no expectations: reading values would fail the test
+    final VectorValueSelector valueSelector = EasyMock.createStrictMock(VectorValueSelector.class);
+    final VectorValueSelector timeSelector = EasyMock.createMock(VectorValueSelector.class);
+    EasyMock.expect(timeSelector.getLongVector()).andReturn(new long[NUM_ROWS]).anyTimes();
+    final VectorColumnSelectorFactory vectorFactory = EasyMock.createMock(VectorColumnSelectorFactory.class);
+    EasyMock.expect(vectorFactory.makeValueSelector("nilly")).andReturn(valueSelector);
+    EasyMock.expect(vectorFactory.makeValueSelector(ColumnHolder.TIME_COLUMN_NAME)).andReturn(timeSelector);
+    EasyMock.expect(vectorFactory.getMaxVectorSize()).andReturn(NUM_ROWS);
+    EasyMock.replay(valueSelector, timeSelector, vectorFactory);
+
+    final VectorAggregator agg = sparse.factorizeVector(vectorFactory);
+    final ByteBuffer buffer = ByteBuffer.allocate(sparse.getMaxIntermediateSizeWithNulls());
+    agg.init(buffer, 0);
+    agg.aggregate(buffer, 0, 0, NUM_ROWS);
+    agg.aggregate(buffer, 2, new int[]{0, 0}, null, 0);
+
+    Assert.assertArrayEquals(new Object[]{0.0, 0.0}, (Object[]) agg.get(buffer, 0));
+    EasyMock.verify(valueSelector);
+  }
+
+  /**
+   * Aggregates {@link #NUM_ROWS} rows of 1.0 with both the on-heap and the buffer aggregator, checks that they agree,
+   * and returns the intermediate value.
+   */
+  private static Object[] aggregate(ExampleSampledSumAggregatorFactory factory)
+  {
+    final double[] values = new double[NUM_ROWS];
+    Arrays.fill(values, 1.0);
+    final TestDoubleColumnSelectorImpl valueSelector = new TestDoubleColumnSelectorImpl(values);
+    final TestLongColumnSelector timeSelector = new TestLongColumnSelector(new long[NUM_ROWS]);
+    final ColumnSelectorFactory selectorFactory = EasyMock.createMock(ColumnSelectorFactory.class);
+    EasyMock.expect(selectorFactory.makeColumnValueSelector("nilly")).andReturn(valueSelector).times(2);
+    EasyMock.expect(selectorFactory.makeColumnValueSelector(ColumnHolder.TIME_COLUMN_NAME))
+            .andReturn(timeSelector)
+            .times(2);
+    EasyMock.replay(selectorFactory);
+
+    final Aggregator agg = factory.factorize(selectorFactory);
+    final BufferAggregator bufferAgg = factory.factorizeBuffered(selectorFactory);
+    final ByteBuffer buffer = ByteBuffer.allocate(factory.getMaxIntermediateSizeWithNulls());
+    bufferAgg.init(buffer, 0);
+
+    for (int i = 0; i < NUM_ROWS; i++) {
+      agg.aggregate();
+      bufferAgg.aggregate(buffer, 0);
+      valueSelector.increment();
+      timeSelector.increment();
+    }
+
+    final Object[] result = (Object[]) bufferAgg.get(buffer, 0);
+    Assert.assertArrayEquals(result, (Object[]) agg.get());
+    return result;
+  }
+}
@@ -1,21 +1,42 @@
 package io.imply.druid.example.aggregator;
 
+import com.fasterxml.jackson.databind.InjectableValues;
 import com.fasterxml.jackson.databind.Module;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.imply.druid.example.ExampleExtensionModule;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.druid.common.config.NullHandling;
+import org.apache.druid.data.input.MapBasedRow;
 import org.apache.druid.jackson.DefaultObjectMapper;
+import org.apache.druid.math.expr.ExprMacroTable;
+import org.apache.druid.math.expr.ExpressionProcessing;
+import org.apache.druid.query.aggregation.Aggregator;
+import org.apache.druid.query.aggregation.BufferAggregator;
+import org.apache.druid.query.filter.EqualityFilter;
+import org.apache.druid.segment.ColumnSelectorFactory;
+import org.apache.druid.segment.RowAdapters;
+import org.apache.druid.segment.RowBasedColumnSelectorFactory;
 import org.apache.druid.segment.column.ColumnType;
+import org.apache.druid.segment.column.RowSignature;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+
 public class ExampleSumAggregatorFactoryTest
 {
   private static final ObjectMapper MAPPER = new DefaultObjectMapper();
 
   static {
+    NullHandling.initializeForTests();
+    ExpressionProcessing.initializeForTests();
     for (Module module : new ExampleExtensionModule().getJacksonModules()) {
       MAPPER.registerModule(module);
     }
+    MAPPER.setInjectableValues(new InjectableValues.Std().addValue(ExprMacroTable.class, ExprMacroTable.nil()));
   }
 
   @Test
@@ -45,4 +66,201 @@ public class ExampleSumAggregatorFactoryTest
     );
   }
 
+  @Test
+  public void testSerdeConcurrent() throws Exception
+  {
+    final ExampleSumAggregatorFactory agg =
+        new ExampleSumAggregatorFactory("billy", "nilly", null, true, null, ExprMacroTable.nil());
+
+    Assert.assertEquals(
+        agg,
+        MAPPER.readValue(
+            "{ \"type\" : \"exampleSum\", \"name\" : \"billy\",  \"fieldName\": \"nilly\", \"concurrent\": true}",
+            ExampleSumAggregatorFactory.class
+        )
+    );
+    Assert.assertEquals(agg, MAPPER.readValue(MAPPER.writeValueAsBytes(agg), ExampleSumAggregatorFactory.class));
+    Assert.assertNotEquals(new ExampleSumAggregatorFactory("billy", "nilly"), agg);
+
+    // The default is left out of the JSON.
+    Assert.assertFalse(
+        MAPPER.writeValueAsString(new ExampleSumAggregatorFactory("billy", "nilly")).contains("concurrent")
+    );
+  }
+
+  @Test
+  public void testSerdeExpression() throws Exception
+  {
+    final ExampleSumAggregatorFactory agg =
+        new ExampleSumAggregatorFactory("billy", null, "a * b", null, null, ExprMacroTable.nil());
+
+    Assert.assertEquals(
+        agg,
+        MAPPER.readValue(
+            "{ \"type\" : \"exampleSum\", \"name\" : \"billy\",  \"expression\": \"a * b\"}",
+            ExampleSumAggregatorFactory.class
+        )
+    );
+    Assert.assertEquals(agg, MAPPER.readValue(MAPPER.writeValueAsBytes(agg), ExampleSumAggregatorFactory.class));
+    Assert.assertEquals(ImmutableList.of("a", "b"), agg.requiredFields());
+    Assert.assertFalse(
+        Arrays.equals(new ExampleSumAggregatorFactory("billy", "a * b").getCacheKey(), agg.getCacheKey())
+    );
+  }
+
+  @Test
+  public void testSerdeFilter() throws Exception
+  {
+    final ExampleSumAggregatorFactory agg = new ExampleSumAggregatorFactory("billy", "nilly")
+        .withFilter(new EqualityFilter("d", ColumnType.STRING, "x", null));
+
+    Assert.assertEquals(
+        agg,
+        MAPPER.readValue(
+            "{ \"type\" : \"exampleSum\", \"name\" : \"billy\",  \"fieldName\": \"nilly\", "
+            + "\"filter\": { \"type\": \"equals\", \"column\": \"d\", \"matchValueType\": \"STRING\", "
+            + "\"matchValue\": \"x\" }}",
+            ExampleSumAggregatorFactory.class
+        )
+    );
+    Assert.assertEquals(agg, MAPPER.readValue(MAPPER.writeValueAsBytes(agg), ExampleSumAggregatorFactory.class));
+    Assert.assertEquals(agg, agg.withName("nilly").withName("billy"));
+    Assert.assertEquals(ImmutableList.of("nilly", "d"), agg.requiredFields());
+    Assert.assertEquals(new ExampleSumAggregatorFactory("billy", "billy"), agg.getCombiningFactory());
+
+    // Unfiltered sums keep their cache keys, the prefix and the field name; filters are part of the key.
+    final byte[] unfilteredKey = new ExampleSumAggregatorFactory("billy", "nilly").getCacheKey();
+    Assert.assertArrayEquals(new byte[]{(byte) 0xFF, 0x00, 'n', 'i', 'l', 'l', 'y'}, unfilteredKey);
+    Assert.assertArrayEquals(unfilteredKey, agg.withFilter(null).getCacheKey());
+    Assert.assertFalse(Arrays.equals(unfilteredKey, agg.getCacheKey()));
+    Assert.assertFalse(
+        Arrays.equals(
+            agg.getCacheKey(),
+            agg.withFilter(new EqualityFilter("d", ColumnType.STRING, "y", null)).getCacheKey()
+        )
+    );
+  }
+
+  @Test
+  public void testFilter()
+  {
+    final ExampleSumAggregatorFactory agg =
+        new ExampleSumAggregatorFactory("billy", "a").withFilter(new EqualityFilter("d", ColumnType.STRING, "x", null));
+
+    final Iterator<MapBasedRow> rows = ImmutableList.of(
+        new MapBasedRow(0L, ImmutableMap.of("a", 2.0, "d", "x")),
+        new MapBasedRow(0L, ImmutableMap.of("a", 3.0, "d", "y")),
+        new MapBasedRow(0L, ImmutableMap.of("a", 4.0, "d", "x"))
+    ).iterator();
+    final MapBasedRow[] currentRow = new MapBasedRow[1];
+    final ColumnSelectorFactory columnSelectorFactory = RowBasedColumnSelectorFactory.create(
+        RowAdapters.standardRow(),
+        () -> currentRow[0],
+        RowSignature.builder().add("a", ColumnType.DOUBLE).add("d", ColumnType.STRING).build(),
+        false,
+        false
+    );
+
+    final Aggregator aggregator = agg.factorizeWithSize(columnSelectorFactory).getAggregator();
+    final BufferAggregator bufferAggregator = agg.factorizeBuffered(columnSelectorFactory);
+    final ByteBuffer buffer = ByteBuffer.allocate(agg.getMaxIntermediateSizeWithNulls());
+    bufferAggregator.init(buffer, 0);
+
+    while (rows.hasNext()) {
+      currentRow[0] = rows.next();
+      aggregator.aggregate();
+      bufferAggregator.aggregate(buffer, 0);
+    }
+
+    Assert.assertEquals(6.0, aggregator.getDouble(), 0.0);
+    Assert.assertEquals(6.0, bufferAggregator.getDouble(buffer, 0), 0.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFieldNameAndExpression()
+  {
+    new ExampleSumAggregatorFactory("billy", "nilly", "a * b", null, null, ExprMacroTable.nil());
+  }
+
+  @Test
+  public void testExpression()
+  {
+    final ExampleSumAggregatorFactory agg =
+        new ExampleSumAggregatorFactory("billy", null, "a * b", null, null, ExprMacroTable.nil());
+
+    final Iterator<MapBasedRow> rows = ImmutableList.of(
+        new MapBasedRow(0L, ImmutableMap.of("a", 2.0, "b", 3.0)),
+        new MapBasedRow(0L, ImmutableMap.of("a", 4.0, "b", 5.0))
+    ).iterator();
+    final MapBasedRow[] currentRow = new MapBasedRow[1];
+    final ColumnSelectorFactory columnSelectorFactory = RowBasedColumnSelectorFactory.create(
+        RowAdapters.standardRow(),
+        () -> currentRow[0],
+        RowSignature.builder().add("a", ColumnType.DOUBLE).add("b", ColumnType.DOUBLE).build(),
+        false,
+        false
+    );
+
+    final Aggregator aggregator = agg.factorize(columnSelectorFactory);
+    final BufferAggregator bufferAggregator = agg.factorizeBuffered(columnSelectorFactory);
+    final ByteBuffer buffer = ByteBuffer.allocate(agg.getMaxIntermediateSizeWithNulls());
+    bufferAggregator.init(buffer, 0);
+
+    while (rows.hasNext()) {
+      currentRow[0] = rows.next();
+      aggregator.aggregate();
+      bufferAggregator.aggregate(buffer, 0);
+    }
+
+    Assert.assertEquals(26.0, aggregator.getDouble(), 0.0);
+    Assert.assertEquals(26.0, bufferAggregator.getDouble(buffer, 0), 0.0);
+  }
+
+  @Test
+  public void testArrayExpression()
+  {
+    final ExampleSumAggregatorFactory agg =
+        new ExampleSumAggregatorFactory("billy", null, "array(a, a * b)", null, null, ExprMacroTable.nil());
+
+    final Iterator<MapBasedRow> rows = ImmutableList.of(
+        new MapBasedRow(0L, ImmutableMap.of("a", 2.0, "b", 3.0)),
+        new MapBasedRow(0L, ImmutableMap.of("a", 4.0, "b", 5.0))
+    ).iterator();
+    final MapBasedRow[] currentRow = new MapBasedRow[1];
+    final ColumnSelectorFactory columnSelectorFactory = RowBasedColumnSelectorFactory.create(
+        RowAdapters.standardRow(),
+        () -> currentRow[0],
+        RowSignature.builder().add("a", ColumnType.DOUBLE).add("b", ColumnType.DOUBLE).build(),
+        false,
+        false
+    );
+
+    final Aggregator aggregator = agg.factorize(columnSelectorFactory);
+    final BufferAggregator bufferAggregator = agg.factorizeBuffered(columnSelectorFactory);
+    final ByteBuffer buffer = ByteBuffer.allocate(agg.getMaxIntermediateSizeWithNulls());
+    bufferAggregator.init(buffer, 0);
+
+    while (rows.hasNext()) {
+      currentRow[0] = rows.next();
+      aggregator.aggregate();
+      bufferAggregator.aggregate(buffer, 0);
+    }
+
+    // every element of every array: 2 + 6 + 4 + 20
+    Assert.assertEquals(32.0, aggregator.getDouble(), 0.0);
+    Assert.assertEquals(32.0, bufferAggregator.getDouble(buffer, 0), 0.0);
+  }
+
+  @Test
+  public void testWithName()
+  {
+    final ExampleSumAggregatorFactory agg =
+        new ExampleSumAggregatorFactory("billy", null, "a * b", true, null, ExprMacroTable.nil());
+
+    Assert.assertEquals(
+        new ExampleSumAggregatorFactory("nilly", null, "a * b", true, null, ExprMacroTable.nil()),
+        agg.withName("nilly")
+    );
+    Assert.assertEquals(agg, agg.withName("nilly").withName("billy"));
+  }
 }
@@ -1,17 +1,46 @@
 package io.imply.druid.example.aggregator;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.druid.data.input.MapBasedRow;
+import org.apache.druid.java.util.common.IAE;
+import org.apache.druid.java.util.metrics.StubServiceEmitter;
+import org.apache.druid.math.expr.ExprMacroTable;
+import org.apache.druid.query.aggregation.AggregateCombiner;
 import org.apache.druid.query.aggregation.Aggregator;
+import org.apache.druid.query.aggregation.AggregatorAndSize;
 import org.apache.druid.query.aggregation.BufferAggregator;
 import org.apache.druid.query.aggregation.TestDoubleColumnSelectorImpl;
+import org.apache.druid.query.aggregation.TestLongColumnSelector;
 import org.apache.druid.query.aggregation.TestObjectColumnSelector;
+import org.apache.druid.query.aggregation.VectorAggregator;
+import org.apache.druid.query.filter.DimFilter;
+import org.apache.druid.query.filter.EqualityFilter;
+import org.apache.druid.query.filter.Filter;
+import org.apache.druid.query.filter.vector.ReadableVectorMatch;
+import org.apache.druid.query.filter.vector.VectorMatch;
+import org.apache.druid.query.filter.vector.VectorValueMatcher;
 import org.apache.druid.segment.ColumnSelectorFactory;
+import org.apache.druid.segment.NilColumnValueSelector;
+import org.apache.druid.segment.RowAdapters;
+import org.apache.druid.segment.RowBasedColumnSelectorFactory;
+import org.apache.druid.segment.column.ColumnCapabilitiesImpl;
+import org.apache.druid.segment.column.ColumnType;
+import org.apache.druid.segment.column.RowSignature;
+import org.apache.druid.segment.vector.VectorColumnSelectorFactory;
+import org.apache.druid.segment.vector.VectorObjectSelector;
+import org.apache.druid.segment.vector.VectorValueSelector;
 import org.easymock.EasyMock;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class ExampleSumAggregatorTest
 {
@@ -34,6 +63,10 @@ public class ExampleSumAggregatorTest
     colSelectorFactory = EasyMock.createMock(ColumnSelectorFactory.class);
     EasyMock.expect(colSelectorFactory.makeColumnValueSelector("nilly")).andReturn(valueSelector);
     EasyMock.expect(colSelectorFactory.makeColumnValueSelector("billy")).andReturn(objectSelector);
+    EasyMock.expect(colSelectorFactory.getColumnCapabilities("nilly"))
+            .andReturn(ColumnCapabilitiesImpl.createSimpleNumericColumnCapabilities(ColumnType.DOUBLE))
+            .anyTimes();
+    EasyMock.expect(colSelectorFactory.getColumnCapabilities("billy")).andReturn(null).anyTimes();
     EasyMock.replay(colSelectorFactory);
   }
 
@@ -54,6 +87,36 @@ public class ExampleSumAggregatorTest
     Assert.assertEquals(253.6487, agg.getDouble(), 0.0001);
   }
 
+  @Test
+  public void testExampleConcurrentSumAggregator() throws InterruptedException
+  {
+    ColumnSelectorFactory onesFactory = EasyMock.createMock(ColumnSelectorFactory.class);
+    EasyMock.expect(onesFactory.makeColumnValueSelector("nilly"))
+            .andReturn(new TestDoubleColumnSelectorImpl(new double[]{1.0}));
+    EasyMock.replay(onesFactory);
+
+    Aggregator agg = new ExampleSumAggregatorFactory("billy", "nilly", null, true, null, ExprMacroTable.nil())
+        .factorize(onesFactory);
+
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      threads.add(new Thread(() -> {
+        for (int j = 0; j < 10000; j++) {
+          agg.aggregate();
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    Assert.assertEquals(40000.0, (Double) agg.get(), 0.0);
+    Assert.assertEquals(40000L, agg.getLong());
+  }
+
   @Test
   public void testExampleSumBufferAggregator()
   {
@@ -75,6 +138,533 @@ public class ExampleSumAggregatorTest
     Assert.assertEquals(253.6487, agg.getDouble(buffer, 0), 0.0001);
   }
 
+  @Test
+  public void testExampleSumAggregatorLongColumnWithoutNulls()
+  {
+    TestLongColumnSelector longSelector = new TestLongColumnSelector(new long[]{3L, 4L, 5L});
+    ColumnSelectorFactory longFactory = EasyMock.createMock(ColumnSelectorFactory.class);
+    EasyMock.expect(longFactory.makeColumnValueSelector("nilly")).andReturn(longSelector).times(2);
+    EasyMock.expect(longFactory.getColumnCapabilities("nilly"))
+            .andReturn(ColumnCapabilitiesImpl.createSimpleNumericColumnCapabilities(ColumnType.LONG).setHasNulls(false))
+            .times(2);
+    EasyMock.replay(longFactory);
+
+    Aggregator agg = exampleSumAggFactory.factorize(longFactory);
+    BufferAggregator bufferAgg = exampleSumAggFactory.factorizeBuffered(longFactory);
+    ByteBuffer buffer = ByteBuffer.wrap(new byte[exampleSumAggFactory.getMaxIntermediateSizeWithNulls()]);
+    bufferAgg.init(buffer, 0);
+
+    for (int i = 0; i < 3; i++) {
+      agg.aggregate();
+      bufferAgg.aggregate(buffer, 0);
+      longSelector.increment();
+    }
+
+    Assert.assertEquals(12.0, (Double) agg.get(), 0.0);
+    Assert.assertEquals(12.0, (Double) bufferAgg.get(buffer, 0), 0.0);
+    EasyMock.verify(longFactory);
+  }
+
+  @Test
+  public void testExampleSumAggregatorMissingColumn()
+  {
+    ColumnSelectorFactory missingFactory = EasyMock.createMock(ColumnSelectorFactory.class);
+    EasyMock.expect(missingFactory.makeColumnValueSelector("nilly")).andReturn(NilColumnValueSelector.instance());
+    EasyMock.expect(missingFactory.getColumnCapabilities("nilly")).andReturn(null);
+    EasyMock.replay(missingFactory);
+
+    AggregatorAndSize aggAndSize = exampleSumAggFactory.factorizeWithSize(missingFactory);
+    Aggregator agg = aggAndSize.getAggregator();
+    agg.aggregate();
+    agg.aggregate();
+
+    Assert.assertEquals(0.0, (Double) agg.get(), 0.0);
+    // the constant-zero aggregator is shared, so it adds nothing to the index size
+    Assert.assertEquals(0L, aggAndSize.getInitialSizeBytes());
+  }
+
+  @Test
+  public void testFactorizeWithSize()
+  {
+    AggregatorAndSize aggAndSize = exampleSumAggFactory.factorizeWithSize(colSelectorFactory);
+    Assert.assertTrue(aggAndSize.getAggregator() instanceof ExampleSumAggregator);
+    Assert.assertEquals(ExampleSumAggregator.ESTIMATED_SIZE_BYTES, aggAndSize.getInitialSizeBytes());
+  }
+
+  @Test
+  public void testExampleSumVectorAggregator()
+  {
+    VectorValueSelector vectorSelector = EasyMock.createMock(VectorValueSelector.class);
+    EasyMock.expect(vectorSelector.getDoubleVector()).andReturn(doubles).anyTimes();
+    EasyMock.expect(vectorSelector.getNullVector()).andReturn(new boolean[]{false, true, false, false}).anyTimes();
+    VectorColumnSelectorFactory vectorFactory = EasyMock.createMock(VectorColumnSelectorFactory.class);
+    EasyMock.expect(vectorFactory.makeValueSelector("nilly")).andReturn(vectorSelector);
+    EasyMock.expect(vectorFactory.getColumnCapabilities("nilly"))
+            .andReturn(ColumnCapabilitiesImpl.createSimpleNumericColumnCapabilities(ColumnType.DOUBLE));
+    EasyMock.replay(vectorSelector, vectorFactory);
+
+    VectorAggregator agg = exampleSumAggFactory.factorizeVector(vectorFactory);
+
+    ByteBuffer buffer = ByteBuffer.wrap(new byte[exampleSumAggFactory.getMaxIntermediateSizeWithNulls() * 2]);
+    agg.init(buffer, 0);
+    agg.init(buffer, 8);
+
+    // Row 1 is null, so it is skipped.
+    agg.aggregate(buffer, 0, 0, 4);
+    Assert.assertEquals(253.6477, (Double) agg.get(buffer, 0), 0.0001);
+
+    // Scatter rows 0, 2, 3 across two positions.
+    agg.aggregate(buffer, 3, new int[]{0, 8, 8}, new int[]{0, 2, 3}, 0);
+    Assert.assertEquals(254.8374, (Double) agg.get(buffer, 0), 0.0001);
+    Assert.assertEquals(252.458, (Double) agg.get(buffer, 8), 0.0001);
+  }
+
+  @Test
+  public void testMetrics()
+  {
+    VectorValueSelector vectorSelector = EasyMock.createMock(VectorValueSelector.class);
+    EasyMock.expect(vectorSelector.getDoubleVector()).andReturn(doubles).anyTimes();
+    EasyMock.expect(vectorSelector.getNullVector()).andReturn(new boolean[]{false, true, false, false}).anyTimes();
+    VectorColumnSelectorFactory vectorFactory = EasyMock.createMock(VectorColumnSelectorFactory.class);
+    EasyMock.expect(vectorFactory.makeValueSelector("nilly")).andReturn(vectorSelector).times(2);
+    EasyMock.expect(vectorFactory.getColumnCapabilities("nilly"))
+            .andReturn(ColumnCapabilitiesImpl.createSimpleNumericColumnCapabilities(ColumnType.DOUBLE))
+            .times(2);
+    EasyMock.replay(vectorSelector, vectorFactory);
+
+    // Without a running monitor, nothing is counted.
+    Assert.assertTrue(exampleSumAggFactory.factorizeVector(vectorFactory) instanceof ExampleSumVectorAggregator);
+
+    final ExampleSumMonitor monitor = new ExampleSumMonitor();
+    final StubServiceEmitter emitter = new StubServiceEmitter("test", "localhost");
+    monitor.start();
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(new byte[exampleSumAggFactory.getMaxIntermediateSizeWithNulls() * 2]);
+
+      BufferAggregator bufferAgg = exampleSumAggFactory.factorizeBuffered(colSelectorFactory);
+      bufferAgg.init(buffer, 0);
+      for (int i = 0; i < doubles.length; i++) {
+        bufferAgg.aggregate(buffer, 0);
+        valueSelector.increment();
+      }
+      Assert.assertEquals(253.6487, (Double) bufferAgg.get(buffer, 0), 0.0001);
+      bufferAgg.close();
+
+      VectorAggregator vectorAgg = exampleSumAggFactory.factorizeVector(vectorFactory);
+      vectorAgg.init(buffer, 0);
+      vectorAgg.init(buffer, 8);
+      vectorAgg.aggregate(buffer, 0, 0, 4);
+      vectorAgg.aggregate(buffer, 2, new int[]{0, 8}, new int[]{1, 3}, 0);
+      Assert.assertEquals(253.6477, (Double) vectorAgg.get(buffer, 0), 0.0001);
+      vectorAgg.close();
+      // Closing again doesn't count the aggregator twice.
+      vectorAgg.close();
+
+      // A missing column reads as nulls, which the aggregator's own null checks count.
+      ColumnSelectorFactory missingFactory = EasyMock.createMock(ColumnSelectorFactory.class);
+      EasyMock.expect(missingFactory.makeColumnValueSelector("nilly")).andReturn(NilColumnValueSelector.instance());
+      EasyMock.expect(missingFactory.getColumnCapabilities("nilly")).andReturn(null).anyTimes();
+      EasyMock.replay(missingFactory);
+      Aggregator rowAgg = exampleSumAggFactory.factorize(missingFactory);
+      for (int i = 0; i < 3; i++) {
+        rowAgg.aggregate();
+      }
+      Assert.assertEquals(0.0, rowAgg.getDouble(), 0.0);
+      rowAgg.close();
+
+      monitor.monitor(emitter);
+    }
+    finally {
+      monitor.stop();
+    }
+
+    final ImmutableMap<String, Object> buffer = ImmutableMap.of(ExampleSumMetrics.PATH_DIMENSION, "buffer");
+    Assert.assertEquals(ImmutableList.of(1L), emitter.getMetricValues(ExampleSumMetrics.AGGREGATORS_METRIC, buffer));
+    Assert.assertEquals(ImmutableList.of(4L), emitter.getMetricValues(ExampleSumMetrics.ROWS_METRIC, buffer));
+    Assert.assertEquals(ImmutableList.of(0L), emitter.getMetricValues(ExampleSumMetrics.NULL_ROWS_METRIC, buffer));
+
+    final ImmutableMap<String, Object> vector = ImmutableMap.of(ExampleSumMetrics.PATH_DIMENSION, "vector");
+    Assert.assertEquals(ImmutableList.of(1L), emitter.getMetricValues(ExampleSumMetrics.AGGREGATORS_METRIC, vector));
+    Assert.assertEquals(ImmutableList.of(6L), emitter.getMetricValues(ExampleSumMetrics.ROWS_METRIC, vector));
+    Assert.assertEquals(ImmutableList.of(2L), emitter.getMetricValues(ExampleSumMetrics.NULL_ROWS_METRIC, vector));
+
+    final ImmutableMap<String, Object> row = ImmutableMap.of(ExampleSumMetrics.PATH_DIMENSION, "row");
+    Assert.assertEquals(ImmutableList.of(3L), emitter.getMetricValues(ExampleSumMetrics.ROWS_METRIC, row));
+    Assert.assertEquals(ImmutableList.of(3L), emitter.getMetricValues(ExampleSumMetrics.NULL_ROWS_METRIC, row));
+    Assert.assertEquals(1, emitter.getMetricValues(ExampleSumMetrics.LIFETIME_METRIC, row).size());
+    Assert.assertFalse(ExampleSumMetrics.isEnabled());
+  }
+
+  @Test
+  public void testFilteredMetrics()
+  {
+    // Rows and nulls are both counted after the filter, in every path: three rows match, one of them null.
+    final ExampleSumAggregatorFactory rowFactory = new ExampleSumAggregatorFactory("billy", "nilly")
+        .withFilter(new EqualityFilter("d", ColumnType.STRING, "x", null));
+    final List<MapBasedRow> rows = new ArrayList<>();
+    for (Object[] values : new Object[][]{{2.0, "x"}, {null, "x"}, {3.0, "y"}, {null, "y"}, {4.0, "x"}}) {
+      final Map<String, Object> event = new HashMap<>();
+      event.put("nilly", values[0]);
+      event.put("d", values[1]);
+      rows.add(new MapBasedRow(0L, event));
+    }
+    final MapBasedRow[] currentRow = new MapBasedRow[1];
+    final ColumnSelectorFactory rowSelectorFactory = RowBasedColumnSelectorFactory.create(
+        RowAdapters.standardRow(),
+        () -> currentRow[0],
+        RowSignature.builder().add("nilly", ColumnType.DOUBLE).add("d", ColumnType.STRING).build(),
+        false,
+        false
+    );
+
+    VectorValueSelector vectorSelector = EasyMock.createMock(VectorValueSelector.class);
+    EasyMock.expect(vectorSelector.getDoubleVector()).andReturn(doubles).anyTimes();
+    EasyMock.expect(vectorSelector.getNullVector()).andReturn(new boolean[]{false, true, false, false}).anyTimes();
+    VectorColumnSelectorFactory vectorFactory = EasyMock.createMock(VectorColumnSelectorFactory.class);
+    EasyMock.expect(vectorFactory.makeValueSelector("nilly")).andReturn(vectorSelector);
+    EasyMock.expect(vectorFactory.getColumnCapabilities("nilly"))
+            .andReturn(ColumnCapabilitiesImpl.createSimpleNumericColumnCapabilities(ColumnType.DOUBLE))
+            .anyTimes();
+    Filter filter = EasyMock.createMock(Filter.class);
+    EasyMock.expect(filter.makeVectorMatcher(vectorFactory))
+            .andReturn(new TestVectorValueMatcher(new boolean[]{true, true, false, true}));
+    DimFilter dimFilter = EasyMock.createMock(DimFilter.class);
+    EasyMock.expect(dimFilter.toFilter()).andReturn(filter).anyTimes();
+    EasyMock.replay(vectorSelector, vectorFactory, filter, dimFilter);
+    final ExampleSumAggregatorFactory vectorFilteredFactory = exampleSumAggFactory.withFilter(dimFilter);
+
+    final ExampleSumMonitor monitor = new ExampleSumMonitor();
+    final StubServiceEmitter emitter = new StubServiceEmitter("test", "localhost");
+    monitor.start();
+    try {
+      Aggregator rowAgg = rowFactory.factorize(rowSelectorFactory);
+      BufferAggregator bufferAgg = rowFactory.factorizeBuffered(rowSelectorFactory);
+      ByteBuffer buffer = ByteBuffer.wrap(new byte[rowFactory.getMaxIntermediateSizeWithNulls()]);
+      bufferAgg.init(buffer, 0);
+      for (MapBasedRow row : rows) {
+        currentRow[0] = row;
+        rowAgg.aggregate();
+        bufferAgg.aggregate(buffer, 0);
+      }
+      Assert.assertEquals(6.0, rowAgg.getDouble(), 0.0);
+      Assert.assertEquals(6.0, bufferAgg.getDouble(buffer, 0), 0.0);
+      rowAgg.close();
+      bufferAgg.close();
+
+      VectorAggregator vectorAgg = vectorFilteredFactory.factorizeVector(vectorFactory);
+      vectorAgg.init(buffer, 0);
+      vectorAgg.aggregate(buffer, 0, 0, 4);
+      Assert.assertEquals(doubles[0] + doubles[3], (Double) vectorAgg.get(buffer, 0), 0.0001);
+      vectorAgg.close();
+
+      monitor.monitor(emitter);
+    }
+    finally {
+      monitor.stop();
+    }
+
+    for (String path : new String[]{"row", "buffer", "vector"}) {
+      final ImmutableMap<String, Object> dimensions = ImmutableMap.of(ExampleSumMetrics.PATH_DIMENSION, path);
+      Assert.assertEquals(ImmutableList.of(3L), emitter.getMetricValues(ExampleSumMetrics.ROWS_METRIC, dimensions));
+      Assert.assertEquals(
+          ImmutableList.of(1L),
+          emitter.getMetricValues(ExampleSumMetrics.NULL_ROWS_METRIC, dimensions)
+      );
+    }
+  }
+
+  @Test
+  public void testArrayColumn()
+  {
+    TestObjectColumnSelector<Object[]> arraySelector = new TestObjectColumnSelector<>(
+        new Object[][]{new Object[]{1L, 2L, 3L}, null, new Object[]{}, new Object[]{4L, null, 5L}}
+    );
+    ColumnSelectorFactory arrayFactory = EasyMock.createMock(ColumnSelectorFactory.class);
+    EasyMock.expect(arrayFactory.makeColumnValueSelector("nilly")).andReturn(arraySelector).times(2);
+    EasyMock.expect(arrayFactory.getColumnCapabilities("nilly"))
+            .andReturn(ColumnCapabilitiesImpl.createSimpleArrayColumnCapabilities(ColumnType.LONG_ARRAY))
+            .times(2);
+    EasyMock.replay(arrayFactory);
+
+    Aggregator agg = exampleSumAggFactory.factorize(arrayFactory);
+    BufferAggregator bufferAgg = exampleSumAggFactory.factorizeBuffered(arrayFactory);
+    ByteBuffer buffer = ByteBuffer.wrap(new byte[exampleSumAggFactory.getMaxIntermediateSizeWithNulls()]);
+    bufferAgg.init(buffer, 0);
+
+    // Null arrays, empty arrays and null elements contribute zero.
+    for (int i = 0; i < 4; i++) {
+      agg.aggregate();
+      bufferAgg.aggregate(buffer, 0);
+      arraySelector.increment();
+    }
+
+    Assert.assertEquals(15.0, (Double) agg.get(), 0.0);
+    Assert.assertEquals(15.0, (Double) bufferAgg.get(buffer, 0), 0.0);
+    EasyMock.verify(arrayFactory);
+  }
+
+  @Test
+  public void testArrayVectorAggregator()
+  {
+    VectorObjectSelector vectorSelector = EasyMock.createMock(VectorObjectSelector.class);
+    EasyMock.expect(vectorSelector.getObjectVector()).andReturn(
+        new Object[]{new Object[]{1.5, 2.5}, null, new Object[]{null, 4.0}}
+    ).anyTimes();
+    VectorColumnSelectorFactory vectorFactory = EasyMock.createMock(VectorColumnSelectorFactory.class);
+    EasyMock.expect(vectorFactory.makeObjectSelector("nilly")).andReturn(vectorSelector);
+    EasyMock.expect(vectorFactory.getColumnCapabilities("nilly"))
+            .andReturn(ColumnCapabilitiesImpl.createSimpleArrayColumnCapabilities(ColumnType.DOUBLE_ARRAY))
+            .anyTimes();
+    EasyMock.replay(vectorSelector, vectorFactory);
+
+    Assert.assertTrue(exampleSumAggFactory.canVectorize(vectorFactory));
+    VectorAggregator agg = exampleSumAggFactory.factorizeVector(vectorFactory);
+
+    ByteBuffer buffer = ByteBuffer.wrap(new byte[exampleSumAggFactory.getMaxIntermediateSizeWithNulls() * 2]);
+    agg.init(buffer, 0);
+    agg.init(buffer, 8);
+
+    agg.aggregate(buffer, 0, 0, 3);
+    Assert.assertEquals(8.0, (Double) agg.get(buffer, 0), 0.0);
+
+    agg.aggregate(buffer, 2, new int[]{0, 8}, new int[]{0, 2}, 0);
+    Assert.assertEquals(12.0, (Double) agg.get(buffer, 0), 0.0);
+    Assert.assertEquals(4.0, (Double) agg.get(buffer, 8), 0.0);
+  }
+
+  @Test
+  public void testFixedPointArrayColumn()
+  {
+    ColumnSelectorFactory arrayFactory = EasyMock.createMock(ColumnSelectorFactory.class);
+    EasyMock.expect(arrayFactory.makeColumnValueSelector("nilly")).andReturn(objectSelector).anyTimes();
+    EasyMock.expect(arrayFactory.getColumnCapabilities("nilly"))
+            .andReturn(ColumnCapabilitiesImpl.createSimpleArrayColumnCapabilities(ColumnType.LONG_ARRAY))
+            .anyTimes();
+    EasyMock.replay(arrayFactory);
+
+    Assert.assertThrows(IAE.class, () -> fixedPointFactory().factorize(arrayFactory));
+  }
+
+  @Test
+  public void testFilteredVectorAggregator()
+  {
+    VectorValueSelector vectorSelector = EasyMock.createMock(VectorValueSelector.class);
+    EasyMock.expect(vectorSelector.getDoubleVector()).andReturn(doubles).anyTimes();
+    EasyMock.expect(vectorSelector.getNullVector()).andReturn(new boolean[]{false, true, false, false}).anyTimes();
+    EasyMock.replay(vectorSelector);
+
+    // Rows 0, 1 and 3 match; row 1 is null.
+    final boolean[] matches = {true, true, false, true};
+    VectorAggregator agg = new ExampleFilteredSumVectorAggregator(vectorSelector, new TestVectorValueMatcher(matches));
+
+    ByteBuffer buffer = ByteBuffer.wrap(new byte[exampleSumAggFactory.getMaxIntermediateSizeWithNulls() * 2]);
+    agg.init(buffer, 0);
+    agg.init(buffer, 8);
+
+    agg.aggregate(buffer, 0, 0, 4);
+    Assert.assertEquals(doubles[0] + doubles[3], (Double) agg.get(buffer, 0), 0.0001);
+
+    agg.aggregate(buffer, 0, 2, 4);
+    Assert.assertEquals(doubles[0] + 2 * doubles[3], (Double) agg.get(buffer, 0), 0.0001);
+
+    // Scatter rows 0, 2, 3: row 2 does not match, so row 3 is the only one added to position 8.
+    agg.aggregate(buffer, 3, new int[]{0, 8, 8}, new int[]{0, 2, 3}, 0);
+    Assert.assertEquals(2 * doubles[0] + 2 * doubles[3], (Double) agg.get(buffer, 0), 0.0001);
+    Assert.assertEquals(doubles[3], (Double) agg.get(buffer, 8), 0.0001);
+  }
+
+  @Test
+  public void testFilteredVectorAggregatorSkipsUnmatchedBatches()
+  {
+    // no expectations: reading values would fail the test
+    VectorValueSelector vectorSelector = EasyMock.createStrictMock(VectorValueSelector.class);
+    EasyMock.replay(vectorSelector);
+
+    VectorAggregator agg =
+        new ExampleFilteredSumVectorAggregator(vectorSelector, new TestVectorValueMatcher(new boolean[4]));
+    ByteBuffer buffer = ByteBuffer.wrap(new byte[exampleSumAggFactory.getMaxIntermediateSizeWithNulls()]);
+    agg.init(buffer, 0);
+    agg.aggregate(buffer, 0, 0, 4);
+    agg.aggregate(buffer, 2, new int[]{0, 0}, null, 0);
+
+    Assert.assertEquals(0.0, (Double) agg.get(buffer, 0), 0.0);
+    EasyMock.verify(vectorSelector);
+  }
+
+  @Test
+  public void testFixedPointLongColumn()
+  {
+    ExampleSumAggregatorFactory fixedPointFactory = fixedPointFactory();
+    // 2^53 + 1 is not representable as a double, so a double sum would lose the trailing 1s
+    TestLongColumnSelector longSelector = new TestLongColumnSelector(new long[]{(1L << 53) + 1, 1L, 1L});
+    ColumnSelectorFactory longFactory = EasyMock.createMock(ColumnSelectorFactory.class);
+    EasyMock.expect(longFactory.makeColumnValueSelector("nilly")).andReturn(longSelector).times(2);
+    EasyMock.expect(longFactory.getColumnCapabilities("nilly"))
+            .andReturn(ColumnCapabilitiesImpl.createSimpleNumericColumnCapabilities(ColumnType.LONG))
+            .times(2);
+    EasyMock.replay(longFactory);
+
+    Aggregator agg = fixedPointFactory.factorize(longFactory);
+    BufferAggregator bufferAgg = fixedPointFactory.factorizeBuffered(longFactory);
+    ByteBuffer buffer = ByteBuffer.wrap(new byte[fixedPointFactory.getMaxIntermediateSizeWithNulls()]);
+    bufferAgg.init(buffer, 0);
+
+    for (int i = 0; i < 3; i++) {
+      agg.aggregate();
+      bufferAgg.aggregate(buffer, 0);
+      longSelector.increment();
+    }
+
+    Assert.assertEquals((1L << 53) + 3, agg.get());
+    Assert.assertEquals((1L << 53) + 3, bufferAgg.get(buffer, 0));
+    EasyMock.verify(longFactory);
+  }
+
+  @Test
+  public void testFixedPointDoubleColumn()
+  {
+    ExampleSumAggregatorFactory fixedPointFactory = fixedPointFactory();
+    Aggregator agg = fixedPointFactory.factorize(colSelectorFactory);
+
+    aggregate(agg);
+    aggregate(agg);
+    aggregate(agg);
+    aggregate(agg);
+
+    // each input is rounded to a whole number of hundredths: 1 + 0 + 86 + 166
+    Assert.assertEquals(253L, agg.get());
+    Assert.assertEquals(2.53, fixedPointFactory.finalizeComputation(agg.get()));
+  }
+
+  @Test
+  public void testFixedPointUntypedInput()
+  {
+    // Raw rows, as at ingestion time: the signature has no type for "nilly", so fractions must still be rounded, and
+    // longs too large for a double must still be exact.
+    final ExampleSumAggregatorFactory fixedPointFactory = fixedPointFactory();
+    final List<MapBasedRow> rows = ImmutableList.of(
+        new MapBasedRow(0L, ImmutableMap.of("nilly", 1.6)),
+        new MapBasedRow(0L, ImmutableMap.of("nilly", (1L << 53) + 1)),
+        new MapBasedRow(0L, ImmutableMap.of("nilly", "2.4"))
+    );
+    final MapBasedRow[] currentRow = new MapBasedRow[1];
+    final ColumnSelectorFactory rowFactory = RowBasedColumnSelectorFactory.create(
+        RowAdapters.standardRow(),
+        () -> currentRow[0],
+        RowSignature.empty(),
+        false,
+        false
+    );
+
+    Aggregator agg = fixedPointFactory.factorize(rowFactory);
+    BufferAggregator bufferAgg = fixedPointFactory.factorizeBuffered(rowFactory);
+    ByteBuffer buffer = ByteBuffer.wrap(new byte[fixedPointFactory.getMaxIntermediateSizeWithNulls()]);
+    bufferAgg.init(buffer, 0);
+
+    for (MapBasedRow row : rows) {
+      currentRow[0] = row;
+      agg.aggregate();
+      bufferAgg.aggregate(buffer, 0);
+    }
+
+    // 2 + (2^53 + 1) + 2
+    Assert.assertEquals((1L << 53) + 5, agg.get());
+    Assert.assertEquals((1L << 53) + 5, bufferAgg.get(buffer, 0));
+  }
+
+  @Test
+  public void testFixedPointOverflow()
+  {
+    TestLongColumnSelector longSelector = new TestLongColumnSelector(new long[]{Long.MAX_VALUE, 1L});
+    ColumnSelectorFactory longFactory = EasyMock.createMock(ColumnSelectorFactory.class);
+    EasyMock.expect(longFactory.makeColumnValueSelector("nilly")).andReturn(longSelector);
+    EasyMock.expect(longFactory.getColumnCapabilities("nilly"))
+            .andReturn(ColumnCapabilitiesImpl.createSimpleNumericColumnCapabilities(ColumnType.LONG));
+    EasyMock.replay(longFactory);
+
+    Aggregator agg = fixedPointFactory().factorize(longFactory);
+    agg.aggregate();
+    longSelector.increment();
+
+    Assert.assertThrows(ArithmeticException.class, agg::aggregate);
+  }
+
+  @Test
+  public void testFixedPointVectorAggregator()
+  {
+    ExampleSumAggregatorFactory fixedPointFactory = fixedPointFactory();
+    VectorValueSelector vectorSelector = EasyMock.createMock(VectorValueSelector.class);
+    EasyMock.expect(vectorSelector.getLongVector()).andReturn(new long[]{5L, 7L, 11L}).anyTimes();
+    EasyMock.expect(vectorSelector.getNullVector()).andReturn(new boolean[]{false, true, false}).anyTimes();
+    VectorColumnSelectorFactory vectorFactory = EasyMock.createMock(VectorColumnSelectorFactory.class);
+    EasyMock.expect(vectorFactory.makeValueSelector("nilly")).andReturn(vectorSelector);
+    EasyMock.expect(vectorFactory.getColumnCapabilities("nilly"))
+            .andReturn(ColumnCapabilitiesImpl.createSimpleNumericColumnCapabilities(ColumnType.LONG));
+    EasyMock.replay(vectorSelector, vectorFactory);
+
+    VectorAggregator agg = fixedPointFactory.factorizeVector(vectorFactory);
+
+    ByteBuffer buffer = ByteBuffer.wrap(new byte[fixedPointFactory.getMaxIntermediateSizeWithNulls() * 2]);
+    agg.init(buffer, 0);
+    agg.init(buffer, 8);
+
+    agg.aggregate(buffer, 0, 0, 3);
+    Assert.assertEquals(16L, agg.get(buffer, 0));
+
+    agg.aggregate(buffer, 2, new int[]{0, 8}, new int[]{0, 2}, 0);
+    Assert.assertEquals(21L, agg.get(buffer, 0));
+    Assert.assertEquals(11L, agg.get(buffer, 8));
+  }
+
+  @Test
+  public void testFixedPointVectorAggregatorUntypedInput()
+  {
+    // Like testFixedPointUntypedInput: fractions are rounded, and values past 2^53 are read from the long vector.
+    ExampleSumAggregatorFactory fixedPointFactory = fixedPointFactory();
+    VectorValueSelector vectorSelector = EasyMock.createMock(VectorValueSelector.class);
+    EasyMock.expect(vectorSelector.getDoubleVector())
+            .andReturn(new double[]{1.6, (double) ((1L << 53) + 1), 2.4})
+            .anyTimes();
+    EasyMock.expect(vectorSelector.getLongVector()).andReturn(new long[]{1L, (1L << 53) + 1, 2L}).anyTimes();
+    EasyMock.expect(vectorSelector.getNullVector()).andReturn(null).anyTimes();
+    VectorColumnSelectorFactory vectorFactory = EasyMock.createMock(VectorColumnSelectorFactory.class);
+    EasyMock.expect(vectorFactory.makeValueSelector("nilly")).andReturn(vectorSelector);
+    EasyMock.expect(vectorFactory.getColumnCapabilities("nilly")).andReturn(null).anyTimes();
+    EasyMock.replay(vectorSelector, vectorFactory);
+
+    VectorAggregator agg = fixedPointFactory.factorizeVector(vectorFactory);
+
+    ByteBuffer buffer = ByteBuffer.wrap(new byte[fixedPointFactory.getMaxIntermediateSizeWithNulls() * 2]);
+    agg.init(buffer, 0);
+    agg.init(buffer, 8);
+
+    // 2 + (2^53 + 1) + 2
+    agg.aggregate(buffer, 0, 0, 3);
+    Assert.assertEquals((1L << 53) + 5, agg.get(buffer, 0));
+
+    agg.aggregate(buffer, 2, new int[]{8, 8}, new int[]{0, 1}, 0);
+    Assert.assertEquals((1L << 53) + 3, agg.get(buffer, 8));
+  }
+
+  @Test
+  public void testFixedPointCombine()
+  {
+    ExampleSumAggregatorFactory fixedPointFactory = fixedPointFactory();
+    Assert.assertEquals(7L, fixedPointFactory.combine(3L, 4L));
+    Assert.assertEquals(3L, fixedPointFactory.combine(3L, null));
+    Assert.assertEquals(
+        new ExampleSumAggregatorFactory("billy", "billy", null, null, 2, ExprMacroTable.nil()),
+        fixedPointFactory.getCombiningFactory()
+    );
+
+    TestLongColumnSelector longSelector = new TestLongColumnSelector(new long[]{3L, 4L});
+    AggregateCombiner combiner = fixedPointFactory.makeAggregateCombiner();
+    combiner.reset(longSelector);
+    longSelector.increment();
+    combiner.fold(longSelector);
+    Assert.assertEquals(7L, combiner.getLong());
+  }
+
   @Test
   public void testCombine()
   {
@@ -83,6 +673,57 @@ public class ExampleSumAggregatorTest
     Assert.assertEquals((double) (d1+d2), exampleSumAggFactory.combine(d1, d2));
   }
 
+  @Test
+  public void testCombineWithNull()
+  {
+    Double d1 = 3.0;
+    Assert.assertSame(d1, exampleSumAggFactory.combine(d1, null));
+    Assert.assertSame(d1, exampleSumAggFactory.combine(null, d1));
+  }
+
+  @Test
+  public void testCombineWithZero()
+  {
+    Double d1 = 3.0;
+    Assert.assertSame(d1, exampleSumAggFactory.combine(d1, 0.0));
+    Assert.assertSame(d1, exampleSumAggFactory.combine(0.0, d1));
+    Assert.assertEquals(3.0, exampleSumAggFactory.combine(0L, d1));
+    Assert.assertEquals(3.0, exampleSumAggFactory.combine(d1, 0L));
+    Assert.assertEquals(5.0, exampleSumAggFactory.combine(3L, 2.0f));
+
+    // -0.0 + 0.0 is 0.0 in either order, so neither side may be returned as-is
+    Assert.assertEquals(0.0, exampleSumAggFactory.combine(-0.0, 0.0));
+    Assert.assertEquals(0.0, exampleSumAggFactory.combine(0.0, -0.0));
+    Assert.assertEquals(-0.0, exampleSumAggFactory.combine(-0.0, -0.0));
+  }
+
+  @Test
+  public void testDeserialize()
+  {
+    Double d1 = 3.0;
+    Assert.assertSame(d1, exampleSumAggFactory.deserialize(d1));
+    Assert.assertEquals(3.0, exampleSumAggFactory.deserialize("3.0"));
+    Assert.assertSame(exampleSumAggFactory.deserialize("NaN"), exampleSumAggFactory.deserialize("NaN"));
+    Assert.assertEquals(Double.NEGATIVE_INFINITY, exampleSumAggFactory.deserialize("-Infinity"));
+  }
+
+  @Test
+  public void testAggregateCombiner()
+  {
+    AggregateCombiner combiner = exampleSumAggFactory.makeAggregateCombiner();
+
+    combiner.reset(valueSelector);
+    valueSelector.increment();
+    combiner.fold(valueSelector);
+    valueSelector.increment();
+    combiner.fold(valueSelector);
+
+    Assert.assertEquals(87.4207, combiner.getDouble(), 0.0001);
+
+    combiner.reset(valueSelector);
+    Assert.assertEquals(86.23, combiner.getDouble(), 0.0001);
+  }
+
   @Test
   public void testComparatorWithNulls()
   {
@@ -93,6 +734,8 @@ public class ExampleSumAggregatorTest
     Assert.assertEquals(0, comparator.compare(d1, d1));
     Assert.assertEquals(0, comparator.compare(d2, d2));
     Assert.assertEquals(-1, comparator.compare(d2, d1));
+    Assert.assertEquals(-1, comparator.compare(3L, 3.5));
+    Assert.assertEquals(1, comparator.compare(Double.NaN, Double.POSITIVE_INFINITY));
   }
 
   @Test
@@ -116,6 +759,11 @@ public class ExampleSumAggregatorTest
     Assert.assertEquals(257.6487, agg.getDouble(buffer, 0), 0.0001);
   }
 
+  private static ExampleSumAggregatorFactory fixedPointFactory()
+  {
+    return new ExampleSumAggregatorFactory("billy", "nilly", null, null, 2, ExprMacroTable.nil());
+  }
+
   private void aggregate(
       Aggregator agg
   )
@@ -135,4 +783,44 @@ public class ExampleSumAggregatorTest
     valueSelector.increment();
     objectSelector.increment();
   }
+
+  /**
+   * Matches the rows of a fixed batch that are true in "matches".
+   */
+  private static class TestVectorValueMatcher implements VectorValueMatcher
+  {
+    private final boolean[] matches;
+    private final VectorMatch match;
+
+    TestVectorValueMatcher(boolean[] matches)
+    {
+      this.matches = matches;
+      this.match = VectorMatch.wrap(new int[matches.length]);
+    }
+
+    @Override
+    public ReadableVectorMatch match(ReadableVectorMatch mask, boolean includeUnknown)
+    {
+      int size = 0;
+      for (int i = 0; i < mask.getSelectionSize(); i++) {
+        final int row = mask.getSelection()[i];
+        if (matches[row]) {
+          match.getSelection()[size++] = row;
+        }
+      }
+      return match.setSelectionSize(size);
+    }
+
+    @Override
+    public int getMaxVectorSize()
+    {
+      return matches.length;
+    }
+
+    @Override
+    public int getCurrentVectorSize()
+    {
+      return matches.length;
+    }
+  }
 }
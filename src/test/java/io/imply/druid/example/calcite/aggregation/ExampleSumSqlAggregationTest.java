@@ -2,19 +2,38 @@ package io.imply.druid.example.calcite.aggregation;
 
 import com.google.common.collect.ImmutableList;
 import io.imply.druid.example.ExampleExtensionModule;
+import io.imply.druid.example.aggregator.ExampleDistinctSumAggregatorFactory;
+import io.imply.druid.example.aggregator.ExampleHeavyHittersAggregatorFactory;
+import io.imply.druid.example.aggregator.ExampleSampledSumAggregatorFactory;
 import io.imply.druid.example.aggregator.ExampleSumAggregatorFactory;
+import org.apache.druid.common.config.NullHandling;
 import org.apache.druid.error.DruidException;
 import org.apache.druid.guice.DruidInjectorBuilder;
 import org.apache.druid.java.util.common.granularity.Granularities;
+import org.apache.druid.math.expr.ExprMacroTable;
 import org.apache.druid.query.Druids;
 import org.apache.druid.query.InlineDataSource;
+import org.apache.druid.query.aggregation.AggregatorFactory;
+import org.apache.druid.query.aggregation.CountAggregatorFactory;
+import org.apache.druid.query.aggregation.FilteredAggregatorFactory;
+import org.apache.druid.query.aggregation.post.ArithmeticPostAggregator;
+import org.apache.druid.query.aggregation.post.ConstantPostAggregator;
+import org.apache.druid.query.aggregation.post.FieldAccessPostAggregator;
+import org.apache.druid.query.filter.AndDimFilter;
+import org.apache.druid.query.filter.DimFilter;
 import org.apache.druid.segment.column.ColumnType;
 import org.apache.druid.segment.column.RowSignature;
 import org.apache.druid.sql.calcite.BaseCalciteQueryTest;
 import org.apache.druid.sql.calcite.filtration.Filtration;
+import org.apache.druid.sql.calcite.planner.PlannerContext;
 import org.apache.druid.sql.calcite.util.CalciteTests;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class ExampleSumSqlAggregationTest extends BaseCalciteQueryTest
 {
   @Override
@@ -27,7 +46,6 @@ public class ExampleSumSqlAggregationTest extends BaseCalciteQueryTest
   @Test
   public void testExampleSumSql()
   {
-    cannotVectorize();
     testBuilder()
         .sql("select EXAMPLE_SUM(m1) from foo")
         .expectedQueries(
@@ -48,7 +66,6 @@ public class ExampleSumSqlAggregationTest extends BaseCalciteQueryTest
   @Test
   public void testExampleSumSqlLong()
   {
-    cannotVectorize();
     testBuilder()
         .sql("select EXAMPLE_SUM(l1) from numfoo where l1<10")
         .expectedQueries(
@@ -94,24 +111,170 @@ public class ExampleSumSqlAggregationTest extends BaseCalciteQueryTest
   }
 
   @Test
-  public void testExampleSumSqlVirtualColumn()
+  public void testExampleSumSqlExpression()
+  {
+    testBuilder()
+        .sql("select EXAMPLE_SUM(m1 * m2) from foo")
+        .expectedQueries(
+            ImmutableList.of(
+                Druids.newTimeseriesQueryBuilder()
+                      .dataSource(CalciteTests.DATASOURCE1)
+                      .intervals(querySegmentSpec(Filtration.eternity()))
+                      .granularity(Granularities.ALL)
+                      .aggregators(aggregators(
+                          new ExampleSumAggregatorFactory(
+                              "a0",
+                              null,
+                              "(\"m1\" * \"m2\")",
+                              null,
+                              null,
+                              ExprMacroTable.nil()
+                          )
+                      ))
+                      .context(QUERY_CONTEXT_DEFAULT)
+                      .build()
+            )
+        )
+        .expectedResults(ImmutableList.of(new Object[]{91.0D}))
+        .run();
+  }
+
+  @Test
+  public void testExampleSumSqlLinearExpression()
+  {
+    testBuilder()
+        .sql("select EXAMPLE_SUM(2 * m1 + m2 - 3) from foo")
+        .expectedQueries(
+            ImmutableList.of(
+                Druids.newTimeseriesQueryBuilder()
+                      .dataSource(CalciteTests.DATASOURCE1)
+                      .intervals(querySegmentSpec(Filtration.eternity()))
+                      .granularity(Granularities.ALL)
+                      .aggregators(aggregators(
+                          notNull(new ExampleSumAggregatorFactory("a0:sum0", "m1"), "m2"),
+                          notNull(new ExampleSumAggregatorFactory("a0:sum1", "m2"), "m1"),
+                          notNull(new CountAggregatorFactory("a0:count"), "m1", "m2")
+                      ))
+                      .postAggregators(
+                          new ArithmeticPostAggregator(
+                              "a0",
+                              "+",
+                              ImmutableList.of(
+                                  new ArithmeticPostAggregator(
+                                      null,
+                                      "*",
+                                      ImmutableList.of(
+                                          new ConstantPostAggregator(null, 2.0),
+                                          new FieldAccessPostAggregator(null, "a0:sum0")
+                                      )
+                                  ),
+                                  new FieldAccessPostAggregator(null, "a0:sum1"),
+                                  new ArithmeticPostAggregator(
+                                      null,
+                                      "*",
+                                      ImmutableList.of(
+                                          new ConstantPostAggregator(null, -3.0),
+                                          new FieldAccessPostAggregator(null, "a0:count")
+                                      )
+                                  )
+                              )
+                          )
+                      )
+                      .context(QUERY_CONTEXT_DEFAULT)
+                      .build()
+            )
+        )
+        .expectedResults(ImmutableList.of(new Object[]{45.0D}))
+        .run();
+  }
+
+  @Test
+  public void testExampleSumSqlLinearExpressionReusesSum()
+  {
+    testBuilder()
+        .sql("select EXAMPLE_SUM(m1), EXAMPLE_SUM(m1 + 1) from foo")
+        .expectedQueries(
+            ImmutableList.of(
+                Druids.newTimeseriesQueryBuilder()
+                      .dataSource(CalciteTests.DATASOURCE1)
+                      .intervals(querySegmentSpec(Filtration.eternity()))
+                      .granularity(Granularities.ALL)
+                      .aggregators(aggregators(
+                          new ExampleSumAggregatorFactory("a0", "m1"),
+                          notNull(new CountAggregatorFactory("a1:count"), "m1")
+                      ))
+                      .postAggregators(
+                          new ArithmeticPostAggregator(
+                              "a1",
+                              "+",
+                              ImmutableList.of(
+                                  new FieldAccessPostAggregator(null, "a0"),
+                                  new FieldAccessPostAggregator(null, "a1:count")
+                              )
+                          )
+                      )
+                      .context(QUERY_CONTEXT_DEFAULT)
+                      .build()
+            )
+        )
+        .expectedResults(ImmutableList.of(new Object[]{21.0F, 27.0F}))
+        .run();
+  }
+
+  @Test
+  public void testExampleSumSqlNarrowingCast()
+  {
+    // d1 - 1.0, 1.7 and 0.0: the cast truncates 1.7, so its sum can't be taken from the sum of d1
+    testBuilder()
+        .sql("select EXAMPLE_SUM(d1), EXAMPLE_SUM(CAST(d1 AS BIGINT)) from numfoo")
+        .expectedResults(ImmutableList.of(new Object[]{2.7D, 2L}))
+        .run();
+  }
+
+  @Test
+  public void testExampleSumSqlReusesExistingSum()
   {
-    cannotVectorize();
     testBuilder()
-        .sql("select EXAMPLE_SUM(m1+1) from foo")
+        .sql("select EXAMPLE_SUM(m1), EXAMPLE_SUM(CAST(m1 AS DOUBLE)) from foo")
         .expectedQueries(
             ImmutableList.of(
                 Druids.newTimeseriesQueryBuilder()
                       .dataSource(CalciteTests.DATASOURCE1)
                       .intervals(querySegmentSpec(Filtration.eternity()))
                       .granularity(Granularities.ALL)
-                      .virtualColumns(expressionVirtualColumn("v0", "(\"m1\" + 1)", ColumnType.FLOAT))
-                      .aggregators(aggregators(new ExampleSumAggregatorFactory("a0", "v0")))
+                      .aggregators(aggregators(new ExampleSumAggregatorFactory("a0", "m1")))
+                      .postAggregators(new FieldAccessPostAggregator("a1", "a0"))
                       .context(QUERY_CONTEXT_DEFAULT)
                       .build()
             )
         )
-        .expectedResults(ImmutableList.of(new Object[]{27.0F}))
+        .expectedResults(ImmutableList.of(new Object[]{21.0F, 21.0D}))
+        .run();
+  }
+
+  @Test
+  public void testExampleSumSqlWindow()
+  {
+    // Window aggregates go through the same binding, and are evaluated by Druid's generic framed aggregation.
+    final Map<String, Object> context = new HashMap<>(QUERY_CONTEXT_DEFAULT);
+    context.put(PlannerContext.CTX_ENABLE_WINDOW_FNS, true);
+    testBuilder()
+        .sql(
+            "select dim1, EXAMPLE_SUM(SUM(m1)) OVER (ORDER BY dim1 ROWS BETWEEN 1 PRECEDING AND CURRENT ROW) "
+            + "from foo group by dim1"
+        )
+        .queryContext(context)
+        // m1 by dim1 - "": 1.0, "1": 4.0, "10.1": 2.0, "2": 3.0, "abc": 6.0, "def": 5.0
+        .expectedResults(
+            ImmutableList.of(
+                new Object[]{"", 1.0F},
+                new Object[]{"1", 5.0F},
+                new Object[]{"10.1", 6.0F},
+                new Object[]{"2", 5.0F},
+                new Object[]{"abc", 9.0F},
+                new Object[]{"def", 11.0F}
+            )
+        )
         .run();
   }
 
@@ -127,10 +290,128 @@ public class ExampleSumSqlAggregationTest extends BaseCalciteQueryTest
 
   @Test
   public void testExampleSumSqlWithDistinct()
+  {
+    testBuilder()
+        .sql("select EXAMPLE_SUM(distinct m1), EXAMPLE_SUM(distinct cnt) from foo")
+        .expectedQueries(
+            ImmutableList.of(
+                Druids.newTimeseriesQueryBuilder()
+                      .dataSource(CalciteTests.DATASOURCE1)
+                      .intervals(querySegmentSpec(Filtration.eternity()))
+                      .granularity(Granularities.ALL)
+                      .aggregators(aggregators(
+                          new ExampleDistinctSumAggregatorFactory("a0", "m1"),
+                          new ExampleDistinctSumAggregatorFactory("a1", "cnt")
+                      ))
+                      .context(QUERY_CONTEXT_DEFAULT)
+                      .build()
+            )
+        )
+        // m1 - 1.0 to 6.0, cnt - 1 in every row
+        .expectedResults(ImmutableList.of(new Object[]{21.0F, 1L}))
+        .run();
+  }
+
+  @Test
+  public void testExampleTopSum()
   {
     cannotVectorize();
     testBuilder()
-        .sql("select EXAMPLE_SUM(distinct m1) from foo")
+        .sql("select EXAMPLE_TOP_SUM(dim1, m1, 3) from foo")
+        .expectedQueries(
+            ImmutableList.of(
+                Druids.newTimeseriesQueryBuilder()
+                      .dataSource(CalciteTests.DATASOURCE1)
+                      .intervals(querySegmentSpec(Filtration.eternity()))
+                      .granularity(Granularities.ALL)
+                      .aggregators(aggregators(new ExampleHeavyHittersAggregatorFactory("a0", "dim1", "m1", 3)))
+                      .context(QUERY_CONTEXT_DEFAULT)
+                      .build()
+            )
+        )
+        // Six keys with m1 from 1.0 to 6.0 and room for three: each later key replaces the smallest estimate.
+        .expectedResults(
+            ImmutableList.of(
+                new Object[]{
+                    "[{\"key\":\"abc\",\"sum\":9.0,\"error\":3.0},"
+                    + "{\"key\":\"def\",\"sum\":7.0,\"error\":2.0},"
+                    + "{\"key\":\"1\",\"sum\":5.0,\"error\":1.0}]"
+                }
+            )
+        )
+        .run();
+  }
+
+  @Test
+  public void testExampleTopSumInvalidMaxEntries()
+  {
+    testBuilder()
+        .sql("select EXAMPLE_TOP_SUM(dim1, m1, 0) from foo")
+        .expectedException(expected -> expected.expect(DruidException.class))
+        .run();
+    testBuilder()
+        .sql("select EXAMPLE_TOP_SUM(dim1, m1, 100000) from foo")
+        .expectedException(expected -> expected.expect(DruidException.class))
+        .run();
+  }
+
+  @Test
+  public void testExampleSampledSum()
+  {
+    testBuilder()
+        .sql("select EXAMPLE_SAMPLED_SUM(m1, 1.0) from foo")
+        .expectedQueries(
+            ImmutableList.of(
+                Druids.newTimeseriesQueryBuilder()
+                      .dataSource(CalciteTests.DATASOURCE1)
+                      .intervals(querySegmentSpec(Filtration.eternity()))
+                      .granularity(Granularities.ALL)
+                      .aggregators(aggregators(new ExampleSampledSumAggregatorFactory("a0", "m1", 1.0)))
+                      .context(QUERY_CONTEXT_DEFAULT)
+                      .build()
+            )
+        )
+        // Every block is sampled at a rate of 1.0, so the estimate is exact.
+        .expectedResults(ImmutableList.of(new Object[]{ImmutableList.of(21.0, 21.0, 21.0)}))
+        .run();
+  }
+
+  @Test
+  public void testExampleSampledSumContextRate()
+  {
+    final Map<String, Object> context = new HashMap<>(QUERY_CONTEXT_DEFAULT);
+    context.put(ExampleSampledSumSqlAggregator.CONTEXT_SAMPLE_RATE, 1.0);
+    testBuilder()
+        .sql("select EXAMPLE_SAMPLED_SUM(m1) from foo")
+        .queryContext(context)
+        .expectedQueries(
+            ImmutableList.of(
+                Druids.newTimeseriesQueryBuilder()
+                      .dataSource(CalciteTests.DATASOURCE1)
+                      .intervals(querySegmentSpec(Filtration.eternity()))
+                      .granularity(Granularities.ALL)
+                      .aggregators(aggregators(new ExampleSampledSumAggregatorFactory("a0", "m1", 1.0)))
+                      .context(context)
+                      .build()
+            )
+        )
+        .expectedResults(ImmutableList.of(new Object[]{ImmutableList.of(21.0, 21.0, 21.0)}))
+        .run();
+  }
+
+  @Test
+  public void testExampleSampledSumInvalidRate()
+  {
+    testBuilder()
+        .sql("select EXAMPLE_SAMPLED_SUM(m1, 2.0) from foo")
+        .expectedException(expected -> expected.expect(DruidException.class))
+        .run();
+
+    final Map<String, Object> context = new HashMap<>(QUERY_CONTEXT_DEFAULT);
+    context.put(ExampleSampledSumSqlAggregator.CONTEXT_SAMPLE_RATE, 0);
+    testBuilder()
+        .sql("select EXAMPLE_SAMPLED_SUM(m1) from foo")
+        .queryContext(context)
         .expectedException(expected -> expected.expect(DruidException.class))
         .run();
   }
@@ -138,7 +419,6 @@ public class ExampleSumSqlAggregationTest extends BaseCalciteQueryTest
   @Test
   public void testExampleSumDouble()
   {
-    cannotVectorize();
     testBuilder()
         .sql("select EXAMPLE_SUM(d1) from numfoo")
         .expectedQueries(
@@ -168,13 +448,23 @@ public class ExampleSumSqlAggregationTest extends BaseCalciteQueryTest
                       .dataSource(CalciteTests.DATASOURCE3)
                       .intervals(querySegmentSpec(Filtration.eternity()))
                       .granularity(Granularities.ALL)
-                      .virtualColumns(
-                          expressionVirtualColumn("v0", "strlen(\"dim2\")", ColumnType.LONG),
-                          expressionVirtualColumn("v1", "strlen(array_to_string(\"dim3\",''))", ColumnType.LONG)
-                      )
                       .aggregators(
-                          new ExampleSumAggregatorFactory("a0", "v0"),
-                          new ExampleSumAggregatorFactory("a1", "v1")
+                          new ExampleSumAggregatorFactory(
+                              "a0",
+                              null,
+                              "strlen(\"dim2\")",
+                              null,
+                              null,
+                              ExprMacroTable.nil()
+                          ),
+                          new ExampleSumAggregatorFactory(
+                              "a1",
+                              null,
+                              "strlen(array_to_string(\"dim3\",''))",
+                              null,
+                              null,
+                              ExprMacroTable.nil()
+                          )
                       )
                       .context(QUERY_CONTEXT_DEFAULT)
                       .build()
@@ -185,4 +475,23 @@ public class ExampleSumSqlAggregationTest extends BaseCalciteQueryTest
         .expectedResults(ImmutableList.of(new Object[]{5, 5}))
         .run();
   }
+
+  /**
+   * In SQL-compatible null handling, components of a linear sum only count rows where the other inputs are non-null.
+   */
+  private static AggregatorFactory notNull(AggregatorFactory aggregatorFactory, String... columns)
+  {
+    if (NullHandling.replaceWithDefault()) {
+      return aggregatorFactory;
+    }
+    final List<DimFilter> filters = new ArrayList<>();
+    for (String column : columns) {
+      filters.add(not(isNull(column)));
+    }
+    final DimFilter filter = filters.size() == 1 ? filters.get(0) : new AndDimFilter(filters);
+    if (aggregatorFactory instanceof ExampleSumAggregatorFactory) {
+      return ((ExampleSumAggregatorFactory) aggregatorFactory).withFilter(filter);
+    }
+    return new FilteredAggregatorFactory(aggregatorFactory, filter);
+  }
 }
@@ -20,10 +20,16 @@ import com.fasterxml.jackson.databind.Module;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.imply.druid.example.ExampleExtensionModule;
 import org.apache.druid.jackson.DefaultObjectMapper;
+import org.apache.druid.java.util.common.StringUtils;
 import org.apache.druid.query.extraction.ExtractionFn;
+import org.apache.druid.query.ordering.StringComparators;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
 public class ExampleExtractionFnTest
 {
   private static final ObjectMapper MAPPER = new DefaultObjectMapper();
@@ -44,6 +50,63 @@ public class ExampleExtractionFnTest
     Assert.assertEquals("foo", fn.apply("foobar"));
   }
 
+  @Test
+  public void testCodePoints()
+  {
+    final ExampleExtractionFn fn = new ExampleExtractionFn(3);
+    Assert.assertEquals("a\uD83D\uDE00b", fn.apply("a\uD83D\uDE00bc"));
+    Assert.assertEquals("\uD83D\uDE00\uD83D\uDE00", fn.apply("\uD83D\uDE00\uD83D\uDE00"));
+    Assert.assertEquals("\u00e9t\u00e9", fn.apply("\u00e9t\u00e9s"));
+  }
+
+  @Test
+  public void testApplyUtf8()
+  {
+    final ExampleExtractionFn fn = new ExampleExtractionFn(3);
+    final List<String> values = Arrays.asList(
+        "",
+        "x",
+        "foo",
+        "foobar",
+        "a\uD83D\uDE00bc",
+        "\u00e9t\u00e9s",
+        "\u4e2d\u6587\u5b57\u7b26",
+        "\uD83D\uDE00\uD83D\uDE00"
+    );
+    for (String value : values) {
+      final byte[] bytes = StringUtils.toUtf8("--" + value);
+      final ByteBuffer utf8 = ByteBuffer.wrap(bytes);
+      utf8.position(2);
+      Assert.assertEquals(value, StringUtils.toUtf8(fn.apply(value)).length, fn.applyUtf8(utf8));
+      Assert.assertEquals(2, utf8.position());
+      Assert.assertEquals(bytes.length, utf8.limit());
+    }
+  }
+
+  @Test
+  public void testPreservesOrdering()
+  {
+    final ExampleExtractionFn fn = new ExampleExtractionFn(3);
+    Assert.assertTrue(fn.preservesOrdering());
+
+    final List<String> values = Arrays.asList(null, "", "a", "ab", "abcd", "abce", "abd", "b", "ba", "bab", "c");
+    for (int i = 1; i < values.size(); i++) {
+      Assert.assertTrue(
+          StringComparators.LEXICOGRAPHIC.compare(fn.apply(values.get(i - 1)), fn.apply(values.get(i))) <= 0
+      );
+    }
+  }
+
+  @Test
+  public void testCacheKey()
+  {
+    // prefix, length, and the version of the behavior: 1 counts code points
+    Assert.assertArrayEquals(
+        new byte[]{(byte) 0xFF, 0x00, 0, 0, 0, 3, 0x01},
+        new ExampleExtractionFn(3).getCacheKey()
+    );
+  }
+
   @Test
   public void testSerde() throws Exception
   {
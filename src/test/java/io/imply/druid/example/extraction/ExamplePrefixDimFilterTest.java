@@ -0,0 +1,211 @@
+package io.imply.druid.example.extraction;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import io.imply.druid.example.ExampleExtensionModule;
+import org.apache.druid.collections.bitmap.BitmapFactory;
+import org.apache.druid.collections.bitmap.ImmutableBitmap;
+import org.apache.druid.collections.bitmap.MutableBitmap;
+import org.apache.druid.collections.bitmap.RoaringBitmapFactory;
+import org.apache.druid.common.config.NullHandling;
+import org.apache.druid.jackson.DefaultObjectMapper;
+import org.apache.druid.query.DefaultBitmapResultFactory;
+import org.apache.druid.query.filter.ColumnIndexSelector;
+import org.apache.druid.query.filter.DimFilter;
+import org.apache.druid.segment.column.ColumnIndexSupplier;
+import org.apache.druid.segment.index.BitmapColumnIndex;
+import org.apache.druid.segment.index.semantic.DictionaryEncodedStringValueIndex;
+import org.apache.druid.segment.index.semantic.LexicographicalRangeIndexes;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+public class ExamplePrefixDimFilterTest
+{
+  private static final ObjectMapper MAPPER = new DefaultObjectMapper();
+
+  static {
+    NullHandling.initializeForTests();
+    for (Module module : new ExampleExtensionModule().getJacksonModules()) {
+      MAPPER.registerModule(module);
+    }
+  }
+
+  static final BitmapFactory BITMAP_FACTORY = new RoaringBitmapFactory();
+
+  // Sorted, like the dictionary of a segment. Prefixes of length 2: null, a, ab, ab, ab, b, ba, bc, c.
+  static final List<String> DICTIONARY = Arrays.asList(null, "a", "ab", "abc", "abd", "b", "ba", "bcd", "c");
+  static final int NUM_ROWS = DICTIONARY.size() * 3;
+
+  @Test
+  public void testSerde() throws Exception
+  {
+    final ExamplePrefixDimFilter values =
+        new ExamplePrefixDimFilter("url", 9, ImmutableList.of("https://b", "https://a"), null, null, null, null);
+    Assert.assertEquals(
+        values,
+        MAPPER.readValue(
+            "{\"type\":\"examplePrefix\",\"dimension\":\"url\",\"length\":9,\"values\":[\"https://a\",\"https://b\"]}",
+            DimFilter.class
+        )
+    );
+    Assert.assertEquals(values, MAPPER.readValue(MAPPER.writeValueAsBytes(values), DimFilter.class));
+
+    final ExamplePrefixDimFilter bound = new ExamplePrefixDimFilter("url", 9, null, "https://a", null, true, null);
+    Assert.assertEquals(bound, MAPPER.readValue(MAPPER.writeValueAsBytes(bound), DimFilter.class));
+    Assert.assertFalse(Arrays.equals(values.getCacheKey(), bound.getCacheKey()));
+  }
+
+  @Test
+  public void testValidation()
+  {
+    Assert.assertThrows(
+        IllegalArgumentException.class,
+        () -> new ExamplePrefixDimFilter("url", 9, null, null, null, null, null)
+    );
+    Assert.assertThrows(
+        IllegalArgumentException.class,
+        () -> new ExamplePrefixDimFilter("url", 9, ImmutableList.of("a"), "a", null, null, null)
+    );
+  }
+
+  @Test
+  public void testValuesIndex()
+  {
+    final AtomicInteger lookups = new AtomicInteger();
+    final ExamplePrefixDimFilter filter =
+        new ExamplePrefixDimFilter("url", 2, ImmutableList.of("ab", "b", "abc", "z"), null, null, null, null);
+
+    assertMatches(filter, false, lookups, prefix -> "ab".equals(prefix) || "b".equals(prefix));
+    // binary searches, not a scan of the dictionary for every value
+    Assert.assertTrue(lookups.get() < DICTIONARY.size() * 4);
+
+    // rows with null prefixes are unknown, not false, under three-valued logic
+    assertMatches(filter, true, lookups, prefix -> prefix == null || "ab".equals(prefix) || "b".equals(prefix));
+  }
+
+  @Test
+  public void testBoundIndex()
+  {
+    final AtomicInteger lookups = new AtomicInteger();
+    assertMatches(
+        new ExamplePrefixDimFilter("url", 2, null, "ab", "bc", null, true),
+        false,
+        lookups,
+        prefix -> prefix != null && prefix.compareTo("ab") >= 0 && prefix.compareTo("bc") < 0
+    );
+    assertMatches(
+        new ExamplePrefixDimFilter("url", 2, null, "ab", null, true, null),
+        false,
+        lookups,
+        prefix -> prefix != null && prefix.compareTo("ab") > 0
+    );
+    assertMatches(
+        new ExamplePrefixDimFilter("url", 2, null, null, "b", null, null),
+        false,
+        lookups,
+        // like the "bound" filter, null sorts before everything, so it matches without a lower bound
+        prefix -> prefix == null || prefix.compareTo("b") <= 0
+    );
+  }
+
+  @Test
+  public void testNoSortedDictionary()
+  {
+    final ColumnIndexSupplier indexSupplier = EasyMock.createNiceMock(ColumnIndexSupplier.class);
+    EasyMock.replay(indexSupplier);
+    Assert.assertNull(ExamplePrefixIndexes.create(indexSupplier, new ExampleExtractionFn(2)));
+    Assert.assertNull(ExamplePrefixIndexes.create(null, new ExampleExtractionFn(2)));
+  }
+
+  private static void assertMatches(
+      ExamplePrefixDimFilter filter,
+      boolean includeUnknown,
+      AtomicInteger lookups,
+      Predicate<String> expected
+  )
+  {
+    final BitmapColumnIndex index = filter.toFilter().getBitmapColumnIndex(makeSelector(lookups));
+    Assert.assertNotNull(index);
+    final ImmutableBitmap bitmap =
+        index.computeBitmapResult(new DefaultBitmapResultFactory(BITMAP_FACTORY), includeUnknown);
+
+    final List<Integer> expectedRows = new ArrayList<>();
+    final List<Integer> actualRows = new ArrayList<>();
+    final ExampleExtractionFn fn = new ExampleExtractionFn(filter.getLength());
+    for (int row = 0; row < NUM_ROWS; row++) {
+      if (expected.test(fn.apply(DICTIONARY.get(row % DICTIONARY.size())))) {
+        expectedRows.add(row);
+      }
+      if (bitmap.get(row)) {
+        actualRows.add(row);
+      }
+    }
+    Assert.assertEquals(filter.toString(), expectedRows, actualRows);
+  }
+
+  /**
+   * Index selector for a column "url" where row r has the value DICTIONARY[r % DICTIONARY.size()].
+   */
+  static ColumnIndexSelector makeSelector(AtomicInteger lookups)
+  {
+    final DictionaryEncodedStringValueIndex valueIndex = new DictionaryEncodedStringValueIndex()
+    {
+      @Override
+      public ImmutableBitmap getBitmap(int id)
+      {
+        final MutableBitmap bitmap = BITMAP_FACTORY.makeEmptyMutableBitmap();
+        for (int row = id; row < NUM_ROWS; row += DICTIONARY.size()) {
+          bitmap.add(row);
+        }
+        return BITMAP_FACTORY.makeImmutableBitmap(bitmap);
+      }
+
+      @Override
+      public int getCardinality()
+      {
+        return DICTIONARY.size();
+      }
+
+      @Override
+      public String getValue(int id)
+      {
+        lookups.incrementAndGet();
+        return DICTIONARY.get(id);
+      }
+
+      @Override
+      public BitmapFactory getBitmapFactory()
+      {
+        return BITMAP_FACTORY;
+      }
+    };
+    final ColumnIndexSupplier indexSupplier = new ColumnIndexSupplier()
+    {
+      @Override
+      @SuppressWarnings("unchecked")
+      public <T> T as(Class<T> clazz)
+      {
+        if (clazz.equals(DictionaryEncodedStringValueIndex.class)) {
+          return (T) valueIndex;
+        } else if (clazz.equals(LexicographicalRangeIndexes.class)) {
+          return (T) EasyMock.createMock(LexicographicalRangeIndexes.class);
+        }
+        return null;
+      }
+    };
+    final ColumnIndexSelector selector = EasyMock.createMock(ColumnIndexSelector.class);
+    EasyMock.expect(selector.getIndexSupplier("url")).andReturn(indexSupplier).anyTimes();
+    EasyMock.expect(selector.getBitmapFactory()).andReturn(BITMAP_FACTORY).anyTimes();
+    EasyMock.expect(selector.getNumRows()).andReturn(NUM_ROWS).anyTimes();
+    EasyMock.replay(selector);
+    return selector;
+  }
+}
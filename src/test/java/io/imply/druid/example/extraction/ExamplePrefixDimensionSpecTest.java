@@ -0,0 +1,332 @@
+package io.imply.druid.example.extraction;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.imply.druid.example.ExampleExtensionModule;
+import org.apache.druid.common.config.NullHandling;
+import org.apache.druid.jackson.DefaultObjectMapper;
+import org.apache.druid.java.util.common.StringUtils;
+import org.apache.druid.query.dimension.DimensionSpec;
+import org.apache.druid.query.ordering.StringComparators;
+import org.apache.druid.segment.DimensionDictionarySelector;
+import org.apache.druid.segment.DimensionSelector;
+import org.apache.druid.segment.data.ArrayBasedIndexedInts;
+import org.apache.druid.segment.data.IndexedInts;
+import org.apache.druid.segment.historical.HistoricalDimensionSelector;
+import org.apache.druid.segment.vector.SingleValueDimensionVectorSelector;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ExamplePrefixDimensionSpecTest
+{
+  private static final ObjectMapper MAPPER = new DefaultObjectMapper();
+
+  static {
+    NullHandling.initializeForTests();
+    for (Module module : new ExampleExtensionModule().getJacksonModules()) {
+      MAPPER.registerModule(module);
+    }
+  }
+
+  // Prefixes of length 2: "fo", "fo", "ba", "ba", null.
+  private static final String[] DICTIONARY = {"foo", "fox", "bar", "ba", null};
+
+  private final ExamplePrefixDimensionSpec spec = new ExamplePrefixDimensionSpec("page", "prefix", 2);
+
+  @Test
+  public void testSerde() throws Exception
+  {
+    Assert.assertEquals(
+        spec,
+        MAPPER.readValue(
+            "{ \"type\" : \"examplePrefix\", \"dimension\" : \"page\", \"outputName\" : \"prefix\", \"length\" : 2 }",
+            DimensionSpec.class
+        )
+    );
+    Assert.assertEquals(spec, MAPPER.readValue(MAPPER.writeValueAsBytes(spec), DimensionSpec.class));
+    final DimensionSpec unnamed = MAPPER.readValue(
+        "{ \"type\" : \"examplePrefix\", \"dimension\" : \"page\", \"length\" : 2 }",
+        DimensionSpec.class
+    );
+    Assert.assertEquals("page", unnamed.getOutputName());
+  }
+
+  @Test
+  public void testCacheKey()
+  {
+    Assert.assertArrayEquals(spec.getCacheKey(), new ExamplePrefixDimensionSpec("page", "other", 2).getCacheKey());
+    final byte[] key = spec.getCacheKey();
+    Assert.assertFalse(Arrays.equals(key, new ExamplePrefixDimensionSpec("page", null, 3).getCacheKey()));
+    Assert.assertFalse(Arrays.equals(key, new ExamplePrefixDimensionSpec("url", null, 2).getCacheKey()));
+  }
+
+  @Test
+  public void testKeepsDictionaryCapabilities()
+  {
+    // no extractionFn, so Druid doesn't treat the output as having repeated values
+    Assert.assertNull(spec.getExtractionFn());
+    Assert.assertTrue(spec.mustDecorate());
+  }
+
+  @Test
+  public void testDecorate()
+  {
+    final DimensionSelector base = makeSelector(true, 0, 1, 2, 3, 4, 1);
+    final DimensionSelector selector = spec.decorate(base);
+
+    Assert.assertTrue(selector.nameLookupPossibleInAdvance());
+    Assert.assertEquals(3, selector.getValueCardinality());
+    Assert.assertArrayEquals(new int[]{0, 0, 1, 1, 2, 0}, readRows(selector, 6));
+    Assert.assertEquals("fo", selector.lookupName(0));
+    Assert.assertEquals("ba", selector.lookupName(1));
+    Assert.assertNull(selector.lookupName(2));
+    Assert.assertEquals(1, selector.idLookup().lookupId("ba"));
+    Assert.assertEquals(-1, selector.idLookup().lookupId("foo"));
+    EasyMock.verify(base);
+  }
+
+  @Test
+  public void testDecorateWithoutDictionary()
+  {
+    final DimensionSelector selector = spec.decorate(makeSelector(false, 0, 2));
+
+    // ids pass through, and each lookup computes the prefix
+    Assert.assertFalse(selector.nameLookupPossibleInAdvance());
+    Assert.assertNull(selector.idLookup());
+    Assert.assertArrayEquals(new int[]{0, 2}, readRows(selector, 2));
+    Assert.assertEquals("fo", selector.lookupName(0));
+    Assert.assertEquals("ba", selector.lookupName(2));
+  }
+
+  @Test
+  public void testNumericDictionary()
+  {
+    // like a long-typed nested field: a HistoricalDimensionSelector whose dictionary is in numeric order, so the
+    // values sharing a prefix are not next to each other
+    final String[] dictionary = {"10", "11", "12", "20", "100"};
+    final HistoricalDimensionSelector base = EasyMock.createMock(HistoricalDimensionSelector.class);
+    EasyMock.expect(base.nameLookupPossibleInAdvance()).andReturn(true).anyTimes();
+    EasyMock.expect(base.supportsLookupNameUtf8()).andReturn(false).anyTimes();
+    EasyMock.expect(base.getValueCardinality()).andReturn(dictionary.length).anyTimes();
+    for (int id = 0; id < dictionary.length; id++) {
+      EasyMock.expect(base.lookupName(id)).andReturn(dictionary[id]).anyTimes();
+    }
+    for (int id = 0; id < dictionary.length; id++) {
+      EasyMock.expect(base.getRow()).andReturn(new ArrayBasedIndexedInts(new int[]{id}));
+    }
+    EasyMock.replay(base);
+
+    final DimensionSelector selector = new ExamplePrefixDimensionSpec("field", null, 1).decorate(base);
+    final int[] rows = readRows(selector, dictionary.length);
+    for (int i = 0; i < dictionary.length; i++) {
+      Assert.assertEquals(dictionary[i].substring(0, 1), selector.lookupName(rows[i]));
+    }
+    // the spec can't tell whether a column sorts as strings
+    Assert.assertFalse(spec.preservesOrdering());
+  }
+
+  @Test
+  public void testDecorateVector()
+  {
+    final SingleValueDimensionVectorSelector base = EasyMock.createMock(SingleValueDimensionVectorSelector.class);
+    EasyMock.expect(base.nameLookupPossibleInAdvance()).andReturn(true).anyTimes();
+    EasyMock.expect(base.supportsLookupNameUtf8()).andReturn(false).anyTimes();
+    EasyMock.expect(base.getValueCardinality()).andReturn(DICTIONARY.length).anyTimes();
+    for (int id = 0; id < DICTIONARY.length; id++) {
+      EasyMock.expect(base.lookupName(id)).andReturn(DICTIONARY[id]).once();
+    }
+    EasyMock.expect(base.getMaxVectorSize()).andReturn(8).anyTimes();
+    EasyMock.expect(base.getCurrentVectorSize()).andReturn(6).anyTimes();
+    EasyMock.expect(base.getRowVector()).andReturn(new int[]{4, 3, 2, 1, 0, 0, -1, -1}).anyTimes();
+    EasyMock.replay(base);
+
+    final SingleValueDimensionVectorSelector selector = spec.decorate(base);
+    Assert.assertEquals(3, selector.getValueCardinality());
+    Assert.assertArrayEquals(new int[]{2, 1, 1, 0, 0, 0}, Arrays.copyOf(selector.getRowVector(), 6));
+    Assert.assertEquals("fo", selector.lookupName(0));
+    Assert.assertNull(selector.lookupName(2));
+    EasyMock.verify(base);
+  }
+
+  @Test
+  public void testSortedDictionary()
+  {
+    // null, then "a00" to "j99": prefixes of length 1 are null and "a" to "j"
+    final List<String> dictionary = new ArrayList<>();
+    dictionary.add(null);
+    for (char c = 'a'; c <= 'j'; c++) {
+      for (int i = 0; i < 100; i++) {
+        dictionary.add(String.format("%c%02d", c, i));
+      }
+    }
+    final AtomicInteger lookups = new AtomicInteger();
+    final ExamplePrefixDictionary prefixes = new ExamplePrefixDictionary(
+        makeDictionarySelector(dictionary, false, lookups),
+        new ExampleExtractionFn(1),
+        true
+    );
+
+    Assert.assertTrue(prefixes.isSorted());
+    Assert.assertEquals(11, prefixes.size());
+    // ranges are found by binary search, not by looking at every id
+    Assert.assertTrue(lookups.get() < 200);
+
+    for (int id = 0; id < dictionary.size(); id++) {
+      final int prefixId = prefixes.forward(id);
+      Assert.assertEquals(new ExampleExtractionFn(1).apply(dictionary.get(id)), prefixes.lookupName(prefixId));
+      Assert.assertTrue(prefixes.startId(prefixId) <= id && id < prefixes.endId(prefixId));
+    }
+    for (int prefixId = 1; prefixId < prefixes.size(); prefixId++) {
+      Assert.assertTrue(StringComparators.LEXICOGRAPHIC.compare(
+          prefixes.lookupName(prefixId - 1),
+          prefixes.lookupName(prefixId)
+      ) < 0);
+    }
+    Assert.assertEquals(0, prefixes.startId(0));
+    Assert.assertEquals(1, prefixes.endId(0));
+    Assert.assertEquals(101, prefixes.startId(2));
+    Assert.assertEquals(201, prefixes.endId(2));
+
+    // missing prefixes give insertion points, like segment dictionaries
+    Assert.assertEquals(2, prefixes.lookupId("b"));
+    Assert.assertEquals(-4, prefixes.lookupId("bb"));
+    Assert.assertEquals(-12, prefixes.lookupId("z"));
+  }
+
+  @Test
+  public void testUnsortedDictionary()
+  {
+    final List<String> dictionary = Arrays.asList("a1", "a2", "b1", "a3", "c1");
+    final ExamplePrefixDictionary prefixes = new ExamplePrefixDictionary(
+        makeDictionarySelector(dictionary, false, new AtomicInteger()),
+        new ExampleExtractionFn(1),
+        true
+    );
+
+    // "a3" after "b1" shows the dictionary isn't sorted, so the rest is mapped id by id
+    Assert.assertFalse(prefixes.isSorted());
+    Assert.assertEquals(3, prefixes.size());
+    final int[] forward = new int[dictionary.size()];
+    for (int id = 0; id < forward.length; id++) {
+      forward[id] = prefixes.forward(id);
+    }
+    Assert.assertArrayEquals(new int[]{0, 0, 1, 0, 2}, forward);
+    Assert.assertEquals(-1, prefixes.lookupId("bb"));
+  }
+
+  @Test
+  public void testUtf8Dictionary()
+  {
+    // sorted like segment dictionaries, by String.compareTo: "\uD83D\uDE00" sorts before "\uFF01"
+    final List<String> dictionary = Arrays.asList(
+        null,
+        "a1",
+        "a2",
+        "\u00e91",
+        "\u00e92",
+        "\u4e2d1",
+        "\u4e2d\u6587",
+        "\uD83D\uDE001",
+        "\uD83D\uDE002",
+        "\uFF01x"
+    );
+    final List<String> expected =
+        Arrays.asList(null, "a", "\u00e9", "\u4e2d", "\uD83D\uDE00", "\uFF01");
+
+    for (boolean utf8 : new boolean[]{false, true}) {
+      final ExamplePrefixDictionary prefixes = new ExamplePrefixDictionary(
+          makeDictionarySelector(dictionary, utf8, new AtomicInteger()),
+          new ExampleExtractionFn(1),
+          true
+      );
+      Assert.assertTrue(prefixes.isSorted());
+      Assert.assertEquals(expected.size(), prefixes.size());
+      for (int id = 0; id < dictionary.size(); id++) {
+        final String prefix = new ExampleExtractionFn(1).apply(dictionary.get(id));
+        Assert.assertEquals(prefix, prefixes.lookupName(prefixes.forward(id)));
+      }
+      for (int prefixId = 0; prefixId < expected.size(); prefixId++) {
+        Assert.assertEquals(expected.get(prefixId), prefixes.lookupName(prefixId));
+        Assert.assertEquals(prefixId, prefixes.lookupId(expected.get(prefixId)));
+      }
+      Assert.assertEquals(5, prefixes.startId(3));
+      Assert.assertEquals(7, prefixes.endId(3));
+      Assert.assertEquals(-3, prefixes.lookupId("b"));
+    }
+  }
+
+  /**
+   * Selector over a dictionary, counting lookups. With "utf8", values are only returned as UTF-8 bytes, as a window on
+   * a larger buffer like those of segments, and {@link DimensionDictionarySelector#lookupName} must not be called.
+   */
+  private static DimensionDictionarySelector makeDictionarySelector(
+      List<String> dictionary,
+      boolean utf8,
+      AtomicInteger lookups
+  )
+  {
+    final DimensionDictionarySelector selector = EasyMock.createMock(DimensionDictionarySelector.class);
+    EasyMock.expect(selector.getValueCardinality()).andReturn(dictionary.size()).anyTimes();
+    EasyMock.expect(selector.supportsLookupNameUtf8()).andReturn(utf8).anyTimes();
+    if (utf8) {
+      EasyMock.expect(selector.lookupNameUtf8(EasyMock.anyInt())).andAnswer(() -> {
+        lookups.incrementAndGet();
+        final String value = dictionary.get((Integer) EasyMock.getCurrentArguments()[0]);
+        if (value == null) {
+          return null;
+        }
+        final byte[] bytes = StringUtils.toUtf8("<" + value + ">");
+        return ByteBuffer.wrap(bytes, 1, bytes.length - 2);
+      }).anyTimes();
+    } else {
+      EasyMock.expect(selector.lookupName(EasyMock.anyInt())).andAnswer(() -> {
+        lookups.incrementAndGet();
+        return dictionary.get((Integer) EasyMock.getCurrentArguments()[0]);
+      }).anyTimes();
+    }
+    EasyMock.replay(selector);
+    return selector;
+  }
+
+  /**
+   * Selector over {@link #DICTIONARY} returning the given rows. Each name is looked up at most once, which is the
+   * point of remapping.
+   */
+  private static DimensionSelector makeSelector(boolean nameLookupPossibleInAdvance, int... rows)
+  {
+    final DimensionSelector selector = EasyMock.createMock(DimensionSelector.class);
+    EasyMock.expect(selector.nameLookupPossibleInAdvance()).andReturn(nameLookupPossibleInAdvance).anyTimes();
+    EasyMock.expect(selector.supportsLookupNameUtf8()).andReturn(false).anyTimes();
+    EasyMock.expect(selector.getValueCardinality()).andReturn(DICTIONARY.length).anyTimes();
+    for (int id = 0; id < DICTIONARY.length; id++) {
+      if (nameLookupPossibleInAdvance) {
+        EasyMock.expect(selector.lookupName(id)).andReturn(DICTIONARY[id]).once();
+      } else {
+        EasyMock.expect(selector.lookupName(id)).andReturn(DICTIONARY[id]).anyTimes();
+      }
+    }
+    for (int row : rows) {
+      EasyMock.expect(selector.getRow()).andReturn(new ArrayBasedIndexedInts(new int[]{row}));
+    }
+    EasyMock.replay(selector);
+    return selector;
+  }
+
+  private static int[] readRows(DimensionSelector selector, int numRows)
+  {
+    final int[] ids = new int[numRows];
+    for (int i = 0; i < numRows; i++) {
+      final IndexedInts row = selector.getRow();
+      Assert.assertEquals(1, row.size());
+      ids[i] = row.get(0);
+    }
+    return ids;
+  }
+}
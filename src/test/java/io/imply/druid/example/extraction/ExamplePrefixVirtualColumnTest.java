@@ -0,0 +1,296 @@
+package io.imply.druid.example.extraction;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.imply.druid.example.ExampleExtensionModule;
+import org.apache.druid.collections.bitmap.ImmutableBitmap;
+import org.apache.druid.common.config.NullHandling;
+import org.apache.druid.jackson.DefaultObjectMapper;
+import org.apache.druid.query.DefaultBitmapResultFactory;
+import org.apache.druid.query.dimension.DefaultDimensionSpec;
+import org.apache.druid.query.dimension.DimensionSpec;
+import org.apache.druid.query.dimension.ExtractionDimensionSpec;
+import org.apache.druid.query.extraction.StrlenExtractionFn;
+import org.apache.druid.query.filter.ColumnIndexSelector;
+import org.apache.druid.segment.ColumnInspector;
+import org.apache.druid.segment.ColumnSelectorFactory;
+import org.apache.druid.segment.DimensionSelector;
+import org.apache.druid.segment.VirtualColumn;
+import org.apache.druid.segment.column.ColumnCapabilities;
+import org.apache.druid.segment.column.ColumnCapabilitiesImpl;
+import org.apache.druid.segment.column.ColumnIndexSupplier;
+import org.apache.druid.segment.column.ColumnType;
+import org.apache.druid.segment.data.ArrayBasedIndexedInts;
+import org.apache.druid.segment.index.semantic.DictionaryEncodedStringValueIndex;
+import org.apache.druid.segment.index.semantic.LexicographicalRangeIndexes;
+import org.apache.druid.segment.index.semantic.StringValueSetIndexes;
+import org.apache.druid.segment.serde.NoIndexesColumnIndexSupplier;
+import org.apache.druid.segment.vector.SingleValueDimensionVectorSelector;
+import org.apache.druid.segment.vector.VectorColumnSelectorFactory;
+import org.apache.druid.segment.vector.VectorObjectSelector;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ExamplePrefixVirtualColumnTest
+{
+  private static final ObjectMapper MAPPER = new DefaultObjectMapper();
+
+  static {
+    NullHandling.initializeForTests();
+    for (Module module : new ExampleExtensionModule().getJacksonModules()) {
+      MAPPER.registerModule(module);
+    }
+  }
+
+  // Prefixes of length 2: "fo", "fo", "ba", "ba", null.
+  private static final String[] DICTIONARY = {"foo", "fox", "bar", "ba", null};
+
+  private static final ColumnCapabilities SORTED_STRING =
+      ColumnCapabilitiesImpl.createSimpleSingleValueStringColumnCapabilities()
+                            .setDictionaryEncoded(true)
+                            .setDictionaryValuesSorted(true)
+                            .setDictionaryValuesUnique(true);
+
+  private final ExamplePrefixVirtualColumn virtualColumn = new ExamplePrefixVirtualColumn("prefix", "page", 2);
+
+  @Test
+  public void testSerde() throws Exception
+  {
+    Assert.assertEquals(
+        virtualColumn,
+        MAPPER.readValue(
+            "{ \"type\" : \"examplePrefix\", \"name\" : \"prefix\", \"dimension\" : \"page\", \"length\" : 2 }",
+            VirtualColumn.class
+        )
+    );
+    Assert.assertEquals(virtualColumn, MAPPER.readValue(MAPPER.writeValueAsBytes(virtualColumn), VirtualColumn.class));
+    Assert.assertEquals(Collections.singletonList("page"), virtualColumn.requiredColumns());
+  }
+
+  @Test
+  public void testCacheKey()
+  {
+    Assert.assertArrayEquals(
+        virtualColumn.getCacheKey(),
+        new ExamplePrefixVirtualColumn("prefix", "page", 2).getCacheKey()
+    );
+    Assert.assertFalse(
+        Arrays.equals(virtualColumn.getCacheKey(), new ExamplePrefixVirtualColumn("prefix", "page", 3).getCacheKey())
+    );
+    Assert.assertFalse(
+        Arrays.equals(virtualColumn.getCacheKey(), new ExamplePrefixVirtualColumn("prefix", "url", 2).getCacheKey())
+    );
+  }
+
+  @Test
+  public void testCapabilities()
+  {
+    final ColumnCapabilities sorted = virtualColumn.capabilities(
+        makeInspector(ColumnCapabilitiesImpl.createSimpleSingleValueStringColumnCapabilities()
+                                            .setDictionaryEncoded(true)
+                                            .setDictionaryValuesSorted(true)
+                                            .setDictionaryValuesUnique(true)
+                                            .setHasBitmapIndexes(true)),
+        "prefix"
+    );
+    Assert.assertTrue(sorted.is(ColumnType.STRING.getType()));
+    Assert.assertTrue(sorted.isDictionaryEncoded().isTrue());
+    Assert.assertTrue(sorted.areDictionaryValuesSorted().isTrue());
+    Assert.assertTrue(sorted.areDictionaryValuesUnique().isTrue());
+    Assert.assertTrue(sorted.hasMultipleValues().isFalse());
+
+    // like the dictionary of an incremental index: ids may pass through, so they are not unique
+    final ColumnCapabilities unsorted = virtualColumn.capabilities(
+        makeInspector(ColumnCapabilitiesImpl.createSimpleSingleValueStringColumnCapabilities()
+                                            .setDictionaryEncoded(true)
+                                            .setDictionaryValuesSorted(false)
+                                            .setDictionaryValuesUnique(true)),
+        "prefix"
+    );
+    Assert.assertTrue(unsorted.isDictionaryEncoded().isTrue());
+    Assert.assertFalse(unsorted.areDictionaryValuesUnique().isTrue());
+
+    final ColumnCapabilities numeric = virtualColumn.capabilities(
+        makeInspector(ColumnCapabilitiesImpl.createSimpleNumericColumnCapabilities(ColumnType.LONG)),
+        "prefix"
+    );
+    Assert.assertTrue(numeric.is(ColumnType.STRING.getType()));
+    Assert.assertFalse(numeric.isDictionaryEncoded().isTrue());
+  }
+
+  @Test
+  public void testCanVectorize()
+  {
+    Assert.assertTrue(virtualColumn.canVectorize(makeInspector(
+        ColumnCapabilitiesImpl.createSimpleSingleValueStringColumnCapabilities().setDictionaryEncoded(true)
+    )));
+    Assert.assertTrue(virtualColumn.canVectorize(makeInspector(null)));
+    Assert.assertFalse(virtualColumn.canVectorize(makeInspector(
+        ColumnCapabilitiesImpl.createSimpleSingleValueStringColumnCapabilities()
+                              .setDictionaryEncoded(true)
+                              .setHasMultipleValues(true)
+    )));
+    Assert.assertFalse(virtualColumn.canVectorize(makeInspector(
+        ColumnCapabilitiesImpl.createSimpleNumericColumnCapabilities(ColumnType.LONG)
+    )));
+  }
+
+  @Test
+  public void testDimensionSelector()
+  {
+    final DimensionSelector base = EasyMock.createMock(DimensionSelector.class);
+    EasyMock.expect(base.nameLookupPossibleInAdvance()).andReturn(true).anyTimes();
+    EasyMock.expect(base.supportsLookupNameUtf8()).andReturn(false).anyTimes();
+    EasyMock.expect(base.getValueCardinality()).andReturn(DICTIONARY.length).anyTimes();
+    for (int id = 0; id < DICTIONARY.length; id++) {
+      EasyMock.expect(base.lookupName(id)).andReturn(DICTIONARY[id]).once();
+    }
+    EasyMock.expect(base.getRow()).andReturn(new ArrayBasedIndexedInts(new int[]{2})).once();
+    EasyMock.replay(base);
+
+    final ColumnSelectorFactory factory = EasyMock.createMock(ColumnSelectorFactory.class);
+    EasyMock.expect(factory.makeDimensionSelector(DefaultDimensionSpec.of("page"))).andReturn(base).once();
+    EasyMock.expect(factory.getColumnCapabilities("page")).andReturn(SORTED_STRING).anyTimes();
+    EasyMock.replay(factory);
+
+    final DimensionSelector selector = virtualColumn.makeDimensionSelector(DefaultDimensionSpec.of("prefix"), factory);
+    Assert.assertTrue(selector.nameLookupPossibleInAdvance());
+    Assert.assertEquals(3, selector.getValueCardinality());
+    Assert.assertEquals(1, selector.getRow().get(0));
+    Assert.assertEquals("ba", selector.lookupName(1));
+    Assert.assertEquals(1, selector.idLookup().lookupId("ba"));
+    EasyMock.verify(base, factory);
+  }
+
+  @Test
+  public void testNumericDictionary()
+  {
+    // a long-typed nested field: its dictionary is sorted, but as numbers, so "20" comes between "12" and "100"
+    final String[] dictionary = {"10", "11", "12", "20", "100"};
+    final SingleValueDimensionVectorSelector base = EasyMock.createMock(SingleValueDimensionVectorSelector.class);
+    EasyMock.expect(base.nameLookupPossibleInAdvance()).andReturn(true).anyTimes();
+    EasyMock.expect(base.supportsLookupNameUtf8()).andReturn(false).anyTimes();
+    EasyMock.expect(base.getValueCardinality()).andReturn(dictionary.length).anyTimes();
+    for (int id = 0; id < dictionary.length; id++) {
+      EasyMock.expect(base.lookupName(id)).andReturn(dictionary[id]).anyTimes();
+    }
+    EasyMock.expect(base.getMaxVectorSize()).andReturn(dictionary.length).anyTimes();
+    EasyMock.expect(base.getCurrentVectorSize()).andReturn(dictionary.length).anyTimes();
+    EasyMock.expect(base.getRowVector()).andReturn(new int[]{0, 1, 2, 3, 4}).anyTimes();
+    EasyMock.replay(base);
+
+    final ColumnCapabilities capabilities =
+        ColumnCapabilitiesImpl.createSimpleNumericColumnCapabilities(ColumnType.LONG)
+                              .setDictionaryEncoded(true)
+                              .setDictionaryValuesSorted(true)
+                              .setDictionaryValuesUnique(true);
+    final VectorColumnSelectorFactory factory = EasyMock.createMock(VectorColumnSelectorFactory.class);
+    EasyMock.expect(factory.makeSingleValueDimensionSelector(DefaultDimensionSpec.of("page"))).andReturn(base).once();
+    EasyMock.expect(factory.getColumnCapabilities("page")).andReturn(capabilities).anyTimes();
+    EasyMock.replay(factory);
+
+    final SingleValueDimensionVectorSelector selector =
+        new ExamplePrefixVirtualColumn("prefix", "page", 1)
+            .makeSingleValueVectorDimensionSelector(DefaultDimensionSpec.of("prefix"), factory);
+    final int[] rows = selector.getRowVector();
+    for (int i = 0; i < dictionary.length; i++) {
+      Assert.assertEquals(dictionary[i].substring(0, 1), selector.lookupName(rows[i]));
+    }
+    Assert.assertFalse(
+        virtualColumn.capabilities(makeInspector(capabilities), "prefix").areDictionaryValuesSorted().isTrue()
+    );
+  }
+
+  @Test
+  public void testDimensionSelectorWithExtractionFn()
+  {
+    final DimensionSelector base = EasyMock.createMock(DimensionSelector.class);
+    EasyMock.replay(base);
+
+    final ColumnSelectorFactory factory = EasyMock.createMock(ColumnSelectorFactory.class);
+    EasyMock.expect(factory.makeDimensionSelector(EasyMock.anyObject(DimensionSpec.class))).andAnswer(() -> {
+      final DimensionSpec spec = (DimensionSpec) EasyMock.getCurrentArguments()[0];
+      Assert.assertEquals("page", spec.getDimension());
+      // prefixes first, then the query's extractionFn
+      Assert.assertEquals("2", spec.getExtractionFn().apply("foobar"));
+      return base;
+    }).once();
+    EasyMock.replay(factory);
+
+    virtualColumn.makeDimensionSelector(
+        new ExtractionDimensionSpec("prefix", "prefix", StrlenExtractionFn.instance()),
+        factory
+    );
+    EasyMock.verify(factory);
+  }
+
+  @Test
+  public void testVectorSelectors()
+  {
+    final SingleValueDimensionVectorSelector base = EasyMock.createMock(SingleValueDimensionVectorSelector.class);
+    EasyMock.expect(base.nameLookupPossibleInAdvance()).andReturn(true).anyTimes();
+    EasyMock.expect(base.supportsLookupNameUtf8()).andReturn(false).anyTimes();
+    EasyMock.expect(base.getValueCardinality()).andReturn(DICTIONARY.length).anyTimes();
+    for (int id = 0; id < DICTIONARY.length; id++) {
+      EasyMock.expect(base.lookupName(id)).andReturn(DICTIONARY[id]).anyTimes();
+    }
+    EasyMock.expect(base.getMaxVectorSize()).andReturn(4).anyTimes();
+    EasyMock.expect(base.getCurrentVectorSize()).andReturn(3).anyTimes();
+    EasyMock.expect(base.getRowVector()).andReturn(new int[]{4, 1, 2, -1}).anyTimes();
+    EasyMock.replay(base);
+
+    final VectorColumnSelectorFactory factory = EasyMock.createMock(VectorColumnSelectorFactory.class);
+    EasyMock.expect(factory.makeSingleValueDimensionSelector(DefaultDimensionSpec.of("page"))).andReturn(base).times(2);
+    EasyMock.expect(factory.getColumnCapabilities("page")).andReturn(SORTED_STRING).anyTimes();
+    EasyMock.replay(factory);
+
+    final SingleValueDimensionVectorSelector selector =
+        virtualColumn.makeSingleValueVectorDimensionSelector(DefaultDimensionSpec.of("prefix"), factory);
+    Assert.assertEquals(3, selector.getValueCardinality());
+    Assert.assertArrayEquals(new int[]{2, 0, 1}, Arrays.copyOf(selector.getRowVector(), 3));
+
+    final VectorObjectSelector objectSelector = virtualColumn.makeVectorObjectSelector("prefix", factory);
+    Assert.assertEquals(4, objectSelector.getMaxVectorSize());
+    Assert.assertArrayEquals(new Object[]{null, "fo", "ba"}, Arrays.copyOf(objectSelector.getObjectVector(), 3));
+    EasyMock.verify(factory);
+  }
+
+  @Test
+  public void testIndexSupplier()
+  {
+    final ExamplePrefixVirtualColumn urlPrefix = new ExamplePrefixVirtualColumn("prefix", "url", 2);
+    final ColumnIndexSupplier indexSupplier =
+        urlPrefix.getIndexSupplier("prefix", ExamplePrefixDimFilterTest.makeSelector(new AtomicInteger()));
+    Assert.assertNull(indexSupplier.as(DictionaryEncodedStringValueIndex.class));
+    Assert.assertNotNull(indexSupplier.as(LexicographicalRangeIndexes.class));
+
+    final ImmutableBitmap bitmap = indexSupplier.as(StringValueSetIndexes.class).forValue("ab").computeBitmapResult(
+        new DefaultBitmapResultFactory(ExamplePrefixDimFilterTest.BITMAP_FACTORY),
+        false
+    );
+    final ExampleExtractionFn fn = new ExampleExtractionFn(2);
+    for (int row = 0; row < ExamplePrefixDimFilterTest.NUM_ROWS; row++) {
+      final String value =
+          ExamplePrefixDimFilterTest.DICTIONARY.get(row % ExamplePrefixDimFilterTest.DICTIONARY.size());
+      Assert.assertEquals(value, "ab".equals(fn.apply(value)), bitmap.get(row));
+    }
+
+    // no sorted dictionary to search: filters match row by row
+    final ColumnIndexSelector noIndexes = EasyMock.createNiceMock(ColumnIndexSelector.class);
+    EasyMock.replay(noIndexes);
+    Assert.assertSame(NoIndexesColumnIndexSupplier.getInstance(), virtualColumn.getIndexSupplier("prefix", noIndexes));
+  }
+
+  private static ColumnInspector makeInspector(ColumnCapabilities capabilities)
+  {
+    final ColumnInspector inspector = EasyMock.createMock(ColumnInspector.class);
+    EasyMock.expect(inspector.getColumnCapabilities("page")).andReturn(capabilities).anyTimes();
+    EasyMock.replay(inspector);
+    return inspector;
+  }
+}